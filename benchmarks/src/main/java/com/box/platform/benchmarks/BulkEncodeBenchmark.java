@@ -0,0 +1,90 @@
+package com.box.platform.benchmarks;
+
+import com.box.platform.parser.EnterpriseEventDocument;
+import com.box.platform.parser.EnterpriseEventWriter;
+import com.box.platform.producer.BulkRequestBuffer;
+import com.box.platform.producer.DocumentWriteMode;
+import com.box.platform.util.ByteArrayBuilder;
+import com.box.sdk.BoxEvent;
+import com.eclipsesource.json.Json;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the NDJSON body of one _bulk request out of already serialized docs. bulkRequestBuffer copies the doc bytes
+ * into a recycled body the way the producer does, stringBuilder builds the action lines as json and the body as a
+ * String before encoding it.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BulkEncodeBenchmark {
+    private static final String INDEX_NAME = "box";
+    private static final String INDEX_TYPE = "enterprise";
+
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    private EnterpriseEventDocument[] documents;
+    private String[] documentJson;
+    private BulkRequestBuffer bulkBuffer;
+    private ByteArrayBuilder spareBody;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<BoxEvent> boxEvents = EnterpriseEventFixtures.boxEvents(false);
+        String nextStreamPosition = EnterpriseEventFixtures.nextStreamPosition();
+        this.documents = new EnterpriseEventDocument[this.batchSize];
+        this.documentJson = new String[this.batchSize];
+        for(int i = 0; i < this.batchSize; i++){
+            this.documents[i] = EnterpriseEventWriter.write(boxEvents.get(i % boxEvents.size()), nextStreamPosition);
+            this.documentJson[i] = new String(this.documents[i].getBody(), StandardCharsets.UTF_8);
+        }
+        this.bulkBuffer = new BulkRequestBuffer(INDEX_NAME, INDEX_TYPE, DocumentWriteMode.CREATE, 1 << 20);
+    }
+
+    @Benchmark
+    public int bulkRequestBuffer() {
+        for(EnterpriseEventDocument document: this.documents){
+            this.bulkBuffer.add(document);
+        }
+        // Hand the body back for the next batch like the producer does once a request completes
+        this.spareBody = this.bulkBuffer.drain(this.spareBody);
+        return this.spareBody.length();
+    }
+
+    @Benchmark
+    public byte[] stringBuilder() {
+        StringBuilder ndjson = new StringBuilder();
+        for(int i = 0; i < this.documents.length; i++){
+            String action = Json.object()
+                    .add("create", Json.object()
+                            .add("_index", INDEX_NAME)
+                            .add("_type", INDEX_TYPE)
+                            .add("_id", this.documents[i].getId()))
+                    .toString();
+            ndjson.append(action).append('\n').append(this.documentJson[i]).append('\n');
+        }
+        return ndjson.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
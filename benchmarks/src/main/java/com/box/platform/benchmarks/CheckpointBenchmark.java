@@ -0,0 +1,101 @@
+package com.box.platform.benchmarks;
+
+import com.box.platform.checkpoint.Checkpoint;
+import com.box.platform.checkpoint.CheckpointStore;
+import com.box.platform.consumer.RecentEventIdCache;
+import com.box.platform.producer.IndexedCheckpointTracker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up and moving the stream checkpoint: reading the local checkpoint file at startup, committing a checkpoint,
+ * releasing checkpoints as requests complete and checking event ids against the recent id cache.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CheckpointBenchmark {
+    private static final int DEDUP_MAX_ENTRIES = 200000;
+
+    private Path checkpointFile;
+    private CheckpointStore checkpointStore;
+    private IndexedCheckpointTracker checkpointTracker;
+    private RecentEventIdCache recentEventIds;
+    private String[] eventIds;
+    private long sequence;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.checkpointFile = Files.createTempFile("benchmark-checkpoint", ".dat");
+        this.checkpointStore = new CheckpointStore(this.checkpointFile);
+        this.checkpointStore.commit(new Checkpoint("1152922976252290886", System.currentTimeMillis()));
+        this.checkpointTracker = new IndexedCheckpointTracker();
+
+        // Twice as many ids as the cache holds so lookups are a mix of hits and evictions
+        this.recentEventIds = new RecentEventIdCache(DEDUP_MAX_ENTRIES);
+        this.eventIds = new String[DEDUP_MAX_ENTRIES * 2];
+        for(int i = 0; i < this.eventIds.length; i++){
+            this.eventIds[i] = UUID.randomUUID().toString();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.checkpointStore.close();
+        Files.deleteIfExists(this.checkpointFile);
+    }
+
+    @Benchmark
+    public Checkpoint openAndRead() throws IOException {
+        CheckpointStore store = new CheckpointStore(this.checkpointFile);
+        try {
+            return store.read();
+        } finally {
+            store.close();
+        }
+    }
+
+    @Benchmark
+    public Checkpoint commit() {
+        Checkpoint checkpoint = new Checkpoint(Long.toString(++this.sequence), this.sequence);
+        this.checkpointStore.commit(checkpoint);
+        return checkpoint;
+    }
+
+    @Benchmark
+    public Checkpoint trackerRelease() {
+        long request = this.checkpointTracker.begin();
+        this.checkpointTracker.attach(new Checkpoint(Long.toString(request), request));
+        return this.checkpointTracker.complete(request, true);
+    }
+
+    @Benchmark
+    public boolean recentEventIdLookup() {
+        String eventId = this.eventIds[this.next];
+        this.next = this.next + 1 == this.eventIds.length ? 0 : this.next + 1;
+        return this.recentEventIds.add(eventId);
+    }
+}
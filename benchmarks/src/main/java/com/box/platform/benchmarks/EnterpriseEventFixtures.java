@@ -0,0 +1,85 @@
+package com.box.platform.benchmarks;
+
+import com.box.platform.parser.EnterpriseEventWriter;
+import com.box.sdk.BoxAPIConnection;
+import com.box.sdk.BoxEvent;
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the recorded Box /events response in fixtures/enterprise-events.json. The entries cover the event types seen
+ * most in enterprise streams as well as metadata events, whose operationParams string has to be parsed again.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class EnterpriseEventFixtures {
+    private static final String FIXTURE = "/fixtures/enterprise-events.json";
+    // The events are only parsed, the connection never makes a request
+    private static final BoxAPIConnection API = new BoxAPIConnection("benchmark-access-token");
+
+    private EnterpriseEventFixtures() {
+    }
+
+    /**
+     * @param metadataOnly true to only return the metadata events
+     * @return the json of each event entry as Box sent it
+     */
+    public static List<String> eventJson(boolean metadataOnly) throws IOException {
+        List<String> events = new ArrayList<String>();
+        for(JsonValue entry: loadResponse().get("entries").asArray()){
+            String eventType = entry.asObject().getString("event_type", "");
+            if(!metadataOnly || eventType.startsWith("METADATA_INSTANCE_")){
+                events.add(entry.toString());
+            }
+        }
+        return events;
+    }
+
+    public static List<BoxEvent> boxEvents(boolean metadataOnly) throws IOException {
+        List<BoxEvent> boxEvents = new ArrayList<BoxEvent>();
+        for(String json: eventJson(metadataOnly)){
+            boxEvents.add(toBoxEvent(json));
+        }
+        return boxEvents;
+    }
+
+    public static BoxEvent toBoxEvent(String json) {
+        return new BoxEvent(API, json);
+    }
+
+    public static String nextStreamPosition() throws IOException {
+        return loadResponse().getString("next_stream_position", "0");
+    }
+
+    // Sanity check so a broken fixture fails the run instead of skewing the numbers
+    static void verifyMetadataEvents(List<BoxEvent> boxEvents) {
+        for(BoxEvent boxEvent: boxEvents){
+            if(!EnterpriseEventWriter.isMetadataEvent(boxEvent.getType().name(), boxEvent.getAdditionalDetails())){
+                throw new IllegalStateException("Expected a metadata event: " + boxEvent.getID());
+            }
+        }
+    }
+
+    private static JsonObject loadResponse() throws IOException {
+        InputStream fixture = EnterpriseEventFixtures.class.getResourceAsStream(FIXTURE);
+        if(fixture == null){
+            throw new IOException("Missing fixture " + FIXTURE);
+        }
+        Reader reader = new InputStreamReader(fixture, StandardCharsets.UTF_8);
+        try {
+            return Json.parse(reader).asObject();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.box.platform.benchmarks;
+
+import com.box.platform.parser.EnterpriseEventDocument;
+import com.box.platform.parser.EnterpriseEventStreamWriter;
+import com.box.platform.parser.EnterpriseEventWriter;
+import com.box.sdk.BoxAPIConnection;
+import com.box.sdk.BoxEvent;
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cpu time and allocation per event of turning a full /events response of 500 entries into Elasticsearch docs. sdk is
+ * what EventLog and the parsers do: the body read into a string, the json tree of the response, a BoxEvent per entry
+ * and the doc written from it. streaming is StreamingEventLogSource writing the docs while the body is parsed. One op
+ * is one event, run with -prof gc to compare the bytes allocated per event.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FetchBenchmark {
+    private static final int CHUNK_SIZE = 500;
+    private static final BoxAPIConnection API = new BoxAPIConnection("benchmark-access-token");
+
+    private byte[] response;
+    // EventLog builds each BoxEvent from its entry of the response tree with this package-private constructor
+    private Constructor<BoxEvent> boxEventConstructor;
+
+    @Setup
+    public void setUp() throws Exception {
+        // Give every entry its own id so none of them is dropped as a repeat
+        List<String> eventJson = EnterpriseEventFixtures.eventJson(false);
+        JsonArray entries = new JsonArray();
+        for(int i = 0; i < CHUNK_SIZE; i++){
+            JsonObject entry = Json.parse(eventJson.get(i % eventJson.size())).asObject();
+            entry.set("event_id", entry.getString("event_id", "") + "-" + i);
+            entries.add(entry);
+        }
+        this.response = new JsonObject()
+                .add("chunk_size", CHUNK_SIZE)
+                .add("next_stream_position", EnterpriseEventFixtures.nextStreamPosition())
+                .add("entries", entries)
+                .toString().getBytes(StandardCharsets.UTF_8);
+        this.boxEventConstructor = BoxEvent.class.getDeclaredConstructor(BoxAPIConnection.class, JsonObject.class);
+        this.boxEventConstructor.setAccessible(true);
+
+        if(this.sdk().size() != CHUNK_SIZE || this.streaming().size() != CHUNK_SIZE){
+            throw new IllegalStateException("Expected a doc for every entry of the response");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public List<EnterpriseEventDocument> sdk() throws Exception {
+        JsonObject chunk = Json.parse(new String(this.response, StandardCharsets.UTF_8)).asObject();
+        String nextStreamPosition = chunk.getString("next_stream_position", null);
+        List<EnterpriseEventDocument> documents = new ArrayList<EnterpriseEventDocument>(CHUNK_SIZE);
+        for(JsonValue entry: chunk.get("entries").asArray()){
+            BoxEvent boxEvent = this.boxEventConstructor.newInstance(API, entry.asObject());
+            documents.add(EnterpriseEventWriter.write(boxEvent, nextStreamPosition));
+        }
+        return documents;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public List<EnterpriseEventDocument> streaming() throws IOException {
+        return EnterpriseEventStreamWriter.read(new ByteArrayInputStream(this.response)).getDocuments();
+    }
+}
@@ -0,0 +1,73 @@
+package com.box.platform.benchmarks;
+
+import com.box.platform.parser.BoxEnterpriseEventJsonParser;
+import com.box.sdk.BoxEvent;
+import com.eclipsesource.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a single enterprise event: the Box SDK turning the event json into a BoxEvent, and
+ * BoxEnterpriseEventJsonParser building the json tree of the Elasticsearch doc from it. The metadata set only holds
+ * events whose operationParams string is parsed again.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+
+    @Param({"all", "metadata"})
+    public String events;
+
+    private String[] eventJson;
+    private BoxEvent[] boxEvents;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        boolean metadataOnly = "metadata".equals(this.events);
+        List<String> json = EnterpriseEventFixtures.eventJson(metadataOnly);
+        List<BoxEvent> parsed = EnterpriseEventFixtures.boxEvents(metadataOnly);
+        if(metadataOnly){
+            EnterpriseEventFixtures.verifyMetadataEvents(parsed);
+        }
+        this.eventJson = json.toArray(new String[json.size()]);
+        this.boxEvents = parsed.toArray(new BoxEvent[parsed.size()]);
+    }
+
+    @Benchmark
+    public BoxEvent sdkParse() {
+        return EnterpriseEventFixtures.toBoxEvent(this.eventJson[this.nextIndex()]);
+    }
+
+    @Benchmark
+    public JsonObject docTree() {
+        return BoxEnterpriseEventJsonParser.parse(this.boxEvents[this.nextIndex()]);
+    }
+
+    // One op is one event, cycling through the fixtures
+    private int nextIndex() {
+        int index = this.next;
+        this.next = index + 1 == this.boxEvents.length ? 0 : index + 1;
+        return index;
+    }
+}
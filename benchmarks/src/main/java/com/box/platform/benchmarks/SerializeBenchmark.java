@@ -0,0 +1,73 @@
+package com.box.platform.benchmarks;
+
+import com.box.platform.parser.BoxEnterpriseEventJsonParser;
+import com.box.platform.parser.EnterpriseEventDocument;
+import com.box.platform.parser.EnterpriseEventWriter;
+import com.box.sdk.BoxEvent;
+import com.eclipsesource.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a BoxEvent into the bytes of its Elasticsearch doc. docTreeToBytes is the json tree path that
+ * BoxEnterpriseEventJsonParser and a String entity take, streamingWriter is EnterpriseEventWriter as used by the
+ * consumer.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializeBenchmark {
+
+    @Param({"all", "metadata"})
+    public String events;
+
+    private BoxEvent[] boxEvents;
+    private String nextStreamPosition;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<BoxEvent> parsed = EnterpriseEventFixtures.boxEvents("metadata".equals(this.events));
+        this.boxEvents = parsed.toArray(new BoxEvent[parsed.size()]);
+        this.nextStreamPosition = EnterpriseEventFixtures.nextStreamPosition();
+    }
+
+    @Benchmark
+    public byte[] docTreeToBytes() {
+        JsonObject enterpriseEvent = BoxEnterpriseEventJsonParser.parse(this.boxEvents[this.nextIndex()]);
+        enterpriseEvent.add("next_stream_position", this.nextStreamPosition);
+        return enterpriseEvent.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public EnterpriseEventDocument streamingWriter() throws IOException {
+        return EnterpriseEventWriter.write(this.boxEvents[this.nextIndex()], this.nextStreamPosition);
+    }
+
+    // One op is one event, cycling through the fixtures
+    private int nextIndex() {
+        int index = this.next;
+        this.next = index + 1 == this.boxEvents.length ? 0 : index + 1;
+        return index;
+    }
+}
@@ -0,0 +1,102 @@
+package com.box.platform.benchmarks;
+
+import com.box.platform.parser.EnterpriseEventDocument;
+import com.box.platform.parser.EnterpriseEventWriter;
+import com.box.platform.producer.BulkRequestBuffer;
+import com.box.platform.producer.DocumentTranscoder;
+import com.box.platform.producer.DocumentWriteMode;
+import com.box.platform.producer.WireFormat;
+import com.box.platform.util.ByteArrayBuilder;
+import com.box.sdk.BoxEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cpu time per event of encoding docs for the wire in each elastic.wire.format, as a bulk body and as single doc
+ * bodies. One op is one event. The bytes per event on the wire are printed once per trial, before any gzip since the
+ * fixtures repeat and would compress far better than real events. cbor bulk bodies are json since Elasticsearch 5
+ * does not read cbor bulk requests.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WireFormatBenchmark {
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    public String format;
+
+    private EnterpriseEventDocument[] documents;
+    private BulkRequestBuffer bulkBuffer;
+    private ByteArrayBuilder spareBody;
+    private DocumentTranscoder transcoder;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        WireFormat wireFormat = WireFormat.fromConfig(this.format);
+        List<BoxEvent> boxEvents = EnterpriseEventFixtures.boxEvents(false);
+        String nextStreamPosition = EnterpriseEventFixtures.nextStreamPosition();
+        this.documents = new EnterpriseEventDocument[BATCH_SIZE];
+        for(int i = 0; i < BATCH_SIZE; i++){
+            this.documents[i] = EnterpriseEventWriter.write(boxEvents.get(i % boxEvents.size()), nextStreamPosition);
+        }
+        this.bulkBuffer = new BulkRequestBuffer("box", "enterprise", DocumentWriteMode.CREATE, wireFormat, 1 << 20);
+        this.transcoder = wireFormat.isBinary() ? new DocumentTranscoder(wireFormat) : null;
+
+        ByteArrayBuilder bulkBody = this.bulkBody();
+        long docBytes = 0;
+        for(EnterpriseEventDocument document: this.documents){
+            docBytes += this.encode(document).length;
+        }
+        System.out.println(String.format("%n%s bytes per event: bulk %.1f, single doc %.1f", wireFormat,
+                bulkBody.length() / (double) BATCH_SIZE, docBytes / (double) BATCH_SIZE));
+        this.spareBody = bulkBody;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int bulk() {
+        this.spareBody = this.bulkBody();
+        return this.spareBody.length();
+    }
+
+    @Benchmark
+    public byte[] singleDoc() throws IOException {
+        EnterpriseEventDocument document = this.documents[this.next];
+        this.next = this.next + 1 == BATCH_SIZE ? 0 : this.next + 1;
+        return this.encode(document);
+    }
+
+    private ByteArrayBuilder bulkBody() {
+        for(EnterpriseEventDocument document: this.documents){
+            this.bulkBuffer.add(document);
+        }
+        // Hand the body back for the next batch like the producer does once a request completes
+        return this.bulkBuffer.drain(this.spareBody);
+    }
+
+    private byte[] encode(EnterpriseEventDocument document) throws IOException {
+        return this.transcoder == null ? document.getBody() : this.transcoder.encodeDoc(document.getBody());
+    }
+}
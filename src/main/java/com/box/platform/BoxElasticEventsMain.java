@@ -5,8 +5,17 @@ import akka.actor.ActorSystem;
 import akka.actor.Props;
 import akka.pattern.Patterns;
 import akka.util.Timeout;
+import com.box.platform.archive.ArchiveExporter;
+import com.box.platform.archive.ArchiveImportCoordinator;
+import com.box.platform.archive.NdjsonArchive;
 import com.box.platform.consumer.BoxEnterpriseEventsConsumer;
+import com.box.platform.metrics.IngestMetricsExtension;
+import com.box.platform.producer.ElasticsearchProducer;
+import com.box.platform.rollup.EventRollupAggregator;
+import com.box.platform.tenant.Tenant;
 import com.box.platform.util.ElasticsearchIndexConfiguration;
+import com.box.platform.util.ElasticsearchIndexRollover;
+import com.box.platform.util.RollingIndices;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigParseOptions;
@@ -15,28 +24,153 @@ import scala.concurrent.Future;
 import scala.concurrent.duration.Duration;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
  * The Main class that starts the Akka Actor system and calls actors to check Elasticsearch index configuration prior to
  * calling the event to begin retrieving Box Enterprise Events.
  *
+ * After the configuration file it takes an optional mode:
+ * import archive... indexes NDJSON archives, or every archive in a directory, and exits.
+ * export directory writes the index to NDJSON archives in the directory and exits.
+ * Both modes work on the index of the config as it is, not on the indices of box.platform.tenants.
+ *
  * @author Kyle Adams
  * @email kadams@box.com
  */
 public class BoxElasticEventsMain {
+    private static final String IMPORT_MODE = "import";
+    private static final String EXPORT_MODE = "export";
+    private static final String USAGE = "Usage: BoxElasticEventsMain <config file> [import <archive or directory>... | export <directory>]";
 
     public static void main(String[] args) {
+        String mode = args.length > 1 ? args[1] : null;
+        // Check the arguments before an actor system is started that would keep the process running
+        if(args.length == 0 || (EXPORT_MODE.equals(mode) && args.length != 3)){
+            System.err.println(USAGE);
+            return;
+        }
+
         // Start actor system
         Config boxConfig = ConfigFactory.parseFile(new File(args[0]));
 
         ActorSystem actorSystem = ActorSystem.create("box-elastic-events-actor-system", boxConfig);
-        Timeout timeout = new Timeout(Duration.create(15, TimeUnit.SECONDS));
+        if(IMPORT_MODE.equals(mode)){
+            List<Path> archives = new ArrayList<Path>();
+            for(int i = 2; i < args.length; i++){
+                archives.add(Paths.get(args[i]));
+            }
+            startImport(actorSystem, archives);
+        } else if(EXPORT_MODE.equals(mode)){
+            export(actorSystem, Paths.get(args[2]));
+        } else{
+            startPipeline(actorSystem);
+        }
+    }
+
+    /**
+     * Checks the Elasticsearch index and imports the archives once the index is found or created. The actor system is
+     * terminated once every archive has been imported.
+     */
+    public static void startImport(ActorSystem actorSystem, List<Path> archives) {
+        try {
+            if(configureIndex(actorSystem, actorSystem.settings().config())){
+                actorSystem.actorOf(Props.create(ArchiveImportCoordinator.class, NdjsonArchive.listFiles(archives)),
+                        "archive-import");
+                return;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        actorSystem.terminate();
+    }
+
+    /**
+     * Exports the index to archives in the directory and terminates the actor system.
+     */
+    public static void export(ActorSystem actorSystem, Path directory) {
+        try {
+            new ArchiveExporter(actorSystem).export(directory);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            actorSystem.terminate();
+        }
+    }
+
+    /**
+     * Checks the Elasticsearch index of every tenant and starts the enterprise events consumers once all of them are
+     * found or created. The consumers are created first, so they connect to Box and open their checkpoints while the
+     * indices are checked. All consumers send their docs to the same producer, which sends every tenant its share of
+     * the bulk requests and tells the rollup actor of the tenant about the docs Elasticsearch created.
+     *
+     * @return true if the consumers were started
+     */
+    public static boolean startPipeline(ActorSystem actorSystem) {
+        Config config = actorSystem.settings().config();
+        List<Tenant> tenants = Tenant.fromConfig(config);
+        ActorRef esProducer = actorSystem.actorOf(
+                Props.create(ElasticsearchProducer.class).withMailbox(IngestMetricsExtension.METERED_MAILBOX), "elasticsearch-producer");
+        List<ActorRef> consumers = new ArrayList<ActorRef>(tenants.size());
+        List<ActorRef> rollups = new ArrayList<ActorRef>(tenants.size());
+        for(Tenant tenant: tenants){
+            ActorRef rollup = null;
+            if(tenant.getConfig().getBoolean("elastic.rollup.enabled")){
+                rollup = actorSystem.actorOf(Props.create(EventRollupAggregator.class, tenant)
+                        .withMailbox(IngestMetricsExtension.METERED_MAILBOX), tenant.actorName(EventRollupAggregator.NAME));
+                rollups.add(rollup);
+            }
+            consumers.add(actorSystem.actorOf(Props.create(BoxEnterpriseEventsConsumer.class, tenant, esProducer, rollup)
+                    .withDispatcher("box-fetch-dispatcher")
+                    .withMailbox(IngestMetricsExtension.METERED_MAILBOX), tenant.actorName("box-events-consumer")));
+        }
+
+        boolean indexFoundOrCreated = true;
+        for(Tenant tenant: tenants){
+            indexFoundOrCreated = indexFoundOrCreated && configureIndex(actorSystem, tenant.getConfig());
+        }
+        if(indexFoundOrCreated){
+            for(Tenant tenant: tenants){
+                Config tenantConfig = tenant.getConfig();
+                if(RollingIndices.fromConfig(tenantConfig).isRolloverEnabled()){
+                    actorSystem.actorOf(Props.create(ElasticsearchIndexRollover.class, tenantConfig),
+                            tenant.actorName("es-index-rollover"));
+                }
+            }
+
+            // Call the Box enterprise events consumers, each starts polling as soon as it is connected to Box
+            for(ActorRef consumer: consumers){
+                consumer.tell("Starting box events consumer...", ActorRef.noSender());
+            }
+        } else{
+            for(ActorRef consumer: consumers){
+                actorSystem.stop(consumer);
+            }
+            for(ActorRef rollup: rollups){
+                actorSystem.stop(rollup);
+            }
+        }
+        return indexFoundOrCreated;
+    }
+
+    /**
+     * Creates or validates the Elasticsearch index configuration.
+     *
+     * @param boxConfig the config of the tenant whose index is checked
+     *
+     * @return true if the index was found or created
+     */
+    private static boolean configureIndex(ActorSystem actorSystem, Config boxConfig) {
+        Timeout timeout = new Timeout(Duration.create(boxConfig.getInt("elastic.futures.timeout"), TimeUnit.SECONDS));
 
         boolean indexFoundOrCreated = false;
         try {
             // Create or Validate Elasticsearch configuration
-            ActorRef esIndexConfiguration = actorSystem.actorOf(Props.create(ElasticsearchIndexConfiguration.class));
+            ActorRef esIndexConfiguration = actorSystem.actorOf(Props.create(ElasticsearchIndexConfiguration.class, boxConfig));
             Future<Object> esIndexConfigFuture = Patterns.ask(esIndexConfiguration, "Starting ES index configuration...", timeout);
             Object asyncResult = Await.result(esIndexConfigFuture, timeout.duration());
             if(asyncResult instanceof Boolean){
@@ -45,11 +179,6 @@ public class BoxElasticEventsMain {
         } catch (Exception e) {
             e.printStackTrace();
         }
-
-        if(indexFoundOrCreated){
-            // Call Box enterprise events consumer
-            ActorRef boxEnterpriseEventsConsumer = actorSystem.actorOf(Props.create(BoxEnterpriseEventsConsumer.class));
-            boxEnterpriseEventsConsumer.tell("Starting box events consumer...", ActorRef.noSender());
-        }
+        return indexFoundOrCreated;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,172 @@
+package com.box.platform.archive;
+
+import akka.actor.ActorSystem;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.box.platform.util.ElasticsearchClient;
+import com.box.platform.util.ElasticsearchClientExtension;
+import com.box.platform.util.RollingIndices;
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.typesafe.config.Config;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports every doc of the index, or of the read alias with rollover, to gzip compressed NDJSON archives that the
+ * import reads back. The index is split into archive.export.slices sliced scrolls that are read in parallel, each
+ * into its own archive named index-slice.ndjson.gz.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class ArchiveExporter {
+    private static final String BOX_CONFIG_PREFIX = "box.platform.";
+    private static final String HTTP_POST = "POST";
+    private static final String HTTP_DELETE = "DELETE";
+    private static final String SCROLL_ENDPOINT = "/_search/scroll";
+    private static final String ARCHIVE_SUFFIX = ".ndjson.gz";
+    private static final Map<String, String> SCROLL_PARAMS;
+    static {
+        // Only bring back what is written to the archive
+        Map<String, String> scrollParams = new HashMap<String, String>();
+        scrollParams.put("filter_path", "_scroll_id,hits.hits._source");
+        SCROLL_PARAMS = Collections.unmodifiableMap(scrollParams);
+    }
+
+    private final LoggingAdapter logger;
+    private final ElasticsearchClient elasticsearchClient;
+    private final RestClient restClient;
+    private final String indexName;
+    private final int slices;
+    private final int scrollSize;
+    private final String scrollKeepAlive;
+
+    public ArchiveExporter(ActorSystem actorSystem) {
+        Config boxConfig = actorSystem.settings().config();
+        this.logger = Logging.getLogger(actorSystem, ArchiveExporter.class);
+        this.elasticsearchClient = ElasticsearchClientExtension.INSTANCE.get(actorSystem);
+        this.restClient = this.elasticsearchClient.getRestClient();
+        this.indexName = RollingIndices.fromConfig(boxConfig).getReadTarget();
+        this.slices = Math.max(1, boxConfig.getInt(BOX_CONFIG_PREFIX + "archive.export.slices"));
+        this.scrollSize = boxConfig.getInt(BOX_CONFIG_PREFIX + "archive.export.scroll.size");
+        this.scrollKeepAlive = boxConfig.getString(BOX_CONFIG_PREFIX + "archive.export.scroll.keep.alive");
+    }
+
+    /**
+     * @return the number of docs exported
+     */
+    public long export(Path directory) throws IOException, InterruptedException {
+        Files.createDirectories(directory);
+        logger.info("Exporting {} to {} in {} slices", this.indexName, directory, this.slices);
+        long startMillis = System.currentTimeMillis();
+
+        ExecutorService sliceExecutor = Executors.newFixedThreadPool(this.slices);
+        try{
+            List<Future<Long>> sliceExports = new ArrayList<Future<Long>>(this.slices);
+            for(int slice = 0; slice < this.slices; slice++){
+                final int sliceId = slice;
+                final Path archive = directory.resolve(this.indexName + "-" + slice + ARCHIVE_SUFFIX);
+                sliceExports.add(sliceExecutor.submit(new Callable<Long>() {
+                    public Long call() throws IOException {
+                        return exportSlice(sliceId, archive);
+                    }
+                }));
+            }
+            long docs = 0;
+            for(Future<Long> sliceExport: sliceExports){
+                try{
+                    docs += sliceExport.get();
+                } catch (ExecutionException ee){
+                    throw new IOException("Failed to export a slice of " + this.indexName, ee.getCause());
+                }
+            }
+            long seconds = Math.max(1, (System.currentTimeMillis() - startMillis) / 1000);
+            logger.info("Export complete, {} docs of {} written in {} s ({} docs/s)", docs, this.indexName, seconds, docs / seconds);
+            return docs;
+        } finally {
+            sliceExecutor.shutdownNow();
+        }
+    }
+
+    private long exportSlice(int sliceId, Path archive) throws IOException {
+        JsonObject search = Json.object()
+                .add("size", this.scrollSize)
+                // Scrolling in index order is the cheapest way to read every doc
+                .add("sort", Json.array("_doc"));
+        if(this.slices > 1){
+            search.add("slice", Json.object().add("id", sliceId).add("max", this.slices));
+        }
+        Map<String, String> searchParams = new HashMap<String, String>(SCROLL_PARAMS);
+        searchParams.put("scroll", this.scrollKeepAlive);
+
+        long docs = 0;
+        String scrollId = null;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(NdjsonArchive.openWriter(archive), StandardCharsets.UTF_8));
+        try{
+            JsonObject page = this.post("/" + this.indexName + "/_search", searchParams, search);
+            while(true){
+                scrollId = page.getString("_scroll_id", scrollId);
+                JsonValue hits = page.get("hits");
+                // filter_path leaves out hits once the scroll is exhausted
+                if(hits == null || hits.asObject().get("hits") == null || hits.asObject().get("hits").asArray().isEmpty()){
+                    break;
+                }
+                for(JsonValue hit: hits.asObject().get("hits").asArray()){
+                    hit.asObject().get("_source").writeTo(writer);
+                    writer.write('\n');
+                    docs++;
+                }
+                logger.debug("Exported {} docs of slice {} to {}", docs, sliceId, archive);
+                page = this.post(SCROLL_ENDPOINT, SCROLL_PARAMS, Json.object()
+                        .add("scroll", this.scrollKeepAlive)
+                        .add("scroll_id", scrollId));
+            }
+        } finally {
+            writer.close();
+            if(scrollId != null){
+                this.clearScroll(scrollId);
+            }
+        }
+        logger.info("Exported {} docs of slice {} to {}", docs, sliceId, archive);
+        return docs;
+    }
+
+    private void clearScroll(String scrollId){
+        try{
+            this.restClient.performRequest(HTTP_DELETE, SCROLL_ENDPOINT, Collections.<String, String>emptyMap(),
+                    this.elasticsearchClient.entity(Json.object().add("scroll_id", Json.array(scrollId)).toString()
+                            .getBytes(StandardCharsets.UTF_8), ContentType.APPLICATION_JSON));
+        } catch (IOException ioe){
+            // The scroll expires after its keep alive anyway
+            logger.warning("Failed to clear scroll of {}: {}", this.indexName, ioe.toString());
+        }
+    }
+
+    private JsonObject post(String endpoint, Map<String, String> params, JsonObject body) throws IOException {
+        Response response = this.restClient.performRequest(HTTP_POST, endpoint, params,
+                this.elasticsearchClient.entity(body.toString().getBytes(StandardCharsets.UTF_8), ContentType.APPLICATION_JSON));
+        return Json.parse(EntityUtils.toString(response.getEntity())).asObject();
+    }
+}
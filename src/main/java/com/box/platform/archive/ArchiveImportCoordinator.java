@@ -0,0 +1,88 @@
+package com.box.platform.archive;
+
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.typesafe.config.Config;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Imports NDJSON archives with a bounded number of concurrent importers, one per archive, and terminates the actor
+ * system once every archive is done.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class ArchiveImportCoordinator extends UntypedActor {
+    private final LoggingAdapter logger = Logging.getLogger(getContext().system(), this);
+
+    private static final String BOX_CONFIG_PREFIX = "box.platform.";
+
+    private final Deque<Path> pendingFiles;
+    private final List<Path> failedFiles = new ArrayList<Path>();
+    private int workers;
+    private int runningWorkers;
+    private int totalFiles;
+    private long linesIndexed;
+    private long parseFailures;
+    private long startMillis;
+
+    public ArchiveImportCoordinator(List<Path> files) {
+        this.pendingFiles = new ArrayDeque<Path>(files);
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        logger.debug("{} prestart...", this.getClass().getName());
+        Config boxConfig = getContext().system().settings().config();
+        this.workers = boxConfig.getInt(BOX_CONFIG_PREFIX + "archive.import.workers");
+        this.totalFiles = this.pendingFiles.size();
+        this.startMillis = System.currentTimeMillis();
+        logger.info("Importing {} archives with {} workers", this.totalFiles, this.workers);
+        this.startWorkers();
+    }
+
+    public void onReceive(Object message) throws Throwable {
+        if(message instanceof ArchiveImporter.ImportCompleted){
+            ArchiveImporter.ImportCompleted completed = (ArchiveImporter.ImportCompleted) message;
+            this.runningWorkers--;
+            this.linesIndexed += completed.getLines();
+            this.parseFailures += completed.getParseFailures();
+            if(completed.isSuccess()){
+                logger.info("Imported {} lines of {}, {} could not be parsed", completed.getLines(), completed.getFile(),
+                        completed.getParseFailures());
+            } else{
+                this.failedFiles.add(completed.getFile());
+            }
+            getContext().stop(getSender());
+            this.startWorkers();
+        } else{
+            unhandled(message);
+        }
+    }
+
+    private void startWorkers(){
+        while(this.runningWorkers < this.workers && !this.pendingFiles.isEmpty()){
+            getContext().actorOf(Props.create(ArchiveImporter.class, this.pendingFiles.poll()));
+            this.runningWorkers++;
+        }
+        if(this.runningWorkers == 0 && this.pendingFiles.isEmpty()){
+            long seconds = Math.max(1, (System.currentTimeMillis() - this.startMillis) / 1000);
+            logger.info("Import complete, {} lines of {} archives indexed in {} s ({} lines/s)",
+                    this.linesIndexed, this.totalFiles, seconds, this.linesIndexed / seconds);
+            if(this.parseFailures > 0){
+                logger.warning("{} lines could not be parsed", this.parseFailures);
+            }
+            if(!this.failedFiles.isEmpty()){
+                logger.warning("Import these archives again to finish them: {}", this.failedFiles);
+            }
+            getContext().system().terminate();
+        }
+    }
+}
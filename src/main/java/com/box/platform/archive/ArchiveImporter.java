@@ -0,0 +1,279 @@
+package com.box.platform.archive;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.dispatch.Futures;
+import akka.dispatch.OnComplete;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.box.platform.checkpoint.Checkpoint;
+import com.box.platform.metrics.IngestMetricsExtension;
+import com.box.platform.parser.EnterpriseEventDocument;
+import com.box.platform.parser.EnterpriseEventWriter;
+import com.box.platform.producer.ElasticsearchProducer;
+import com.box.sdk.BoxAPIConnection;
+import com.box.sdk.BoxEvent;
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.typesafe.config.Config;
+import scala.concurrent.ExecutionContext;
+import scala.concurrent.Future;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Indexes one NDJSON archive. The archive is read a chunk of lines at a time, each chunk is parsed in parallel
+ * batches on the parser dispatcher and sent to the producer of this importer, and the next chunk is only read while
+ * fewer than max.chunks.in.flight chunks are waiting on Elasticsearch.
+ *
+ * A line is either a Box event as the events API returns it, recognized by its event_id, or an Elasticsearch doc as
+ * the export writes it.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class ArchiveImporter extends UntypedActor {
+    private final LoggingAdapter logger = Logging.getLogger(getContext().system(), this);
+
+    private static final String BOX_CONFIG_PREFIX = "box.platform.";
+    private static final String PARSER_DISPATCHER = "box-parser-dispatcher";
+    private static final String READ_CHUNK = "read-archive-chunk";
+    // Lines parsed by a single task on the parser dispatcher
+    private static final int PARSE_BATCH_SIZE = 500;
+    // The Box SDK only builds events for a connection, nothing is ever requested with this one
+    private static final BoxAPIConnection OFFLINE_API = new BoxAPIConnection("");
+
+    private final Path file;
+
+    private BufferedReader reader;
+    private ActorRef esProducerActor;
+    private ExecutionContext parserDispatcher;
+    private int chunkSize;
+    private int maxChunksInFlight;
+    private long linesRead;
+    private long linesIndexed;
+    private long parseFailures;
+    private boolean parsing;
+    private boolean readFinished;
+    private boolean failed;
+    private final Deque<Checkpoint> chunksInFlight = new ArrayDeque<Checkpoint>();
+
+    public ArchiveImporter(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        logger.debug("{} prestart...", this.getClass().getName());
+        Config boxConfig = getContext().system().settings().config();
+        this.chunkSize = boxConfig.getInt(BOX_CONFIG_PREFIX + "archive.import.chunk.size");
+        this.maxChunksInFlight = boxConfig.getInt(BOX_CONFIG_PREFIX + "archive.import.max.chunks.in.flight");
+        this.parserDispatcher = getContext().system().dispatchers().lookup(PARSER_DISPATCHER);
+        try{
+            this.reader = NdjsonArchive.openReader(this.file);
+        } catch (IOException ioe){
+            // The coordinator waits for every file it started, so a file that can not be read still completes
+            logger.error(ioe, "Failed to open {}", this.file);
+            this.fail("opening failed");
+            return;
+        }
+        logger.info("Importing {}", this.file);
+
+        this.esProducerActor = getContext().actorOf(
+                Props.create(ElasticsearchProducer.class).withMailbox(IngestMetricsExtension.METERED_MAILBOX), "elasticsearch-producer");
+        getSelf().tell(READ_CHUNK, ActorRef.noSender());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if(this.reader != null){
+            this.reader.close();
+        }
+    }
+
+    public void onReceive(Object message) throws Throwable {
+        if(READ_CHUNK.equals(message)){
+            this.readChunk();
+        } else if(message instanceof ChunkParsed){
+            this.onChunkParsed((ChunkParsed) message);
+        } else if(message instanceof Checkpoint){
+            this.onIndexed((Checkpoint) message);
+        } else if(ElasticsearchProducer.INDEXING_FAILED.equals(message)){
+            this.fail("indexing failed");
+        } else{
+            unhandled(message);
+        }
+    }
+
+    private void readChunk(){
+        if(this.failed || this.readFinished || this.parsing || this.chunksInFlight.size() >= this.maxChunksInFlight){
+            return;
+        }
+        List<String> lines = new ArrayList<String>(this.chunkSize);
+        try{
+            String line;
+            while(lines.size() < this.chunkSize && (line = this.reader.readLine()) != null){
+                this.linesRead++;
+                if(!line.trim().isEmpty()){
+                    lines.add(line);
+                }
+            }
+            if(lines.size() < this.chunkSize){
+                this.readFinished = true;
+            }
+        } catch (IOException ioe){
+            logger.error(ioe, "Failed to read {} at line {}", this.file, this.linesRead);
+            this.fail("reading failed");
+            return;
+        }
+        if(lines.isEmpty()){
+            this.completeIfDone();
+            return;
+        }
+
+        // Parse the chunk in batches on the parser dispatcher and hand the docs back to this actor in order
+        List<Future<List<EnterpriseEventDocument>>> parsedBatches = new ArrayList<Future<List<EnterpriseEventDocument>>>();
+        for(int start = 0; start < lines.size(); start += PARSE_BATCH_SIZE){
+            final List<String> batch = lines.subList(start, Math.min(start + PARSE_BATCH_SIZE, lines.size()));
+            parsedBatches.add(Futures.future(new Callable<List<EnterpriseEventDocument>>() {
+                public List<EnterpriseEventDocument> call() {
+                    return parseBatch(batch);
+                }
+            }, this.parserDispatcher));
+        }
+        this.parsing = true;
+        final ActorRef self = getSelf();
+        final int lineCount = lines.size();
+        final Checkpoint checkpoint = new Checkpoint(String.valueOf(this.linesRead), 0);
+        Futures.sequence(parsedBatches, this.parserDispatcher).onComplete(new OnComplete<Iterable<List<EnterpriseEventDocument>>>() {
+            public void onComplete(Throwable failure, Iterable<List<EnterpriseEventDocument>> batches) {
+                self.tell(new ChunkParsed(failure == null ? batches : null, lineCount, checkpoint), ActorRef.noSender());
+            }
+        }, this.parserDispatcher);
+    }
+
+    private List<EnterpriseEventDocument> parseBatch(List<String> lines){
+        List<EnterpriseEventDocument> documents = new ArrayList<EnterpriseEventDocument>(lines.size());
+        for(String line: lines){
+            try{
+                JsonObject json = Json.parse(line).asObject();
+                if(json.get("event_id") != null){
+                    documents.add(EnterpriseEventWriter.write(new BoxEvent(OFFLINE_API, line), null));
+                } else{
+                    documents.add(EnterpriseEventWriter.fromJson(json));
+                }
+            } catch (Exception e){
+                logger.error(e, "Failed to parse line of {}: {}", this.file, line);
+            }
+        }
+        return documents;
+    }
+
+    private void onChunkParsed(ChunkParsed chunk){
+        this.parsing = false;
+        if(chunk.batches == null){
+            this.fail("parsing failed");
+            return;
+        }
+        int documents = 0;
+        for(List<EnterpriseEventDocument> batch: chunk.batches){
+            for(EnterpriseEventDocument document: batch){
+                this.esProducerActor.tell(document, getSelf());
+                documents++;
+            }
+        }
+        this.parseFailures += chunk.lineCount - documents;
+
+        // The producer sends the checkpoint back once the chunk has been indexed
+        this.chunksInFlight.add(chunk.checkpoint);
+        this.esProducerActor.tell(chunk.checkpoint, getSelf());
+        getSelf().tell(READ_CHUNK, ActorRef.noSender());
+    }
+
+    private void onIndexed(Checkpoint checkpoint){
+        // The producer only reports the newest indexed checkpoint, so it covers every chunk sent before it
+        while(this.chunksInFlight.contains(checkpoint)){
+            this.chunksInFlight.poll();
+        }
+        this.linesIndexed = Long.parseLong(checkpoint.getStreamPosition());
+        logger.debug("Indexed {} lines of {}", this.linesIndexed, this.file);
+        if(!this.readFinished){
+            getSelf().tell(READ_CHUNK, ActorRef.noSender());
+        } else{
+            this.completeIfDone();
+        }
+    }
+
+    private void completeIfDone(){
+        if(this.readFinished && !this.parsing && this.chunksInFlight.isEmpty() && !this.failed){
+            getContext().parent().tell(new ImportCompleted(this.file, this.linesRead, this.parseFailures, true), getSelf());
+        }
+    }
+
+    private void fail(String reason){
+        if(this.failed){
+            return;
+        }
+        // Docs are written with the Box event id, so importing the archive again skips what is already indexed
+        this.failed = true;
+        logger.error("Import of {} stopped, {}. Every line up to {} was indexed", this.file, reason, this.linesIndexed);
+        getContext().parent().tell(new ImportCompleted(this.file, this.linesIndexed, this.parseFailures, false), getSelf());
+    }
+
+    private static final class ChunkParsed {
+        // Null if parsing failed
+        private final Iterable<List<EnterpriseEventDocument>> batches;
+        private final int lineCount;
+        private final Checkpoint checkpoint;
+
+        private ChunkParsed(Iterable<List<EnterpriseEventDocument>> batches, int lineCount, Checkpoint checkpoint) {
+            this.batches = batches;
+            this.lineCount = lineCount;
+            this.checkpoint = checkpoint;
+        }
+    }
+
+    /**
+     * Sent to the coordinator once every line of the archive has been indexed, or once the import of it stopped.
+     */
+    public static final class ImportCompleted {
+        private final Path file;
+        private final long lines;
+        private final long parseFailures;
+        private final boolean success;
+
+        public ImportCompleted(Path file, long lines, long parseFailures, boolean success) {
+            this.file = file;
+            this.lines = lines;
+            this.parseFailures = parseFailures;
+            this.success = success;
+        }
+
+        public Path getFile() {
+            return this.file;
+        }
+
+        /**
+         * @return the lines that were indexed, every line when the import succeeded
+         */
+        public long getLines() {
+            return this.lines;
+        }
+
+        public long getParseFailures() {
+            return this.parseFailures;
+        }
+
+        public boolean isSuccess() {
+            return this.success;
+        }
+    }
+}
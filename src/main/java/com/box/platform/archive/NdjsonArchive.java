@@ -0,0 +1,79 @@
+package com.box.platform.archive;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Opens newline delimited json archives, one json object per line. Files ending in .gz are gzip compressed. Archives
+ * are read and written through file channels with large buffers, since gzip has to be streamed from start to end
+ * anyway.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class NdjsonArchive {
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private NdjsonArchive() {
+    }
+
+    public static BufferedReader openReader(Path file) throws IOException {
+        InputStream in = Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ));
+        if(file.getFileName().toString().endsWith(GZIP_SUFFIX)){
+            in = new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    public static OutputStream openWriter(Path file) throws IOException {
+        OutputStream out = Channels.newOutputStream(FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+        if(file.getFileName().toString().endsWith(GZIP_SUFFIX)){
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        return out;
+    }
+
+    /**
+     * @return the files, with every directory replaced by the regular files in it sorted by name
+     */
+    public static List<Path> listFiles(List<Path> paths) throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        for(Path path: paths){
+            if(!Files.isDirectory(path)){
+                files.add(path);
+                continue;
+            }
+            List<Path> directoryFiles = new ArrayList<Path>();
+            DirectoryStream<Path> entries = Files.newDirectoryStream(path);
+            try{
+                for(Path entry: entries){
+                    if(Files.isRegularFile(entry)){
+                        directoryFiles.add(entry);
+                    }
+                }
+            } finally {
+                entries.close();
+            }
+            Collections.sort(directoryFiles);
+            files.addAll(directoryFiles);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,192 @@
+package com.box.platform.backfill;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.box.platform.checkpoint.Checkpoint;
+import com.box.platform.checkpoint.CheckpointStore;
+import com.box.platform.enrichment.EventEnricher;
+import com.box.platform.source.EnterpriseEventSource;
+import com.box.platform.tenant.Tenant;
+import com.typesafe.config.Config;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Splits the historical lookback window into time slices and fetches them with a bounded number of concurrent
+ * slice workers while the consumer tails the live stream. Slices that were not finished before a restart are picked
+ * up again from their own checkpoints.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class BackfillCoordinator extends UntypedActor {
+    private final LoggingAdapter logger = Logging.getLogger(getContext().system(), this);
+
+    private static final String BOX_CONFIG_PREFIX = "box.platform.";
+
+    private final EnterpriseEventSource eventSource;
+    private final EventEnricher enricher;
+    private final Date windowStart;
+    private final Date windowEnd;
+    private final Tenant tenant;
+    private final ActorRef esProducerActor;
+    private final ActorRef rollupActor;
+
+    private Path backfillDirectory;
+    private int workers;
+    private final Deque<BackfillSlice> pendingSlices = new ArrayDeque<BackfillSlice>();
+    private int runningWorkers;
+    private int completedSlices;
+    private int totalSlices;
+
+    /**
+     * @param enricher shared with the live consumer so the slices use the same caches, may be null
+     * @param windowStart start of the window to backfill, or null to only resume unfinished slices
+     * @param windowEnd end of the window to backfill, or null to only resume unfinished slices
+     * @param esProducerActor the producer shared by all tenants, every slice worker gets a lane of its own in it
+     * @param rollupActor may be null
+     */
+    public BackfillCoordinator(EnterpriseEventSource eventSource, EventEnricher enricher, Date windowStart, Date windowEnd,
+                               Tenant tenant, ActorRef esProducerActor, ActorRef rollupActor) {
+        this.eventSource = eventSource;
+        this.enricher = enricher;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.tenant = tenant;
+        this.esProducerActor = esProducerActor;
+        this.rollupActor = rollupActor;
+    }
+
+    /**
+     * @return true if a previous backfill left unfinished slices in the backfill directory
+     */
+    public static boolean hasUnfinishedSlices(Config boxConfig) throws IOException {
+        return !findUnfinishedSlices(backfillDirectory(boxConfig)).isEmpty();
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        logger.debug("{} prestart...", this.getClass().getName());
+        Config boxConfig = this.tenant.getConfig();
+        this.backfillDirectory = backfillDirectory(boxConfig);
+        this.workers = boxConfig.getInt(BOX_CONFIG_PREFIX + "backfill.workers");
+        int sliceCount = boxConfig.getInt(BOX_CONFIG_PREFIX + "backfill.slices");
+        Files.createDirectories(this.backfillDirectory);
+
+        List<BackfillSlice> slices = findUnfinishedSlices(this.backfillDirectory);
+        if(slices.isEmpty() && this.windowStart != null && this.windowEnd != null){
+            slices = this.planSlices(sliceCount);
+        }
+        this.pendingSlices.addAll(slices);
+        this.totalSlices = slices.size();
+        logger.info("Backfilling {} slices with {} workers", this.totalSlices, this.workers);
+
+        this.startWorkers();
+    }
+
+    public void onReceive(Object message) throws Throwable {
+        if(message instanceof BackfillSliceWorker.SliceCompleted){
+            BackfillSlice slice = ((BackfillSliceWorker.SliceCompleted) message).getSlice();
+            this.runningWorkers--;
+            this.completedSlices++;
+            logger.info("Completed backfill of {}, {} of {} slices done", slice, this.completedSlices, this.totalSlices);
+            getContext().stop(getSender());
+            this.startWorkers();
+        } else{
+            unhandled(message);
+        }
+    }
+
+    private List<BackfillSlice> planSlices(int sliceCount) throws IOException {
+        // Write every slice checkpoint up front so an interrupted backfill knows about the slices it never started
+        List<BackfillSlice> slices = new ArrayList<BackfillSlice>(sliceCount);
+        long start = this.windowStart.getTime();
+        long end = this.windowEnd.getTime();
+        long sliceMillis = Math.max(1, (end - start + sliceCount - 1) / sliceCount);
+        for(long sliceStart = start; sliceStart < end; sliceStart += sliceMillis){
+            BackfillSlice slice = new BackfillSlice(sliceStart, Math.min(sliceStart + sliceMillis, end), this.backfillDirectory);
+            CheckpointStore checkpointStore = new CheckpointStore(slice.getCheckpointFile());
+            try{
+                checkpointStore.commit(new Checkpoint("0", sliceStart));
+            } finally {
+                checkpointStore.close();
+            }
+            slices.add(slice);
+        }
+        logger.info("Planned backfill of {} - {} in {} slices", this.windowStart, this.windowEnd, slices.size());
+        return slices;
+    }
+
+    private void startWorkers(){
+        while(this.runningWorkers < this.workers && !this.pendingSlices.isEmpty()){
+            BackfillSlice slice = this.pendingSlices.poll();
+            getContext().actorOf(Props.create(BackfillSliceWorker.class, this.eventSource, this.enricher, slice,
+                    this.tenant, this.esProducerActor, this.rollupActor).withDispatcher("box-fetch-dispatcher"));
+            this.runningWorkers++;
+        }
+        if(this.runningWorkers == 0 && this.pendingSlices.isEmpty()){
+            logger.info("Backfill complete");
+            this.cleanUp();
+            getContext().stop(getSelf());
+        }
+    }
+
+    private void cleanUp(){
+        try{
+            DirectoryStream<Path> files = Files.newDirectoryStream(this.backfillDirectory, "slice-*");
+            try{
+                for(Path file: files){
+                    Files.delete(file);
+                }
+            } finally {
+                files.close();
+            }
+        } catch (IOException ioe){
+            logger.error(ioe, "Failed to clean up backfill directory {}", this.backfillDirectory);
+        }
+    }
+
+    private static Path backfillDirectory(Config boxConfig) {
+        return Paths.get(boxConfig.getString(BOX_CONFIG_PREFIX + "config.path")
+                + boxConfig.getString(BOX_CONFIG_PREFIX + "backfill.directory"));
+    }
+
+    private static List<BackfillSlice> findUnfinishedSlices(Path directory) throws IOException {
+        List<BackfillSlice> slices = new ArrayList<BackfillSlice>();
+        if(!Files.isDirectory(directory)){
+            return slices;
+        }
+        DirectoryStream<Path> checkpointFiles = Files.newDirectoryStream(directory, "slice-*.ckpt");
+        try{
+            for(Path checkpointFile: checkpointFiles){
+                BackfillSlice slice = BackfillSlice.fromCheckpointFile(checkpointFile);
+                if(slice != null && !Files.exists(slice.getDoneFile())){
+                    slices.add(slice);
+                }
+            }
+        } finally {
+            checkpointFiles.close();
+        }
+        // Oldest slices first
+        Collections.sort(slices, new Comparator<BackfillSlice>() {
+            public int compare(BackfillSlice a, BackfillSlice b) {
+                return Long.compare(a.getStartMillis(), b.getStartMillis());
+            }
+        });
+        return slices;
+    }
+}
@@ -0,0 +1,70 @@
+package com.box.platform.backfill;
+
+import java.nio.file.Path;
+import java.util.Date;
+
+/**
+ * A time range of the historical backfill window that is fetched with its own stream cursor. The progress of the
+ * slice is kept in its own checkpoint file and a marker file is written next to it once the slice is complete.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class BackfillSlice {
+    private static final String CHECKPOINT_SUFFIX = ".ckpt";
+    private static final String DONE_SUFFIX = ".done";
+
+    private final long startMillis;
+    private final long endMillis;
+    private final Path directory;
+
+    public BackfillSlice(long startMillis, long endMillis, Path directory) {
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.directory = directory;
+    }
+
+    /**
+     * Rebuilds a slice from the name of its checkpoint file, returns null if the file is not a slice checkpoint.
+     */
+    public static BackfillSlice fromCheckpointFile(Path checkpointFile) {
+        String fileName = checkpointFile.getFileName().toString();
+        if(!fileName.startsWith("slice-") || !fileName.endsWith(CHECKPOINT_SUFFIX)){
+            return null;
+        }
+        String[] range = fileName.substring("slice-".length(), fileName.length() - CHECKPOINT_SUFFIX.length()).split("-");
+        if(range.length != 2){
+            return null;
+        }
+        return new BackfillSlice(Long.parseLong(range[0]), Long.parseLong(range[1]), checkpointFile.getParent());
+    }
+
+    public Date getStartDate() {
+        return new Date(this.startMillis);
+    }
+
+    public Date getEndDate() {
+        return new Date(this.endMillis);
+    }
+
+    public long getStartMillis() {
+        return this.startMillis;
+    }
+
+    public Path getCheckpointFile() {
+        return this.directory.resolve(this.baseName() + CHECKPOINT_SUFFIX);
+    }
+
+    public Path getDoneFile() {
+        return this.directory.resolve(this.baseName() + DONE_SUFFIX);
+    }
+
+    private String baseName() {
+        return "slice-" + this.startMillis + "-" + this.endMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "BackfillSlice(" + this.getStartDate() + " - " + this.getEndDate() + ")";
+    }
+}
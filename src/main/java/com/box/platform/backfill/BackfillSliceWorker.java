@@ -0,0 +1,225 @@
+package com.box.platform.backfill;
+
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.box.platform.checkpoint.Checkpoint;
+import com.box.platform.checkpoint.CheckpointStore;
+import com.box.platform.enrichment.EventEnricher;
+import com.box.platform.parser.EnterpriseEventDocument;
+import com.box.platform.parser.EnterpriseEventWriter;
+import com.box.platform.producer.ElasticsearchProducer;
+import com.box.platform.source.EnterpriseEventChunk;
+import com.box.platform.source.EnterpriseEventSource;
+import com.box.platform.tenant.Tenant;
+import com.box.platform.util.RollingIndices;
+import com.box.sdk.BoxEvent;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.Duration;
+
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches the enterprise events of one backfill slice with its own stream cursor and commits the slice checkpoint
+ * each time the shared producer confirms a chunk has been indexed. The slice is a lane of its own in the producer, so
+ * the slices of a tenant take turns with its live stream for the bulk requests of the tenant.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class BackfillSliceWorker extends UntypedActor {
+    private final LoggingAdapter logger = Logging.getLogger(getContext().system(), this);
+
+    private static final String FETCH_CHUNK = "fetch-backfill-chunk";
+    private static final String RETRY_FETCH = "retry-backfill-fetch";
+    // Number of chunks that can be waiting on Elasticsearch before the next one is fetched
+    private static final int MAX_CHUNKS_IN_FLIGHT = 2;
+    private static final int FETCH_RETRY_SECONDS = 30;
+
+    private final EnterpriseEventSource eventSource;
+    private final EventEnricher enricher;
+    private final BackfillSlice slice;
+    private final Tenant tenant;
+    private final ActorRef esProducerActor;
+    private final ActorRef rollupActor;
+
+    private CheckpointStore checkpointStore;
+    private String nextStreamPosition;
+    private long maxCreatedAtMillis;
+    private boolean fetchFinished;
+    // Set while the worker backs off after a failure, fetch requests already in the mailbox wait for it too
+    private Cancellable fetchRetry;
+    private final Deque<Checkpoint> chunksInFlight = new ArrayDeque<Checkpoint>();
+
+    /**
+     * @param enricher may be null
+     * @param esProducerActor the producer shared by all tenants
+     * @param rollupActor may be null
+     */
+    public BackfillSliceWorker(EnterpriseEventSource eventSource, EventEnricher enricher, BackfillSlice slice,
+                               Tenant tenant, ActorRef esProducerActor, ActorRef rollupActor) {
+        this.eventSource = eventSource;
+        this.enricher = enricher;
+        this.slice = slice;
+        this.tenant = tenant;
+        this.esProducerActor = esProducerActor;
+        this.rollupActor = rollupActor;
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        logger.debug("{} prestart...", this.getClass().getName());
+        this.checkpointStore = new CheckpointStore(this.slice.getCheckpointFile());
+        Checkpoint checkpoint = this.checkpointStore.read();
+        this.nextStreamPosition = checkpoint == null ? "0" : checkpoint.getStreamPosition();
+        this.maxCreatedAtMillis = checkpoint == null ? this.slice.getStartMillis() : checkpoint.getCreatedAtMillis();
+        logger.info("Starting backfill of {} from stream position {}", this.slice, this.nextStreamPosition);
+
+        Config boxConfig = this.tenant.getConfig();
+        this.esProducerActor.tell(new ElasticsearchProducer.Route(this.tenant.getName(),
+                RollingIndices.fromConfig(boxConfig).getWriteTarget(), this.tenant.getWeight(), this.rollupActor), getSelf());
+        getSelf().tell(FETCH_CHUNK, ActorRef.noSender());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if(this.fetchRetry != null){
+            this.fetchRetry.cancel();
+        }
+        this.checkpointStore.close();
+    }
+
+    public void onReceive(Object message) throws Throwable {
+        if(FETCH_CHUNK.equals(message)){
+            this.fetchChunk();
+        } else if(RETRY_FETCH.equals(message)){
+            this.fetchRetry = null;
+            this.fetchChunk();
+        } else if(message instanceof Checkpoint){
+            this.onIndexed((Checkpoint) message);
+        } else if(ElasticsearchProducer.INDEXING_FAILED.equals(message)){
+            this.onIndexingFailed();
+        } else{
+            unhandled(message);
+        }
+    }
+
+    private void fetchChunk(){
+        if(this.fetchRetry != null || this.fetchFinished || this.chunksInFlight.size() >= MAX_CHUNKS_IN_FLIGHT){
+            return;
+        }
+        EnterpriseEventChunk eventLog;
+        try{
+            eventLog = this.eventSource.getEnterpriseEvents(this.nextStreamPosition, this.slice.getStartDate(), this.slice.getEndDate());
+        } catch (Exception e){
+            logger.error(e, "Failed to get enterprise events for {}, retrying in {} seconds", this.slice, FETCH_RETRY_SECONDS);
+            this.retryFetchLater();
+            return;
+        }
+        this.nextStreamPosition = eventLog.getNextStreamPosition();
+
+        if(this.enricher != null){
+            this.enricher.prefetch(eventLog);
+        }
+        if(eventLog.hasDocuments()){
+            // Streamed chunks were written into docs while they were read from Box
+            for(EnterpriseEventDocument enterpriseEvent: eventLog.getDocuments()){
+                this.send(enterpriseEvent);
+            }
+        }
+        for(BoxEvent boxEvent: eventLog){
+            try{
+                this.send(EnterpriseEventWriter.write(boxEvent, this.nextStreamPosition, this.enricher));
+            } catch (Exception e){
+                logger.error(e, "Failed to parse json form enterprise event with id: {}", boxEvent.getID());
+            }
+        }
+        logger.debug("Fetched {} backfill events for {}", eventLog.getSize(), this.slice);
+
+        // The producer sends the checkpoint back once the chunk has been indexed
+        Checkpoint checkpoint = new Checkpoint(this.nextStreamPosition, this.maxCreatedAtMillis);
+        this.chunksInFlight.add(checkpoint);
+        this.esProducerActor.tell(checkpoint, getSelf());
+
+        // An empty chunk means the slice has been read to the end
+        if(eventLog.getSize() == 0){
+            this.fetchFinished = true;
+        } else{
+            getSelf().tell(FETCH_CHUNK, ActorRef.noSender());
+        }
+    }
+
+    private void send(EnterpriseEventDocument enterpriseEvent){
+        this.esProducerActor.tell(enterpriseEvent, getSelf());
+        this.maxCreatedAtMillis = Math.max(this.maxCreatedAtMillis, enterpriseEvent.getCreatedAtMillis());
+    }
+
+    private void onIndexed(Checkpoint checkpoint){
+        // The producer only reports the newest indexed checkpoint, so it covers every chunk sent before it
+        while(this.chunksInFlight.contains(checkpoint)){
+            this.chunksInFlight.poll();
+        }
+        try{
+            this.checkpointStore.commit(checkpoint);
+        } catch (Exception e){
+            logger.error(e, "Failed to commit {} for {}", checkpoint, this.slice);
+        }
+
+        if(!this.fetchFinished){
+            getSelf().tell(FETCH_CHUNK, ActorRef.noSender());
+        } else if(this.chunksInFlight.isEmpty()){
+            try{
+                Files.createFile(this.slice.getDoneFile());
+            } catch (Exception e){
+                logger.error(e, "Failed to mark {} as done", this.slice);
+            }
+            getContext().parent().tell(new SliceCompleted(this.slice), getSelf());
+        }
+    }
+
+    private void onIndexingFailed(){
+        // Drop what the producer still holds and fetch the slice again from its last committed checkpoint
+        this.esProducerActor.tell(ElasticsearchProducer.RESET, getSelf());
+        Checkpoint checkpoint = this.checkpointStore.read();
+        this.nextStreamPosition = checkpoint == null ? "0" : checkpoint.getStreamPosition();
+        this.maxCreatedAtMillis = checkpoint == null ? this.slice.getStartMillis() : checkpoint.getCreatedAtMillis();
+        this.chunksInFlight.clear();
+        this.fetchFinished = false;
+        logger.warning("Indexing failed for {}, fetching it again from stream position {} in {} seconds",
+                this.slice, this.nextStreamPosition, FETCH_RETRY_SECONDS);
+        this.retryFetchLater();
+    }
+
+    private void retryFetchLater(){
+        // A second failure during the backoff starts it over
+        if(this.fetchRetry != null){
+            this.fetchRetry.cancel();
+        }
+        this.fetchRetry = getContext().system().scheduler().scheduleOnce(
+                Duration.create(FETCH_RETRY_SECONDS, TimeUnit.SECONDS),
+                getSelf(),
+                RETRY_FETCH,
+                getContext().dispatcher(),
+                ActorRef.noSender());
+    }
+
+    /**
+     * Sent to the coordinator once every event of the slice has been indexed.
+     */
+    public static final class SliceCompleted {
+        private final BackfillSlice slice;
+
+        public SliceCompleted(BackfillSlice slice) {
+            this.slice = slice;
+        }
+
+        public BackfillSlice getSlice() {
+            return this.slice;
+        }
+    }
+}
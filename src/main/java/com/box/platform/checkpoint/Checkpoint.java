@@ -0,0 +1,53 @@
+package com.box.platform.checkpoint;
+
+import java.util.Date;
+
+/**
+ * Position in the Box enterprise event stream that has been indexed in Elasticsearch and can be resumed from.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class Checkpoint {
+    private final String streamPosition;
+    private final long createdAtMillis;
+
+    public Checkpoint(String streamPosition, long createdAtMillis) {
+        this.streamPosition = streamPosition;
+        this.createdAtMillis = createdAtMillis;
+    }
+
+    public String getStreamPosition() {
+        return this.streamPosition;
+    }
+
+    public long getCreatedAtMillis() {
+        return this.createdAtMillis;
+    }
+
+    public Date getCreatedAtDate() {
+        return new Date(this.createdAtMillis);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o){
+            return true;
+        }
+        if(!(o instanceof Checkpoint)){
+            return false;
+        }
+        Checkpoint that = (Checkpoint) o;
+        return this.createdAtMillis == that.createdAtMillis && this.streamPosition.equals(that.streamPosition);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.streamPosition.hashCode() + (int) (this.createdAtMillis ^ (this.createdAtMillis >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpoint(stream_position=" + this.streamPosition + ", created_at=" + this.createdAtMillis + ")";
+    }
+}
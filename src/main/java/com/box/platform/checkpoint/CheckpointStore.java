@@ -0,0 +1,111 @@
+package com.box.platform.checkpoint;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Small memory-mapped file that keeps the last indexed stream position so that startup and polling do not have to
+ * search Elasticsearch for it.
+ *
+ * The file has two fixed-size slots that are written alternately. Each slot carries a sequence number and a CRC so a
+ * write that is torn by a crash only loses the newest slot and reading falls back to the previous checkpoint.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class CheckpointStore implements Closeable {
+    private static final int SLOT_SIZE = 512;
+    private static final int SLOT_COUNT = 2;
+    // sequence + created_at + position length + crc
+    private static final int SLOT_OVERHEAD = 8 + 8 + 4 + 4;
+    private static final int MAX_POSITION_BYTES = SLOT_SIZE - SLOT_OVERHEAD;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private long sequence;
+    private Checkpoint current;
+
+    public CheckpointStore(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, SLOT_SIZE * SLOT_COUNT);
+
+        // Pick the newest slot that is intact
+        for(int slot = 0; slot < SLOT_COUNT; slot++){
+            readSlot(slot);
+        }
+    }
+
+    /**
+     * @return the last committed checkpoint or null when nothing has been committed yet
+     */
+    public Checkpoint read() {
+        return this.current;
+    }
+
+    /**
+     * Writes the checkpoint to the next slot and forces it to disk before returning.
+     */
+    public void commit(Checkpoint checkpoint) {
+        byte[] position = checkpoint.getStreamPosition().getBytes(StandardCharsets.UTF_8);
+        if(position.length > MAX_POSITION_BYTES){
+            throw new IllegalArgumentException("Stream position is too long to checkpoint: " + checkpoint.getStreamPosition());
+        }
+
+        long nextSequence = this.sequence + 1;
+        int offset = (int) (nextSequence % SLOT_COUNT) * SLOT_SIZE;
+        this.buffer.putLong(offset, nextSequence);
+        this.buffer.putLong(offset + 8, checkpoint.getCreatedAtMillis());
+        this.buffer.putInt(offset + 16, position.length);
+        for(int i = 0; i < position.length; i++){
+            this.buffer.put(offset + 20 + i, position[i]);
+        }
+        this.buffer.putInt(offset + 20 + position.length, (int) crc(offset, 20 + position.length));
+        this.buffer.force();
+
+        this.sequence = nextSequence;
+        this.current = checkpoint;
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private void readSlot(int slot) {
+        int offset = slot * SLOT_SIZE;
+        long slotSequence = this.buffer.getLong(offset);
+        int positionLength = this.buffer.getInt(offset + 16);
+        if(slotSequence <= this.sequence || positionLength <= 0 || positionLength > MAX_POSITION_BYTES){
+            return;
+        }
+        if(this.buffer.getInt(offset + 20 + positionLength) != (int) crc(offset, 20 + positionLength)){
+            return;
+        }
+
+        byte[] position = new byte[positionLength];
+        for(int i = 0; i < positionLength; i++){
+            position[i] = this.buffer.get(offset + 20 + i);
+        }
+        this.sequence = slotSequence;
+        this.current = new Checkpoint(new String(position, StandardCharsets.UTF_8), this.buffer.getLong(offset + 8));
+    }
+
+    private long crc(int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        for(int i = 0; i < length; i++){
+            crc32.update(this.buffer.get(offset + i));
+        }
+        return crc32.getValue();
+    }
+}
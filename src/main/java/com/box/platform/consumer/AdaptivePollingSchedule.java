@@ -0,0 +1,43 @@
+package com.box.platform.consumer;
+
+/**
+ * Works out how long to wait before the next poll of the enterprise event stream. While Box keeps returning full
+ * chunks there is a backlog to drain, so the next poll happens right away. Once chunks come back partial or empty the
+ * delay doubles from the minimum backoff up to the configured polling interval.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class AdaptivePollingSchedule {
+    private final long minBackoffMillis;
+    private final long maxIntervalMillis;
+    private long currentDelayMillis;
+
+    public AdaptivePollingSchedule(long minBackoffMillis, long maxIntervalMillis) {
+        this.minBackoffMillis = Math.min(minBackoffMillis, maxIntervalMillis);
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    /**
+     * @param eventsReturned number of events in the chunk that was just fetched
+     * @param chunkLimit maximum number of events Box returns in one chunk
+     * @return delay in milliseconds before the next poll
+     */
+    public long next(int eventsReturned, int chunkLimit) {
+        if(chunkLimit > 0 && eventsReturned >= chunkLimit){
+            this.currentDelayMillis = 0;
+        } else if(this.currentDelayMillis == 0){
+            this.currentDelayMillis = this.minBackoffMillis;
+        } else{
+            this.currentDelayMillis = Math.min(this.currentDelayMillis * 2, this.maxIntervalMillis);
+        }
+        return this.currentDelayMillis;
+    }
+
+    /**
+     * Backs off as if the chunk was empty, used when a poll fails.
+     */
+    public long backOff() {
+        return this.next(0, 0);
+    }
+}
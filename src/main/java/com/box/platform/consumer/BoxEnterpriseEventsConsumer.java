@@ -1,29 +1,76 @@
 package com.box.platform.consumer;
 
 import akka.actor.*;
+import akka.dispatch.Futures;
+import akka.dispatch.OnComplete;
 import akka.event.Logging;
+import akka.dispatch.Mapper;
 import akka.event.LoggingAdapter;
+import akka.japi.function.Function;
 import akka.pattern.Patterns;
+import akka.stream.ActorMaterializer;
+import akka.stream.ActorMaterializerSettings;
+import akka.stream.OverflowStrategy;
+import akka.stream.QueueOfferResult;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
 import akka.util.Timeout;
-import com.box.platform.parser.BoxEnterpriseEventJsonParser;
-import com.box.platform.producer.ElasticsearchProducer;
+import com.box.platform.backfill.BackfillCoordinator;
+import com.box.platform.checkpoint.Checkpoint;
+import com.box.platform.checkpoint.CheckpointStore;
+import com.box.platform.enrichment.EventEnricher;
+import com.box.platform.metrics.Counter;
+import com.box.platform.metrics.Gauge;
+import com.box.platform.metrics.IngestMetrics;
+import com.box.platform.metrics.IngestMetricsExtension;
+import com.box.platform.metrics.LatencyHistogram;
+import com.box.platform.parser.EnterpriseEventDocument;
+import com.box.platform.parser.EnterpriseEventWriter;
 import com.box.platform.search.GetLastElasticsearchDoc;
+import com.box.platform.source.BoxEventLogSource;
+import com.box.platform.source.BoxEventsRequestInterceptor;
+import com.box.platform.source.EncryptedFileAccessTokenCache;
+import com.box.platform.source.EnterpriseEventChunk;
+import com.box.platform.source.EnterpriseEventSource;
+import com.box.platform.source.FetchSchedulerExtension;
+import com.box.platform.source.RateLimitedEventSource;
+import com.box.platform.source.StreamingEventLogSource;
+import com.box.platform.source.SyntheticEventSource;
+import com.box.platform.spool.EventSpooler;
+import com.box.platform.tenant.Tenant;
 import com.box.sdk.*;
-import com.eclipsesource.json.JsonObject;
 import com.typesafe.config.Config;
 import scala.concurrent.Await;
+import scala.concurrent.ExecutionContext;
+import scala.compat.java8.FutureConverters;
 import scala.concurrent.Future;
 import scala.concurrent.duration.Duration;
 
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Pulls enterprise events from Box.
+ * Pulls enterprise events from Box, or from the synthetic source when box.platform.source is synthetic.
+ *
+ * The Box connection is authenticated in the background while the rest of the startup goes on, and polling starts
+ * once both the connection and the start message from main are there.
+ *
+ * Fetched chunks go through a backpressured stream: they are parsed on the parser dispatcher and written to the event
+ * spool, which only acknowledges a chunk while it has room. Box is polled again once the last chunk was taken by the
+ * stream, so a slow Elasticsearch stops the fetching instead of filling the heap.
+ *
+ * There is a consumer for every tenant, each with its own connection, checkpoint and dedup cache, see Tenant. Their
+ * requests to Box share the slots of FetchSchedulerExtension and their docs share the one producer main creates.
  *
  * @author Kyle Adams
  * @email kadams@box.com
@@ -31,17 +78,63 @@ import java.util.concurrent.TimeUnit;
 public class BoxEnterpriseEventsConsumer extends UntypedActor{
     private final LoggingAdapter logger = Logging.getLogger(getContext().system(), this);
 
-    private BoxDeveloperEditionAPIConnection api = null;
+    private EnterpriseEventSource eventSource = null;
+    private BoxAPIConnection api = null;
+    private EventEnricher enricher = null;
     private Cancellable cancellable = null;
 
     private static final String BOX_CONFIG_PREFIX = "box.platform.";
+    private static final String PARSER_DISPATCHER = "box-parser-dispatcher";
+    private static final String POLL_TICK = "poll-enterprise-events";
+    private static final String CONNECT_TICK = "connect-to-box";
+    private static final String SPOOLER_RESTART_TICK = "restart-event-spooler";
+    private static final int SPOOLER_RESTART_SECONDS = 10;
+    private static final int HTTP_UNAUTHORIZED = 401;
+    private static final String SYNTHETIC_SOURCE = "synthetic";
+    private final Tenant tenant;
+    private final ActorRef esProducerActor;
+    private final ActorRef rollupActor;
     private int futuresTimeout;
     private int pollingInterval;
+    private boolean isPolling = false;
     private boolean isFirstRun = true;
     private String nextStreamPosition;
+    private Date maxCreatedAtDate;
+    // Where polling started, the stream is fetched again from here when a spool fails before any checkpoint is committed
+    private String firstStreamPosition;
+    private Date firstCreatedAtDate;
+    private int dedupMaxEntries;
 
+    private String configPath;
     private ActorSystem actorSystem;
     private ActorRef lastESDocActor;
+    private ActorRef eventSpoolerActor;
+    private SourceQueueWithComplete<FetchedChunk> fetchedChunks;
+    private ActorMaterializer materializer;
+    private ExecutionContext parserDispatcher;
+    private CheckpointStore checkpointStore;
+    private RecentEventIdCache recentEventIds;
+    private AdaptivePollingSchedule pollingSchedule;
+    // Read by the metrics reporters
+    private volatile long lagMillis;
+    private boolean backfillEnabled;
+
+    private LatencyHistogram fetchLatency;
+    private LatencyHistogram fetchChunkSize;
+    private LatencyHistogram parseTime;
+    private Counter eventsFetched;
+    private Counter duplicateEvents;
+    private LatencyHistogram demandWait;
+
+    /**
+     * @param esProducerActor the producer shared by all tenants, the spooler and the backfill slices send it their docs
+     * @param rollupActor counts the docs of this tenant the producer created, null when rollups are off
+     */
+    public BoxEnterpriseEventsConsumer(Tenant tenant, ActorRef esProducerActor, ActorRef rollupActor) {
+        this.tenant = tenant;
+        this.esProducerActor = esProducerActor;
+        this.rollupActor = rollupActor;
+    }
 
     @Override
     public void preStart() throws Exception {
@@ -49,8 +142,87 @@ public class BoxEnterpriseEventsConsumer extends UntypedActor{
         this.actorSystem = getContext().system();
 
         // Load application configuration
-        Config boxConfig = getContext().system().settings().config();
-        String configPath = boxConfig.getString(BOX_CONFIG_PREFIX + "config.path");
+        Config boxConfig = this.tenant.getConfig();
+        this.configPath = boxConfig.getString(BOX_CONFIG_PREFIX + "config.path");
+        String source = boxConfig.getString(BOX_CONFIG_PREFIX + "source");
+        Path checkpointFile = Paths.get(this.configPath + boxConfig.getString(BOX_CONFIG_PREFIX + "checkpoint.file"));
+        this.dedupMaxEntries = boxConfig.getInt(BOX_CONFIG_PREFIX + "dedup.max.entries");
+        this.futuresTimeout = boxConfig.getInt("elastic.futures.timeout");
+        this.pollingInterval = boxConfig.getInt("elastic.enterprise.polling.interval");
+        long pollingMinBackoff = boxConfig.getLong("elastic.enterprise.polling.min.backoff");
+        this.backfillEnabled = boxConfig.getBoolean(BOX_CONFIG_PREFIX + "backfill.enabled");
+        IngestMetrics metrics = IngestMetricsExtension.INSTANCE.get(this.actorSystem);
+
+        this.parserDispatcher = this.actorSystem.dispatchers().lookup(PARSER_DISPATCHER);
+        this.pollingSchedule = new AdaptivePollingSchedule(pollingMinBackoff, TimeUnit.MINUTES.toMillis(this.pollingInterval));
+        this.lastESDocActor = this.actorSystem.actorOf(Props.create(GetLastElasticsearchDoc.class, boxConfig));
+        // The checkpoint and token cache of a tenant live in a directory of their own
+        Files.createDirectories(checkpointFile.toAbsolutePath().getParent());
+        Files.createDirectories(Paths.get(this.configPath + boxConfig.getString(BOX_CONFIG_PREFIX + "token.cache.file"))
+                .toAbsolutePath().getParent());
+        if(SYNTHETIC_SOURCE.equals(source)){
+            logger.info("Reading synthetic enterprise events instead of Box for {}", this.tenant);
+            this.eventSource = FetchSchedulerExtension.INSTANCE.get(this.actorSystem).share(
+                    new SyntheticEventSource(boxConfig.getConfig(BOX_CONFIG_PREFIX + "synthetic"), metrics), this.tenant.getWeight());
+        } else{
+            this.connectToBox();
+        }
+
+        // Open the local checkpoint of the last indexed stream position while Box authenticates
+        this.checkpointStore = new CheckpointStore(checkpointFile);
+        this.recentEventIds = new RecentEventIdCache(this.dedupMaxEntries);
+
+        String tenantName = this.tenant.getName();
+        this.fetchLatency = metrics.histogram("box_fetch_latency_ms", "Time to fetch a chunk of enterprise events from Box", tenantName);
+        this.fetchChunkSize = metrics.histogram("box_fetch_chunk_events", "Number of enterprise events in each chunk fetched from Box", tenantName);
+        this.parseTime = metrics.histogram("event_parse_micros", "Time to parse and serialize an enterprise event", tenantName);
+        this.eventsFetched = metrics.counter("box_events_fetched_total", "Enterprise events fetched from Box", tenantName);
+        this.duplicateEvents = metrics.counter("box_events_duplicate_total", "Fetched enterprise events dropped as already seen", tenantName);
+        this.demandWait = metrics.histogram("pipeline_demand_wait_ms", "Time a fetched chunk waited for the event stream to take it", tenantName);
+        metrics.gauge("box_stream_lag_ms", "Time between now and the newest created_at read from the event stream", tenantName, new Gauge() {
+            public long getValue() {
+                return lagMillis;
+            }
+        });
+        this.startSpooler();
+    }
+
+    private void startSpooler(){
+        // The spooler is watched so a failed spool is replaced along with the stream that feeds it
+        this.eventSpoolerActor = getContext().actorOf(Props.create(EventSpooler.class, this.tenant, this.esProducerActor, this.rollupActor)
+                .withMailbox(IngestMetricsExtension.METERED_MAILBOX), "event-spooler");
+        getContext().watch(this.eventSpoolerActor);
+        this.fetchedChunks = this.startEventStream(this.tenant.getConfig().getConfig(BOX_CONFIG_PREFIX + "pipeline"));
+    }
+
+    /**
+     * Reads the private key and authenticates the Box connection on the parser dispatcher. The connection is sent back
+     * to this actor, which starts polling with it.
+     */
+    private void connectToBox(){
+        final Config boxConfig = this.tenant.getConfig();
+        final String configPath = this.configPath;
+        final LoggingAdapter tokenCacheLogger = Logging.getLogger(this.actorSystem, EncryptedFileAccessTokenCache.class);
+        final long connectStartMillis = System.currentTimeMillis();
+        final ActorRef self = getSelf();
+        Futures.future(new Callable<BoxAPIConnection>() {
+            public BoxAPIConnection call() throws Exception {
+                return createBoxConnection(boxConfig, configPath, tokenCacheLogger);
+            }
+        }, this.parserDispatcher).onComplete(new OnComplete<BoxAPIConnection>() {
+            public void onComplete(Throwable failure, BoxAPIConnection api) {
+                if(failure != null){
+                    logger.error(failure, "Failed to create Box App Enterprise connection:");
+                } else{
+                    logger.info("Connected to Box in {} ms", System.currentTimeMillis() - connectStartMillis);
+                }
+                self.tell(new BoxConnected(api), ActorRef.noSender());
+            }
+        }, this.parserDispatcher);
+    }
+
+    private static BoxAPIConnection createBoxConnection(Config boxConfig, String configPath, LoggingAdapter tokenCacheLogger)
+            throws Exception {
         String clientId = boxConfig.getString(BOX_CONFIG_PREFIX + "client.id");
         String clientSecret = boxConfig.getString(BOX_CONFIG_PREFIX + "client.secret");
         String enterpriseId = boxConfig.getString(BOX_CONFIG_PREFIX + "enterprise.id");
@@ -59,34 +231,99 @@ public class BoxEnterpriseEventsConsumer extends UntypedActor{
         String privateKey = new String(Files.readAllBytes(Paths.get(configPath + privateKeyFile)));
         String privateKeyPassword = boxConfig.getString(BOX_CONFIG_PREFIX + "private.key.password");
         int maxCacheEntries = boxConfig.getInt(BOX_CONFIG_PREFIX + "max.cache.entries");
-        this.futuresTimeout = boxConfig.getInt("elastic.futures.timeout");
-        this.pollingInterval = boxConfig.getInt("elastic.enterprise.polling.interval");
 
-        try{
-            // Create JWT Encryption preferences
-            JWTEncryptionPreferences encryptionPref = new JWTEncryptionPreferences();
-            encryptionPref.setPublicKeyID(publicKeyId);
-            encryptionPref.setPrivateKey(privateKey);
-            encryptionPref.setPrivateKeyPassword(privateKeyPassword);
-            encryptionPref.setEncryptionAlgorithm(EncryptionAlgorithm.RSA_SHA_256);
-            IAccessTokenCache accessTokenCache = new InMemoryLRUAccessTokenCache(maxCacheEntries);
+        // Create JWT Encryption preferences
+        JWTEncryptionPreferences encryptionPref = new JWTEncryptionPreferences();
+        encryptionPref.setPublicKeyID(publicKeyId);
+        encryptionPref.setPrivateKey(privateKey);
+        encryptionPref.setPrivateKeyPassword(privateKeyPassword);
+        encryptionPref.setEncryptionAlgorithm(EncryptionAlgorithm.RSA_SHA_256);
+
+        // A token restored from the file skips the JWT round trip until it is due for a refresh
+        IAccessTokenCache accessTokenCache;
+        if(boxConfig.getBoolean(BOX_CONFIG_PREFIX + "token.cache.enabled")){
+            String tokenCacheSecret = boxConfig.getString(BOX_CONFIG_PREFIX + "token.cache.secret");
+            accessTokenCache = new EncryptedFileAccessTokenCache(
+                    Paths.get(configPath + boxConfig.getString(BOX_CONFIG_PREFIX + "token.cache.file")),
+                    tokenCacheSecret.isEmpty() ? clientSecret : tokenCacheSecret, maxCacheEntries, tokenCacheLogger);
+        } else{
+            accessTokenCache = new InMemoryLRUAccessTokenCache(maxCacheEntries);
+        }
 
-            // Instantiate Box Connection
-            this.api = BoxDeveloperEditionAPIConnection.getAppEnterpriseConnection(
-                    enterpriseId, clientId, clientSecret, encryptionPref, accessTokenCache);
-            this.api.setAutoRefresh(true);
-            logger.debug("Api state: " + this.api.save());
+        // Instantiate Box Connection
+        BoxDeveloperEditionAPIConnection api = BoxDeveloperEditionAPIConnection.getAppEnterpriseConnection(
+                enterpriseId, clientId, clientSecret, encryptionPref, accessTokenCache);
+        api.setAutoRefresh(true);
+        // Retries of the events requests are left to RateLimitedEventSource, which honors Retry-After
+        api.setMaxRequestAttempts(1);
+        api.setRequestInterceptor(new BoxEventsRequestInterceptor(api,
+                boxConfig.getInt(BOX_CONFIG_PREFIX + "fetch.connect.timeout"),
+                boxConfig.getInt(BOX_CONFIG_PREFIX + "fetch.read.timeout")));
+        return api;
+    }
 
-            this.lastESDocActor =  this.actorSystem.actorOf(Props.create(GetLastElasticsearchDoc.class));
+    private void onBoxConnected(BoxConnected connected){
+        if(connected.api == null){
+            // Try again after a back off, polling waits for the connection
+            long retryDelayMillis = this.pollingSchedule.backOff();
+            logger.warning("Connecting to Box again in {} ms", retryDelayMillis);
+            cancellable = this.actorSystem.scheduler().scheduleOnce(
+                    Duration.create(retryDelayMillis, TimeUnit.MILLISECONDS),
+                    getSelf(),
+                    CONNECT_TICK,
+                    getContext().dispatcher(),
+                    ActorRef.noSender());
+            return;
+        }
+        Config boxConfig = this.tenant.getConfig();
+        IngestMetrics metrics = IngestMetricsExtension.INSTANCE.get(this.actorSystem);
+        this.api = connected.api;
+        logger.debug("Api state: " + this.api.save());
+        Config fetchConfig = boxConfig.getConfig(BOX_CONFIG_PREFIX + "fetch");
+        boolean enrichmentEnabled = boxConfig.getBoolean(BOX_CONFIG_PREFIX + "enrichment.enabled");
+        EnterpriseEventSource boxSource;
+        if(fetchConfig.getBoolean("streaming") && !enrichmentEnabled){
+            boxSource = new StreamingEventLogSource(this.api, fetchConfig.getInt("connect.timeout"),
+                    fetchConfig.getInt("read.timeout"), Logging.getLogger(this.actorSystem, StreamingEventLogSource.class));
+        } else{
+            if(fetchConfig.getBoolean("streaming")){
+                // The enricher looks users and items up from the BoxEvents of a chunk
+                logger.warning("Streaming fetch is not used while enrichment is enabled");
+            }
+            boxSource = new BoxEventLogSource(this.api);
+        }
+        // The rate limit of the tenant stays in front of the slots it shares with the other tenants
+        this.eventSource = new RateLimitedEventSource(boxSource,
+                FetchSchedulerExtension.INSTANCE.get(this.actorSystem).share(this.tenant.getWeight()), fetchConfig, metrics,
+                this.tenant, Logging.getLogger(this.actorSystem, RateLimitedEventSource.class));
+        if(enrichmentEnabled){
+            this.enricher = new EventEnricher(this.api, boxConfig.getConfig(BOX_CONFIG_PREFIX + "enrichment"), metrics,
+                    this.tenant, Logging.getLogger(this.actorSystem, EventEnricher.class));
         }
-        catch (Exception e){
-            logger.error(e, "Failed to create Box App Enterprise connection:");
+        if(isPolling){
+            this.scheduleNextPoll(0);
         }
     }
 
     public void onReceive(Object message) throws Throwable {
-        logger.debug("Received message: {} from sender: {}", message.toString(), getSender().getClass());
-        this.getEnterpriseEvents();
+        if(POLL_TICK.equals(message)){
+            this.pollEnterpriseEvents();
+        } else if(message instanceof BoxConnected){
+            this.onBoxConnected((BoxConnected) message);
+        } else if(CONNECT_TICK.equals(message)){
+            this.connectToBox();
+        } else if(message instanceof Checkpoint){
+            this.commitCheckpoint((Checkpoint) message);
+        } else if(message instanceof ChunkOffered){
+            this.onChunkOffered((ChunkOffered) message);
+        } else if(message instanceof Terminated){
+            this.onSpoolerStopped(((Terminated) message).getActor());
+        } else if(SPOOLER_RESTART_TICK.equals(message)){
+            this.restartSpooler();
+        } else{
+            logger.debug("Received message: {} from sender: {}", message.toString(), getSender().getClass());
+            this.getEnterpriseEvents();
+        }
     }
 
     private Map<String, Object> findLastESDoc(){
@@ -108,69 +345,373 @@ public class BoxEnterpriseEventsConsumer extends UntypedActor{
         return lastESDocMap;
     }
 
+    private void findStartingPosition(){
+        // Resume from the local checkpoint and only fall back to searching ES when there is none
+        Checkpoint checkpoint = this.checkpointStore.read();
+        if(checkpoint != null){
+            logger.info("Resuming from local {}", checkpoint);
+            this.nextStreamPosition = checkpoint.getStreamPosition();
+            this.maxCreatedAtDate = checkpoint.getCreatedAtDate();
+        } else{
+            logger.info("No local checkpoint found at {}, getting last search doc from ES", this.checkpointStore.getPath());
+            Map<String, Object> lastESDocMap = this.findLastESDoc();
+            this.nextStreamPosition = String.valueOf(lastESDocMap.get("next_stream_position"));
+            this.maxCreatedAtDate = (Date) lastESDocMap.get("max_created_at_date");
+
+            // An empty index gets the lookback window from the backfill workers while tailing starts from now
+            if(this.backfillEnabled && "0".equals(this.nextStreamPosition) && this.maxCreatedAtDate != null){
+                Date windowEnd = new Date(System.currentTimeMillis());
+                getContext().actorOf(Props.create(BackfillCoordinator.class, this.eventSource, this.enricher, this.maxCreatedAtDate, windowEnd,
+                        this.tenant, this.esProducerActor, this.rollupActor), "backfill");
+                this.maxCreatedAtDate = windowEnd;
+                return;
+            }
+        }
+
+        // Pick up slices of a backfill that was interrupted by a restart
+        try{
+            if(this.backfillEnabled && BackfillCoordinator.hasUnfinishedSlices(this.tenant.getConfig())){
+                getContext().actorOf(Props.create(BackfillCoordinator.class, this.eventSource, this.enricher, null, null,
+                        this.tenant, this.esProducerActor, this.rollupActor), "backfill");
+            }
+        } catch (Exception e){
+            logger.error(e, "Failed to look for unfinished backfill slices");
+        }
+    }
+
+    private void commitCheckpoint(Checkpoint checkpoint){
+        if(checkpoint.equals(this.checkpointStore.read())){
+            return;
+        }
+        try{
+            this.checkpointStore.commit(checkpoint);
+            logger.debug("Committed {}", checkpoint);
+        } catch (Exception e){
+            logger.error(e, "Failed to commit {}", checkpoint);
+        }
+    }
+
+    private void onSpoolerStopped(ActorRef spooler){
+        if(!spooler.equals(this.eventSpoolerActor)){
+            return;
+        }
+        // The spooler stops when a chunk could not be spooled, which also ends the stream it was the sink of
+        this.eventSpoolerActor = null;
+        logger.error("Event spooler stopped, fetching again from the last committed checkpoint with a new spool in {} seconds",
+                SPOOLER_RESTART_SECONDS);
+        this.actorSystem.scheduler().scheduleOnce(
+                Duration.create(SPOOLER_RESTART_SECONDS, TimeUnit.SECONDS),
+                getSelf(),
+                SPOOLER_RESTART_TICK,
+                getContext().dispatcher(),
+                ActorRef.noSender());
+    }
+
+    private void restartSpooler(){
+        if(!isFirstRun){
+            this.rewindToCommittedCheckpoint();
+        }
+        this.materializer.shutdown();
+        this.startSpooler();
+    }
+
+    private void rewindToCommittedCheckpoint(){
+        // Chunks fetched after the last committed checkpoint may never have reached the spool, so they are fetched
+        // again and must not be dropped as already seen
+        Checkpoint checkpoint = this.checkpointStore.read();
+        this.nextStreamPosition = checkpoint == null ? this.firstStreamPosition : checkpoint.getStreamPosition();
+        this.maxCreatedAtDate = checkpoint == null ? this.firstCreatedAtDate : checkpoint.getCreatedAtDate();
+        this.recentEventIds = new RecentEventIdCache(this.dedupMaxEntries);
+        logger.info("Fetching again from stream position {}", this.nextStreamPosition);
+    }
 
     private void getEnterpriseEvents(){
+        if(isPolling){
+            logger.debug("Box events consumer is already polling");
+            return;
+        }
+        isPolling = true;
+        if(this.eventSource == null){
+            logger.info("Waiting for the Box connection to start polling");
+            return;
+        }
+        getSelf().tell(POLL_TICK, ActorRef.noSender());
+    }
+
+    private void scheduleNextPoll(long delayMillis){
+        // Polls are sent to this actor so the stream position is only touched by the actor
+        if(delayMillis == 0){
+            getSelf().tell(POLL_TICK, ActorRef.noSender());
+            return;
+        }
+        cancellable = this.actorSystem.scheduler().scheduleOnce(
+                Duration.create(delayMillis, TimeUnit.MILLISECONDS),
+                getSelf(),
+                POLL_TICK,
+                getContext().dispatcher(),
+                ActorRef.noSender());
+    }
+
+    private void pollEnterpriseEvents(){
+        long nextPollDelay;
         try{
-            final ActorRef esProducerActor = this.actorSystem.actorOf(Props.create(ElasticsearchProducer.class));
-            final ActorRef enterpriseEventJsonParserActor = this.actorSystem.actorOf(Props.create(BoxEnterpriseEventJsonParser.class));
-
-            // Create a scheduler
-            cancellable = this.actorSystem.scheduler().schedule(Duration.Zero(), Duration.create(this.pollingInterval, TimeUnit.MINUTES), new Runnable() {
-                public void run() {
-                    if(api.needsRefresh()){
-                        api.refresh();
-                    }
+            // Get next stream position and the last created_at date
+            if(isFirstRun){
+                this.findStartingPosition();
+                this.firstStreamPosition = nextStreamPosition;
+                this.firstCreatedAtDate = maxCreatedAtDate;
+                isFirstRun = false;
+            }
 
-                    // Get next stream position and the last created_at date and store in a hashmap
-                    Map<String, Object> lastESDocMap = findLastESDoc();
-                    if(isFirstRun){
-                        nextStreamPosition = String.valueOf(lastESDocMap.get("next_stream_position"));
-                        isFirstRun = false;
+            // Polling waits while a failed spool is replaced
+            if(this.eventSpoolerActor == null){
+                this.scheduleNextPoll(TimeUnit.SECONDS.toMillis(SPOOLER_RESTART_SECONDS));
+                return;
+            }
+
+            // Get enterprise events
+            long fetchStartNanos = System.nanoTime();
+            EnterpriseEventChunk eventLog = this.eventSource.getEnterpriseEvents(nextStreamPosition, maxCreatedAtDate, new Date(System.currentTimeMillis()));
+            this.fetchLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - fetchStartNanos));
+            this.fetchChunkSize.record(eventLog.getSize());
+            this.eventsFetched.add(eventLog.getSize());
+            nextStreamPosition = eventLog.getNextStreamPosition();
+            logger.debug("Current Stream Position: {}", eventLog.getStreamPosition());
+            logger.debug("Next Stream Position: {}", nextStreamPosition);
+            logger.debug("Chunk Size: {}", eventLog.getChunkSize());
+            logger.debug("Event Log length: {}", eventLog.getSize());
+
+            // Drop events that were already picked up by an overlapping window and move the created_at window up
+            // to the newest event in the chunk
+            List<BoxEvent> newEvents = new ArrayList<BoxEvent>(eventLog.getSize());
+            List<EnterpriseEventDocument> newDocuments = null;
+            if(eventLog.hasDocuments()){
+                newDocuments = new ArrayList<EnterpriseEventDocument>(eventLog.getSize());
+                for(EnterpriseEventDocument document: eventLog.getDocuments()){
+                    if(!this.recentEventIds.add(document.getId())){
+                        continue;
                     }
-                    Date maxCreatedAtDate = (Date) lastESDocMap.get("max_created_at_date");
-
-                    // Get enterprise events
-                    EventLog eventLog = EventLog.getEnterpriseEvents(api, nextStreamPosition, maxCreatedAtDate, new Date(System.currentTimeMillis()));
-                    nextStreamPosition = eventLog.getNextStreamPosition();
-                    logger.debug("Current Stream Position: {}", eventLog.getStreamPosition());
-                    logger.debug("Next Stream Position: {}", nextStreamPosition);
-                    logger.debug("Chunk Size: {}", eventLog.getChunkSize());
-                    logger.debug("Event Log length: {}", eventLog.getSize());
-
-                    // Loop through new events
-                    for(BoxEvent boxEvent: eventLog){
-                        try {
-                            // Get a parsed enterpriseEvent object
-                            Timeout timeout = new Timeout(Duration.create(futuresTimeout, TimeUnit.SECONDS));
-                            Future<Object> enterpriseEventFuture = Patterns.ask(enterpriseEventJsonParserActor, boxEvent, timeout);
-                            Object asyncResult = Await.result(enterpriseEventFuture, timeout.duration());
-                            if(asyncResult instanceof JsonObject) {
-                                JsonObject enterpriseEvent = (JsonObject) asyncResult;
-                                enterpriseEvent.add("next_stream_position", eventLog.getNextStreamPosition());
-
-                                logger.info("Found and parsed Box enterprise event with type: {} and event id: {}",
-                                        enterpriseEvent.get("type").asString(),
-                                        enterpriseEvent.get("id").asString());
-                                logger.debug("Found and parsed Box enterprise event: {}", enterpriseEvent.toString());
-                                esProducerActor.tell(enterpriseEvent, getSelf());
-                            } else{
-                                logger.error("Result from actor {} is not of type JsonObject", enterpriseEventJsonParserActor);
-                            }
-                        } catch (Exception e) {
-                            logger.error(e, "Failed to parse json form enterprise event");
-                        }
+                    newDocuments.add(document);
+                    this.advanceMaxCreatedAt(document.getCreatedAtMillis());
+                }
+            } else{
+                for(BoxEvent boxEvent: eventLog){
+                    if(!this.recentEventIds.add(boxEvent.getID())){
+                        continue;
                     }
+                    newEvents.add(boxEvent);
+                    this.advanceMaxCreatedAt(boxEvent.getCreatedAt().getTime());
                 }
-            }, actorSystem.dispatcher());
+            }
+            int newCount = newDocuments == null ? newEvents.size() : newDocuments.size();
+            this.duplicateEvents.add(eventLog.getSize() - newCount);
+            logger.debug("Found {} new events, {} already seen", newCount, eventLog.getSize() - newCount);
+
+            // Keep draining the stream back to back while Box returns full chunks
+            nextPollDelay = this.pollingSchedule.next(eventLog.getSize(), eventLog.getLimit());
+            if(maxCreatedAtDate != null){
+                this.lagMillis = System.currentTimeMillis() - maxCreatedAtDate.getTime();
+            }
+            logger.info("Fetched {} enterprise events, stream lag: {} ms, next poll in {} ms",
+                    eventLog.getSize(), this.lagMillis, nextPollDelay);
+
+            Checkpoint checkpoint = null;
+            if(maxCreatedAtDate != null){
+                checkpoint = new Checkpoint(nextStreamPosition, maxCreatedAtDate.getTime());
+            }
+
+            // Look up the users and items of the chunk up front so the parsers only read them from the caches
+            if(this.enricher != null){
+                this.enricher.prefetch(newEvents);
+            }
+            this.offerChunk(new FetchedChunk(newEvents, newDocuments, nextStreamPosition, checkpoint, this.enricher), nextPollDelay);
+            return;
         }
         catch(Exception e){
             logger.error(e, "Failed to get enterprise events");
+            nextPollDelay = this.pollingSchedule.backOff();
+            this.reauthenticateIfUnauthorized(e);
+        }
+        this.scheduleNextPoll(nextPollDelay);
+    }
+
+    private void advanceMaxCreatedAt(long createdAtMillis){
+        if(maxCreatedAtDate == null || createdAtMillis > maxCreatedAtDate.getTime()){
+            maxCreatedAtDate = new Date(createdAtMillis);
+        }
+    }
+
+    private void offerChunk(FetchedChunk chunk, final long nextPollDelay){
+        // The offer completes once the stream has room for the chunk, only then is Box polled again
+        final ActorRef self = getSelf();
+        final long offeredAtNanos = System.nanoTime();
+        FutureConverters.toScala(this.fetchedChunks.offer(chunk)).onComplete(new OnComplete<QueueOfferResult>() {
+            public void onComplete(Throwable failure, QueueOfferResult result) {
+                long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - offeredAtNanos);
+                self.tell(new ChunkOffered(failure == null && result == QueueOfferResult.enqueued(), waitMillis, nextPollDelay),
+                        ActorRef.noSender());
+            }
+        }, getContext().dispatcher());
+    }
+
+    private void onChunkOffered(ChunkOffered offered){
+        this.demandWait.record(offered.waitMillis);
+        if(!offered.enqueued){
+            logger.warning("The event stream did not take the fetched chunk, it is fetched again from the last committed checkpoint");
+            this.rewindToCommittedCheckpoint();
+            this.scheduleNextPoll(this.pollingSchedule.backOff());
+            return;
+        }
+        if(offered.waitMillis > 0){
+            logger.debug("Fetched chunk waited {} ms for the event stream", offered.waitMillis);
+        }
+        this.scheduleNextPoll(offered.nextPollDelay);
+    }
+
+    private void reauthenticateIfUnauthorized(Exception e){
+        // A token restored from the token cache may have been revoked before it expired
+        if(!(e instanceof BoxAPIException) || ((BoxAPIException) e).getResponseCode() != HTTP_UNAUTHORIZED
+                || !(this.api instanceof BoxDeveloperEditionAPIConnection)){
+            return;
+        }
+        try{
+            logger.warning("Box rejected the access token, authenticating again");
+            ((BoxDeveloperEditionAPIConnection) this.api).authenticate();
+        } catch (Exception ae){
+            logger.error(ae, "Failed to authenticate with Box");
+        }
+    }
+
+    private SourceQueueWithComplete<FetchedChunk> startEventStream(Config pipelineConfig){
+        // Stages hold a single element between them, the buffers below are the only places chunks pile up
+        this.materializer = ActorMaterializer.create(
+                ActorMaterializerSettings.create(this.actorSystem).withInputBuffer(1, 1), getContext());
+        return Source.<FetchedChunk>queue(pipelineConfig.getInt("fetch.buffer.chunks"), OverflowStrategy.backpressure())
+                // Chunks are parsed in parallel but must reach the spool in the order they were fetched, otherwise the
+                // checkpoint of a chunk could be committed before an earlier chunk is on disk, so this is never
+                // mapAsyncUnordered
+                .mapAsync(pipelineConfig.getInt("parse.parallelism"), new Function<FetchedChunk, CompletionStage<EventSpooler.SpoolChunk>>() {
+                    public CompletionStage<EventSpooler.SpoolChunk> apply(FetchedChunk chunk) {
+                        return FutureConverters.toJava(parseChunk(chunk));
+                    }
+                })
+                .buffer(pipelineConfig.getInt("spool.buffer.chunks"), OverflowStrategy.backpressure())
+                // The spooler acknowledges each chunk once it is on disk and holds the acknowledgement while it is full
+                .to(Sink.<EventSpooler.SpoolChunk>actorRefWithAck(this.eventSpoolerActor, EventSpooler.STREAM_STARTED,
+                        EventSpooler.CHUNK_SPOOLED, EventSpooler.STREAM_COMPLETED, new Function<Throwable, Object>() {
+                            public Object apply(Throwable failure) {
+                                return new EventSpooler.StreamFailed(failure);
+                            }
+                        }))
+                .run(this.materializer);
+    }
+
+    // Called by the stream, not by this actor
+    private Future<EventSpooler.SpoolChunk> parseChunk(final FetchedChunk chunk){
+        Future<Iterable<EnterpriseEventDocument>> parsedEvents;
+        if(chunk.documents != null){
+            // Streamed chunks were written into docs while they were read from Box
+            parsedEvents = Futures.<Iterable<EnterpriseEventDocument>>successful(chunk.documents);
+        } else{
+            parsedEvents = this.parseEvents(chunk);
+        }
+
+        return parsedEvents.map(new Mapper<Iterable<EnterpriseEventDocument>, EventSpooler.SpoolChunk>() {
+            public EventSpooler.SpoolChunk apply(Iterable<EnterpriseEventDocument> enterpriseEvents) {
+                List<EnterpriseEventDocument> documents = new ArrayList<EnterpriseEventDocument>(chunk.size());
+                for(EnterpriseEventDocument enterpriseEvent: enterpriseEvents){
+                    if(enterpriseEvent == null){
+                        continue;
+                    }
+
+                    logger.debug("Found and parsed Box enterprise event with type: {} and event id: {}",
+                            enterpriseEvent.getType(),
+                            enterpriseEvent.getId());
+                    documents.add(enterpriseEvent);
+                }
+                // The spooler sends the checkpoint back once every event of the chunk is on disk in the spool
+                return new EventSpooler.SpoolChunk(documents, chunk.checkpoint);
+            }
+        }, parserDispatcher);
+    }
+
+    private Future<Iterable<EnterpriseEventDocument>> parseEvents(final FetchedChunk chunk){
+        // Serialize every event in the chunk in parallel on the parser dispatcher
+        List<Future<EnterpriseEventDocument>> parsedEventFutures = new ArrayList<Future<EnterpriseEventDocument>>(chunk.events.size());
+        final LatencyHistogram parseTime = this.parseTime;
+        for(final BoxEvent boxEvent: chunk.events){
+            parsedEventFutures.add(Futures.future(new Callable<EnterpriseEventDocument>() {
+                public EnterpriseEventDocument call() {
+                    try {
+                        long parseStartNanos = System.nanoTime();
+                        EnterpriseEventDocument enterpriseEvent = EnterpriseEventWriter.write(boxEvent, chunk.streamPosition, chunk.enricher);
+                        parseTime.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - parseStartNanos));
+                        return enterpriseEvent;
+                    } catch (Exception e) {
+                        logger.error(e, "Failed to parse json form enterprise event with id: {}", boxEvent.getID());
+                        return null;
+                    }
+                }
+            }, parserDispatcher));
         }
+
+        // Sequence keeps the parsed events in the same order as the chunk
+        return Futures.sequence(parsedEventFutures, parserDispatcher);
     }
 
     @Override
     public void postStop() throws Exception {
         // Cancel the scheduler after the actor stops
-        cancellable.cancel();
+        if(cancellable != null){
+            cancellable.cancel();
+        }
+        if(this.enricher != null){
+            this.enricher.close();
+        }
+        this.checkpointStore.close();
+    }
+
+    // Deduplicated events or streamed docs of a fetched chunk and the checkpoint right after them
+    private static final class FetchedChunk {
+        private final List<BoxEvent> events;
+        private final List<EnterpriseEventDocument> documents;
+        private final String streamPosition;
+        private final Checkpoint checkpoint;
+        // Read by the parsers off the actor thread
+        private final EventEnricher enricher;
+
+        private FetchedChunk(List<BoxEvent> events, List<EnterpriseEventDocument> documents, String streamPosition,
+                             Checkpoint checkpoint, EventEnricher enricher) {
+            this.events = events;
+            this.documents = documents;
+            this.streamPosition = streamPosition;
+            this.checkpoint = checkpoint;
+            this.enricher = enricher;
+        }
+
+        private int size() {
+            return this.documents == null ? this.events.size() : this.documents.size();
+        }
+    }
+
+    private static final class ChunkOffered {
+        private final boolean enqueued;
+        private final long waitMillis;
+        private final long nextPollDelay;
+
+        private ChunkOffered(boolean enqueued, long waitMillis, long nextPollDelay) {
+            this.enqueued = enqueued;
+            this.waitMillis = waitMillis;
+            this.nextPollDelay = nextPollDelay;
+        }
+    }
+
+    private static final class BoxConnected {
+        // Null if the connection failed
+        private final BoxAPIConnection api;
+
+        private BoxConnected(BoxAPIConnection api) {
+            this.api = api;
+        }
     }
 }
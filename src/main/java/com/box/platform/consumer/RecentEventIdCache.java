@@ -0,0 +1,39 @@
+package com.box.platform.consumer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU set of the most recently seen Box event ids. Polling windows overlap on the created_at boundary, so
+ * this lets the consumer drop events it has already handed to the parser before doing any more work on them.
+ *
+ * Not thread safe, it is only used from the consumer actor.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class RecentEventIdCache {
+    private final Map<String, Boolean> eventIds;
+
+    public RecentEventIdCache(final int maxEntries) {
+        this.eventIds = new LinkedHashMap<String, Boolean>(Math.min(maxEntries, 1 << 16), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Records the event id.
+     *
+     * @return true if the id has not been seen recently
+     */
+    public boolean add(String eventId) {
+        return this.eventIds.put(eventId, Boolean.TRUE) == null;
+    }
+
+    public int size() {
+        return this.eventIds.size();
+    }
+}
@@ -0,0 +1,280 @@
+package com.box.platform.enrichment;
+
+import akka.event.LoggingAdapter;
+import com.box.platform.metrics.IngestMetrics;
+import com.box.platform.source.TokenBucket;
+import com.box.platform.tenant.Tenant;
+import com.box.sdk.BoxAPIConnection;
+import com.box.sdk.BoxAPIException;
+import com.box.sdk.BoxEvent;
+import com.box.sdk.BoxFile;
+import com.box.sdk.BoxFolder;
+import com.box.sdk.BoxGroupMembership;
+import com.box.sdk.BoxItem;
+import com.box.sdk.BoxUser;
+import com.eclipsesource.json.JsonObject;
+import com.typesafe.config.Config;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Looks up the Box users that created events and the files and folders they happened to, so their status, role,
+ * groups and path can be indexed with the event. Lookups are cached for a while, so a busy user or folder is looked
+ * up once per ttl instead of once per event.
+ *
+ * Box has no endpoint to look up many users or items at once, so a chunk is enriched by prefetching every distinct
+ * user and item that is not cached yet in parallel before its events are written. Chunks that need the same user or
+ * item at the same time, like the backfill slices, share a single lookup.
+ *
+ * A user or item that Box no longer knows is cached as missing, any other failed lookup is not cached and its events
+ * are written without enrichment.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class EventEnricher {
+    private static final String FILE = "file";
+    private static final String FOLDER = "folder";
+    private static final String ROOT_FOLDER_ID = "0";
+
+    private final BoxAPIConnection api;
+    private final LoggingAdapter logger;
+    private final TtlCache<String, UserProfile> users;
+    private final TtlCache<String, String> itemPaths;
+    private final TokenBucket tokenBucket;
+    private final ExecutorService lookupExecutor;
+
+    public EventEnricher(BoxAPIConnection api, Config enrichmentConfig, IngestMetrics metrics, Tenant tenant,
+                         LoggingAdapter logger) {
+        this.api = api;
+        this.logger = logger;
+        this.users = new TtlCache<String, UserProfile>("user",
+                enrichmentConfig.getInt("users.max.entries"),
+                TimeUnit.MINUTES.toMillis(enrichmentConfig.getLong("users.ttl")),
+                metrics,
+                tenant.getName());
+        this.itemPaths = new TtlCache<String, String>("item",
+                enrichmentConfig.getInt("items.max.entries"),
+                TimeUnit.MINUTES.toMillis(enrichmentConfig.getLong("items.ttl")),
+                metrics,
+                tenant.getName());
+        double requestsPerSecond = enrichmentConfig.getDouble("lookup.requests.per.second");
+        this.tokenBucket = new TokenBucket(requestsPerSecond, requestsPerSecond);
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.lookupExecutor = Executors.newFixedThreadPool(Math.max(1, enrichmentConfig.getInt("lookup.threads")),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "box-enrichment-lookup-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Looks up every user and item of the events that is not cached yet and blocks until they are all done.
+     */
+    public void prefetch(Iterable<BoxEvent> boxEvents) {
+        Set<String> userIds = new LinkedHashSet<String>();
+        Set<String> itemKeys = new LinkedHashSet<String>();
+        for(BoxEvent boxEvent : boxEvents){
+            String userId = userId(boxEvent);
+            if(userId != null){
+                userIds.add(userId);
+            }
+            String itemKey = itemKey(boxEvent.getSourceJSON());
+            if(itemKey != null){
+                itemKeys.add(itemKey);
+            }
+        }
+        Iterator<String> userIdIterator = userIds.iterator();
+        while(userIdIterator.hasNext()){
+            if(this.users.contains(userIdIterator.next())){
+                userIdIterator.remove();
+            }
+        }
+        Iterator<String> itemKeyIterator = itemKeys.iterator();
+        while(itemKeyIterator.hasNext()){
+            if(this.itemPaths.contains(itemKeyIterator.next())){
+                itemKeyIterator.remove();
+            }
+        }
+        if(userIds.isEmpty() && itemKeys.isEmpty()){
+            return;
+        }
+
+        List<Future<?>> lookups = new ArrayList<Future<?>>(userIds.size() + itemKeys.size());
+        for(final String userId : userIds){
+            lookups.add(this.lookupExecutor.submit(new Runnable() {
+                public void run() {
+                    lookupUser(userId);
+                }
+            }));
+        }
+        for(final String itemKey : itemKeys){
+            lookups.add(this.lookupExecutor.submit(new Runnable() {
+                public void run() {
+                    lookupItemPath(itemKey);
+                }
+            }));
+        }
+        for(Future<?> lookup : lookups){
+            try {
+                lookup.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ee) {
+                logger.warning("Enrichment lookup failed: {}", ee.getCause().toString());
+            } catch (CancellationException ce) {
+                // The enricher was closed
+                return;
+            }
+        }
+    }
+
+    /**
+     * Only reads the cache, so events are never held up by Box once their chunk was prefetched.
+     *
+     * @return the user that created the event, or null if it is unknown or was not looked up
+     */
+    public UserProfile getUser(BoxEvent boxEvent) {
+        String userId = userId(boxEvent);
+        return userId == null ? null : this.users.peek(userId);
+    }
+
+    /**
+     * Only reads the cache, so events are never held up by Box once their chunk was prefetched.
+     *
+     * @return the path of the file or folder the event happened to, like /Finance/2017/budget.xlsx, or null if the
+     * source is no file or folder or its path was not looked up
+     */
+    public String getItemPath(BoxEvent boxEvent) {
+        String itemKey = itemKey(boxEvent.getSourceJSON());
+        return itemKey == null ? null : this.itemPaths.peek(itemKey);
+    }
+
+    public void close() {
+        // Lookups that never ran are cancelled so a prefetch waiting on them returns
+        for(Runnable lookup : this.lookupExecutor.shutdownNow()){
+            if(lookup instanceof Future){
+                ((Future<?>) lookup).cancel(false);
+            }
+        }
+    }
+
+    private void lookupUser(final String userId) {
+        try {
+            this.users.get(userId, new Callable<UserProfile>() {
+                public UserProfile call() throws Exception {
+                    return loadUser(userId);
+                }
+            });
+        } catch (ExecutionException ee) {
+            logger.warning("Could not look up Box user {}: {}", userId, ee.getCause().toString());
+        }
+    }
+
+    private void lookupItemPath(final String itemKey) {
+        try {
+            this.itemPaths.get(itemKey, new Callable<String>() {
+                public String call() throws Exception {
+                    return loadItemPath(itemKey);
+                }
+            });
+        } catch (ExecutionException ee) {
+            logger.warning("Could not look up the path of Box {}: {}", itemKey, ee.getCause().toString());
+        }
+    }
+
+    private UserProfile loadUser(String userId) throws InterruptedException {
+        BoxUser user = new BoxUser(this.api, userId);
+        try {
+            this.tokenBucket.acquire();
+            BoxUser.Info info = user.getInfo("status", "role");
+            this.tokenBucket.acquire();
+            List<String> groups = new ArrayList<String>();
+            for(BoxGroupMembership.Info membership : user.getMemberships()){
+                if(membership.getGroup() != null){
+                    groups.add(membership.getGroup().getName());
+                }
+            }
+            return new UserProfile(userId,
+                    info.getStatus() == null ? null : info.getStatus().name().toLowerCase(),
+                    info.getRole() == null ? null : info.getRole().name().toLowerCase(),
+                    groups);
+        } catch (BoxAPIException bae) {
+            if(bae.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND){
+                return null;
+            }
+            throw bae;
+        }
+    }
+
+    private String loadItemPath(String itemKey) throws InterruptedException {
+        int separator = itemKey.indexOf(':');
+        String type = itemKey.substring(0, separator);
+        String id = itemKey.substring(separator + 1);
+        try {
+            this.tokenBucket.acquire();
+            BoxItem.Info info = FILE.equals(type)
+                    ? new BoxFile(this.api, id).getInfo("name", "path_collection")
+                    : new BoxFolder(this.api, id).getInfo("name", "path_collection");
+            StringBuilder path = new StringBuilder();
+            if(info.getPathCollection() != null){
+                for(BoxFolder.Info folder : info.getPathCollection()){
+                    // All Files is the root of every path
+                    if(!ROOT_FOLDER_ID.equals(folder.getID())){
+                        path.append('/').append(folder.getName());
+                    }
+                }
+            }
+            return path.append('/').append(info.getName()).toString();
+        } catch (BoxAPIException bae) {
+            if(bae.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND){
+                return null;
+            }
+            throw bae;
+        }
+    }
+
+    private static String userId(BoxEvent boxEvent) {
+        BoxUser.Info createdBy = boxEvent.getCreatedBy();
+        return createdBy == null ? null : createdBy.getID();
+    }
+
+    /**
+     * Events about files and folders have the item itself as their source, events about shares and collaborations
+     * name it in item_type and item_id.
+     */
+    private static String itemKey(JsonObject source) {
+        if(source == null){
+            return null;
+        }
+        String type = source.getString("item_type", null);
+        String id = source.getString("item_id", null);
+        if(type == null || id == null){
+            type = source.getString("type", null);
+            id = source.getString("id", null);
+        }
+        if(id == null || (!FILE.equals(type) && !FOLDER.equals(type))){
+            return null;
+        }
+        return type + ":" + id;
+    }
+}
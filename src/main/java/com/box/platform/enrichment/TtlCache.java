@@ -0,0 +1,141 @@
+package com.box.platform.enrichment;
+
+import com.box.platform.metrics.Counter;
+import com.box.platform.metrics.Gauge;
+import com.box.platform.metrics.IngestMetrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded LRU cache whose entries expire a fixed time after they were loaded. Threads that miss on a key that is
+ * already being loaded wait for that load instead of starting their own, so every key is loaded at most once per
+ * ttl. A loader may return null for an entity that does not exist, which is cached like any other value.
+ *
+ * Publishes hits, misses, coalesced misses, the hit ratio and the size under enrichment_name_cache_*, labelled with the
+ * tenant whose events the cache enriches.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class TtlCache<K, V> {
+    private final long ttlNanos;
+    private final Map<K, Entry<V>> entries;
+    private final ConcurrentHashMap<K, FutureTask<V>> loads = new ConcurrentHashMap<K, FutureTask<V>>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter coalesced;
+
+    public TtlCache(String name, final int maxEntries, long ttlMillis, IngestMetrics metrics, String tenant) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<K, Entry<V>>(Math.min(maxEntries, 1 << 16), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        String prefix = "enrichment_" + name + "_cache_";
+        this.hits = metrics.counter(prefix + "hits_total", "Lookups of " + name + "s answered from the cache", tenant);
+        this.misses = metrics.counter(prefix + "misses_total", "Lookups of " + name + "s that loaded from Box", tenant);
+        this.coalesced = metrics.counter(prefix + "coalesced_total", "Lookups of " + name + "s that waited on a load already running", tenant);
+        metrics.gauge(prefix + "hit_ratio_percent", "Share of " + name + " lookups answered from the cache", tenant, new Gauge() {
+            public long getValue() {
+                long total = hits.get() + misses.get() + coalesced.get();
+                return total == 0 ? 0 : (hits.get() + coalesced.get()) * 100 / total;
+            }
+        });
+        metrics.gauge(prefix + "size", "Number of " + name + "s in the cache", tenant, new Gauge() {
+            public long getValue() {
+                return size();
+            }
+        });
+    }
+
+    /**
+     * @return the cached value, or the value the loader returns if the key is not cached or expired
+     * @throws ExecutionException if the loader failed, nothing is cached then
+     */
+    public V get(final K key, Callable<V> loader) throws ExecutionException {
+        synchronized(this.entries){
+            Entry<V> entry = this.entries.get(key);
+            if(entry != null && System.nanoTime() < entry.expiresAtNanos){
+                this.hits.increment();
+                return entry.value;
+            }
+        }
+
+        FutureTask<V> load = new FutureTask<V>(loader);
+        FutureTask<V> running = this.loads.putIfAbsent(key, load);
+        if(running == null){
+            this.misses.increment();
+            try {
+                load.run();
+                V value = load.get();
+                synchronized(this.entries){
+                    this.entries.put(key, new Entry<V>(value, System.nanoTime() + this.ttlNanos));
+                }
+                return value;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new ExecutionException(ie);
+            } finally {
+                this.loads.remove(key, load);
+            }
+        }
+
+        this.coalesced.increment();
+        try {
+            return running.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(ie);
+        }
+    }
+
+    /**
+     * @return true if the key is cached and not expired, which counts as a hit
+     */
+    public boolean contains(K key) {
+        synchronized(this.entries){
+            Entry<V> entry = this.entries.get(key);
+            if(entry != null && System.nanoTime() < entry.expiresAtNanos){
+                this.hits.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return the cached value, or null if the key is not cached or expired, without counting a hit or a miss
+     */
+    public V peek(K key) {
+        synchronized(this.entries){
+            Entry<V> entry = this.entries.get(key);
+            return entry != null && System.nanoTime() < entry.expiresAtNanos ? entry.value : null;
+        }
+    }
+
+    public int size() {
+        synchronized(this.entries){
+            return this.entries.size();
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAtNanos;
+
+        private Entry(V value, long expiresAtNanos) {
+            this.value = value;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.box.platform.enrichment;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The attributes of a Box user that are added to the created_by of its events.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class UserProfile {
+    private final String id;
+    private final String status;
+    private final String role;
+    private final List<String> groups;
+
+    public UserProfile(String id, String status, String role, List<String> groups) {
+        this.id = id;
+        this.status = status;
+        this.role = role;
+        this.groups = Collections.unmodifiableList(groups);
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public String getStatus() {
+        return this.status;
+    }
+
+    public String getRole() {
+        return this.role;
+    }
+
+    public List<String> getGroups() {
+        return this.groups;
+    }
+}
@@ -0,0 +1,295 @@
+package com.box.platform.loadtest;
+
+import com.box.platform.metrics.Counter;
+import com.box.platform.metrics.IngestMetrics;
+import com.box.platform.metrics.LatencyHistogram;
+import com.box.platform.producer.DocumentTranscoder;
+import com.box.platform.producer.WireFormat;
+import com.box.platform.source.SyntheticEventSource;
+import com.box.platform.util.ByteArrayBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Stands in for Elasticsearch during load tests. It answers the index check and creation, _search, single doc
+ * requests and _bulk requests the way Elasticsearch 5 does without storing anything. Every request can be held back
+ * by a configured latency and a share of the doc and bulk requests is rejected with 429 like a full write queue would.
+ *
+ * The time between a synthetic event being made up and its doc reaching the stand-in is recorded as the end-to-end
+ * latency of the pipeline. Request bodies may be json, smile or cbor. The bytes received and the cpu time spent
+ * answering are counted, so the wire size and cpu cost of the pipeline itself can be told apart per doc.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class ElasticsearchStandIn {
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_CREATED = 201;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final byte[] EMPTY_SEARCH = ("{\"took\":1,\"timed_out\":false,\"hits\":{\"total\":0,\"max_score\":null,\"hits\":[]}}")
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ACKNOWLEDGED = "{\"acknowledged\":true}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REJECTED = ("{\"error\":{\"type\":\"es_rejected_execution_exception\","
+            + "\"reason\":\"rejected execution by the load test stand-in\"},\"status\":429}").getBytes(StandardCharsets.UTF_8);
+    // The doc id is the first field of every doc EnterpriseEventWriter writes
+    private static final String DOC_ID_PREFIX = "{\"id\":\"";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final long latencyJitterMillis;
+    private final double rejectionRate;
+
+    private final Counter docsIndexed;
+    private final Counter requestsRejected;
+    private final LatencyHistogram endToEndLatency;
+    private final Counter requestBytes;
+    private final Counter cpuNanos;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final DocumentTranscoder smile = new DocumentTranscoder(WireFormat.SMILE);
+    private final DocumentTranscoder cbor = new DocumentTranscoder(WireFormat.CBOR);
+
+    public ElasticsearchStandIn(String host, int port, int threads, long latencyMillis, long latencyJitterMillis,
+                                double rejectionRate, IngestMetrics metrics) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = latencyJitterMillis;
+        this.rejectionRate = rejectionRate;
+        this.docsIndexed = metrics.counter("standin_docs_indexed_total", "Docs the Elasticsearch stand-in accepted");
+        this.requestsRejected = metrics.counter("standin_requests_rejected_total", "Requests the Elasticsearch stand-in rejected with 429");
+        this.endToEndLatency = metrics.histogram("standin_end_to_end_latency_ms",
+                "Time between a synthetic event being made up and its doc reaching the Elasticsearch stand-in");
+        this.requestBytes = metrics.counter("standin_request_bytes_total", "Request body bytes the Elasticsearch stand-in received on the wire");
+        this.cpuNanos = metrics.counter("standin_cpu_nanos_total", "Cpu time the Elasticsearch stand-in spent answering requests");
+
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                long cpuStartNanos = threadMXBean.getCurrentThreadCpuTime();
+                try {
+                    ElasticsearchStandIn.this.handle(exchange);
+                } finally {
+                    exchange.close();
+                    cpuNanos.add(Math.max(0, threadMXBean.getCurrentThreadCpuTime() - cpuStartNanos));
+                }
+            }
+        });
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    public Counter getDocsIndexed() {
+        return this.docsIndexed;
+    }
+
+    public Counter getRequestsRejected() {
+        return this.requestsRejected;
+    }
+
+    public LatencyHistogram getEndToEndLatency() {
+        return this.endToEndLatency;
+    }
+
+    public Counter getRequestBytes() {
+        return this.requestBytes;
+    }
+
+    public Counter getCpuNanos() {
+        return this.cpuNanos;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        ByteArrayBuilder body = this.readBody(exchange);
+        this.holdBack();
+
+        if("HEAD".equals(method)){
+            // Every index exists
+            exchange.sendResponseHeaders(HTTP_OK, -1);
+        } else if(path.endsWith("/_search")){
+            respond(exchange, HTTP_OK, EMPTY_SEARCH);
+        } else if(path.endsWith("/_bulk")){
+            if(this.reject()){
+                respond(exchange, HTTP_TOO_MANY_REQUESTS, REJECTED);
+            } else{
+                respond(exchange, HTTP_OK, this.bulk(body));
+            }
+        } else if(path.split("/").length <= 2){
+            // PUT /index
+            respond(exchange, HTTP_OK, ACKNOWLEDGED);
+        } else if(this.reject()){
+            respond(exchange, HTTP_TOO_MANY_REQUESTS, REJECTED);
+        } else{
+            String id = this.indexDoc(body.buffer(), 0, body.length());
+            String created = "{\"_id\":\"" + id + "\",\"_version\":1,\"result\":\"created\",\"created\":true}";
+            respond(exchange, HTTP_CREATED, created.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private byte[] bulk(ByteArrayBuilder body) {
+        // Every action of the pipeline is followed by its doc, answer each one as created
+        byte[] bytes = body.buffer();
+        int length = body.length();
+        StringBuilder response = new StringBuilder(64 + length / 8);
+        response.append("{\"took\":").append(this.latencyMillis).append(",\"errors\":false,\"items\":[");
+        int lineStart = 0;
+        boolean actionLine = true;
+        String action = null;
+        int items = 0;
+        for(int i = 0; i < length; i++){
+            if(bytes[i] != '\n'){
+                continue;
+            }
+            if(actionLine){
+                action = actionName(bytes, lineStart, i);
+            } else{
+                String id = this.indexDoc(bytes, lineStart, i - lineStart);
+                if(items++ > 0){
+                    response.append(',');
+                }
+                response.append("{\"").append(action).append("\":{\"_id\":\"").append(id)
+                        .append("\",\"status\":").append(HTTP_CREATED).append("}}");
+            }
+            actionLine = !actionLine;
+            lineStart = i + 1;
+        }
+        response.append("]}");
+        return response.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String indexDoc(byte[] bytes, int offset, int length) {
+        String id = docId(bytes, offset, length);
+        long generatedAtMillis = SyntheticEventSource.getGeneratedAtMillis(id);
+        if(generatedAtMillis > 0){
+            this.endToEndLatency.record(System.currentTimeMillis() - generatedAtMillis);
+        }
+        this.docsIndexed.increment();
+        return id;
+    }
+
+    private void holdBack() {
+        long delay = this.latencyMillis;
+        if(this.latencyJitterMillis > 0){
+            delay += ThreadLocalRandom.current().nextLong(this.latencyJitterMillis + 1);
+        }
+        if(delay <= 0){
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean reject() {
+        if(this.rejectionRate > 0 && ThreadLocalRandom.current().nextDouble() < this.rejectionRate){
+            this.requestsRejected.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private static String actionName(byte[] bytes, int start, int end) {
+        // {"create":{...}} gives create
+        int nameStart = start + 2;
+        int nameEnd = nameStart;
+        while(nameEnd < end && bytes[nameEnd] != '"'){
+            nameEnd++;
+        }
+        return nameEnd > nameStart ? new String(bytes, nameStart, nameEnd - nameStart, StandardCharsets.US_ASCII) : "index";
+    }
+
+    private static String docId(byte[] bytes, int offset, int length) {
+        int prefixLength = DOC_ID_PREFIX.length();
+        if(length <= prefixLength || !DOC_ID_PREFIX.equals(new String(bytes, offset, prefixLength, StandardCharsets.US_ASCII))){
+            return "";
+        }
+        int idStart = offset + prefixLength;
+        int idEnd = idStart;
+        while(idEnd < offset + length && bytes[idEnd] != '"'){
+            idEnd++;
+        }
+        return new String(bytes, idStart, idEnd - idStart, StandardCharsets.UTF_8);
+    }
+
+    private ByteArrayBuilder readBody(HttpExchange exchange) throws IOException {
+        ByteArrayBuilder body = readFully(exchange.getRequestBody());
+        this.requestBytes.add(body.length());
+        if("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))){
+            body = readFully(new GZIPInputStream(new ByteArrayInputStream(body.buffer(), 0, body.length())));
+        }
+        WireFormat format = WireFormat.fromContentType(exchange.getRequestHeaders().getFirst("Content-Type"));
+        if(!format.isBinary() || body.length() == 0){
+            return body;
+        }
+        // Turn binary bodies back into json so that they are answered the same way
+        DocumentTranscoder transcoder = format == WireFormat.SMILE ? this.smile : this.cbor;
+        if(!exchange.getRequestURI().getPath().endsWith("/_bulk")){
+            byte[] json = transcoder.toJson(body.buffer(), 0, body.length());
+            ByteArrayBuilder jsonBody = new ByteArrayBuilder(json.length);
+            jsonBody.write(json);
+            return jsonBody;
+        }
+        ByteArrayBuilder ndjson = new ByteArrayBuilder(body.length() * 2);
+        byte[] bytes = body.buffer();
+        int start = 0;
+        for(int i = 0; i < body.length(); i++){
+            if(bytes[i] == format.getSeparator()){
+                ndjson.write(transcoder.toJson(bytes, start, i - start));
+                ndjson.write('\n');
+                start = i + 1;
+            }
+        }
+        return ndjson;
+    }
+
+    private static ByteArrayBuilder readFully(InputStream input) throws IOException {
+        ByteArrayBuilder body = new ByteArrayBuilder(8192);
+        byte[] chunk = new byte[8192];
+        try {
+            int read;
+            while((read = input.read(chunk)) > 0){
+                body.write(chunk, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        return body;
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream responseBody = exchange.getResponseBody();
+        try {
+            responseBody.write(body);
+        } finally {
+            responseBody.close();
+        }
+    }
+}
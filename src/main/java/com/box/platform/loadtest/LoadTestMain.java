@@ -0,0 +1,228 @@
+package com.box.platform.loadtest;
+
+import akka.actor.ActorSystem;
+import com.box.platform.BoxElasticEventsMain;
+import com.box.platform.metrics.Counter;
+import com.box.platform.metrics.IngestMetrics;
+import com.box.platform.metrics.IngestMetricsExtension;
+import com.box.platform.metrics.LatencyHistogram;
+import com.sun.management.OperatingSystemMXBean;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the whole pipeline offline against the synthetic event source and the Elasticsearch stand-in, and prints the
+ * offered rate, the sustained indexing rate, the end-to-end latency and heap use every report interval. With the
+ * synthetic rate ramping up, the point where the indexed rate stops keeping up with the offered rate is where the
+ * pipeline saturates.
+ *
+ * Takes the same configuration file as BoxElasticEventsMain, the load test settings are under box.platform.loadtest
+ * and box.platform.synthetic.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class LoadTestMain {
+    private static final String BOX_CONFIG_PREFIX = "box.platform.";
+    private static final String LOADTEST_CONFIG_PREFIX = "box.platform.loadtest.";
+    // The indexed rate is considered to keep up while it is within this share of the offered rate, a single interval
+    // behind is the pipeline catching up with a ramp step
+    private static final double SATURATION_RATIO = 0.9;
+    private static final int SATURATION_INTERVALS = 2;
+    private static final long MB = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        Config fileConfig = ConfigFactory.parseFile(new File(args[0])).resolve();
+        String configPath = fileConfig.getString(BOX_CONFIG_PREFIX + "config.path");
+        String directory = fileConfig.getString(LOADTEST_CONFIG_PREFIX + "directory");
+        long durationSeconds = fileConfig.getLong(LOADTEST_CONFIG_PREFIX + "duration");
+        long reportIntervalSeconds = fileConfig.getLong(LOADTEST_CONFIG_PREFIX + "report.interval");
+        String standInHost = fileConfig.getString(LOADTEST_CONFIG_PREFIX + "standin.host");
+        int standInPort = fileConfig.getInt(LOADTEST_CONFIG_PREFIX + "standin.port");
+
+        // Every run starts from an empty checkpoint and spool
+        Path workDirectory = Paths.get(configPath + directory);
+        deleteRecursively(workDirectory);
+        Files.createDirectories(workDirectory);
+
+        Config loadTestConfig = fileConfig
+                .withValue(BOX_CONFIG_PREFIX + "source", ConfigValueFactory.fromAnyRef("synthetic"))
+                .withValue(BOX_CONFIG_PREFIX + "backfill.enabled", ConfigValueFactory.fromAnyRef(false))
+                .withValue(BOX_CONFIG_PREFIX + "checkpoint.file", ConfigValueFactory.fromAnyRef(directory + "/checkpoint.dat"))
+                .withValue(BOX_CONFIG_PREFIX + "spool.directory", ConfigValueFactory.fromAnyRef(directory + "/spool"))
+                .withValue(BOX_CONFIG_PREFIX + "metrics.window", ConfigValueFactory.fromAnyRef(reportIntervalSeconds))
+                // The stand-in does not keep aliases, so everything goes to a single index
+                .withValue("elastic.index.rollover.enabled", ConfigValueFactory.fromAnyRef(false))
+                .withValue("elastic.host", ConfigValueFactory.fromAnyRef(standInHost))
+                .withValue("elastic.client.rest.port", ConfigValueFactory.fromAnyRef(standInPort))
+                // The stand-in is a single node that does not answer the nodes info API
+                .withValue("elastic.client.rest.sniff", ConfigValueFactory.fromAnyRef(false));
+
+        ActorSystem actorSystem = ActorSystem.create("box-elastic-events-load-test", loadTestConfig);
+        IngestMetrics metrics = IngestMetricsExtension.INSTANCE.get(actorSystem);
+        ElasticsearchStandIn standIn = new ElasticsearchStandIn(
+                standInHost,
+                standInPort,
+                fileConfig.getInt(LOADTEST_CONFIG_PREFIX + "standin.threads"),
+                fileConfig.getLong(LOADTEST_CONFIG_PREFIX + "standin.latency.base"),
+                fileConfig.getLong(LOADTEST_CONFIG_PREFIX + "standin.latency.jitter"),
+                fileConfig.getDouble(LOADTEST_CONFIG_PREFIX + "standin.rejection.rate"),
+                metrics);
+        standIn.start();
+
+        try {
+            if(BoxElasticEventsMain.startPipeline(actorSystem)){
+                report(loadTestConfig.getConfig(BOX_CONFIG_PREFIX + "synthetic"), metrics, standIn,
+                        durationSeconds, reportIntervalSeconds);
+            } else{
+                System.err.println("Failed to start the pipeline against the Elasticsearch stand-in");
+            }
+        } finally {
+            actorSystem.terminate();
+            Await.result(actorSystem.whenTerminated(), Duration.create(60, TimeUnit.SECONDS));
+            standIn.stop();
+            deleteRecursively(workDirectory);
+        }
+    }
+
+    private static void report(Config syntheticConfig, IngestMetrics metrics, ElasticsearchStandIn standIn,
+                               long durationSeconds, long reportIntervalSeconds) throws InterruptedException {
+        double startRate = syntheticConfig.getDouble("events.per.second");
+        double rampStep = syntheticConfig.getDouble("ramp.step");
+        long rampIntervalSeconds = syntheticConfig.getLong("ramp.interval");
+        Counter indexed = standIn.getDocsIndexed();
+        Counter rejected = standIn.getRequestsRejected();
+        LatencyHistogram endToEndLatency = standIn.getEndToEndLatency();
+
+        System.out.println(String.format("%8s %10s %10s %10s %9s %9s %9s %9s %10s %8s",
+                "elapsed", "offered/s", "fetched/s", "indexed/s", "429/s", "e2e p50", "e2e p99", "spool MB", "heap MB", "gc ms"));
+        long startNanos = System.nanoTime();
+        long lastFetched = 0;
+        long lastIndexed = 0;
+        long lastRejected = 0;
+        long lastGcMillis = gcMillis();
+        double peakIndexedRate = 0;
+        double saturatedAtRate = -1;
+        double behindSinceRate = -1;
+        int intervalsBehind = 0;
+        long worstP99 = 0;
+        long peakHeapBytes = 0;
+        for(long elapsed = reportIntervalSeconds; elapsed <= durationSeconds; elapsed += reportIntervalSeconds){
+            long sleepNanos = startNanos + TimeUnit.SECONDS.toNanos(elapsed) - System.nanoTime();
+            if(sleepNanos > 0){
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            }
+
+            // The offered rate is the synthetic rate halfway through the interval
+            double offeredRate = startRate;
+            if(rampIntervalSeconds > 0){
+                offeredRate += rampStep * Math.floor((elapsed - reportIntervalSeconds / 2.0) / rampIntervalSeconds);
+            }
+            // Every tenant counts the events it fetched and reports the spool it uses on its own
+            long fetchedTotal = metrics.sum("box_events_fetched_total");
+            long indexedTotal = indexed.get();
+            long rejectedTotal = rejected.get();
+            long gcTotal = gcMillis();
+            double fetchedRate = (fetchedTotal - lastFetched) / (double) reportIntervalSeconds;
+            double indexedRate = (indexedTotal - lastIndexed) / (double) reportIntervalSeconds;
+            double rejectedRate = (rejectedTotal - lastRejected) / (double) reportIntervalSeconds;
+            long p50 = endToEndLatency.getValueAtPercentile(50.0);
+            long p99 = endToEndLatency.getValueAtPercentile(99.0);
+            long spoolBytes = metrics.sum("spool_used_bytes");
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+
+            System.out.println(String.format("%7ds %10.0f %10.0f %10.0f %9.1f %9d %9d %9d %5d/%-4d %8d",
+                    elapsed, offeredRate, fetchedRate, indexedRate, rejectedRate, p50, p99,
+                    spoolBytes / MB,
+                    heap.getUsed() / MB, heap.getMax() / MB, gcTotal - lastGcMillis));
+
+            peakIndexedRate = Math.max(peakIndexedRate, indexedRate);
+            worstP99 = Math.max(worstP99, p99);
+            peakHeapBytes = Math.max(peakHeapBytes, heap.getUsed());
+            if(elapsed > reportIntervalSeconds && indexedRate < offeredRate * SATURATION_RATIO){
+                if(intervalsBehind++ == 0){
+                    behindSinceRate = offeredRate;
+                }
+                if(saturatedAtRate < 0 && intervalsBehind >= SATURATION_INTERVALS){
+                    saturatedAtRate = behindSinceRate;
+                }
+            } else{
+                intervalsBehind = 0;
+            }
+            lastFetched = fetchedTotal;
+            lastIndexed = indexedTotal;
+            lastRejected = rejectedTotal;
+            lastGcMillis = gcTotal;
+        }
+
+        long count = endToEndLatency.getCount();
+        System.out.println();
+        System.out.println(String.format("Indexed %d docs, %.0f/s on average and %.0f/s at the peak", indexed.get(),
+                indexed.get() / (double) durationSeconds, peakIndexedRate));
+        System.out.println(String.format("End-to-end latency %d ms on average, worst interval p99 %d ms",
+                count == 0 ? 0 : endToEndLatency.getSum() / count, worstP99));
+        System.out.println(String.format("Peak heap used %d MB", peakHeapBytes / MB));
+        // The stand-in runs in the same process, its share of the cpu time is left out
+        long docs = Math.max(1, indexed.get());
+        long pipelineCpuNanos = processCpuNanos() - standIn.getCpuNanos().get();
+        System.out.println(String.format("Sent %d request body bytes, %.0f bytes per doc, %.1f us of pipeline cpu per doc",
+                standIn.getRequestBytes().get(), standIn.getRequestBytes().get() / (double) docs,
+                pipelineCpuNanos / 1000.0 / docs));
+        if(saturatedAtRate > 0){
+            System.out.println(String.format("Indexing fell behind the offered rate at about %.0f events/s", saturatedAtRate));
+        } else{
+            System.out.println("Indexing kept up with the offered rate for the whole run");
+        }
+    }
+
+    private static long processCpuNanos() {
+        Object os = ManagementFactory.getOperatingSystemMXBean();
+        if(os instanceof OperatingSystemMXBean){
+            return ((OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()){
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        if(!Files.exists(directory)){
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,38 @@
+package com.box.platform.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic count that can be updated from any thread. The rate over the last metrics window is kept next to the
+ * total for JMX, Prometheus works its rates out from the total.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class Counter {
+    private final LongAdder total = new LongAdder();
+    private long windowStartTotal;
+    private volatile double ratePerSecond;
+
+    public void increment() {
+        this.total.increment();
+    }
+
+    public void add(long count) {
+        this.total.add(count);
+    }
+
+    public long get() {
+        return this.total.sum();
+    }
+
+    public double getRatePerSecond() {
+        return this.ratePerSecond;
+    }
+
+    synchronized void rollWindow(long windowMillis) {
+        long currentTotal = this.total.sum();
+        this.ratePerSecond = (currentTotal - this.windowStartTotal) * 1000.0 / windowMillis;
+        this.windowStartTotal = currentTotal;
+    }
+}
@@ -0,0 +1,11 @@
+package com.box.platform.metrics;
+
+/**
+ * Value that is read when the metrics are reported, such as a lag or a queue depth.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public interface Gauge {
+    long getValue();
+}
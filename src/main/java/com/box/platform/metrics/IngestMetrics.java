@@ -0,0 +1,228 @@
+package com.box.platform.metrics;
+
+import akka.actor.Extension;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Registry of the counters, histograms and gauges of the ingestion pipeline. There is one per actor system, see
+ * IngestMetricsExtension, and metrics are looked up by name so every actor that records the same metric shares it.
+ *
+ * A metric can be recorded for each tenant on its own. Its series are looked up by name and tenant, and reported as
+ * one Prometheus metric with a tenant label. The series of the default tenant, whose name is empty, has no label.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class IngestMetrics implements Extension {
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+    private static final String[] QUANTILE_LABELS = {"0.5", "0.9", "0.99", "0.999"};
+    private static final String[] PERCENTILE_SUFFIXES = {"_p50", "_p90", "_p99", "_p999"};
+    private static final String NO_TENANT = "";
+
+    private final long windowMillis;
+    // Sorted by name so the reported metrics keep a stable order
+    private final ConcurrentSkipListMap<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
+    private final ConcurrentMap<String, Gauge> mailboxDepths = new ConcurrentHashMap<String, Gauge>();
+
+    public IngestMetrics(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    public Counter counter(String name, String help) {
+        return this.counter(name, help, NO_TENANT);
+    }
+
+    /**
+     * @param tenant the name of the tenant the counter counts for, empty for the default tenant
+     */
+    public Counter counter(String name, String help, String tenant) {
+        return (Counter) this.register(name, help, tenant, new Counter());
+    }
+
+    public LatencyHistogram histogram(String name, String help) {
+        return this.histogram(name, help, NO_TENANT);
+    }
+
+    public LatencyHistogram histogram(String name, String help, String tenant) {
+        return (LatencyHistogram) this.register(name, help, tenant, new LatencyHistogram());
+    }
+
+    /**
+     * Registers the gauge under the name, replacing a gauge that was registered before.
+     */
+    public void gauge(String name, String help, Gauge gauge) {
+        this.gauge(name, help, NO_TENANT, gauge);
+    }
+
+    public void gauge(String name, String help, String tenant, Gauge gauge) {
+        this.metric(name, help).series.put(tenant, gauge);
+    }
+
+    /**
+     * @return the sum of the counter or gauge over every tenant, 0 if nothing was registered under the name
+     */
+    public long sum(String name) {
+        Metric metric = this.metrics.get(name);
+        if(metric == null){
+            return 0;
+        }
+        long total = 0;
+        for(Object value: metric.series.values()){
+            if(value instanceof Counter){
+                total += ((Counter) value).get();
+            } else if(value instanceof Gauge){
+                total += ((Gauge) value).getValue();
+            }
+        }
+        return total;
+    }
+
+    public void registerMailbox(String actorPath, Gauge depth) {
+        this.mailboxDepths.put(actorPath, depth);
+    }
+
+    public void unregisterMailbox(String actorPath, Gauge depth) {
+        // Only remove the gauge if a new actor at the same path has not replaced it
+        this.mailboxDepths.remove(actorPath, depth);
+    }
+
+    /**
+     * Starts a new window for the histogram quantiles and the counter rates.
+     */
+    public void rollWindow() {
+        for(Metric metric: this.metrics.values()){
+            for(Object value: metric.series.values()){
+                if(value instanceof LatencyHistogram){
+                    ((LatencyHistogram) value).rollWindow();
+                } else if(value instanceof Counter){
+                    ((Counter) value).rollWindow(this.windowMillis);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return every metric as a flat map of attribute name to value, used for JMX. The series of a tenant get its name
+     * appended to the metric name.
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        for(Map.Entry<String, Metric> metric: this.metrics.entrySet()){
+            for(Map.Entry<String, Object> series: metric.getValue().series.entrySet()){
+                String tenant = series.getKey();
+                String name = tenant.isEmpty() ? metric.getKey() : metric.getKey() + "_" + tenant;
+                this.snapshot(snapshot, name, series.getValue());
+            }
+        }
+        for(Map.Entry<String, Gauge> entry: this.mailboxDepths.entrySet()){
+            snapshot.put("akka_mailbox_depth" + entry.getKey().replace('/', '_'), entry.getValue().getValue());
+        }
+        return snapshot;
+    }
+
+    private void snapshot(Map<String, Object> snapshot, String name, Object value) {
+        if(value instanceof Counter){
+            snapshot.put(name, ((Counter) value).get());
+            snapshot.put(name + "_per_second", ((Counter) value).getRatePerSecond());
+        } else if(value instanceof LatencyHistogram){
+            LatencyHistogram histogram = (LatencyHistogram) value;
+            snapshot.put(name + "_count", histogram.getCount());
+            for(int i = 0; i < PERCENTILES.length; i++){
+                snapshot.put(name + PERCENTILE_SUFFIXES[i], histogram.getValueAtPercentile(PERCENTILES[i]));
+            }
+            snapshot.put(name + "_max", histogram.getWindowMax());
+        } else{
+            snapshot.put(name, ((Gauge) value).getValue());
+        }
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format
+     */
+    public String renderPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        for(Map.Entry<String, Metric> entry: this.metrics.entrySet()){
+            String name = entry.getKey();
+            Metric metric = entry.getValue();
+            if(metric.series.isEmpty()){
+                continue;
+            }
+            out.append("# HELP ").append(name).append(' ').append(metric.help).append('\n');
+            Object first = metric.series.firstEntry().getValue();
+            out.append("# TYPE ").append(name).append(first instanceof Counter ? " counter\n"
+                    : first instanceof LatencyHistogram ? " summary\n" : " gauge\n");
+            for(Map.Entry<String, Object> series: metric.series.entrySet()){
+                String tenant = series.getKey();
+                Object value = series.getValue();
+                if(value instanceof Counter){
+                    out.append(name).append(labels(tenant, null)).append(' ').append(((Counter) value).get()).append('\n');
+                } else if(value instanceof LatencyHistogram){
+                    LatencyHistogram histogram = (LatencyHistogram) value;
+                    for(int i = 0; i < PERCENTILES.length; i++){
+                        out.append(name).append(labels(tenant, QUANTILE_LABELS[i])).append(' ')
+                                .append(histogram.getValueAtPercentile(PERCENTILES[i])).append('\n');
+                    }
+                    out.append(name).append("_sum").append(labels(tenant, null)).append(' ').append(histogram.getSum()).append('\n');
+                    out.append(name).append("_count").append(labels(tenant, null)).append(' ').append(histogram.getCount()).append('\n');
+                } else{
+                    out.append(name).append(labels(tenant, null)).append(' ').append(((Gauge) value).getValue()).append('\n');
+                }
+            }
+        }
+
+        out.append("# HELP akka_mailbox_depth Messages waiting in the mailbox of an actor\n");
+        out.append("# TYPE akka_mailbox_depth gauge\n");
+        for(Map.Entry<String, Gauge> entry: this.mailboxDepths.entrySet()){
+            out.append("akka_mailbox_depth{actor=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue().getValue()).append('\n');
+        }
+        return out.toString();
+    }
+
+    // The labels of a series, empty for the default tenant outside a summary
+    private static String labels(String tenant, String quantile) {
+        if(tenant.isEmpty() && quantile == null){
+            return "";
+        }
+        StringBuilder labels = new StringBuilder("{");
+        if(!tenant.isEmpty()){
+            labels.append("tenant=\"").append(tenant).append('"');
+        }
+        if(quantile != null){
+            labels.append(tenant.isEmpty() ? "" : ",").append("quantile=\"").append(quantile).append('"');
+        }
+        return labels.append('}').toString();
+    }
+
+    private Object register(String name, String help, String tenant, Object value) {
+        Object existing = this.metric(name, help).series.putIfAbsent(tenant, value);
+        return existing == null ? value : existing;
+    }
+
+    private Metric metric(String name, String help) {
+        Metric metric = this.metrics.get(name);
+        if(metric == null){
+            Metric created = new Metric(help);
+            metric = this.metrics.putIfAbsent(name, created);
+            if(metric == null){
+                metric = created;
+            }
+        }
+        return metric;
+    }
+
+    // A metric and its series by tenant name, sorted so the default tenant comes first
+    private static final class Metric {
+        private final String help;
+        private final ConcurrentSkipListMap<String, Object> series = new ConcurrentSkipListMap<String, Object>();
+
+        private Metric(String help) {
+            this.help = help;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.box.platform.metrics;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.ExtensionIdProvider;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.Duration;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Akka extension that gives every actor of the system the same IngestMetrics through IngestMetricsExtension.INSTANCE.
+ * The first lookup starts rolling the metrics window and publishes the metrics over JMX and HTTP as configured, both
+ * are taken down with the system.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class IngestMetricsExtension extends AbstractExtensionId<IngestMetrics> implements ExtensionIdProvider {
+    public static final IngestMetricsExtension INSTANCE = new IngestMetricsExtension();
+    // Mailbox config that reports the mailbox depth of an actor, see MeteredMailbox
+    public static final String METERED_MAILBOX = "box-metered-mailbox";
+
+    private static final String METRICS_CONFIG_PREFIX = "box.platform.metrics.";
+
+    private IngestMetricsExtension() {
+    }
+
+    public IngestMetricsExtension lookup() {
+        return INSTANCE;
+    }
+
+    public IngestMetrics createExtension(ExtendedActorSystem system) {
+        LoggingAdapter logger = Logging.getLogger(system, this.getClass());
+        Config boxConfig = system.settings().config();
+        long windowSeconds = boxConfig.getLong(METRICS_CONFIG_PREFIX + "window");
+        final IngestMetrics metrics = new IngestMetrics(TimeUnit.SECONDS.toMillis(windowSeconds));
+
+        system.scheduler().schedule(
+                Duration.create(windowSeconds, TimeUnit.SECONDS),
+                Duration.create(windowSeconds, TimeUnit.SECONDS),
+                new Runnable() {
+                    public void run() {
+                        metrics.rollWindow();
+                    }
+                },
+                system.dispatcher());
+
+        if(boxConfig.getBoolean(METRICS_CONFIG_PREFIX + "jmx.enabled")){
+            try{
+                final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName objectName = new ObjectName(IngestMetricsJmx.OBJECT_NAME);
+                mBeanServer.registerMBean(new IngestMetricsJmx(metrics), objectName);
+                system.registerOnTermination(new Runnable() {
+                    public void run() {
+                        try{
+                            mBeanServer.unregisterMBean(objectName);
+                        } catch (Exception e){
+                            // The platform MBean server goes away with the JVM
+                        }
+                    }
+                });
+            } catch (Exception e){
+                logger.error(e, "Failed to register ingest metrics MBean");
+            }
+        }
+
+        if(boxConfig.getBoolean(METRICS_CONFIG_PREFIX + "http.enabled")){
+            String host = boxConfig.getString(METRICS_CONFIG_PREFIX + "http.host");
+            int port = boxConfig.getInt(METRICS_CONFIG_PREFIX + "http.port");
+            try{
+                final MetricsHttpServer httpServer = new MetricsHttpServer(host, port, metrics);
+                httpServer.start();
+                system.registerOnTermination(new Runnable() {
+                    public void run() {
+                        httpServer.stop();
+                    }
+                });
+                logger.info("Serving ingest metrics on http://{}:{}/metrics", host, port);
+            } catch (Exception e){
+                logger.error(e, "Failed to start ingest metrics HTTP server on {}:{}", host, port);
+            }
+        }
+        return metrics;
+    }
+}
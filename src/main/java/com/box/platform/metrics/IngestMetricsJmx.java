@@ -0,0 +1,73 @@
+package com.box.platform.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only MBean with one attribute per metric. Attributes are looked up on every read since metrics such as
+ * mailbox depths come and go with actors.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class IngestMetricsJmx implements DynamicMBean {
+    public static final String OBJECT_NAME = "com.box.platform:type=IngestMetrics";
+
+    private final IngestMetrics metrics;
+
+    public IngestMetricsJmx(IngestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Object value = this.metrics.snapshot().get(attribute);
+        if(value == null){
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Object> snapshot = this.metrics.snapshot();
+        AttributeList attributeList = new AttributeList();
+        for(String attribute: attributes){
+            Object value = snapshot.get(attribute);
+            if(value != null){
+                attributeList.add(new Attribute(attribute, value));
+            }
+        }
+        return attributeList;
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Ingest metrics are read-only: " + attribute.getName());
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributeInfos = new ArrayList<MBeanAttributeInfo>();
+        for(Map.Entry<String, Object> entry: this.metrics.snapshot().entrySet()){
+            attributeInfos.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                    entry.getKey(), true, false, false));
+        }
+        return new MBeanInfo(this.getClass().getName(), "Box Elastic Events ingestion metrics",
+                attributeInfos.toArray(new MBeanAttributeInfo[attributeInfos.size()]),
+                null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,55 @@
+package com.box.platform.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HdrHistogram backed distribution of latencies or sizes. Values are recorded without locking from any thread and the
+ * quantiles that are reported cover the last metrics window, while the count and sum cover the life of the process.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class LatencyHistogram {
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private volatile Histogram window = new Histogram(SIGNIFICANT_DIGITS);
+
+    public void record(long value) {
+        if(value < 0){
+            value = 0;
+        }
+        this.recorder.recordValue(value);
+        this.count.increment();
+        this.sum.add(value);
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * @return the value at the percentile (0 to 100) over the last metrics window
+     */
+    public long getValueAtPercentile(double percentile) {
+        return this.window.getValueAtPercentile(percentile);
+    }
+
+    public long getWindowMax() {
+        return this.window.getMaxValue();
+    }
+
+    synchronized void rollWindow() {
+        // The recorder hands over what was recorded since the last roll and starts a new interval
+        this.window = this.recorder.getIntervalHistogram();
+    }
+}
@@ -0,0 +1,86 @@
+package com.box.platform.metrics;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unbounded mailbox that keeps a count of its messages and reports it as the mailbox depth of its actor in the
+ * ingest metrics. The count avoids walking the queue the way the size of the default mailbox does.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class MeteredMailbox implements MailboxType, ProducesMessageQueue<MeteredMailbox.MeteredMessageQueue> {
+
+    // Called by Akka through reflection
+    public MeteredMailbox(ActorSystem.Settings settings, Config config) {
+    }
+
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        if(owner.isDefined() && system.isDefined()){
+            return new MeteredMessageQueue(IngestMetricsExtension.INSTANCE.get(system.get()), owner.get().path().toStringWithoutAddress());
+        }
+        return new MeteredMessageQueue(null, null);
+    }
+
+    public static class MeteredMessageQueue implements MessageQueue, UnboundedMessageQueueSemantics {
+        private final ConcurrentLinkedQueue<Envelope> queue = new ConcurrentLinkedQueue<Envelope>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final IngestMetrics metrics;
+        private final String actorPath;
+        private final Gauge depthGauge = new Gauge() {
+            public long getValue() {
+                return depth.get();
+            }
+        };
+
+        public MeteredMessageQueue(IngestMetrics metrics, String actorPath) {
+            this.metrics = metrics;
+            this.actorPath = actorPath;
+            if(metrics != null){
+                metrics.registerMailbox(actorPath, this.depthGauge);
+            }
+        }
+
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            this.queue.offer(handle);
+            this.depth.incrementAndGet();
+        }
+
+        public Envelope dequeue() {
+            Envelope envelope = this.queue.poll();
+            if(envelope != null){
+                this.depth.decrementAndGet();
+            }
+            return envelope;
+        }
+
+        public int numberOfMessages() {
+            return this.depth.get();
+        }
+
+        public boolean hasMessages() {
+            return !this.queue.isEmpty();
+        }
+
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            if(this.metrics != null){
+                this.metrics.unregisterMailbox(this.actorPath, this.depthGauge);
+            }
+            Envelope envelope;
+            while((envelope = this.dequeue()) != null){
+                deadLetters.enqueue(owner, envelope);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.box.platform.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the ingest metrics in the Prometheus text format on /metrics using the HTTP server built into the JDK.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class MetricsHttpServer {
+    private static final String METRICS_PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    public MetricsHttpServer(String host, int port, final IngestMetrics metrics) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.server.createContext(METRICS_PATH, new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = metrics.renderPrometheus().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream responseBody = exchange.getResponseBody();
+                try {
+                    responseBody.write(body);
+                } finally {
+                    responseBody.close();
+                }
+            }
+        });
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+    }
+}
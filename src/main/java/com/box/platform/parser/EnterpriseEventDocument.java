@@ -0,0 +1,76 @@
+package com.box.platform.parser;
+
+/**
+ * A Box Enterprise Event that has already been serialized into the json body of its Elasticsearch doc. The fields
+ * the pipeline routes and reports on are kept next to the body so that it never has to be parsed again.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class EnterpriseEventDocument {
+    private static final byte[] NO_BODY = new byte[0];
+
+    private final String id;
+    private final String type;
+    private final long createdAtMillis;
+    private final String login;
+    private final String ipAddress;
+    private final byte[] body;
+
+    public EnterpriseEventDocument(String id, String type, long createdAtMillis, byte[] body) {
+        this(id, type, createdAtMillis, null, null, body);
+    }
+
+    /**
+     * @param login the created_by login, may be null
+     * @param ipAddress may be null
+     */
+    public EnterpriseEventDocument(String id, String type, long createdAtMillis, String login, String ipAddress, byte[] body) {
+        this.id = id;
+        this.type = type;
+        this.createdAtMillis = createdAtMillis;
+        this.login = login;
+        this.ipAddress = ipAddress;
+        this.body = body;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public String getType() {
+        return this.type;
+    }
+
+    public long getCreatedAtMillis() {
+        return this.createdAtMillis;
+    }
+
+    /**
+     * @return the created_by login, or null if there is none
+     */
+    public String getLogin() {
+        return this.login;
+    }
+
+    /**
+     * @return the ip_address, or null if there is none
+     */
+    public String getIpAddress() {
+        return this.ipAddress;
+    }
+
+    /**
+     * @return the UTF-8 json body of the doc, not to be modified
+     */
+    public byte[] getBody() {
+        return this.body;
+    }
+
+    /**
+     * @return the same doc with an empty body, to keep its fields around after the body was sent
+     */
+    public EnterpriseEventDocument withoutBody() {
+        return new EnterpriseEventDocument(this.id, this.type, this.createdAtMillis, this.login, this.ipAddress, NO_BODY);
+    }
+}
@@ -0,0 +1,132 @@
+package com.box.platform.parser;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.WriterConfig;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Generates the Elasticsearch mapping for the docs EnterpriseEventWriter and BoxEnterpriseEventJsonParser emit.
+ *
+ * Every field that is filtered or aggregated on is a keyword, ip_address is an ip and the sizes are numbers, so
+ * nothing is analyzed. Top level fields that are not listed are not indexed (dynamic false), reject the doc (strict)
+ * or are mapped on the fly (true). Unknown fields in source and additional_details are kept in _source without being
+ * indexed unless dynamic is true. The operationParams of metadata events hold values of any type and are never
+ * indexed.
+ *
+ * Run it to regenerate enterprise-event-mapping.json:
+ * java -cp box-elastic-events-1.0-jar-with-dependencies.jar com.box.platform.parser.EnterpriseEventMapping
+ *      configuration/enterprise-event-mapping.json [false|strict|true]
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class EnterpriseEventMapping {
+    public static final String DEFAULT_TYPE = "enterprise";
+    public static final String DEFAULT_DYNAMIC = "false";
+
+    private EnterpriseEventMapping() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String dynamic = args.length > 1 ? args[1] : DEFAULT_DYNAMIC;
+        String mapping = generate(DEFAULT_TYPE, dynamic).toString(WriterConfig.PRETTY_PRINT);
+        Files.write(Paths.get(args[0]), (mapping + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param dynamic how fields that are not in the mapping are handled: false, strict or true
+     */
+    public static JsonObject generate(String type, String dynamic) {
+        if(!"false".equals(dynamic) && !"strict".equals(dynamic) && !"true".equals(dynamic)){
+            throw new IllegalArgumentException("dynamic has to be false, strict or true. Found: " + dynamic);
+        }
+
+        // The root fields are always written by this application, the shape of the source and additional details is
+        // up to Box so unknown fields in there are never rejected
+        String subtreeDynamic = "true".equals(dynamic) ? "true" : "false";
+
+        JsonObject createdBy = Json.object()
+                .add("properties", Json.object()
+                        .add("login", keyword())
+                        .add("name", keyword())
+                        .add("id", keyword())
+                        .add("status", keyword())
+                        .add("role", keyword())
+                        .add("groups", keyword()));
+
+        // Box sends items, users, folders and collaborations as the source, only their ids and names are indexed
+        JsonObject source = Json.object()
+                .add("dynamic", subtreeDynamic)
+                .add("properties", Json.object()
+                        .add("type", keyword())
+                        .add("id", keyword())
+                        .add("name", keyword())
+                        .add("login", keyword())
+                        .add("path", keyword())
+                        .add("item_type", keyword())
+                        .add("item_id", keyword())
+                        .add("item_name", keyword())
+                        .add("parent", Json.object()
+                                .add("properties", Json.object()
+                                        .add("type", keyword())
+                                        .add("id", keyword())
+                                        .add("name", keyword())))
+                        .add("user_id", keyword())
+                        .add("user_name", keyword())
+                        .add("user_login", keyword())
+                        .add("folder_id", keyword())
+                        .add("folder_name", keyword())
+                        .add("owned_by", Json.object()
+                                .add("properties", Json.object()
+                                        .add("type", keyword())
+                                        .add("id", keyword())
+                                        .add("name", keyword())
+                                        .add("login", keyword()))));
+
+        // The details differ for every event type, the common ones are indexed and the rest stays in _source
+        JsonObject additionalDetails = Json.object()
+                .add("dynamic", subtreeDynamic)
+                .add("properties", Json.object()
+                        .add("size", Json.object().add("type", "long"))
+                        .add("version_id", keyword())
+                        .add("service_id", keyword())
+                        .add("service_name", keyword())
+                        .add("role", keyword())
+                        .add("is_performed_by_admin", Json.object().add("type", "boolean"))
+                        .add("shared_link_id", keyword())
+                        .add("type", keyword())
+                        .add("operationParams", Json.object()
+                                .add("type", "object")
+                                .add("enabled", false)));
+
+        JsonObject properties = Json.object()
+                .add("id", keyword())
+                .add("type", keyword())
+                .add("created_at", Json.object()
+                        .add("type", "date")
+                        .add("format", "date_hour_minute_second_millis"))
+                .add("ip_address", Json.object().add("type", "ip"))
+                .add("created_by", createdBy)
+                .add("source", source)
+                .add("additional_details", additionalDetails)
+                // Only read back from _source when resuming
+                .add("next_stream_position", Json.object()
+                        .add("type", "keyword")
+                        .add("index", false)
+                        .add("doc_values", false));
+
+        return Json.object().add(type, Json.object()
+                .add("dynamic", dynamic)
+                .add("date_detection", false)
+                .add("properties", properties));
+    }
+
+    private static JsonObject keyword() {
+        return Json.object().add("type", "keyword");
+    }
+}
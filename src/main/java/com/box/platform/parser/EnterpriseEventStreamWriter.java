@@ -0,0 +1,399 @@
+package com.box.platform.parser;
+
+import com.box.platform.util.ByteArrayBuilder;
+import com.box.platform.util.Utf8ByteWriter;
+import com.box.sdk.BoxDateFormat;
+import com.box.sdk.BoxEvent;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes the entries of a Box /events response straight from the response stream into the json bodies of their
+ * Elasticsearch docs, the same docs EnterpriseEventWriter writes, without building a BoxEvent or a json tree for any
+ * of them. Each entry is read token by token: the fields of the doc head are kept as strings, source and
+ * additional_details are copied into a scratch buffer as they are read, and the doc is put together once the entry is
+ * complete since Box does not promise the order of the fields. The metadata operationParams fix-up is applied on the
+ * way, from the operationParams string picked up while additional_details is copied.
+ *
+ * Only the finished doc bodies of a chunk are kept. When next_stream_position comes after the entries it is added to
+ * the bodies at the end.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class EnterpriseEventStreamWriter {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String UNKNOWN_TYPE = BoxEvent.Type.UNKNOWN.name();
+    private static final Set<String> EVENT_TYPES;
+    static {
+        // The Box SDK reports every event type it has no constant for as UNKNOWN
+        Set<String> eventTypes = new HashSet<String>();
+        for(BoxEvent.Type type: BoxEvent.Type.values()){
+            eventTypes.add(type.name());
+        }
+        EVENT_TYPES = Collections.unmodifiableSet(eventTypes);
+    }
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final ThreadLocal<Utf8ByteWriter> DOC_WRITERS = new ThreadLocal<Utf8ByteWriter>() {
+        @Override
+        protected Utf8ByteWriter initialValue() {
+            return new Utf8ByteWriter(new ByteArrayBuilder(INITIAL_BUFFER_SIZE));
+        }
+    };
+    private static final ThreadLocal<Utf8ByteWriter> SCRATCH_WRITERS = new ThreadLocal<Utf8ByteWriter>() {
+        @Override
+        protected Utf8ByteWriter initialValue() {
+            return new Utf8ByteWriter(new ByteArrayBuilder(INITIAL_BUFFER_SIZE));
+        }
+    };
+
+    private final Utf8ByteWriter doc = DOC_WRITERS.get();
+    private final Utf8ByteWriter scratch = SCRATCH_WRITERS.get();
+    private final List<EnterpriseEventDocument> documents = new ArrayList<EnterpriseEventDocument>();
+    // Docs written before next_stream_position was read, they are still missing their closing brace
+    private final List<Integer> unfinished = new ArrayList<Integer>();
+    private final List<String> failedIds = new ArrayList<String>();
+    private final Set<String> ids = new HashSet<String>();
+    private String nextStreamPosition;
+    private boolean nextStreamPositionRead;
+    private int chunkSize;
+
+    // The entry being read
+    private String id;
+    private String eventType;
+    private String createdAt;
+    private String ipAddress;
+    private boolean hasCreatedBy;
+    private String login;
+    private String name;
+    private int sourceStart;
+    private int sourceEnd;
+    private int detailsStart;
+    private int detailsEnd;
+    private boolean hasMetadata;
+    private int metadataTypeStart;
+    private int metadataTypeEnd;
+    private String operationParams;
+
+    private EnterpriseEventStreamWriter() {
+    }
+
+    /**
+     * Reads a whole /events response. Entries that can not be turned into a doc are left out and reported by
+     * StreamedChunk.getFailedIds, a response that is not valid json fails as a whole.
+     */
+    public static StreamedChunk read(InputStream response) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(response);
+        try {
+            if(parser.nextToken() != JsonToken.START_OBJECT){
+                throw new JsonParseException(parser, "Expected the events response to be a json object");
+            }
+            return new EnterpriseEventStreamWriter().readResponse(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private StreamedChunk readResponse(JsonParser parser) throws IOException {
+        while(parser.nextToken() == JsonToken.FIELD_NAME){
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if("entries".equals(field) && value == JsonToken.START_ARRAY){
+                while(parser.nextToken() == JsonToken.START_OBJECT){
+                    this.readEntry(parser);
+                }
+            } else if("next_stream_position".equals(field)){
+                this.nextStreamPosition = value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                this.nextStreamPositionRead = true;
+            } else if("chunk_size".equals(field)){
+                this.chunkSize = parser.getValueAsInt();
+            } else{
+                parser.skipChildren();
+            }
+        }
+
+        for(int index: this.unfinished){
+            EnterpriseEventDocument document = this.documents.get(index);
+            this.doc.getBuilder().reset();
+            this.doc.getBuilder().write(document.getBody());
+            this.writeEnd();
+            this.documents.set(index, new EnterpriseEventDocument(document.getId(), document.getType(),
+                    document.getCreatedAtMillis(), document.getLogin(), document.getIpAddress(),
+                    this.doc.getBuilder().toByteArray()));
+        }
+        return new StreamedChunk(this.documents, this.nextStreamPosition, this.chunkSize, this.failedIds);
+    }
+
+    private void readEntry(JsonParser parser) throws IOException {
+        this.id = null;
+        this.eventType = null;
+        this.createdAt = null;
+        this.ipAddress = null;
+        this.hasCreatedBy = false;
+        this.login = null;
+        this.name = null;
+        this.sourceStart = -1;
+        this.detailsStart = -1;
+        this.hasMetadata = false;
+        this.metadataTypeStart = -1;
+        this.operationParams = null;
+        this.scratch.getBuilder().reset();
+
+        while(parser.nextToken() == JsonToken.FIELD_NAME){
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            // Like the Box SDK, fields that are null are left out
+            if(value == JsonToken.VALUE_NULL){
+                continue;
+            }
+            if("event_id".equals(field)){
+                this.id = parser.getValueAsString();
+            } else if("event_type".equals(field)){
+                this.eventType = parser.getValueAsString();
+            } else if("created_at".equals(field)){
+                this.createdAt = parser.getValueAsString();
+            } else if("ip_address".equals(field)){
+                this.ipAddress = parser.getValueAsString();
+            } else if("created_by".equals(field) && value == JsonToken.START_OBJECT){
+                this.readCreatedBy(parser);
+            } else if("source".equals(field) && value == JsonToken.START_OBJECT){
+                this.sourceStart = this.scratch.getBuilder().length();
+                copyValue(parser, this.scratch);
+                this.sourceEnd = this.scratch.getBuilder().length();
+            } else if("additional_details".equals(field) && value == JsonToken.START_OBJECT){
+                this.detailsStart = this.scratch.getBuilder().length();
+                this.copyAdditionalDetails(parser);
+                this.detailsEnd = this.scratch.getBuilder().length();
+            } else{
+                parser.skipChildren();
+            }
+        }
+
+        // Box may repeat an event within a chunk, the Box SDK keeps the first one
+        if(this.id == null || !this.ids.add(this.id)){
+            return;
+        }
+        try {
+            this.writeDoc();
+        } catch (Exception e) {
+            this.failedIds.add(this.id);
+        }
+    }
+
+    private void readCreatedBy(JsonParser parser) throws IOException {
+        this.hasCreatedBy = true;
+        while(parser.nextToken() == JsonToken.FIELD_NAME){
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if("login".equals(field) && value != JsonToken.VALUE_NULL){
+                this.login = parser.getValueAsString();
+            } else if("name".equals(field) && value != JsonToken.VALUE_NULL){
+                this.name = parser.getValueAsString();
+            } else{
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void copyAdditionalDetails(JsonParser parser) throws IOException {
+        Utf8ByteWriter writer = this.scratch;
+        writer.write('{');
+        boolean first = true;
+        while(parser.nextToken() == JsonToken.FIELD_NAME){
+            if(!first){
+                writer.write(',');
+            }
+            first = false;
+            String field = parser.getCurrentName();
+            writer.writeJsonString(field);
+            writer.write(':');
+            if(parser.nextToken() == JsonToken.START_OBJECT && "metadata".equals(field)){
+                this.copyMetadata(parser);
+            } else{
+                copyValue(parser, writer);
+            }
+        }
+        writer.write('}');
+    }
+
+    private void copyMetadata(JsonParser parser) throws IOException {
+        Utf8ByteWriter writer = this.scratch;
+        this.hasMetadata = true;
+        this.metadataTypeStart = -1;
+        this.operationParams = null;
+        writer.write('{');
+        boolean first = true;
+        while(parser.nextToken() == JsonToken.FIELD_NAME){
+            if(!first){
+                writer.write(',');
+            }
+            first = false;
+            String field = parser.getCurrentName();
+            writer.writeJsonString(field);
+            writer.write(':');
+            JsonToken value = parser.nextToken();
+            if("type".equals(field)){
+                this.metadataTypeStart = writer.getBuilder().length();
+                copyValue(parser, writer);
+                this.metadataTypeEnd = writer.getBuilder().length();
+            } else if("operationParams".equals(field) && value == JsonToken.VALUE_STRING){
+                this.operationParams = parser.getText();
+                writer.writeJsonString(this.operationParams);
+            } else{
+                copyValue(parser, writer);
+            }
+        }
+        writer.write('}');
+    }
+
+    private void writeDoc() throws Exception {
+        String type = this.eventType != null && EVENT_TYPES.contains(this.eventType) ? this.eventType : UNKNOWN_TYPE;
+        long createdAtMillis = BoxDateFormat.parse(this.createdAt).getTime();
+        String ipAddress = EnterpriseEventWriter.ipAddress(this.ipAddress);
+        byte[] scratchBytes = this.scratch.getBuilder().buffer();
+        Utf8ByteWriter writer = this.doc;
+        writer.getBuilder().reset();
+
+        EnterpriseEventWriter.writeHead(writer, this.id, type, createdAtMillis, ipAddress);
+        writer.writeAscii(",\"created_by\":{");
+        if(this.hasCreatedBy){
+            EnterpriseEventWriter.writeCreatedBy(writer, this.login, this.name);
+        }
+        writer.writeAscii("},\"source\":");
+        if(this.sourceStart < 0){
+            writer.writeAscii("{}");
+        } else{
+            writer.getBuilder().write(scratchBytes, this.sourceStart, this.sourceEnd - this.sourceStart);
+        }
+
+        writer.writeAscii(",\"additional_details\":");
+        if(this.detailsStart < 0){
+            writer.writeAscii("{}");
+        } else if(EnterpriseEventWriter.isMetadataEventType(type)
+                || (type.equals(UNKNOWN_TYPE) && this.hasMetadata && this.operationParams != null)){
+            if(this.operationParams == null){
+                throw new IllegalArgumentException("Metadata event without operationParams");
+            }
+            writer.writeAscii("{\"type\":");
+            if(this.metadataTypeStart < 0){
+                writer.writeAscii("null");
+            } else{
+                writer.getBuilder().write(scratchBytes, this.metadataTypeStart, this.metadataTypeEnd - this.metadataTypeStart);
+            }
+            EnterpriseEventWriter.writeOperationParams(writer, this.operationParams);
+        } else{
+            writer.getBuilder().write(scratchBytes, this.detailsStart, this.detailsEnd - this.detailsStart);
+        }
+
+        if(this.nextStreamPositionRead){
+            this.writeEnd();
+        } else{
+            this.unfinished.add(this.documents.size());
+        }
+        this.documents.add(new EnterpriseEventDocument(this.id, type, createdAtMillis, this.login, ipAddress,
+                writer.getBuilder().toByteArray()));
+    }
+
+    private void writeEnd() {
+        if(this.nextStreamPosition != null){
+            this.doc.writeAscii(",\"next_stream_position\":");
+            this.doc.writeJsonString(this.nextStreamPosition);
+        }
+        this.doc.write('}');
+    }
+
+    // Writes the current value the way minimal-json writes it, numbers keep the text Box sent
+    private static void copyValue(JsonParser parser, Utf8ByteWriter writer) throws IOException {
+        switch(parser.getCurrentToken()){
+            case START_OBJECT:
+                writer.write('{');
+                boolean firstField = true;
+                while(parser.nextToken() == JsonToken.FIELD_NAME){
+                    if(!firstField){
+                        writer.write(',');
+                    }
+                    firstField = false;
+                    writer.writeJsonString(parser.getCurrentName());
+                    writer.write(':');
+                    parser.nextToken();
+                    copyValue(parser, writer);
+                }
+                writer.write('}');
+                break;
+            case START_ARRAY:
+                writer.write('[');
+                boolean firstValue = true;
+                while(parser.nextToken() != JsonToken.END_ARRAY){
+                    if(!firstValue){
+                        writer.write(',');
+                    }
+                    firstValue = false;
+                    copyValue(parser, writer);
+                }
+                writer.write(']');
+                break;
+            case VALUE_STRING:
+                writer.writeJsonString(parser.getText());
+                break;
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                writer.writeAscii(parser.getText());
+                break;
+            case VALUE_TRUE:
+                writer.writeAscii("true");
+                break;
+            case VALUE_FALSE:
+                writer.writeAscii("false");
+                break;
+            default:
+                writer.writeAscii("null");
+        }
+    }
+
+    /**
+     * The docs of one /events response with the stream positions Box sent along.
+     */
+    public static final class StreamedChunk {
+        private final List<EnterpriseEventDocument> documents;
+        private final String nextStreamPosition;
+        private final int chunkSize;
+        private final List<String> failedIds;
+
+        private StreamedChunk(List<EnterpriseEventDocument> documents, String nextStreamPosition, int chunkSize,
+                              List<String> failedIds) {
+            this.documents = documents;
+            this.nextStreamPosition = nextStreamPosition;
+            this.chunkSize = chunkSize;
+            this.failedIds = failedIds;
+        }
+
+        public List<EnterpriseEventDocument> getDocuments() {
+            return this.documents;
+        }
+
+        public String getNextStreamPosition() {
+            return this.nextStreamPosition;
+        }
+
+        public int getChunkSize() {
+            return this.chunkSize;
+        }
+
+        /**
+         * @return the ids of the entries that could not be written as docs
+         */
+        public List<String> getFailedIds() {
+            return this.failedIds;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.box.platform.parser;
+
+import com.box.platform.enrichment.EventEnricher;
+import com.box.platform.enrichment.UserProfile;
+import com.box.platform.util.ByteArrayBuilder;
+import com.box.platform.util.Utf8ByteWriter;
+import com.box.sdk.BoxEvent;
+import com.box.sdk.BoxUser;
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Streams a Box event straight into the UTF-8 json body of its Elasticsearch doc. It writes the same doc as
+ * BoxEnterpriseEventJsonParser.parse but without building a json tree for it: the source and additional details
+ * json that the Box SDK already parsed are written through as they are, and each thread reuses its own byte buffer so
+ * the only allocation per event is the final body.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class EnterpriseEventWriter {
+    public static final DateTimeFormatter CREATED_AT_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final ThreadLocal<Utf8ByteWriter> WRITERS = new ThreadLocal<Utf8ByteWriter>() {
+        @Override
+        protected Utf8ByteWriter initialValue() {
+            return new Utf8ByteWriter(new ByteArrayBuilder(INITIAL_BUFFER_SIZE));
+        }
+    };
+
+    private EnterpriseEventWriter() {
+    }
+
+    public static EnterpriseEventDocument write(BoxEvent boxEvent, String nextStreamPosition) throws IOException {
+        return write(boxEvent, nextStreamPosition, null);
+    }
+
+    /**
+     * @param enricher adds the status, role and groups of the user to created_by and the path of the item to source,
+     *                 may be null
+     */
+    public static EnterpriseEventDocument write(BoxEvent boxEvent, String nextStreamPosition, EventEnricher enricher)
+            throws IOException {
+        Utf8ByteWriter writer = WRITERS.get();
+        writer.getBuilder().reset();
+
+        String id = boxEvent.getID();
+        String type = boxEvent.getType().name();
+        long createdAtMillis = boxEvent.getCreatedAt().getTime();
+
+        String ipAddress = ipAddress(boxEvent.getIPAddress());
+        writeHead(writer, id, type, createdAtMillis, ipAddress);
+
+        // Build createdBy JSON object
+        writer.writeAscii(",\"created_by\":{");
+        BoxUser.Info createdBy = boxEvent.getCreatedBy();
+        String login = createdBy == null ? null : createdBy.getLogin();
+        if(createdBy != null){
+            writeCreatedBy(writer, login, createdBy.getName());
+            UserProfile user = enricher == null ? null : enricher.getUser(boxEvent);
+            if(user != null){
+                writeUserProfile(writer, user);
+            }
+        }
+
+        // Source json is written through as it came from Box
+        writer.writeAscii("},\"source\":");
+        JsonObject source = boxEvent.getSourceJSON();
+        String itemPath = enricher == null || source == null ? null : enricher.getItemPath(boxEvent);
+        if(itemPath != null){
+            // The SDK keeps the source json, so the path goes on a shallow copy
+            source = new JsonObject(source).add("path", itemPath);
+        }
+        if(source == null){
+            writer.writeAscii("{}");
+        } else{
+            source.writeTo(writer);
+        }
+
+        writer.writeAscii(",\"additional_details\":");
+        writeAdditionalDetails(writer, type, boxEvent.getAdditionalDetails());
+
+        if(nextStreamPosition != null){
+            writer.writeAscii(",\"next_stream_position\":");
+            writer.writeJsonString(nextStreamPosition);
+        }
+        writer.write('}');
+
+        return new EnterpriseEventDocument(id, type, createdAtMillis, login, ipAddress, writer.getBuilder().toByteArray());
+    }
+
+    /**
+     * Wraps json that was built by BoxEnterpriseEventJsonParser.parse.
+     */
+    public static EnterpriseEventDocument fromJson(JsonObject enterpriseEvent) throws IOException {
+        Utf8ByteWriter writer = WRITERS.get();
+        writer.getBuilder().reset();
+        enterpriseEvent.writeTo(writer);
+
+        String createdAt = enterpriseEvent.getString("created_at", null);
+        long createdAtMillis = createdAt == null ? 0 : parseCreatedAt(createdAt);
+        JsonValue createdBy = enterpriseEvent.get("created_by");
+        JsonValue login = createdBy == null || !createdBy.isObject() ? null : createdBy.asObject().get("login");
+        JsonValue ipAddress = enterpriseEvent.get("ip_address");
+        return new EnterpriseEventDocument(
+                enterpriseEvent.getString("id", null),
+                enterpriseEvent.getString("type", null),
+                createdAtMillis,
+                login == null || !login.isString() ? null : login.asString(),
+                ipAddress == null || !ipAddress.isString() ? null : ipAddress.asString(),
+                writer.getBuilder().toByteArray());
+    }
+
+    /**
+     * Writes the start of a doc up to and including ip_address.
+     */
+    static void writeHead(Utf8ByteWriter writer, String id, String type, long createdAtMillis, String ipAddress)
+            throws IOException {
+        writer.writeAscii("{\"id\":");
+        writer.writeJsonString(id);
+        writer.writeAscii(",\"type\":");
+        writer.writeJsonString(type);
+        writer.writeAscii(",\"created_at\":\"");
+        CREATED_AT_FORMAT.formatTo(Instant.ofEpochMilli(createdAtMillis), writer);
+        writer.writeAscii("\",\"ip_address\":");
+        writer.writeJsonString(ipAddress);
+    }
+
+    static void writeCreatedBy(Utf8ByteWriter writer, String login, String name) {
+        writer.writeAscii("\"login\":");
+        writer.writeJsonString(login);
+        writer.writeAscii(",\"name\":");
+        writer.writeJsonString(name);
+    }
+
+    /**
+     * The operationParams of metadata events is a json array in a String. It is parsed and written out again, so a
+     * string that is not a json array fails the doc, and raw newlines in it can not end up in an NDJSON bulk body.
+     */
+    static void writeOperationParams(Utf8ByteWriter writer, String operationParams) throws IOException {
+        writer.writeAscii(",\"operationParams\":");
+        Json.parse(operationParams).asArray().writeTo(writer);
+        writer.write('}');
+    }
+
+    public static long parseCreatedAt(String createdAt) {
+        return Instant.from(CREATED_AT_FORMAT.parse(createdAt)).toEpochMilli();
+    }
+
+    /**
+     * The Box SDK has no types for metadata events and reports them as UNKNOWN, so they are also recognized by the
+     * operationParams string in their additional details.
+     */
+    public static boolean isMetadataEvent(String type, JsonObject additionalDetails) {
+        if(isMetadataEventType(type)){
+            return true;
+        }
+        if(additionalDetails == null || !type.equals(BoxEvent.Type.UNKNOWN.name())){
+            return false;
+        }
+        JsonValue metadata = additionalDetails.get("metadata");
+        if(metadata == null || !metadata.isObject()){
+            return false;
+        }
+        JsonValue operationParams = metadata.asObject().get("operationParams");
+        return operationParams != null && operationParams.isString();
+    }
+
+    static boolean isMetadataEventType(String type) {
+        return type.equalsIgnoreCase("METADATA_INSTANCE_CREATE") || type.equalsIgnoreCase("METADATA_INSTANCE_UPDATE");
+    }
+
+    /**
+     * ip_address is mapped as an ip, so anything else Box sends in it, like an empty string, is written as null
+     * instead of failing the doc.
+     */
+    public static String ipAddress(String ipAddress) {
+        if(ipAddress == null){
+            return null;
+        }
+        String trimmed = ipAddress.trim();
+        return isIPv4(trimmed) || isIPv6(trimmed) ? trimmed : null;
+    }
+
+    private static boolean isIPv4(String value) {
+        int octets = 0;
+        int octetStart = 0;
+        for(int i = 0; i <= value.length(); i++){
+            if(i < value.length() && value.charAt(i) != '.'){
+                char c = value.charAt(i);
+                if(c < '0' || c > '9' || i - octetStart >= 3){
+                    return false;
+                }
+                continue;
+            }
+            if(i == octetStart || Integer.parseInt(value.substring(octetStart, i)) > 255){
+                return false;
+            }
+            octets++;
+            octetStart = i + 1;
+        }
+        return octets == 4;
+    }
+
+    private static boolean isIPv6(String value) {
+        // Elasticsearch does not take a scope id like %eth0
+        int compressed = value.indexOf("::");
+        if(compressed >= 0 && value.indexOf("::", compressed + 1) >= 0){
+            return false;
+        }
+        // An IPv4 address in the last 32 bits counts as two groups
+        int groups = 0;
+        int lastColon = value.lastIndexOf(':');
+        if(lastColon < 0){
+            return false;
+        }
+        String head = value;
+        if(value.indexOf('.', lastColon) >= 0){
+            if(!isIPv4(value.substring(lastColon + 1))){
+                return false;
+            }
+            groups += 2;
+            head = value.substring(0, lastColon + 1);
+            if(head.endsWith(":") && !head.endsWith("::")){
+                head = head.substring(0, head.length() - 1);
+            }
+        }
+        String[] parts = head.split(":", -1);
+        for(int i = 0; i < parts.length; i++){
+            String part = parts[i];
+            if(part.isEmpty()){
+                // Only the :: may leave empty parts, at the start, in the middle or at the end
+                if(compressed < 0){
+                    return false;
+                }
+                continue;
+            }
+            if(part.length() > 4){
+                return false;
+            }
+            for(int j = 0; j < part.length(); j++){
+                if(Character.digit(part.charAt(j), 16) < 0){
+                    return false;
+                }
+            }
+            groups++;
+        }
+        return compressed >= 0 ? groups < 8 : groups == 8;
+    }
+
+    private static void writeUserProfile(Utf8ByteWriter writer, UserProfile user) throws IOException {
+        writer.writeAscii(",\"id\":");
+        writer.writeJsonString(user.getId());
+        writer.writeAscii(",\"status\":");
+        writer.writeJsonString(user.getStatus());
+        writer.writeAscii(",\"role\":");
+        writer.writeJsonString(user.getRole());
+        writer.writeAscii(",\"groups\":[");
+        List<String> groups = user.getGroups();
+        for(int i = 0; i < groups.size(); i++){
+            if(i > 0){
+                writer.write(',');
+            }
+            writer.writeJsonString(groups.get(i));
+        }
+        writer.write(']');
+    }
+
+    private static void writeAdditionalDetails(Utf8ByteWriter writer, String type, JsonObject additionalDetails) throws IOException {
+        if(additionalDetails == null){
+            writer.writeAscii("{}");
+            return;
+        }
+
+        // The operationParams of metadata events is a json array in a String, write it as the array
+        if(isMetadataEvent(type, additionalDetails)){
+            JsonObject metadataJson = additionalDetails.get("metadata").asObject();
+            String operationParams = metadataJson.get("operationParams").asString();
+            writer.writeAscii("{\"type\":");
+            JsonValue metadataType = metadataJson.get("type");
+            if(metadataType == null){
+                writer.writeAscii("null");
+            } else{
+                metadataType.writeTo(writer);
+            }
+            writeOperationParams(writer, operationParams);
+            return;
+        }
+        additionalDetails.writeTo(writer);
+    }
+}
@@ -0,0 +1,77 @@
+package com.box.platform.producer;
+
+/**
+ * Sizes the bulk requests of the producer and limits how many are on the wire with additive increase, multiplicative
+ * decrease. Every bulk request that comes back within the target latency without rejected items adds about one request
+ * in flight per round trip and min.actions to the batch size. A response with items rejected by a full write thread
+ * pool halves both, at most once per round trip, since the responses to requests sent before the cut would only repeat
+ * it. A response slower than the target latency without rejections takes a quarter off the requests in flight, once
+ * per round trip as well, so a cluster that queues requests instead of rejecting them gets fewer of them at a time. The
+ * batch size stays, since smaller batches would only mean more requests for the same docs.
+ *
+ * Only used by the producer actor, so it is not thread safe.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class BulkFlowController {
+    private static final double BACKOFF_RATIO = 0.5;
+    private static final double SLOW_BACKOFF_RATIO = 0.75;
+
+    private final boolean adaptive;
+    private final int minInFlight;
+    private final int maxInFlight;
+    private final int minActions;
+    private final int maxActions;
+    private final long targetLatencyMillis;
+    private double inFlightLimit;
+    private double batchActions;
+    private long decreasedAtNanos;
+
+    public BulkFlowController(boolean adaptive, int minInFlight, int maxInFlight, int minActions, int maxActions,
+                              long targetLatencyMillis) {
+        this.adaptive = adaptive;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.minInFlight = Math.max(1, Math.min(minInFlight, this.maxInFlight));
+        this.maxActions = Math.max(1, maxActions);
+        this.minActions = Math.max(1, Math.min(minActions, this.maxActions));
+        this.targetLatencyMillis = targetLatencyMillis;
+        // Requests in flight start low and find the limit of the cluster, batches start at the configured size
+        this.inFlightLimit = adaptive ? this.minInFlight : this.maxInFlight;
+        this.batchActions = this.maxActions;
+        this.decreasedAtNanos = System.nanoTime();
+    }
+
+    /**
+     * @param sentAtNanos when the request was sent, from System.nanoTime
+     * @param rejected whether Elasticsearch rejected the request or any of its items with 429
+     */
+    public void onResponse(long sentAtNanos, long latencyMillis, boolean rejected) {
+        if(!this.adaptive){
+            return;
+        }
+        if(rejected){
+            if(sentAtNanos - this.decreasedAtNanos > 0){
+                this.inFlightLimit = Math.max(this.minInFlight, this.inFlightLimit * BACKOFF_RATIO);
+                this.batchActions = Math.max(this.minActions, this.batchActions * BACKOFF_RATIO);
+                this.decreasedAtNanos = System.nanoTime();
+            }
+        } else if(latencyMillis > this.targetLatencyMillis){
+            if(sentAtNanos - this.decreasedAtNanos > 0){
+                this.inFlightLimit = Math.max(this.minInFlight, this.inFlightLimit * SLOW_BACKOFF_RATIO);
+                this.decreasedAtNanos = System.nanoTime();
+            }
+        } else{
+            this.inFlightLimit = Math.min(this.maxInFlight, this.inFlightLimit + 1.0 / this.inFlightLimit);
+            this.batchActions = Math.min(this.maxActions, this.batchActions + this.minActions);
+        }
+    }
+
+    public int getInFlightLimit() {
+        return (int) this.inFlightLimit;
+    }
+
+    public int getBatchActions() {
+        return (int) this.batchActions;
+    }
+}
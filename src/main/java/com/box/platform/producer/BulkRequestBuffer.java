@@ -0,0 +1,192 @@
+package com.box.platform.producer;
+
+import com.box.platform.parser.EnterpriseEventDocument;
+import com.box.platform.util.ByteArrayBuilder;
+import com.box.platform.util.Utf8ByteWriter;
+import com.eclipsesource.json.Json;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Accumulates Box Enterprise Event docs as newline delimited json so that they can be sent to the Elasticsearch
+ * _bulk endpoint in a single request. The already serialized doc bodies are copied straight into the request body.
+ * With the smile wire format every action and doc is encoded as smile instead and ended by the smile stream separator.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class BulkRequestBuffer {
+    private static final byte[] ACTION_SUFFIX = "}}\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ID_FIELD = ",\"_id\":".getBytes(StandardCharsets.UTF_8);
+
+    private final String indexName;
+    private final String indexType;
+    private final DocumentWriteMode writeMode;
+    private final byte[] actionPrefix;
+    // Null for json
+    private final DocumentTranscoder transcoder;
+    private final byte separator;
+    private final int initialCapacity;
+    private ByteArrayBuilder body;
+    private Utf8ByteWriter writer;
+    private int actions;
+    private long firstAddedAtMillis;
+    private long newestCreatedAtMillis;
+
+    public BulkRequestBuffer(String indexName, String indexType, DocumentWriteMode writeMode, int initialCapacity) {
+        this(indexName, indexType, writeMode, WireFormat.JSON, initialCapacity);
+    }
+
+    /**
+     * @param wireFormat the format of the body, formats without bulk support fall back to json
+     */
+    public BulkRequestBuffer(String indexName, String indexType, DocumentWriteMode writeMode, WireFormat wireFormat,
+                             int initialCapacity) {
+        WireFormat bulkFormat = wireFormat.forBulk();
+        this.indexName = indexName;
+        this.indexType = indexType;
+        this.writeMode = writeMode;
+        this.transcoder = bulkFormat.isBinary() ? new DocumentTranscoder(bulkFormat) : null;
+        this.separator = bulkFormat.getSeparator();
+        this.initialCapacity = initialCapacity;
+        // Every doc in the buffer goes to the same index and type so only the id changes between action lines
+        String action = Json.object()
+                .add(writeMode.getBulkAction(), Json.object()
+                        .add("_index", indexName)
+                        .add("_type", indexType))
+                .toString();
+        this.actionPrefix = action.substring(0, action.length() - 2).getBytes(StandardCharsets.UTF_8);
+        this.useBody(null);
+    }
+
+    /**
+     * @throws IllegalArgumentException when the doc body can not be encoded, the buffer is left as it was
+     */
+    public void add(EnterpriseEventDocument document) {
+        if(this.transcoder != null){
+            this.addEncoded(document);
+        } else{
+            this.addJson(document);
+        }
+        if(this.actions == 0){
+            this.firstAddedAtMillis = System.currentTimeMillis();
+        }
+        this.actions++;
+        this.newestCreatedAtMillis = Math.max(this.newestCreatedAtMillis, document.getCreatedAtMillis());
+    }
+
+    private void addJson(EnterpriseEventDocument document) {
+        this.body.write(this.actionPrefix);
+        if(this.writeMode.usesEventId()){
+            this.body.write(ID_FIELD);
+            this.writer.writeJsonString(document.getId());
+        }
+        this.body.write(ACTION_SUFFIX);
+        this.body.write(document.getBody());
+        this.body.write('\n');
+    }
+
+    private void addEncoded(EnterpriseEventDocument document) {
+        int start = this.body.length();
+        byte[] doc = document.getBody();
+        try {
+            this.transcoder.writeAction(this.writeMode.getBulkAction(), this.indexName, this.indexType,
+                    this.writeMode.usesEventId() ? document.getId() : null, this.body);
+            this.body.write(this.separator);
+            this.transcoder.writeDoc(doc, 0, doc.length, this.body);
+            this.body.write(this.separator);
+        } catch (IOException e){
+            this.body.truncate(start);
+            throw new IllegalArgumentException("Doc with id " + document.getId() + " is not valid json", e);
+        }
+    }
+
+    /**
+     * @return the byte that ends every action line and doc in the body
+     */
+    public byte getSeparator() {
+        return this.separator;
+    }
+
+    public boolean isEmpty() {
+        return this.actions == 0;
+    }
+
+    public int getActions() {
+        return this.actions;
+    }
+
+    public long getBytes() {
+        return this.body.length();
+    }
+
+    /**
+     * @return the newest created_at of the docs in the current batch
+     */
+    public long getNewestCreatedAtMillis() {
+        return this.newestCreatedAtMillis;
+    }
+
+    public long getAgeMillis() {
+        return this.actions == 0 ? 0 : System.currentTimeMillis() - this.firstAddedAtMillis;
+    }
+
+    /**
+     * Hands back the bulk body and starts the next batch.
+     *
+     * @param nextBody a body of an earlier batch that is no longer in use, or null to allocate a new one
+     */
+    public ByteArrayBuilder drain(ByteArrayBuilder nextBody) {
+        ByteArrayBuilder ndjson = this.body;
+        this.useBody(nextBody);
+        this.actions = 0;
+        this.firstAddedAtMillis = 0;
+        this.newestCreatedAtMillis = 0;
+        return ndjson;
+    }
+
+    /**
+     * Finds where each action starts in an NDJSON body built by this buffer. Every action is an action line followed
+     * by a doc line and the json of both is on a single line, so action i spans offsets[i] up to offsets[i + 1].
+     *
+     * @return the offsets, one more than there are actions
+     */
+    public static int[] actionOffsets(ByteArrayBuilder ndjson) {
+        return actionOffsets(ndjson, (byte) '\n');
+    }
+
+    /**
+     * Same as actionOffsets(ByteArrayBuilder) for a body whose action lines and docs end with the given separator.
+     */
+    public static int[] actionOffsets(ByteArrayBuilder body, byte separator) {
+        byte[] buffer = body.buffer();
+        int length = body.length();
+        int lines = 0;
+        for(int i = 0; i < length; i++){
+            if(buffer[i] == separator){
+                lines++;
+            }
+        }
+        int[] offsets = new int[lines / 2 + 1];
+        int line = 0;
+        for(int i = 0; i < length; i++){
+            if(buffer[i] == separator){
+                line++;
+                if(line % 2 == 0){
+                    offsets[line / 2] = i + 1;
+                }
+            }
+        }
+        return offsets;
+    }
+
+    private void useBody(ByteArrayBuilder nextBody) {
+        if(nextBody == null){
+            nextBody = new ByteArrayBuilder(this.initialCapacity);
+        }
+        nextBody.reset();
+        this.body = nextBody;
+        this.writer = new Utf8ByteWriter(this.body);
+    }
+}
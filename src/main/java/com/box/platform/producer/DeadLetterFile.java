@@ -0,0 +1,82 @@
+package com.box.platform.producer;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends docs that Elasticsearch will never accept, such as docs that do not fit the mapping, to a newline delimited
+ * json file. Each line has the time of the failure, the doc id, the status and error Elasticsearch returned and the
+ * doc itself, so the docs can be fixed and indexed again by hand.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class DeadLetterFile implements Closeable {
+    private static final byte[] DOC_FIELD = ",\"doc\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LINE_SUFFIX = "}\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Path path;
+    private final FileChannel channel;
+    private long lines;
+
+    public DeadLetterFile(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @param doc the serialized doc as it was sent to Elasticsearch
+     * @param error the error Elasticsearch returned, null if there was none
+     */
+    public void append(String id, int status, String error, byte[] doc, int offset, int length) throws IOException {
+        JsonObject line = Json.object()
+                .add("failed_at", System.currentTimeMillis())
+                .add("id", id)
+                .add("status", status);
+        line.add("error", error == null ? Json.NULL : parseError(error));
+        String header = line.toString();
+        byte[] headerBytes = header.substring(0, header.length() - 1).getBytes(StandardCharsets.UTF_8);
+
+        // The doc is already json, it is copied into the line as it is
+        ByteBuffer[] buffers = new ByteBuffer[] {
+                ByteBuffer.wrap(headerBytes),
+                ByteBuffer.wrap(DOC_FIELD),
+                ByteBuffer.wrap(doc, offset, length),
+                ByteBuffer.wrap(LINE_SUFFIX)
+        };
+        long remaining = headerBytes.length + DOC_FIELD.length + length + LINE_SUFFIX.length;
+        while(remaining > 0){
+            remaining -= this.channel.write(buffers);
+        }
+        this.lines++;
+    }
+
+    public long getLines() {
+        return this.lines;
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private static JsonValue parseError(String error){
+        try{
+            return Json.parse(error);
+        } catch (Exception e){
+            return Json.value(error);
+        }
+    }
+}
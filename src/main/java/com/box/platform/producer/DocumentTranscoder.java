@@ -0,0 +1,112 @@
+package com.box.platform.producer;
+
+import com.box.platform.util.ByteArrayBuilder;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes serialized Box Enterprise Event docs in a binary wire format. The json of the doc is read token by token and
+ * every token is written straight to a smile or cbor generator on the request body, so no tree of the doc is built.
+ * Docs stay json everywhere else, in the spool, the dead letter file and the archives, and are only encoded for the
+ * request that sends them.
+ *
+ * Generators are not shared, so one transcoder can be used by any number of threads.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class DocumentTranscoder {
+    private final WireFormat format;
+    private final JsonFactory jsonFactory;
+    private final JsonFactory binaryFactory;
+
+    public DocumentTranscoder(WireFormat format) {
+        this.format = format;
+        this.jsonFactory = new JsonFactory();
+        this.jsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        switch(format){
+            case SMILE:
+                this.binaryFactory = new SmileFactory();
+                break;
+            case CBOR:
+                this.binaryFactory = new CBORFactory();
+                break;
+            default:
+                throw new IllegalArgumentException("No binary encoding for wire format " + format);
+        }
+        this.binaryFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    public WireFormat getFormat() {
+        return this.format;
+    }
+
+    /**
+     * Writes the json doc to the output in the binary format.
+     */
+    public void writeDoc(byte[] json, int offset, int length, OutputStream output) throws IOException {
+        JsonParser parser = this.jsonFactory.createParser(json, offset, length);
+        JsonGenerator generator = this.binaryFactory.createGenerator(output);
+        try {
+            while(parser.nextToken() != null){
+                generator.copyCurrentEvent(parser);
+            }
+        } finally {
+            generator.close();
+            parser.close();
+        }
+    }
+
+    public byte[] encodeDoc(byte[] json) throws IOException {
+        ByteArrayBuilder encoded = new ByteArrayBuilder(json.length);
+        this.writeDoc(json, 0, json.length, encoded);
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Writes a bulk action line such as {"create":{"_index":"box","_type":"enterprise","_id":"..."}}.
+     *
+     * @param id the doc id, null to let Elasticsearch generate one
+     */
+    public void writeAction(String action, String indexName, String indexType, String id, OutputStream output)
+            throws IOException {
+        JsonGenerator generator = this.binaryFactory.createGenerator(output);
+        try {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart(action);
+            generator.writeStringField("_index", indexName);
+            generator.writeStringField("_type", indexType);
+            if(id != null){
+                generator.writeStringField("_id", id);
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        } finally {
+            generator.close();
+        }
+    }
+
+    /**
+     * Turns an encoded doc back into json, for the dead letter file.
+     */
+    public byte[] toJson(byte[] encoded, int offset, int length) throws IOException {
+        ByteArrayBuilder json = new ByteArrayBuilder(length + length / 2);
+        JsonParser parser = this.binaryFactory.createParser(encoded, offset, length);
+        JsonGenerator generator = this.jsonFactory.createGenerator(json);
+        try {
+            while(parser.nextToken() != null){
+                generator.copyCurrentEvent(parser);
+            }
+        } finally {
+            generator.close();
+            parser.close();
+        }
+        return json.toByteArray();
+    }
+}
@@ -0,0 +1,35 @@
+package com.box.platform.producer;
+
+/**
+ * How Box Enterprise Event docs are written to Elasticsearch.
+ *
+ * AUTO lets Elasticsearch generate the doc id, so replayed events become duplicates. CREATE and INDEX use the Box
+ * event id as the doc id. CREATE only writes docs that do not exist yet and reports a version conflict otherwise,
+ * INDEX overwrites an existing doc with the same id.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public enum DocumentWriteMode {
+    AUTO("index"),
+    CREATE("create"),
+    INDEX("index");
+
+    private final String bulkAction;
+
+    DocumentWriteMode(String bulkAction) {
+        this.bulkAction = bulkAction;
+    }
+
+    public String getBulkAction() {
+        return this.bulkAction;
+    }
+
+    public boolean usesEventId() {
+        return this != AUTO;
+    }
+
+    public static DocumentWriteMode fromConfig(String value) {
+        return DocumentWriteMode.valueOf(value.trim().toUpperCase());
+    }
+}
@@ -1,28 +1,74 @@
 package com.box.platform.producer;
 
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Terminated;
 import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import com.box.platform.checkpoint.Checkpoint;
+import com.box.platform.metrics.Counter;
+import com.box.platform.metrics.Gauge;
+import com.box.platform.metrics.IngestMetrics;
+import com.box.platform.metrics.IngestMetricsExtension;
+import com.box.platform.metrics.LatencyHistogram;
+import com.box.platform.parser.EnterpriseEventDocument;
+import com.box.platform.parser.EnterpriseEventWriter;
+import com.box.platform.rollup.EventRollupAggregator;
+import com.box.platform.util.ByteArrayBuilder;
+import com.box.platform.util.ElasticsearchClient;
+import com.box.platform.util.ElasticsearchClientExtension;
+import com.box.platform.util.RollingIndices;
+import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonObject;
-import com.eclipsesource.json.WriterConfig;
+import com.eclipsesource.json.JsonValue;
 import com.typesafe.config.Config;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpHost;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EntityUtils;
 import org.elasticsearch.client.*;
-import org.elasticsearch.client.sniff.SniffOnFailureListener;
-import org.elasticsearch.client.sniff.Sniffer;
+import scala.concurrent.duration.Duration;
 
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
- * Creates a new Elasticsearch doc based on the newly created json that represents a Box Enterprise Event.
+ * Creates a new Elasticsearch doc based on the newly created json that represents a Box Enterprise Event. When bulk
+ * indexing is enabled, docs are buffered and sent to the _bulk endpoint once the buffer reaches the configured number
+ * of actions, number of bytes or maximum age. Checkpoints received after a set of docs are sent back to the parent once
+ * all of those docs have been indexed. The parent is told once when a request fails, and can reset the producer to
+ * throw away everything it still holds before sending the docs again.
+ *
+ * Every item of a bulk response is checked on its own. Items rejected with 429 or failing with a 5xx status are sent
+ * again in a smaller bulk request after a backoff, docs Elasticsearch will never accept go to the dead letter file, as
+ * do all docs of a request refused as a whole with a 4xx status, and a request only counts as failed once its retries
+ * run out. The batch size and the number of bulk requests in flight
+ * follow the latency and rejections of the cluster, see BulkFlowController.
+ *
+ * Docs are sent as json, or encoded as smile or cbor on their way out when elastic.wire.format says so, see WireFormat.
+ *
+ * Every actor that sends docs gets a lane of its own, with its own buffer, checkpoints and resets, so one producer can
+ * index the spools of several tenants into their own indices, see Route. The bulk requests in flight and the bodies
+ * they are built in are shared by all lanes, and lanes with requests waiting take turns by weight, so a tenant with a
+ * large backlog only gets its share of the requests on the wire while the others have docs to index too.
  *
  * @author Kyle Adams
  * @email kadams@box.com
@@ -30,98 +76,1101 @@ import java.util.Collections;
 public class ElasticsearchProducer extends UntypedActor {
     private final LoggingAdapter logger = Logging.getLogger(getContext().system(), this);
 
+    public static final String INDEXING_FAILED = "indexing-failed";
+    public static final String RESET = "reset-indexing";
     private static final String ELASTIC_CONFIG_PREFIX = "elastic.";
+    private static final String BOX_CONFIG_PREFIX = "box.platform.";
     private static final String HTTP_POST = "POST";
+    private static final String HTTP_PUT = "PUT";
+    private static final int HTTP_CREATED = 201;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_CONFLICT = 409;
+    private static final int HTTP_ENTITY_TOO_LARGE = 413;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVER_ERROR = 500;
+    private static final String REJECTED_EXECUTION = "es_rejected_execution_exception";
+    private static final String BULK_ENDPOINT = "/_bulk";
+    // A lane starts out with a small body, the bodies of the requests in flight are passed on to the busy lanes
+    private static final int LANE_BODY_BYTES = 64 * 1024;
+    // Elasticsearch answers in the format of the request unless asked for json
+    private static final Header[] JSON_RESPONSE = new Header[] { new BasicHeader("Accept", "application/json") };
+    private static final Header[] NO_HEADERS = new Header[0];
+    private static final Map<String, String> BULK_PARAMS;
+    static {
+        // Only bring back the parts of the bulk response needed to check the status of each item
+        Map<String, String> bulkParams = new HashMap<String, String>();
+        bulkParams.put("filter_path", "took,errors,items.*._id,items.*.status,items.*.error");
+        BULK_PARAMS = Collections.unmodifiableMap(bulkParams);
+    }
 
-    private RestClient restClient = null;
-    private String indexName;
+    // Shared by every actor of the system, see ElasticsearchClientExtension
+    private ElasticsearchClient elasticsearchClient;
+    private RestClient restClient;
+    // The write alias when indices roll over, the index itself otherwise, for senders without a Route
+    private String defaultIndexName;
     private String indexType;
-    private int connectionTimeout;
-    private int socketTimeout;
-    private int connectionRequestTimeout;
+    private DocumentWriteMode writeMode;
+    private WireFormat docFormat;
+    private WireFormat bulkFormat;
+    // Null for json
+    private DocumentTranscoder docTranscoder;
+    private DocumentTranscoder bulkTranscoder;
+    private Header[] requestHeaders;
+    // Updated from the rest client callbacks
+    private final AtomicLong versionConflicts = new AtomicLong();
+
+    private boolean bulkEnabled;
+    private long bulkMaxBytes;
+    private long bulkFlushIntervalMillis;
+    private BulkFlowController bulkFlow;
+    private int retryMaxAttempts;
+    private long retryBaseMillis;
+    private long retryMaxMillis;
+    private DeadLetterFile deadLetterFile;
+    private final Map<ActorRef, Lane> lanes = new LinkedHashMap<ActorRef, Lane>();
+    // Bodies of completed bulk requests, reused for the next batches
+    private final Deque<ByteArrayBuilder> spareBulkBodies = new ArrayDeque<ByteArrayBuilder>();
+    private int maxSpareBulkBodies;
+    private int bulkRequestsInFlight;
+
+    // Updated from the rest client callbacks
+    private LatencyHistogram bulkLatency;
+    private LatencyHistogram indexLatency;
+    private IngestMetrics metrics;
+    // Read by the metrics reporters
+    private volatile long bulkInFlightLimit;
+    private volatile long bulkBatchActions;
 
     @Override
     public void preStart() throws Exception {
         logger.debug("{} prestart...", this.getClass().getName());
         // Get application config
         Config boxConfig = getContext().system().settings().config();
-        String host = boxConfig.getString(ELASTIC_CONFIG_PREFIX + "host");
-        int port = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "client.rest.port");
-        this.indexName = boxConfig.getString(ELASTIC_CONFIG_PREFIX + "index.name");
+        this.defaultIndexName = RollingIndices.fromConfig(boxConfig).getWriteTarget();
         this.indexType = boxConfig.getString(ELASTIC_CONFIG_PREFIX + "enterprise.type");
-        this.connectionTimeout = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "client.rest.connection.timeout");
-        this.socketTimeout = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "client.rest.socket.timeout");
-        this.connectionRequestTimeout = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "client.rest.connection.request.timeout");
-        int maxRetryTimeout = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "client.rest.max.retry.timeout");
-
-        // Instantiate ES RestClient with Sniffer
-        SniffOnFailureListener sniffOnFailureListener = new SniffOnFailureListener();
-        this.restClient = RestClient.builder(new HttpHost(host, port))
-                .setRequestConfigCallback(new RestClientBuilder.RequestConfigCallback() {
-                    public RequestConfig.Builder customizeRequestConfig(RequestConfig.Builder requestConfigBuilder) {
-                        return requestConfigBuilder
-                                .setConnectTimeout(connectionTimeout)
-                                .setSocketTimeout(socketTimeout)
-                                .setConnectionRequestTimeout(connectionRequestTimeout);
-                    }
-                })
-                .setMaxRetryTimeoutMillis(maxRetryTimeout)
-                .setFailureListener(sniffOnFailureListener)
-                .build();
-        Sniffer sniffer = Sniffer.builder(this.restClient).build();
-        sniffOnFailureListener.setSniffer(sniffer);
+        this.writeMode = DocumentWriteMode.fromConfig(boxConfig.getString(ELASTIC_CONFIG_PREFIX + "enterprise.write.mode"));
+        this.docFormat = WireFormat.fromConfig(boxConfig.getString(ELASTIC_CONFIG_PREFIX + "wire.format"));
+        this.bulkFormat = this.docFormat.forBulk();
+        this.docTranscoder = this.docFormat.isBinary() ? new DocumentTranscoder(this.docFormat) : null;
+        this.bulkTranscoder = this.bulkFormat.isBinary() ? new DocumentTranscoder(this.bulkFormat) : null;
+        this.requestHeaders = this.docFormat.isBinary() ? JSON_RESPONSE : NO_HEADERS;
+
+        // Get bulk indexing config
+        this.bulkEnabled = boxConfig.getBoolean(ELASTIC_CONFIG_PREFIX + "bulk.enabled");
+        this.bulkMaxBytes = boxConfig.getLong(ELASTIC_CONFIG_PREFIX + "bulk.max.bytes");
+        this.bulkFlushIntervalMillis = boxConfig.getLong(ELASTIC_CONFIG_PREFIX + "bulk.flush.interval");
+        this.bulkFlow = new BulkFlowController(
+                boxConfig.getBoolean(ELASTIC_CONFIG_PREFIX + "bulk.adaptive.enabled"),
+                boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "bulk.adaptive.min.in.flight"),
+                boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "bulk.max.in.flight"),
+                boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "bulk.adaptive.min.actions"),
+                boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "bulk.max.actions"),
+                boxConfig.getLong(ELASTIC_CONFIG_PREFIX + "bulk.adaptive.target.latency"));
+        this.retryMaxAttempts = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "retry.max.attempts");
+        this.retryBaseMillis = boxConfig.getLong(ELASTIC_CONFIG_PREFIX + "retry.backoff");
+        this.retryMaxMillis = boxConfig.getLong(ELASTIC_CONFIG_PREFIX + "retry.max.backoff");
+        this.maxSpareBulkBodies = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "bulk.max.in.flight");
+        this.deadLetterFile = new DeadLetterFile(Paths.get(boxConfig.getString(BOX_CONFIG_PREFIX + "config.path")
+                + boxConfig.getString(ELASTIC_CONFIG_PREFIX + "dead.letter.file")));
+        if(this.bulkEnabled && this.bulkFormat != this.docFormat){
+            logger.warning("Elasticsearch does not read {} bulk requests, bulk requests are sent as {}", this.docFormat, this.bulkFormat);
+        }
+
+        IngestMetrics metrics = IngestMetricsExtension.INSTANCE.get(getContext().system());
+        this.metrics = metrics;
+        this.bulkLatency = metrics.histogram("es_bulk_latency_ms", "Time for a bulk request to be indexed by Elasticsearch");
+        this.indexLatency = metrics.histogram("es_index_latency_ms", "Time for a single doc request to be indexed by Elasticsearch");
+        this.updateFlowGauges();
+        metrics.gauge("es_bulk_in_flight_limit", "Bulk requests allowed on the wire at the same time", new Gauge() {
+            public long getValue() {
+                return bulkInFlightLimit;
+            }
+        });
+        metrics.gauge("es_bulk_batch_actions", "Docs a bulk request is sent with", new Gauge() {
+            public long getValue() {
+                return bulkBatchActions;
+            }
+        });
+
+        this.elasticsearchClient = ElasticsearchClientExtension.INSTANCE.get(getContext().system());
+        this.restClient = this.elasticsearchClient.getRestClient();
     }
 
     @Override
     public void postStop() throws Exception {
-        // Close rest client
-        this.restClient.close();
+        for(Lane lane: this.lanes.values()){
+            if(lane.flushTick != null){
+                lane.flushTick.cancel();
+            }
+
+            // Send whatever is left in the buffer, the shared rest client stays open until the system terminates
+            if(this.bulkEnabled){
+                if(!lane.bulkBuffer.isEmpty()){
+                    long newestCreatedAtMillis = lane.bulkBuffer.getNewestCreatedAtMillis();
+                    lane.pendingBulkRequests.add(new BulkRequest(lane.checkpointTracker.begin(),
+                            lane.bulkBuffer.drain(this.spareBulkBodies.poll()), lane.takeBufferedEvents(), newestCreatedAtMillis, 1));
+                }
+                for(BulkRequest bulkRequest: lane.pendingBulkRequests){
+                    try {
+                        Response response = this.restClient.performRequest(HTTP_POST, BULK_ENDPOINT, BULK_PARAMS,
+                                this.bulkEntity(bulkRequest), this.requestHeaders);
+                        // Whatever is not indexed now is replayed from the spool on the next start
+                        BulkOutcome outcome = this.handleBulkResponse(lane.metrics, EntityUtils.toString(response.getEntity()));
+                        this.countCreated(lane, bulkRequest, outcome.createdItems);
+                        this.deadLetter(lane, bulkRequest, outcome.permanentFailures);
+                    } catch (IOException ioe) {
+                        logger.error(ioe, "Failed to send remaining bulk request on shutdown");
+                    }
+                }
+                lane.pendingBulkRequests.clear();
+            }
+        }
+        this.deadLetterFile.close();
     }
 
     public void onReceive(Object message) throws Throwable {
-        logger.debug("Received message: {} from sender: {}", message.toString(), getSender().getClass());
-        JsonObject enterpriseEvent;
-        if(message instanceof JsonObject){
-            enterpriseEvent = (JsonObject) message;
+        if(message instanceof EnterpriseEventDocument || message instanceof JsonObject){
+            EnterpriseEventDocument enterpriseEvent;
+            if(message instanceof JsonObject){
+                enterpriseEvent = EnterpriseEventWriter.fromJson((JsonObject) message);
+            } else{
+                enterpriseEvent = (EnterpriseEventDocument) message;
+            }
 
-            // Create ES doc
-            this.createDoc(enterpriseEvent);
+            if(this.bulkEnabled){
+                this.addToBulk(this.laneOf(getSender()), enterpriseEvent);
+            } else{
+                // Create ES doc
+                this.createDoc(this.laneOf(getSender()), enterpriseEvent);
+            }
+        } else if(message instanceof Checkpoint){
+            this.onCheckpoint(this.laneOf(getSender()), (Checkpoint) message);
+        } else if(message instanceof FlushTick){
+            this.onFlushTick(((FlushTick) message).lane);
+        } else if(RESET.equals(message)){
+            this.reset(this.laneOf(getSender()));
+        } else if(message instanceof Route){
+            this.route(getSender(), (Route) message);
+        } else if(message instanceof Terminated){
+            this.removeLane(((Terminated) message).getActor());
+        } else if(message instanceof BulkCompleted){
+            this.onBulkCompleted((BulkCompleted) message);
+        } else if(message instanceof RetryBulk){
+            this.onRetryBulk((RetryBulk) message);
+        } else if(message instanceof DocCompleted){
+            this.onDocCompleted((DocCompleted) message);
+        } else if(message instanceof RetryDoc){
+            RetryDoc retryDoc = (RetryDoc) message;
+            if(this.isCurrent(retryDoc.lane, retryDoc.generation)){
+                this.sendDoc(retryDoc.lane, retryDoc.document, retryDoc.sequence, retryDoc.attempt);
+            }
         } else{
-            logger.warning("Message receive is not of type JsonObject. Found: {}", message);
+            logger.warning("Message receive is not of type EnterpriseEventDocument. Found: {}", message);
+            unhandled(message);
         }
     }
 
-    private void createDoc(final JsonObject boxEvent){
-        // Cast enterprise event json into a string entity for POST request
-        HttpEntity enterpriseEventEntity = null;
-        try {
-            enterpriseEventEntity = new NStringEntity(boxEvent.toString());
-        } catch (UnsupportedEncodingException e) {
-            logger.error(e, "Unsupported encoding found for json string entity");
+    private Lane laneOf(ActorRef sender){
+        // Docs sent without a sender belong to the parent
+        ActorRef owner = sender.equals(getContext().system().deadLetters()) ? getContext().parent() : sender;
+        Lane lane = this.lanes.get(owner);
+        if(lane == null){
+            lane = this.addLane(owner, "", this.defaultIndexName, 1, null);
+        }
+        return lane;
+    }
+
+    private Lane addLane(ActorRef owner, String tenant, String indexName, int weight, ActorRef rollupActor){
+        Lane lane = new Lane(owner, indexName, weight, rollupActor, new LaneMetrics(this.metrics, tenant),
+                new BulkRequestBuffer(indexName, this.indexType, this.writeMode, this.bulkFormat, LANE_BODY_BYTES));
+        this.lanes.put(owner, lane);
+        // The lane goes away with its owner
+        getContext().watch(owner);
+        logger.debug("Indexing docs of {} into {} with weight {}", owner.path(), indexName, weight);
+        return lane;
+    }
+
+    private void route(ActorRef owner, Route route){
+        Lane lane = this.lanes.get(owner);
+        if(lane != null){
+            if(lane.metrics.tenant.equals(route.tenant) && lane.indexName.equals(route.indexName) && lane.weight == route.weight
+                    && (lane.rollupActor == null ? route.rollupActor == null : lane.rollupActor.equals(route.rollupActor))){
+                return;
+            }
+            logger.warning("Docs of {} are routed again, discarding what they still have buffered", owner.path());
+            this.discard(this.lanes.remove(owner));
         }
+        this.addLane(owner, route.tenant, route.indexName, Math.max(1, route.weight), route.rollupActor);
+    }
+
+    private void removeLane(ActorRef owner){
+        Lane lane = this.lanes.remove(owner);
+        if(lane != null){
+            // No one is left to take the checkpoints, the docs are indexed again when the owner is started again
+            this.discard(lane);
+            logger.debug("Closed the lane of {}", owner.path());
+        }
+    }
+
+    private boolean isCurrent(Lane lane, int generation){
+        return this.lanes.get(lane.owner) == lane && lane.generation == generation;
+    }
+
+    private void onCheckpoint(Lane lane, Checkpoint checkpoint){
+        // A checkpoint covers every doc received before it, so it waits for the batch that is still being buffered
+        if(this.bulkEnabled && !lane.bulkBuffer.isEmpty()){
+            lane.bufferedCheckpoint = checkpoint;
+        } else{
+            this.releaseCheckpoint(lane, lane.checkpointTracker.attach(checkpoint));
+        }
+    }
+
+    private void releaseCheckpoint(Lane lane, Checkpoint checkpoint){
+        if(checkpoint != null){
+            logger.debug("All docs indexed up to {}", checkpoint);
+            lane.owner.tell(checkpoint, getSelf());
+        } else if(lane.checkpointTracker.isBlocked() && !lane.failureReported){
+            logger.warning("Checkpoints are held back by a failed request, the stream will resume from the last committed checkpoint");
+            lane.failureReported = true;
+            lane.owner.tell(INDEXING_FAILED, getSelf());
+        }
+    }
+
+    private void reset(Lane lane){
+        // Requests already on the wire finish on their own but no longer count towards any checkpoint
+        this.discard(lane);
+        lane.checkpointTracker = new IndexedCheckpointTracker();
+        lane.generation++;
+        lane.failureReported = false;
+        logger.info("Discarded buffered docs and pending requests");
+    }
+
+    private void discard(Lane lane){
+        if(lane.flushTick != null){
+            lane.flushTick.cancel();
+            lane.flushTick = null;
+        }
+        this.recycle(lane.bulkBuffer.drain(this.spareBulkBodies.poll()));
+        for(BulkRequest bulkRequest: lane.pendingBulkRequests){
+            this.recycle(bulkRequest.body);
+        }
+        lane.pendingBulkRequests.clear();
+        lane.bufferedEvents.clear();
+        lane.bufferedCheckpoint = null;
+    }
+
+    private void recycle(ByteArrayBuilder body){
+        // Only keep as many spare bodies as there can be requests in flight
+        if(this.spareBulkBodies.size() < this.maxSpareBulkBodies){
+            this.spareBulkBodies.add(body);
+        }
+    }
+
+    private void addToBulk(Lane lane, EnterpriseEventDocument boxEvent){
+        boolean wasEmpty = lane.bulkBuffer.isEmpty();
+        try{
+            lane.bulkBuffer.add(boxEvent);
+        } catch (IllegalArgumentException e){
+            logger.error(e, "Failed to encode doc with id: {} as {}", boxEvent.getId(), this.bulkFormat);
+            byte[] body = boxEvent.getBody();
+            this.deadLetter(lane, boxEvent.getId(), HTTP_BAD_REQUEST, e.getMessage(), body, 0, body.length);
+            return;
+        }
+        if(lane.rollupActor != null){
+            // Only the fields the rollups count are kept until the bulk response says which docs were created
+            lane.bufferedEvents.add(boxEvent.withoutBody());
+        }
+
+        if(lane.bulkBuffer.getActions() >= this.bulkFlow.getBatchActions() || lane.bulkBuffer.getBytes() >= this.bulkMaxBytes){
+            this.flushBulk(lane, this.spareBulkBodies.poll());
+        } else if(wasEmpty){
+            // The first doc in a new batch starts the clock on its maximum age
+            this.scheduleFlushTick(lane, this.bulkFlushIntervalMillis);
+        }
+    }
+
+    private void onFlushTick(Lane lane){
+        lane.flushTick = null;
+        if(this.lanes.get(lane.owner) != lane || lane.bulkBuffer.isEmpty()){
+            return;
+        }
+        long ageMillis = lane.bulkBuffer.getAgeMillis();
+        if(ageMillis >= this.bulkFlushIntervalMillis){
+            // A lane that does not fill its batches goes on with a small body, so quiet tenants hold on to little memory
+            this.flushBulk(lane, null);
+        } else{
+            this.scheduleFlushTick(lane, this.bulkFlushIntervalMillis - ageMillis);
+        }
+    }
+
+    private void scheduleFlushTick(Lane lane, long delayMillis){
+        if(lane.flushTick != null){
+            lane.flushTick.cancel();
+        }
+        lane.flushTick = getContext().system().scheduler().scheduleOnce(
+                Duration.create(delayMillis, TimeUnit.MILLISECONDS),
+                getSelf(),
+                new FlushTick(lane),
+                getContext().dispatcher(),
+                ActorRef.noSender());
+    }
+
+    private void flushBulk(Lane lane, ByteArrayBuilder nextBody){
+        if(lane.flushTick != null){
+            lane.flushTick.cancel();
+            lane.flushTick = null;
+        }
+        logger.debug("Flushing bulk request with {} actions and {} bytes", lane.bulkBuffer.getActions(), lane.bulkBuffer.getBytes());
+        long newestCreatedAtMillis = lane.bulkBuffer.getNewestCreatedAtMillis();
+        lane.pendingBulkRequests.add(new BulkRequest(lane.checkpointTracker.begin(),
+                lane.bulkBuffer.drain(nextBody), lane.takeBufferedEvents(), newestCreatedAtMillis, 1));
+        if(lane.bufferedCheckpoint != null){
+            lane.checkpointTracker.attach(lane.bufferedCheckpoint);
+            lane.bufferedCheckpoint = null;
+        }
+        this.sendPendingBulkRequests();
+    }
+
+    private void sendPendingBulkRequests(){
+        // Only allow a bounded number of bulk requests on the wire, the rest wait in order within their lane
+        while(this.bulkRequestsInFlight < this.bulkFlow.getInFlightLimit()){
+            Lane lane = this.nextLane();
+            if(lane == null){
+                return;
+            }
+            this.sendBulk(lane, lane.pendingBulkRequests.poll());
+        }
+    }
+
+    private Lane nextLane(){
+        // Smooth weighted round robin over the lanes with requests waiting: every lane earns its weight in credit per
+        // turn and the lane with the most credit pays for the turn with the weight of all of them
+        Lane next = null;
+        int totalWeight = 0;
+        for(Lane lane: this.lanes.values()){
+            if(lane.pendingBulkRequests.isEmpty()){
+                lane.credit = 0;
+                continue;
+            }
+            lane.credit += lane.weight;
+            totalWeight += lane.weight;
+            if(next == null || lane.credit > next.credit){
+                next = lane;
+            }
+        }
+        if(next != null){
+            next.credit -= totalWeight;
+        }
+        return next;
+    }
+
+    private void sendBulk(final Lane lane, final BulkRequest bulkRequest){
+        final ActorRef self = getSelf();
+        final int generation = lane.generation;
+        final long startMillis = System.currentTimeMillis();
+        final long sentAtNanos = System.nanoTime();
+        this.bulkRequestsInFlight++;
 
-        // Perform async request to create search doc in elasticsearch
-        String endpoint = "/" + this.indexName + "/" + this.indexType + "/";
         this.restClient.performRequestAsync(
             HTTP_POST,
+            BULK_ENDPOINT,
+            BULK_PARAMS,
+            this.bulkEntity(bulkRequest),
+            new ResponseListener() {
+                public void onSuccess(Response response) {
+                    BulkOutcome outcome = BulkOutcome.requestFailed(true, false, 0, null);
+                    long completedAtMillis = System.currentTimeMillis();
+                    try {
+                        bulkLatency.record(completedAtMillis - startMillis);
+                        lane.metrics.endToEndLag.record(completedAtMillis - bulkRequest.newestCreatedAtMillis);
+                        outcome = handleBulkResponse(lane.metrics, EntityUtils.toString(response.getEntity()));
+                        logger.debug("Bulk request completed in {} ms", completedAtMillis - startMillis);
+                    } catch (Exception e) {
+                        logger.error(e, "Encounter exception reading bulk response");
+                    } finally {
+                        self.tell(new BulkCompleted(lane, generation, bulkRequest, outcome, sentAtNanos,
+                                completedAtMillis - startMillis), ActorRef.noSender());
+                    }
+                }
+                public void onFailure(Exception e) {
+                    lane.metrics.requestsFailed.increment();
+                    int status = statusOf(e);
+                    logger.error(e, "Failed to send bulk request");
+                    // A request too large for the cluster is throttled like a rejection so the batches get smaller
+                    boolean rejected = status == HTTP_TOO_MANY_REQUESTS || status == HTTP_ENTITY_TOO_LARGE;
+                    self.tell(new BulkCompleted(lane, generation, bulkRequest,
+                            BulkOutcome.requestFailed(rejected || isRetryable(status), rejected, status, e.getMessage()),
+                            sentAtNanos, System.currentTimeMillis() - startMillis), ActorRef.noSender());
+                }
+            }, this.requestHeaders);
+    }
+
+    private void onBulkCompleted(BulkCompleted completed){
+        this.bulkRequestsInFlight--;
+        this.bulkFlow.onResponse(completed.sentAtNanos, completed.latencyMillis, completed.outcome.rejected);
+        this.updateFlowGauges();
+        BulkRequest bulkRequest = completed.bulkRequest;
+        Lane lane = completed.lane;
+        // Docs created by a request sent before a reset are in the index all the same
+        this.countCreated(lane, bulkRequest, completed.outcome.createdItems);
+        if(!this.isCurrent(lane, completed.generation)){
+            this.recycle(bulkRequest.body);
+            this.sendPendingBulkRequests();
+            return;
+        }
+
+        BulkOutcome outcome = completed.outcome;
+        if(outcome.requestFailed && !outcome.retryable){
+            // Elasticsearch refused the request as a whole and would refuse it again, so its docs are dead lettered like
+            // docs refused one by one and the checkpoint moves past them
+            logger.error("Bulk request refused with status {}, dead lettering its docs", outcome.status);
+            this.deadLetter(lane, bulkRequest, this.requestFailures(bulkRequest, outcome.status, outcome.error));
+            this.recycle(bulkRequest.body);
+            this.releaseCheckpoint(lane, lane.checkpointTracker.complete(bulkRequest.sequence, true));
+            this.sendPendingBulkRequests();
+            return;
+        }
+        this.deadLetter(lane, bulkRequest, outcome.permanentFailures);
+        ByteArrayBuilder retryBody = null;
+        EnterpriseEventDocument[] retryEvents = null;
+        int retryActions = 0;
+        if(outcome.requestFailed && outcome.retryable){
+            retryBody = bulkRequest.body;
+            retryEvents = bulkRequest.events;
+            retryActions = BulkRequestBuffer.actionOffsets(retryBody, this.bulkFormat.getSeparator()).length - 1;
+        } else if(!outcome.requestFailed && outcome.retryItems.length > 0){
+            retryBody = this.copyActions(bulkRequest.body, outcome.retryItems, this.spareBulkBodies.poll());
+            retryEvents = selectEvents(bulkRequest.events, outcome.retryItems);
+            retryActions = outcome.retryItems.length;
+        }
+
+        if(retryBody != null && bulkRequest.attempt < this.retryMaxAttempts){
+            // Only the failed actions are sent again, under the same sequence so the checkpoint waits for them
+            long delayMillis = this.retryDelay(bulkRequest.attempt);
+            logger.warning("Sending {} actions of a bulk request again in {} ms, attempt {} of {}",
+                    retryActions, delayMillis, bulkRequest.attempt + 1, this.retryMaxAttempts);
+            lane.metrics.docsRetried.add(retryActions);
+            if(retryBody != bulkRequest.body){
+                this.recycle(bulkRequest.body);
+            }
+            getContext().system().scheduler().scheduleOnce(
+                    Duration.create(delayMillis, TimeUnit.MILLISECONDS),
+                    getSelf(),
+                    new RetryBulk(lane, lane.generation, new BulkRequest(bulkRequest.sequence, retryBody, retryEvents,
+                            bulkRequest.newestCreatedAtMillis, bulkRequest.attempt + 1)),
+                    getContext().dispatcher(),
+                    ActorRef.noSender());
+        } else{
+            boolean success = retryBody == null && !outcome.requestFailed;
+            if(!success){
+                logger.error("Bulk request failed after {} attempts", bulkRequest.attempt);
+            }
+            if(retryBody != null && retryBody != bulkRequest.body){
+                this.recycle(retryBody);
+            }
+            this.recycle(bulkRequest.body);
+            this.releaseCheckpoint(lane, lane.checkpointTracker.complete(bulkRequest.sequence, success));
+        }
+        this.sendPendingBulkRequests();
+    }
+
+    private void countCreated(Lane lane, BulkRequest bulkRequest, BitSet createdItems){
+        // Docs that already existed were counted when they were created, so replayed events are not counted twice
+        if(lane.rollupActor == null || bulkRequest.events == null || createdItems.isEmpty()){
+            return;
+        }
+        List<EnterpriseEventDocument> created = new ArrayList<EnterpriseEventDocument>(createdItems.cardinality());
+        for(int item = createdItems.nextSetBit(0); item >= 0; item = createdItems.nextSetBit(item + 1)){
+            created.add(bulkRequest.events[item]);
+        }
+        lane.rollupActor.tell(new EventRollupAggregator.CreatedEvents(created), getSelf());
+    }
+
+    private static EnterpriseEventDocument[] selectEvents(EnterpriseEventDocument[] events, int[] items){
+        if(events == null){
+            return null;
+        }
+        EnterpriseEventDocument[] selected = new EnterpriseEventDocument[items.length];
+        for(int i = 0; i < items.length; i++){
+            selected[i] = events[items[i]];
+        }
+        return selected;
+    }
+
+    private void onRetryBulk(RetryBulk retryBulk){
+        if(!this.isCurrent(retryBulk.lane, retryBulk.generation)){
+            this.recycle(retryBulk.bulkRequest.body);
+            return;
+        }
+        // Retries go ahead of the batches that were flushed after them
+        retryBulk.lane.pendingBulkRequests.addFirst(retryBulk.bulkRequest);
+        this.sendPendingBulkRequests();
+    }
+
+    private void deadLetter(Lane lane, BulkRequest bulkRequest, List<ItemFailure> failures){
+        if(failures.isEmpty()){
+            return;
+        }
+        byte separator = this.bulkFormat.getSeparator();
+        int[] offsets = BulkRequestBuffer.actionOffsets(bulkRequest.body, separator);
+        byte[] buffer = bulkRequest.body.buffer();
+        for(ItemFailure failure: failures){
+            // The doc line follows the action line
+            int docStart = offsets[failure.item];
+            while(buffer[docStart] != separator){
+                docStart++;
+            }
+            docStart++;
+            int docLength = offsets[failure.item + 1] - 1 - docStart;
+            if(this.bulkTranscoder == null){
+                this.deadLetter(lane, failure.id, failure.status, failure.error, buffer, docStart, docLength);
+                continue;
+            }
+            // The dead letter file is json whatever the wire format
+            try{
+                byte[] doc = this.bulkTranscoder.toJson(buffer, docStart, docLength);
+                this.deadLetter(lane, failure.id, failure.status, failure.error, doc, 0, doc.length);
+            } catch (IOException ioe){
+                logger.error(ioe, "Failed to decode doc with id: {} for the dead letter file", failure.id);
+            }
+        }
+    }
+
+    private List<ItemFailure> requestFailures(BulkRequest bulkRequest, int status, String error){
+        byte separator = this.bulkFormat.getSeparator();
+        int[] offsets = BulkRequestBuffer.actionOffsets(bulkRequest.body, separator);
+        byte[] buffer = bulkRequest.body.buffer();
+        List<ItemFailure> failures = new ArrayList<ItemFailure>(offsets.length - 1);
+        for(int item = 0; item < offsets.length - 1; item++){
+            int actionEnd = offsets[item];
+            while(buffer[actionEnd] != separator){
+                actionEnd++;
+            }
+            failures.add(new ItemFailure(item, this.actionId(buffer, offsets[item], actionEnd - offsets[item]), status, error));
+        }
+        return failures;
+    }
+
+    // The doc id of an action line, null when it cannot be read
+    private String actionId(byte[] buffer, int offset, int length){
+        try{
+            String action = this.bulkTranscoder == null
+                    ? new String(buffer, offset, length, StandardCharsets.UTF_8)
+                    : new String(this.bulkTranscoder.toJson(buffer, offset, length), StandardCharsets.UTF_8);
+            return itemResult(Json.parse(action)).getString("_id", null);
+        } catch (Exception e){
+            logger.error(e, "Failed to read the doc id of a bulk action");
+            return null;
+        }
+    }
+
+    private void deadLetter(Lane lane, String id, int status, String error, byte[] doc, int offset, int length){
+        lane.metrics.docsDeadLettered.increment();
+        try{
+            this.deadLetterFile.append(id, status, error, doc, offset, length);
+        } catch (IOException ioe){
+            logger.error(ioe, "Failed to write doc with id: {} to dead letter file {}", id, this.deadLetterFile.getPath());
+        }
+    }
+
+    private ByteArrayBuilder copyActions(ByteArrayBuilder body, int[] items, ByteArrayBuilder target){
+        int[] offsets = BulkRequestBuffer.actionOffsets(body, this.bulkFormat.getSeparator());
+        if(target == null){
+            target = new ByteArrayBuilder(body.length());
+        }
+        target.reset();
+        for(int item: items){
+            target.write(body.buffer(), offsets[item], offsets[item + 1] - offsets[item]);
+        }
+        return target;
+    }
+
+    private HttpEntity bulkEntity(BulkRequest bulkRequest){
+        return this.elasticsearchClient.entity(bulkRequest.body.buffer(), 0, bulkRequest.body.length(),
+                this.bulkFormat.getBulkContentType());
+    }
+
+    private long retryDelay(int attempt){
+        // Full jitter keeps producers that were rejected together from coming back together
+        long backoffMillis = Math.min(this.retryMaxMillis, this.retryBaseMillis << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(backoffMillis + 1);
+    }
+
+    private void updateFlowGauges(){
+        this.bulkInFlightLimit = this.bulkFlow.getInFlightLimit();
+        this.bulkBatchActions = this.bulkFlow.getBatchActions();
+    }
+
+    private static int statusOf(Exception e){
+        if(e instanceof ResponseException){
+            return ((ResponseException) e).getResponse().getStatusLine().getStatusCode();
+        }
+        // No response, the connection failed or timed out
+        return 0;
+    }
+
+    private static boolean isRetryable(int status){
+        return status == 0 || status == HTTP_TOO_MANY_REQUESTS || status >= HTTP_SERVER_ERROR;
+    }
+
+    // Runs on the rest client threads
+    private BulkOutcome handleBulkResponse(LaneMetrics metrics, String responseString){
+        JsonObject bulkResponse = Json.parse(responseString).asObject();
+        JsonValue items = bulkResponse.get("items");
+        int itemCount = items == null ? 0 : items.asArray().size();
+        // Overwritten docs come back with 200 and docs that already existed with 409, only 201 is a new doc
+        BitSet createdItems = new BitSet(itemCount);
+        int item = 0;
+        if(items != null){
+            for(JsonValue itemValue: items.asArray()){
+                if(itemResult(itemValue).getInt("status", 0) == HTTP_CREATED){
+                    createdItems.set(item);
+                }
+                item++;
+            }
+        }
+        if(!bulkResponse.getBoolean("errors", false)){
+            metrics.docsIndexed.add(itemCount);
+            logger.info("Created {} Elasticsearch docs with Box Enterprise events", itemCount);
+            return BulkOutcome.succeeded(createdItems);
+        }
+
+        // Check each item since a bulk request can partially succeed
+        List<Integer> retryItems = new ArrayList<Integer>();
+        List<ItemFailure> permanentFailures = new ArrayList<ItemFailure>();
+        boolean rejected = false;
+        int conflicts = 0;
+        item = 0;
+        for(JsonValue itemValue: items.asArray()){
+            JsonObject itemResult = itemResult(itemValue);
+            JsonValue error = itemResult.get("error");
+            int status = itemResult.getInt("status", 0);
+            if(status == HTTP_CONFLICT){
+                // The doc for this Box event id is already indexed
+                conflicts++;
+            } else if(error != null){
+                boolean itemRejected = status == HTTP_TOO_MANY_REQUESTS || (error.isObject()
+                        && REJECTED_EXECUTION.equals(error.asObject().getString("type", null)));
+                rejected |= itemRejected;
+                if(itemRejected || isRetryable(status)){
+                    retryItems.add(item);
+                } else{
+                    logger.error("Failed to create search doc with id: {} status: {} error: {}",
+                            itemResult.get("_id"),
+                            status,
+                            error.toString());
+                    permanentFailures.add(new ItemFailure(item, itemResult.getString("_id", null), status, error.toString()));
+                }
+            }
+            item++;
+        }
+        long totalConflicts = this.versionConflicts.addAndGet(conflicts);
+        int failed = retryItems.size() + permanentFailures.size();
+        metrics.docsIndexed.add(itemCount - failed - conflicts);
+        metrics.docsConflicted.add(conflicts);
+        metrics.docsFailed.add(failed);
+        logger.info("Created {} Elasticsearch docs with Box Enterprise events, {} already existed, {} to retry, {} rejected for good",
+                itemCount - failed - conflicts, conflicts, retryItems.size(), permanentFailures.size());
+        logger.debug("{} version conflicts in total", totalConflicts);
+
+        int[] retryItemArray = new int[retryItems.size()];
+        for(int i = 0; i < retryItemArray.length; i++){
+            retryItemArray[i] = retryItems.get(i);
+        }
+        return new BulkOutcome(false, !retryItems.isEmpty(), rejected, retryItemArray, permanentFailures, createdItems,
+                0, null);
+    }
+
+    // The result of a bulk item is under the name of its action
+    private static JsonObject itemResult(JsonValue itemValue){
+        JsonObject item = itemValue.asObject();
+        return item.get(item.names().get(0)).asObject();
+    }
+
+    private void createDoc(Lane lane, EnterpriseEventDocument boxEvent){
+        this.sendDoc(lane, boxEvent, lane.checkpointTracker.begin(), 1);
+    }
+
+    private void sendDoc(final Lane lane, final EnterpriseEventDocument boxEvent, final long sequence, final int attempt){
+        // The doc body is already serialized, send its bytes as they are unless a binary format is configured
+        byte[] body = boxEvent.getBody();
+        if(this.docTranscoder != null){
+            try{
+                body = this.docTranscoder.encodeDoc(body);
+            } catch (IOException ioe){
+                logger.error(ioe, "Failed to encode doc with id: {} as {}", boxEvent.getId(), this.docFormat);
+                getSelf().tell(new DocCompleted(lane, lane.generation, sequence, boxEvent, attempt, HTTP_BAD_REQUEST,
+                        ioe.getMessage()), ActorRef.noSender());
+                return;
+            }
+        }
+        HttpEntity enterpriseEventEntity = this.elasticsearchClient.entity(body, this.docFormat.getDocContentType());
+
+        // Perform async request to create search doc in elasticsearch
+        final ActorRef self = getSelf();
+        final int generation = lane.generation;
+        final long startMillis = System.currentTimeMillis();
+        String endpoint = "/" + lane.indexName + "/" + this.indexType + "/";
+        String method = HTTP_POST;
+        if(this.writeMode.usesEventId()){
+            // Use the Box event id as the doc id so that replayed events do not create duplicates
+            method = HTTP_PUT;
+            endpoint = endpoint + urlEncode(boxEvent.getId());
+            if(this.writeMode == DocumentWriteMode.CREATE){
+                endpoint = endpoint + "/_create";
+            }
+        }
+        this.restClient.performRequestAsync(
+            method,
             endpoint,
             Collections.<String, String>emptyMap(),
             enterpriseEventEntity,
             new ResponseListener() {
                 public void onSuccess(Response response) {
+                    long completedAtMillis = System.currentTimeMillis();
+                    indexLatency.record(completedAtMillis - startMillis);
+                    lane.metrics.endToEndLag.record(completedAtMillis - boxEvent.getCreatedAtMillis());
+                    lane.metrics.docsIndexed.increment();
                     try {
                         logger.info("Created Elasticsearch doc with Box Enterprise event type: {} with event id: {}",
-                                boxEvent.get("type").asString(),
-                                boxEvent.get("id"));
-                        logger.debug("Created elasticsearch doc with Box enterprise event: {}", boxEvent.toString(WriterConfig.PRETTY_PRINT));
-                        logger.debug("Search doc creation response: {}", EntityUtils.toString(response.getEntity()));
+                                boxEvent.getType(),
+                                boxEvent.getId());
+                        if(logger.isDebugEnabled()){
+                            logger.debug("Search doc creation response: {}", EntityUtils.toString(response.getEntity()));
+                        }
                     } catch (IOException ioe) {
                         logger.error(ioe, "Encounter IO exception parsing and printing json to logs");
+                    } finally {
+                        self.tell(new DocCompleted(lane, generation, sequence, boxEvent, attempt,
+                                response.getStatusLine().getStatusCode(), null), ActorRef.noSender());
                     }
                 }
                 public void onFailure(Exception e) {
+                    int status = statusOf(e);
+                    if(status == HTTP_CONFLICT){
+                        lane.metrics.docsConflicted.increment();
+                        logger.debug("Elasticsearch doc already exists for Box enterprise event id: {} ({} version conflicts in total)",
+                                boxEvent.getId(),
+                                versionConflicts.incrementAndGet());
+                        self.tell(new DocCompleted(lane, generation, sequence, boxEvent, attempt, HTTP_CONFLICT, null),
+                                ActorRef.noSender());
+                        return;
+                    }
+                    lane.metrics.docsFailed.increment();
+                    lane.metrics.requestsFailed.increment();
                     logger.error(e, "Failed to create search doc");
+                    String error = e.getMessage() == null ? e.toString() : e.getMessage();
+                    if(e instanceof ResponseException){
+                        try {
+                            error = EntityUtils.toString(((ResponseException) e).getResponse().getEntity());
+                        } catch (Exception re) {
+                            // Keep the message of the exception
+                        }
+                    }
+                    self.tell(new DocCompleted(lane, generation, sequence, boxEvent, attempt, status, error), ActorRef.noSender());
                 }
-            });
+            }, this.requestHeaders);
+    }
+
+    private void onDocCompleted(DocCompleted completed){
+        Lane lane = completed.lane;
+        if(completed.status == HTTP_CREATED && completed.error == null && lane.rollupActor != null){
+            lane.rollupActor.tell(new EventRollupAggregator.CreatedEvents(
+                    Collections.singletonList(completed.document.withoutBody())), getSelf());
+        }
+        if(!this.isCurrent(lane, completed.generation)){
+            return;
+        }
+        boolean success = completed.error == null;
+        if(!success && isRetryable(completed.status)){
+            if(completed.attempt < this.retryMaxAttempts){
+                long delayMillis = this.retryDelay(completed.attempt);
+                logger.warning("Sending doc with id: {} again in {} ms, attempt {} of {}",
+                        completed.document.getId(), delayMillis, completed.attempt + 1, this.retryMaxAttempts);
+                lane.metrics.docsRetried.increment();
+                getContext().system().scheduler().scheduleOnce(
+                        Duration.create(delayMillis, TimeUnit.MILLISECONDS),
+                        getSelf(),
+                        new RetryDoc(lane, lane.generation, completed.sequence, completed.document, completed.attempt + 1),
+                        getContext().dispatcher(),
+                        ActorRef.noSender());
+                return;
+            }
+            logger.error("Failed to create search doc with id: {} after {} attempts", completed.document.getId(), completed.attempt);
+        } else if(!success){
+            // Elasticsearch will never accept this doc, it must not hold back the checkpoints after it
+            byte[] body = completed.document.getBody();
+            this.deadLetter(lane, completed.document.getId(), completed.status, completed.error, body, 0, body.length);
+            success = true;
+        }
+        this.releaseCheckpoint(lane, lane.checkpointTracker.complete(completed.sequence, success));
+    }
+
+    private static String urlEncode(String value){
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Sent by an actor before its first doc to have its docs indexed into the given index or write alias, and to get
+     * its share of the bulk requests on the wire by weight while other senders have requests waiting too. Docs of an
+     * actor that does not send one go to the index of the config with a weight of 1. The docs Elasticsearch creates
+     * are counted by the rollup actor, if there is one.
+     */
+    public static final class Route {
+        private final String tenant;
+        private final String indexName;
+        private final int weight;
+        private final ActorRef rollupActor;
+
+        /**
+         * @param tenant the name of the sender's tenant, its docs are counted in the metrics of the tenant
+         * @param rollupActor the EventRollupAggregator of the sender's tenant, null when rollups are off
+         */
+        public Route(String tenant, String indexName, int weight, ActorRef rollupActor) {
+            this.tenant = tenant;
+            this.indexName = indexName;
+            this.weight = weight;
+            this.rollupActor = rollupActor;
+        }
+
+        public String getTenant() {
+            return this.tenant;
+        }
+
+        public String getIndexName() {
+            return this.indexName;
+        }
+
+        public int getWeight() {
+            return this.weight;
+        }
+
+        public ActorRef getRollupActor() {
+            return this.rollupActor;
+        }
+    }
+
+    // Buffer, checkpoints and pending requests of the docs of one sender
+    private static final class Lane {
+        private final ActorRef owner;
+        private final String indexName;
+        private final int weight;
+        // Null when the docs are not counted into rollups
+        private final ActorRef rollupActor;
+        // Also read by the rest client callbacks
+        private final LaneMetrics metrics;
+        private final BulkRequestBuffer bulkBuffer;
+        // The docs in the bulk buffer without their bodies, only kept for the rollups
+        private final List<EnterpriseEventDocument> bufferedEvents = new ArrayList<EnterpriseEventDocument>();
+        private final Deque<BulkRequest> pendingBulkRequests = new ArrayDeque<BulkRequest>();
+        private Cancellable flushTick;
+        private Checkpoint bufferedCheckpoint;
+        private IndexedCheckpointTracker checkpointTracker = new IndexedCheckpointTracker();
+        // Bumped on every reset so completions of requests sent before it are not tracked
+        private int generation;
+        private boolean failureReported;
+        // Turns earned while requests of the lane are waiting, see nextLane
+        private int credit;
+
+        private Lane(ActorRef owner, String indexName, int weight, ActorRef rollupActor, LaneMetrics metrics,
+                     BulkRequestBuffer bulkBuffer) {
+            this.owner = owner;
+            this.indexName = indexName;
+            this.weight = weight;
+            this.rollupActor = rollupActor;
+            this.metrics = metrics;
+            this.bulkBuffer = bulkBuffer;
+        }
+
+        private EnterpriseEventDocument[] takeBufferedEvents() {
+            if(this.rollupActor == null){
+                return null;
+            }
+            EnterpriseEventDocument[] events = this.bufferedEvents.toArray(new EnterpriseEventDocument[this.bufferedEvents.size()]);
+            this.bufferedEvents.clear();
+            return events;
+        }
+    }
+
+    // Metrics of the tenant a lane indexes for, lanes of the same tenant share them
+    private static final class LaneMetrics {
+        private final String tenant;
+        private final LatencyHistogram endToEndLag;
+        private final Counter docsIndexed;
+        private final Counter docsFailed;
+        private final Counter docsConflicted;
+        private final Counter requestsFailed;
+        private final Counter docsRetried;
+        private final Counter docsDeadLettered;
+
+        private LaneMetrics(IngestMetrics metrics, String tenant) {
+            this.tenant = tenant;
+            this.endToEndLag = metrics.histogram("event_end_to_end_lag_ms",
+                    "Time between the newest created_at of an indexed request and the moment it was indexed", tenant);
+            this.docsIndexed = metrics.counter("es_docs_indexed_total", "Docs created in Elasticsearch", tenant);
+            this.docsFailed = metrics.counter("es_docs_failed_total", "Docs Elasticsearch failed to index", tenant);
+            this.docsConflicted = metrics.counter("es_docs_conflict_total", "Docs that already existed in Elasticsearch", tenant);
+            this.requestsFailed = metrics.counter("es_requests_failed_total", "Requests to Elasticsearch that failed outright", tenant);
+            this.docsRetried = metrics.counter("es_docs_retried_total", "Docs sent to Elasticsearch again after a retryable failure", tenant);
+            this.docsDeadLettered = metrics.counter("es_docs_dead_lettered_total",
+                    "Docs Elasticsearch will never accept, written to the dead letter file", tenant);
+        }
+    }
+
+    private static final class FlushTick {
+        private final Lane lane;
+
+        private FlushTick(Lane lane) {
+            this.lane = lane;
+        }
+    }
+
+    // Bulk body waiting for a free in-flight slot
+    private static final class BulkRequest {
+        private final long sequence;
+        private final ByteArrayBuilder body;
+        // The docs of the actions in the body without their bodies, null when the lane has no rollups
+        private final EnterpriseEventDocument[] events;
+        private final long newestCreatedAtMillis;
+        // 1 for the first time the body is sent
+        private final int attempt;
+
+        private BulkRequest(long sequence, ByteArrayBuilder body, EnterpriseEventDocument[] events, long newestCreatedAtMillis,
+                            int attempt) {
+            this.sequence = sequence;
+            this.body = body;
+            this.events = events;
+            this.newestCreatedAtMillis = newestCreatedAtMillis;
+            this.attempt = attempt;
+        }
+    }
+
+    // Item of a bulk request that Elasticsearch will never accept
+    private static final class ItemFailure {
+        private final int item;
+        private final String id;
+        private final int status;
+        private final String error;
+
+        private ItemFailure(int item, String id, int status, String error) {
+            this.item = item;
+            this.id = id;
+            this.status = status;
+            this.error = error;
+        }
+    }
+
+    // What a bulk response means for the items of the request
+    private static final class BulkOutcome {
+        // The request as a whole failed, none of its items were indexed
+        private final boolean requestFailed;
+        private final boolean retryable;
+        private final boolean rejected;
+        private final int[] retryItems;
+        private final List<ItemFailure> permanentFailures;
+        // Items Elasticsearch created a new doc for
+        private final BitSet createdItems;
+        // Status and error of a request that failed as a whole, 0 when there was no response
+        private final int status;
+        private final String error;
+
+        private BulkOutcome(boolean requestFailed, boolean retryable, boolean rejected, int[] retryItems,
+                            List<ItemFailure> permanentFailures, BitSet createdItems, int status, String error) {
+            this.requestFailed = requestFailed;
+            this.retryable = retryable;
+            this.rejected = rejected;
+            this.retryItems = retryItems;
+            this.permanentFailures = permanentFailures;
+            this.createdItems = createdItems;
+            this.status = status;
+            this.error = error;
+        }
+
+        private static BulkOutcome succeeded(BitSet createdItems) {
+            return new BulkOutcome(false, false, false, new int[0], Collections.<ItemFailure>emptyList(), createdItems,
+                    0, null);
+        }
+
+        private static BulkOutcome requestFailed(boolean retryable, boolean rejected, int status, String error) {
+            return new BulkOutcome(true, retryable, rejected, new int[0], Collections.<ItemFailure>emptyList(), new BitSet(),
+                    status, error);
+        }
+    }
+
+    // Sent back to the producer when a bulk request leaves the wire so checkpoints and pending bulk requests can move on
+    private static final class BulkCompleted {
+        private final Lane lane;
+        private final int generation;
+        private final BulkRequest bulkRequest;
+        private final BulkOutcome outcome;
+        private final long sentAtNanos;
+        private final long latencyMillis;
+
+        private BulkCompleted(Lane lane, int generation, BulkRequest bulkRequest, BulkOutcome outcome, long sentAtNanos,
+                              long latencyMillis) {
+            this.lane = lane;
+            this.generation = generation;
+            this.bulkRequest = bulkRequest;
+            this.outcome = outcome;
+            this.sentAtNanos = sentAtNanos;
+            this.latencyMillis = latencyMillis;
+        }
+    }
+
+    // Failed actions of a bulk request, sent to the producer once their backoff is over
+    private static final class RetryBulk {
+        private final Lane lane;
+        private final int generation;
+        private final BulkRequest bulkRequest;
+
+        private RetryBulk(Lane lane, int generation, BulkRequest bulkRequest) {
+            this.lane = lane;
+            this.generation = generation;
+            this.bulkRequest = bulkRequest;
+        }
+    }
+
+    // Sent back to the producer when a single doc request leaves the wire
+    private static final class DocCompleted {
+        private final Lane lane;
+        private final int generation;
+        private final long sequence;
+        private final EnterpriseEventDocument document;
+        private final int attempt;
+        // 0 when the request got no response, 409 when the doc already existed
+        private final int status;
+        // Null when the doc was indexed or already existed
+        private final String error;
+
+        private DocCompleted(Lane lane, int generation, long sequence, EnterpriseEventDocument document, int attempt,
+                             int status, String error) {
+            this.lane = lane;
+            this.generation = generation;
+            this.sequence = sequence;
+            this.document = document;
+            this.attempt = attempt;
+            this.status = status;
+            this.error = error;
+        }
+    }
+
+    private static final class RetryDoc {
+        private final Lane lane;
+        private final int generation;
+        private final long sequence;
+        private final EnterpriseEventDocument document;
+        private final int attempt;
+
+        private RetryDoc(Lane lane, int generation, long sequence, EnterpriseEventDocument document, int attempt) {
+            this.lane = lane;
+            this.generation = generation;
+            this.sequence = sequence;
+            this.document = document;
+            this.attempt = attempt;
+        }
     }
 }
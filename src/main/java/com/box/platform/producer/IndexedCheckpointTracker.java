@@ -0,0 +1,68 @@
+package com.box.platform.producer;
+
+import com.box.platform.checkpoint.Checkpoint;
+
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Keeps track of the Elasticsearch requests sent by the producer and releases a checkpoint only once every request
+ * sent before it has been acknowledged. Requests can complete out of order when several are in flight, so a checkpoint
+ * is never released ahead of an earlier request that is still pending or has failed.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class IndexedCheckpointTracker {
+    private final TreeSet<Long> outstanding = new TreeSet<Long>();
+    private final TreeMap<Long, Checkpoint> checkpoints = new TreeMap<Long, Checkpoint>();
+    private long lastIssued;
+    private long failedFrom = Long.MAX_VALUE;
+
+    /**
+     * @return the sequence number of a request that is about to be sent
+     */
+    public long begin() {
+        this.lastIssued++;
+        this.outstanding.add(this.lastIssued);
+        return this.lastIssued;
+    }
+
+    /**
+     * Attaches a checkpoint to the most recently issued request.
+     *
+     * @return the newest checkpoint that can be committed or null if none can be yet
+     */
+    public Checkpoint attach(Checkpoint checkpoint) {
+        this.checkpoints.put(this.lastIssued, checkpoint);
+        return this.release();
+    }
+
+    /**
+     * Marks a request as done. A failed request holds back every checkpoint attached at or after it.
+     *
+     * @return the newest checkpoint that can be committed or null if none can be yet
+     */
+    public Checkpoint complete(long sequence, boolean success) {
+        this.outstanding.remove(sequence);
+        if(!success){
+            this.failedFrom = Math.min(this.failedFrom, sequence);
+        }
+        return this.release();
+    }
+
+    public boolean isBlocked() {
+        return this.failedFrom != Long.MAX_VALUE;
+    }
+
+    private Checkpoint release() {
+        long limit = this.outstanding.isEmpty() ? this.lastIssued : this.outstanding.first() - 1;
+        limit = Math.min(limit, this.failedFrom - 1);
+
+        Checkpoint latest = null;
+        while(!this.checkpoints.isEmpty() && this.checkpoints.firstKey() <= limit){
+            latest = this.checkpoints.pollFirstEntry().getValue();
+        }
+        return latest;
+    }
+}
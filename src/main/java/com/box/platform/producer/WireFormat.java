@@ -0,0 +1,76 @@
+package com.box.platform.producer;
+
+import org.apache.http.entity.ContentType;
+
+/**
+ * How docs are encoded on the wire to Elasticsearch.
+ *
+ * JSON sends the doc bodies as they were serialized. SMILE and CBOR are the binary forms of json that Elasticsearch
+ * reads natively, they are smaller and cheaper for Elasticsearch to parse. Elasticsearch 5 only reads the _bulk
+ * endpoint as a stream of json or smile, so a CBOR producer sends its bulk requests as json.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public enum WireFormat {
+    JSON(ContentType.APPLICATION_JSON, ContentType.create("application/x-ndjson", "UTF-8"), (byte) '\n'),
+    // Smile content never holds 0xFF, Elasticsearch splits bulk bodies on it
+    SMILE(ContentType.create("application/smile"), ContentType.create("application/smile"), (byte) 0xFF),
+    CBOR(ContentType.create("application/cbor"), null, (byte) 0);
+
+    private final ContentType docContentType;
+    private final ContentType bulkContentType;
+    private final byte separator;
+
+    WireFormat(ContentType docContentType, ContentType bulkContentType, byte separator) {
+        this.docContentType = docContentType;
+        this.bulkContentType = bulkContentType;
+        this.separator = separator;
+    }
+
+    public ContentType getDocContentType() {
+        return this.docContentType;
+    }
+
+    public ContentType getBulkContentType() {
+        return this.bulkContentType;
+    }
+
+    /**
+     * @return the byte that ends every action line and doc of a bulk body
+     */
+    public byte getSeparator() {
+        return this.separator;
+    }
+
+    public boolean supportsBulk() {
+        return this.bulkContentType != null;
+    }
+
+    public boolean isBinary() {
+        return this != JSON;
+    }
+
+    /**
+     * @return the format bulk requests are sent in when this format is configured
+     */
+    public WireFormat forBulk() {
+        return this.supportsBulk() ? this : JSON;
+    }
+
+    public static WireFormat fromConfig(String value) {
+        return WireFormat.valueOf(value.trim().toUpperCase());
+    }
+
+    public static WireFormat fromContentType(String contentType) {
+        if(contentType != null){
+            String mimeType = contentType.split(";")[0].trim();
+            for(WireFormat format: values()){
+                if(format.docContentType.getMimeType().equalsIgnoreCase(mimeType)){
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+}
@@ -0,0 +1,413 @@
+package com.box.platform.rollup;
+
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.box.platform.metrics.Counter;
+import com.box.platform.metrics.Gauge;
+import com.box.platform.metrics.IngestMetrics;
+import com.box.platform.metrics.IngestMetricsExtension;
+import com.box.platform.parser.EnterpriseEventDocument;
+import com.box.platform.parser.EnterpriseEventWriter;
+import com.box.platform.tenant.Tenant;
+import com.box.platform.util.ByteArrayBuilder;
+import com.box.platform.util.ElasticsearchClient;
+import com.box.platform.util.ElasticsearchClientExtension;
+import com.box.platform.util.Utf8ByteWriter;
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.typesafe.config.Config;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import scala.concurrent.duration.Duration;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the enterprise events of a tenant per minute and per hour by event type, created_by login and ip address,
+ * and flushes the counts to a separate rollup index every flush.interval seconds, so dashboards can sum a few thousand
+ * rollup docs instead of aggregating every event doc.
+ *
+ * The producer sends the events whose docs Elasticsearch created. Docs that already existed are not counted, so
+ * events indexed again after a replay of the spool, a retried backfill slice or a second import of an archive are
+ * counted once, as long as the doc id is the Box event id.
+ *
+ * Each bucket and value has one rollup doc with a fixed id. Flushes upsert it with a painless script that adds the
+ * new count to the stored one, so a bucket that is flushed more than once keeps adding up. The upsert is not
+ * idempotent, so the counts of a failed flush are only merged back and sent with the next one when Elasticsearch
+ * certainly did not apply it, the connection was refused or the request rejected with 429. After a timeout or any
+ * other failure the counts are dropped rather than risk counting them twice.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class EventRollupAggregator extends UntypedActor {
+    private final LoggingAdapter logger = Logging.getLogger(getContext().system(), this);
+
+    public static final String NAME = "event-rollup";
+    private static final String ELASTIC_CONFIG_PREFIX = "elastic.";
+    private static final String FLUSH_TICK = "rollup-flush-tick";
+    private static final String HTTP_HEAD = "HEAD";
+    private static final String HTTP_POST = "POST";
+    private static final String HTTP_PUT = "PUT";
+    private static final String BULK_ENDPOINT = "/_bulk";
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final String UPSERT_SCRIPT = "ctx._source.count += params.count";
+    private static final int RETRY_ON_CONFLICT = 3;
+    private static final RollupInterval[] INTERVALS = RollupInterval.values();
+    private static final ContentType NDJSON_CONTENT_TYPE = ContentType.create("application/x-ndjson", "UTF-8");
+    private static final Map<String, String> BULK_PARAMS;
+    static {
+        Map<String, String> bulkParams = new HashMap<String, String>();
+        bulkParams.put("filter_path", "errors,items.*._id,items.*.error");
+        BULK_PARAMS = Collections.unmodifiableMap(bulkParams);
+    }
+
+    private final Tenant tenant;
+    private ElasticsearchClient elasticsearchClient;
+    private RestClient restClient;
+    private String indexName;
+    private String indexType;
+    private int indexNumReplicas;
+    private int expectedEntries;
+    private boolean indexChecked;
+    private Cancellable flushTick;
+
+    private RollupCounts counts;
+    private boolean flushInFlight;
+    // Read by the metrics reporters
+    private volatile long pendingBuckets;
+
+    private Counter eventsCounted;
+    private Counter docsFlushed;
+    private Counter flushesFailed;
+
+    public EventRollupAggregator(Tenant tenant) {
+        this.tenant = tenant;
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        logger.debug("{} prestart...", this.getClass().getName());
+        Config boxConfig = this.tenant.getConfig();
+        this.indexName = boxConfig.getString(ELASTIC_CONFIG_PREFIX + "rollup.index.name");
+        this.indexType = boxConfig.getString(ELASTIC_CONFIG_PREFIX + "rollup.type");
+        this.indexNumReplicas = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "index.num.replicas");
+        this.expectedEntries = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "rollup.expected.entries");
+        long flushIntervalSeconds = boxConfig.getLong(ELASTIC_CONFIG_PREFIX + "rollup.flush.interval");
+        this.counts = new RollupCounts(this.expectedEntries);
+
+        IngestMetrics metrics = IngestMetricsExtension.INSTANCE.get(getContext().system());
+        this.eventsCounted = metrics.counter("rollup_events_total", "Enterprise events counted into the rollups", this.tenant.getName());
+        this.docsFlushed = metrics.counter("rollup_docs_flushed_total", "Rollup docs upserted in Elasticsearch", this.tenant.getName());
+        this.flushesFailed = metrics.counter("rollup_flushes_failed_total", "Rollup flushes that failed", this.tenant.getName());
+        metrics.gauge("rollup_pending_buckets", "Rollup buckets counted since the last flush", this.tenant.getName(), new Gauge() {
+            public long getValue() {
+                return pendingBuckets;
+            }
+        });
+
+        this.elasticsearchClient = ElasticsearchClientExtension.INSTANCE.get(getContext().system());
+        this.restClient = this.elasticsearchClient.getRestClient();
+
+        this.flushTick = getContext().system().scheduler().schedule(
+                Duration.create(flushIntervalSeconds, TimeUnit.SECONDS),
+                Duration.create(flushIntervalSeconds, TimeUnit.SECONDS),
+                getSelf(),
+                FLUSH_TICK,
+                getContext().dispatcher(),
+                ActorRef.noSender());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if(this.flushTick != null){
+            this.flushTick.cancel();
+        }
+
+        // Send what was counted since the last flush, the shared rest client stays open until the system terminates
+        if(this.counts.isEmpty()){
+            return;
+        }
+        try {
+            this.ensureIndex();
+            ByteArrayBuilder ndjson = this.toBulkBody(this.counts);
+            Response response = this.restClient.performRequest(HTTP_POST, BULK_ENDPOINT, BULK_PARAMS,
+                    this.elasticsearchClient.entity(ndjson.buffer(), 0, ndjson.length(), NDJSON_CONTENT_TYPE));
+            this.handleBulkResponse(EntityUtils.toString(response.getEntity()), this.counts.size());
+        } catch (IOException ioe) {
+            logger.error(ioe, "Failed to flush {} rollup buckets on shutdown", this.counts.size());
+        }
+    }
+
+    public void onReceive(Object message) throws Throwable {
+        if(message instanceof CreatedEvents){
+            for(EnterpriseEventDocument document: ((CreatedEvents) message).getDocuments()){
+                this.count(document);
+            }
+            this.pendingBuckets = this.counts.size();
+        } else if(FLUSH_TICK.equals(message)){
+            this.flush();
+        } else if(message instanceof FlushCompleted){
+            this.flushInFlight = false;
+            FlushCompleted flushCompleted = (FlushCompleted) message;
+            if(flushCompleted.failed){
+                this.flushesFailed.increment();
+            }
+            if(flushCompleted.retryCounts != null){
+                // Merged back in front of the flush tick so the counts go out with the next flush
+                this.counts.addAll(flushCompleted.retryCounts);
+                this.pendingBuckets = this.counts.size();
+            }
+        } else{
+            unhandled(message);
+        }
+    }
+
+    private void count(EnterpriseEventDocument document){
+        long createdAtMillis = document.getCreatedAtMillis();
+        String type = document.getType();
+        String login = document.getLogin();
+        String ipAddress = document.getIpAddress();
+        for(RollupInterval interval: INTERVALS){
+            if(type != null){
+                this.counts.add(interval, RollupDimension.TYPE, createdAtMillis, type, 1);
+            }
+            if(login != null){
+                this.counts.add(interval, RollupDimension.USER, createdAtMillis, login, 1);
+            }
+            if(ipAddress != null){
+                this.counts.add(interval, RollupDimension.IP, createdAtMillis, ipAddress, 1);
+            }
+        }
+        this.eventsCounted.increment();
+    }
+
+    private void flush(){
+        // One flush at a time, counts keep adding up in the meantime
+        if(this.flushInFlight || this.counts.isEmpty()){
+            return;
+        }
+        try {
+            this.ensureIndex();
+        } catch (IOException ioe) {
+            logger.error(ioe, "Failed to create rollup index with name: {}, flushing with the next tick", this.indexName);
+            return;
+        }
+
+        final RollupCounts flushedCounts = this.counts;
+        final int buckets = flushedCounts.size();
+        this.counts = new RollupCounts(this.expectedEntries);
+        this.pendingBuckets = 0;
+        this.flushInFlight = true;
+
+        final ActorRef self = getSelf();
+        final long startMillis = System.currentTimeMillis();
+        ByteArrayBuilder ndjson = this.toBulkBody(flushedCounts);
+        logger.debug("Flushing {} rollup buckets in {} bytes", buckets, ndjson.length());
+        this.restClient.performRequestAsync(
+            HTTP_POST,
+            BULK_ENDPOINT,
+            BULK_PARAMS,
+            this.elasticsearchClient.entity(ndjson.buffer(), 0, ndjson.length(), NDJSON_CONTENT_TYPE),
+            new ResponseListener() {
+                public void onSuccess(Response response) {
+                    try {
+                        handleBulkResponse(EntityUtils.toString(response.getEntity()), buckets);
+                        logger.debug("Rollup flush completed in {} ms", System.currentTimeMillis() - startMillis);
+                    } catch (IOException ioe) {
+                        logger.error(ioe, "Encounter IO exception reading rollup bulk response");
+                    } finally {
+                        self.tell(new FlushCompleted(false, null), ActorRef.noSender());
+                    }
+                }
+                public void onFailure(Exception e) {
+                    int status = e instanceof ResponseException
+                            ? ((ResponseException) e).getResponse().getStatusLine().getStatusCode() : 0;
+                    if(wasNotApplied(e, status)){
+                        logger.error(e, "Failed to flush {} rollup buckets, sending them with the next flush", buckets);
+                        self.tell(new FlushCompleted(true, flushedCounts), ActorRef.noSender());
+                    } else{
+                        logger.error(e, "Failed to flush {} rollup buckets, dropping their counts", buckets);
+                        self.tell(new FlushCompleted(true, null), ActorRef.noSender());
+                    }
+                }
+            });
+    }
+
+    /**
+     * @param status the status of the response, 0 when there was none
+     * @return whether Elasticsearch certainly did not apply any upsert of a failed flush, so it can be sent again
+     */
+    static boolean wasNotApplied(Exception e, int status){
+        // A request that never got a connection was never seen, a 429 is refused before any of it runs
+        return status == HTTP_TOO_MANY_REQUESTS || e instanceof ConnectException || e instanceof ConnectTimeoutException;
+    }
+
+    private void handleBulkResponse(String responseString, int buckets){
+        JsonObject bulkResponse = Json.parse(responseString).asObject();
+        if(!bulkResponse.getBoolean("errors", false)){
+            this.docsFlushed.add(buckets);
+            logger.info("Upserted {} rollup docs", buckets);
+            return;
+        }
+
+        // Failed items are only logged, sending their counts again could add them twice
+        int failed = 0;
+        for(JsonValue item: bulkResponse.get("items").asArray()){
+            JsonObject itemResult = item.asObject().get(item.asObject().names().get(0)).asObject();
+            JsonValue error = itemResult.get("error");
+            if(error != null){
+                failed++;
+                logger.error("Failed to upsert rollup doc with id: {} error: {}", itemResult.get("_id"), error.toString());
+            }
+        }
+        this.docsFlushed.add(buckets - failed);
+        logger.info("Upserted {} rollup docs, {} failed", buckets - failed, failed);
+    }
+
+    private ByteArrayBuilder toBulkBody(RollupCounts rollupCounts){
+        final ByteArrayBuilder ndjson = new ByteArrayBuilder(rollupCounts.size() * 256);
+        final Utf8ByteWriter writer = new Utf8ByteWriter(ndjson);
+        rollupCounts.forEach(new RollupCounts.Visitor() {
+            public void visit(RollupInterval interval, RollupDimension dimension, long bucketStartMillis, String value, long count) {
+                try {
+                    writeUpsert(writer, interval, dimension, bucketStartMillis, value, count);
+                } catch (IOException ioe) {
+                    // Only thrown by writers that do IO, the builder is in memory
+                    throw new IllegalStateException(ioe);
+                }
+            }
+        });
+        return ndjson;
+    }
+
+    private void writeUpsert(Utf8ByteWriter writer, RollupInterval interval, RollupDimension dimension,
+                             long bucketStartMillis, String value, long count) throws IOException {
+        writer.writeAscii("{\"update\":{\"_index\":");
+        writer.writeJsonString(this.indexName);
+        writer.writeAscii(",\"_type\":");
+        writer.writeJsonString(this.indexType);
+        writer.writeAscii(",\"_id\":");
+        writer.writeJsonString(interval.getName() + ":" + dimension.getName() + ":" + bucketStartMillis + ":" + value);
+        writer.writeAscii(",\"_retry_on_conflict\":");
+        writer.writeAscii(String.valueOf(RETRY_ON_CONFLICT));
+        writer.writeAscii("}}\n{\"script\":{\"lang\":\"painless\",\"inline\":");
+        writer.writeJsonString(UPSERT_SCRIPT);
+        writer.writeAscii(",\"params\":{\"count\":");
+        writer.writeAscii(String.valueOf(count));
+        writer.writeAscii("}},\"upsert\":{\"interval\":");
+        writer.writeJsonString(interval.getName());
+        writer.writeAscii(",\"dimension\":");
+        writer.writeJsonString(dimension.getName());
+        writer.writeAscii(",\"created_at\":\"");
+        EnterpriseEventWriter.CREATED_AT_FORMAT.formatTo(Instant.ofEpochMilli(bucketStartMillis), writer);
+        writer.writeAscii("\",");
+
+        // created_by.login is written as an object so it lines up with the event docs
+        String field = dimension.getField();
+        int dot = field.indexOf('.');
+        if(dot < 0){
+            writer.writeJsonString(field);
+            writer.write(':');
+            writer.writeJsonString(value);
+        } else{
+            writer.writeJsonString(field.substring(0, dot));
+            writer.writeAscii(":{");
+            writer.writeJsonString(field.substring(dot + 1));
+            writer.write(':');
+            writer.writeJsonString(value);
+            writer.write('}');
+        }
+        writer.writeAscii(",\"count\":");
+        writer.writeAscii(String.valueOf(count));
+        writer.writeAscii("}}\n");
+    }
+
+    private void ensureIndex() throws IOException {
+        if(this.indexChecked){
+            return;
+        }
+        // The rest client does not treat a 404 on HEAD as an error
+        Response response = this.restClient.performRequest(HTTP_HEAD, "/" + this.indexName);
+        if(response.getStatusLine().getStatusCode() != HTTP_OK){
+            logger.info("Creating rollup index with name: {}", this.indexName);
+            JsonObject createIndex = Json.object()
+                    .add("settings", Json.object()
+                            .add("index.number_of_shards", 1)
+                            .add("index.number_of_replicas", this.indexNumReplicas))
+                    .add("mappings", Json.object().add(this.indexType, mapping()));
+            this.restClient.performRequest(
+                    HTTP_PUT,
+                    "/" + this.indexName,
+                    Collections.<String, String>emptyMap(),
+                    this.elasticsearchClient.entity(createIndex.toString().getBytes(StandardCharsets.UTF_8),
+                            ContentType.APPLICATION_JSON));
+        }
+        this.indexChecked = true;
+    }
+
+    /**
+     * @return the mapping of the rollup docs, with the same field types as the event docs
+     */
+    public static JsonObject mapping() {
+        JsonObject keyword = Json.object().add("type", "keyword");
+        return Json.object()
+                .add("dynamic", "strict")
+                .add("properties", Json.object()
+                        .add("interval", keyword)
+                        .add("dimension", keyword)
+                        .add("created_at", Json.object()
+                                .add("type", "date")
+                                .add("format", "date_hour_minute_second_millis"))
+                        .add("type", keyword)
+                        .add("created_by", Json.object()
+                                .add("properties", Json.object()
+                                        .add("login", keyword)))
+                        .add("ip_address", Json.object().add("type", "ip"))
+                        .add("count", Json.object().add("type", "long")));
+    }
+
+    /**
+     * Events of a request whose docs Elasticsearch created, sent by the producer.
+     */
+    public static final class CreatedEvents {
+        private final List<EnterpriseEventDocument> documents;
+
+        public CreatedEvents(List<EnterpriseEventDocument> documents) {
+            this.documents = documents;
+        }
+
+        public List<EnterpriseEventDocument> getDocuments() {
+            return this.documents;
+        }
+    }
+
+    private static final class FlushCompleted {
+        private final boolean failed;
+        // The counts to merge back when the flush failed before Elasticsearch applied it, null otherwise
+        private final RollupCounts retryCounts;
+
+        private FlushCompleted(boolean failed, RollupCounts retryCounts) {
+            this.failed = failed;
+            this.retryCounts = retryCounts;
+        }
+    }
+}
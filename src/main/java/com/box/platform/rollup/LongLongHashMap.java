@@ -0,0 +1,126 @@
+package com.box.platform.rollup;
+
+/**
+ * Open addressing hash map from long keys to long counts, so counting an event neither boxes its key nor allocates an
+ * entry. Keys are probed linearly in arrays that double once they are half full. Not thread safe.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class LongLongHashMap {
+    private static final int MIN_CAPACITY = 16;
+    // A slot holding key 0 can not be told apart from a free one, so key 0 is kept on the side
+    private static final long FREE_KEY = 0L;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+    private boolean hasFreeKey;
+    private long freeKeyValue;
+
+    public LongLongHashMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while(capacity < expectedSize * 2){
+            capacity <<= 1;
+        }
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+    }
+
+    /**
+     * Adds delta to the value of the key, a key that is not in the map starts at 0.
+     */
+    public void addTo(long key, long delta) {
+        if(key == FREE_KEY){
+            if(!this.hasFreeKey){
+                this.hasFreeKey = true;
+                this.size++;
+            }
+            this.freeKeyValue += delta;
+            return;
+        }
+        int mask = this.keys.length - 1;
+        int slot = slot(key, mask);
+        while(this.keys[slot] != FREE_KEY){
+            if(this.keys[slot] == key){
+                this.values[slot] += delta;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = key;
+        this.values[slot] = delta;
+        if(++this.size * 2 > this.keys.length){
+            this.resize(this.keys.length << 1);
+        }
+    }
+
+    /**
+     * @return the value of the key, or 0 if it is not in the map
+     */
+    public long get(long key) {
+        if(key == FREE_KEY){
+            return this.hasFreeKey ? this.freeKeyValue : 0;
+        }
+        int mask = this.keys.length - 1;
+        int slot = slot(key, mask);
+        while(this.keys[slot] != FREE_KEY){
+            if(this.keys[slot] == key){
+                return this.values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Calls the visitor once for every key in the map, in no particular order.
+     */
+    public void forEach(Visitor visitor) {
+        if(this.hasFreeKey){
+            visitor.visit(FREE_KEY, this.freeKeyValue);
+        }
+        for(int i = 0; i < this.keys.length; i++){
+            if(this.keys[i] != FREE_KEY){
+                visitor.visit(this.keys[i], this.values[i]);
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = this.keys;
+        long[] oldValues = this.values;
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        int mask = capacity - 1;
+        for(int i = 0; i < oldKeys.length; i++){
+            if(oldKeys[i] == FREE_KEY){
+                continue;
+            }
+            int slot = slot(oldKeys[i], mask);
+            while(this.keys[slot] != FREE_KEY){
+                slot = (slot + 1) & mask;
+            }
+            this.keys[slot] = oldKeys[i];
+            this.values[slot] = oldValues[i];
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        // Spread the bits of the packed keys, which mostly differ in a few middle bits
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    public interface Visitor {
+        void visit(long key, long value);
+    }
+}
@@ -0,0 +1,94 @@
+package com.box.platform.rollup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event counts by interval, dimension, bucket and value. Every distinct value is given an int id once, and the
+ * interval, dimension, bucket and value id are packed into a single long key of a LongLongHashMap, so counting an
+ * event does not allocate. Not thread safe.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class RollupCounts {
+    private static final int VALUE_BITS = 32;
+    private static final int BUCKET_BITS = 29;
+    private static final int DIMENSION_BITS = 2;
+    private static final long VALUE_MASK = (1L << VALUE_BITS) - 1;
+    private static final long BUCKET_MASK = (1L << BUCKET_BITS) - 1;
+    private static final long DIMENSION_MASK = (1L << DIMENSION_BITS) - 1;
+    // Buckets are stored as minutes since the epoch, which fit in 29 bits until the year 3000
+    private static final long BUCKET_UNIT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final RollupInterval[] INTERVALS = RollupInterval.values();
+    private static final RollupDimension[] DIMENSIONS = RollupDimension.values();
+
+    private final Map<String, Integer> valueIds = new HashMap<String, Integer>();
+    private final List<String> values = new ArrayList<String>();
+    private final LongLongHashMap counts;
+
+    public RollupCounts(int expectedSize) {
+        this.counts = new LongLongHashMap(expectedSize);
+    }
+
+    /**
+     * Adds count to the bucket of the interval that timeMillis falls in. Times before the epoch are not counted.
+     */
+    public void add(RollupInterval interval, RollupDimension dimension, long timeMillis, String value, long count) {
+        long bucket = interval.bucketStart(timeMillis) / BUCKET_UNIT_MILLIS;
+        if(bucket < 0 || bucket > BUCKET_MASK){
+            return;
+        }
+        Integer valueId = this.valueIds.get(value);
+        if(valueId == null){
+            valueId = this.values.size();
+            this.valueIds.put(value, valueId);
+            this.values.add(value);
+        }
+        long key = ((long) interval.ordinal() << (VALUE_BITS + BUCKET_BITS + DIMENSION_BITS))
+                | ((long) dimension.ordinal() << (VALUE_BITS + BUCKET_BITS))
+                | (bucket << VALUE_BITS)
+                | valueId;
+        this.counts.addTo(key, count);
+    }
+
+    /**
+     * Adds every count of the other rollup to this one.
+     */
+    public void addAll(RollupCounts other) {
+        other.forEach(new Visitor() {
+            public void visit(RollupInterval interval, RollupDimension dimension, long bucketStartMillis, String value, long count) {
+                add(interval, dimension, bucketStartMillis, value, count);
+            }
+        });
+    }
+
+    public void forEach(final Visitor visitor) {
+        this.counts.forEach(new LongLongHashMap.Visitor() {
+            public void visit(long key, long count) {
+                RollupInterval interval = INTERVALS[(int) (key >>> (VALUE_BITS + BUCKET_BITS + DIMENSION_BITS))];
+                RollupDimension dimension = DIMENSIONS[(int) ((key >>> (VALUE_BITS + BUCKET_BITS)) & DIMENSION_MASK)];
+                long bucketStartMillis = ((key >>> VALUE_BITS) & BUCKET_MASK) * BUCKET_UNIT_MILLIS;
+                visitor.visit(interval, dimension, bucketStartMillis, values.get((int) (key & VALUE_MASK)), count);
+            }
+        });
+    }
+
+    /**
+     * @return the number of distinct buckets and values counted
+     */
+    public int size() {
+        return this.counts.size();
+    }
+
+    public boolean isEmpty() {
+        return this.counts.isEmpty();
+    }
+
+    public interface Visitor {
+        void visit(RollupInterval interval, RollupDimension dimension, long bucketStartMillis, String value, long count);
+    }
+}
@@ -0,0 +1,33 @@
+package com.box.platform.rollup;
+
+/**
+ * What events are counted by. Each dimension is written to the same field as in the event docs, so a dashboard can
+ * switch from the events to the rollups by summing count instead of counting docs.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public enum RollupDimension {
+    TYPE("type", "type"),
+    USER("user", "created_by.login"),
+    IP("ip", "ip_address");
+
+    private final String name;
+    private final String field;
+
+    RollupDimension(String name, String field) {
+        this.name = name;
+        this.field = field;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the path of the field the value is written to, objects separated by dots
+     */
+    public String getField() {
+        return this.field;
+    }
+}
@@ -0,0 +1,33 @@
+package com.box.platform.rollup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time buckets events are counted in.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public enum RollupInterval {
+    MINUTE("minute", TimeUnit.MINUTES.toMillis(1)),
+    HOUR("hour", TimeUnit.HOURS.toMillis(1));
+
+    private final String name;
+    private final long millis;
+
+    RollupInterval(String name, long millis) {
+        this.name = name;
+        this.millis = millis;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the start of the bucket the time falls in
+     */
+    public long bucketStart(long timeMillis) {
+        return timeMillis - Math.floorMod(timeMillis, this.millis);
+    }
+}
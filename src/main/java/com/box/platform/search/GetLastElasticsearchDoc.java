@@ -3,19 +3,16 @@ package com.box.platform.search;
 import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import com.box.platform.util.ElasticsearchClient;
+import com.box.platform.util.ElasticsearchClientExtension;
+import com.box.platform.util.RollingIndices;
 import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonObject;
 import com.typesafe.config.Config;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpHost;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.util.EntityUtils;
 import org.elasticsearch.client.Response;
-import org.elasticsearch.client.RestClient;
-import org.elasticsearch.client.RestClientBuilder;
-import org.elasticsearch.client.sniff.SniffOnFailureListener;
-import org.elasticsearch.client.sniff.Sniffer;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -41,66 +38,35 @@ public class GetLastElasticsearchDoc extends UntypedActor{
     private static final String ELASTIC_CONFIG_PREFIX = "elastic.";
     private static final String HTTP_GET = "GET";
 
-    private RestClient restClient = null;
+    private final Config boxConfig;
+    private ElasticsearchClient elasticsearchClient;
     private String configPath;
-    private String indexName;
+    private RollingIndices rollingIndices;
     private String indexType;
     private String maxCreateDateJson;
-    private int connectionTimeout;
-    private int socketTimeout;
-    private int connectionRequestTimeout;
     private int timeInSeconds;
     private int timeInMinutes;
     private int timeInHours;
     private int timeInDays;
 
+    public GetLastElasticsearchDoc(Config boxConfig) {
+        this.boxConfig = boxConfig;
+    }
+
     @Override
     public void preStart() throws Exception {
         logger.debug("{} prestart...", this.getClass().getName());
 
-        // Get application configuration
-        Config boxConfig = getContext().system().settings().config();
-        this.configPath = boxConfig.getString(BOX_CONFIG_PREFIX + "config.path");
-        String host = boxConfig.getString(ELASTIC_CONFIG_PREFIX + "host");
-        int port = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "client.rest.port");
-        this.indexName = boxConfig.getString(ELASTIC_CONFIG_PREFIX + "index.name");
-        this.indexType = boxConfig.getString(ELASTIC_CONFIG_PREFIX + "enterprise.type");
-        this.maxCreateDateJson = boxConfig.getString(ELASTIC_CONFIG_PREFIX + "enterprise.max.created.at");
-        this.connectionTimeout = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "client.rest.connection.timeout");
-        this.socketTimeout = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "client.rest.socket.timeout");
-        this.connectionRequestTimeout = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "client.rest.connection.request.timeout");
-        int maxRetryTimeout = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "client.rest.max.retry.timeout");
-        this.timeInSeconds = boxConfig.getInt(BOX_CONFIG_PREFIX + "lookback.seconds");
-        this.timeInMinutes = boxConfig.getInt(BOX_CONFIG_PREFIX + "lookback.minutes");
-        this.timeInHours = boxConfig.getInt(BOX_CONFIG_PREFIX + "lookback.hours");
-        this.timeInDays = boxConfig.getInt(BOX_CONFIG_PREFIX + "lookback.days");
-
-        // Instantiate ES RestClient and Sniffer
-        try{
-            SniffOnFailureListener sniffOnFailureListener = new SniffOnFailureListener();
-            this.restClient = RestClient.builder(new HttpHost(host, port))
-                    .setRequestConfigCallback(new RestClientBuilder.RequestConfigCallback() {
-                        public RequestConfig.Builder customizeRequestConfig(RequestConfig.Builder requestConfigBuilder) {
-                            return requestConfigBuilder
-                                    .setConnectTimeout(connectionTimeout)
-                                    .setSocketTimeout(socketTimeout)
-                                    .setConnectionRequestTimeout(connectionRequestTimeout);
-                        }
-                    })
-                    .setMaxRetryTimeoutMillis(maxRetryTimeout)
-                    .setFailureListener(sniffOnFailureListener)
-                    .build();
-            Sniffer sniffer = Sniffer.builder(this.restClient).build();
-            sniffOnFailureListener.setSniffer(sniffer);
-        }
-        catch (Exception e){
-            logger.error(e, "Failed to get Elasticsearch REST Client");
-        }
-    }
+        this.configPath = this.boxConfig.getString(BOX_CONFIG_PREFIX + "config.path");
+        this.rollingIndices = RollingIndices.fromConfig(this.boxConfig);
+        this.indexType = this.boxConfig.getString(ELASTIC_CONFIG_PREFIX + "enterprise.type");
+        this.maxCreateDateJson = this.boxConfig.getString(ELASTIC_CONFIG_PREFIX + "enterprise.max.created.at");
+        this.timeInSeconds = this.boxConfig.getInt(BOX_CONFIG_PREFIX + "lookback.seconds");
+        this.timeInMinutes = this.boxConfig.getInt(BOX_CONFIG_PREFIX + "lookback.minutes");
+        this.timeInHours = this.boxConfig.getInt(BOX_CONFIG_PREFIX + "lookback.hours");
+        this.timeInDays = this.boxConfig.getInt(BOX_CONFIG_PREFIX + "lookback.days");
 
-    @Override
-    public void postStop() throws Exception {
-        this.restClient.close();
+        this.elasticsearchClient = ElasticsearchClientExtension.INSTANCE.get(getContext().system());
     }
 
     public void onReceive(Object message) throws Throwable {
@@ -110,24 +76,17 @@ public class GetLastElasticsearchDoc extends UntypedActor{
     private void getLastCreatedAtDate(){
         Map<String, Object> lastDocMap = new HashMap<String, Object>();
         Date lastCreatedAtDate;
-        String endpoint = "/" + this.indexName + "/" + this.indexType + "/_search";
-        HttpEntity getMaxCreatedAtEntity;
 
         try {
-            getMaxCreatedAtEntity = new NStringEntity(new String(Files.readAllBytes(
-                    Paths.get(this.configPath + this.maxCreateDateJson))));
-
-
-            Response response = this.restClient.performRequest(
-                    HTTP_GET,
-                    endpoint,
-                    Collections.<String, String>emptyMap(),
-                    getMaxCreatedAtEntity);
-            String responseString = EntityUtils.toString(response.getEntity());
-            logger.debug("Found result with max created_at date: {}", responseString);
-
-            JsonObject maxCreatedAtJsonObject = Json.parse(responseString).asObject();
-            JsonObject topLevelHits = maxCreatedAtJsonObject.get("hits").asObject();
+            byte[] maxCreatedAtQuery = Files.readAllBytes(Paths.get(this.configPath + this.maxCreateDateJson));
+
+            // The last doc is almost always in the write index, only search every index behind the read alias
+            // when the write index was just rolled over
+            JsonObject topLevelHits = this.searchLastDoc(this.rollingIndices.getWriteTarget(), maxCreatedAtQuery);
+            if(topLevelHits.get("total").asInt() == 0
+                    && !this.rollingIndices.getReadTarget().equals(this.rollingIndices.getWriteTarget())){
+                topLevelHits = this.searchLastDoc(this.rollingIndices.getReadTarget(), maxCreatedAtQuery);
+            }
             int totalHits = topLevelHits.get("total").asInt();
 
             String dateString = null;
@@ -152,7 +111,8 @@ public class GetLastElasticsearchDoc extends UntypedActor{
             }else{
                 JsonObject source = topLevelHits.get("hits").asArray().get(0).asObject().get("_source").asObject();
                 dateString = source.get("created_at").asString();
-                SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+                // Keep the full millisecond precision so polling resumes right after the last doc
+                SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
                 lastCreatedAtDate = dateFormat.parse(dateString);
 
                 nextStreamPosition = source.get("next_stream_position").asString();
@@ -172,4 +132,20 @@ public class GetLastElasticsearchDoc extends UntypedActor{
             logger.error(ioe, "Failed to load get_last_es_doc.json file");
         }
     }
+
+    private JsonObject searchLastDoc(String target, byte[] maxCreatedAtQuery) throws IOException {
+        String endpoint = "/" + target + "/" + this.indexType + "/_search";
+        HttpEntity getMaxCreatedAtEntity = this.elasticsearchClient.entity(maxCreatedAtQuery, ContentType.APPLICATION_JSON);
+
+        Response response = this.elasticsearchClient.getRestClient().performRequest(
+                HTTP_GET,
+                endpoint,
+                Collections.<String, String>emptyMap(),
+                getMaxCreatedAtEntity);
+        String responseString = EntityUtils.toString(response.getEntity());
+        logger.debug("Found result with max created_at date: {}", responseString);
+
+        JsonObject maxCreatedAtJsonObject = Json.parse(responseString).asObject();
+        return maxCreatedAtJsonObject.get("hits").asObject();
+    }
 }
@@ -0,0 +1,65 @@
+package com.box.platform.source;
+
+/**
+ * Limits how many requests run at the same time with additive increase, multiplicative decrease. Every request that
+ * comes back within the target latency raises the limit by 1 / limit, so about one more request per round trip, and
+ * every throttled request halves it. Requests that are slow or fail for other reasons leave it where it is.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class AimdConcurrencyLimit {
+    private static final double BACKOFF_RATIO = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyMillis;
+    private double limit;
+    private int inFlight;
+
+    public AimdConcurrencyLimit(int minLimit, int maxLimit, long targetLatencyMillis) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.limit = this.minLimit;
+    }
+
+    /**
+     * Blocks until fewer requests than the limit are running.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while(this.inFlight >= (int) this.limit){
+            this.wait();
+        }
+        this.inFlight++;
+    }
+
+    public synchronized void onSuccess(long latencyMillis) {
+        if(latencyMillis <= this.targetLatencyMillis){
+            this.limit = Math.min(this.maxLimit, this.limit + 1.0 / this.limit);
+        }
+        this.release();
+    }
+
+    public synchronized void onThrottled() {
+        this.limit = Math.max(this.minLimit, this.limit * BACKOFF_RATIO);
+        this.release();
+    }
+
+    public synchronized void onFailure() {
+        this.release();
+    }
+
+    public synchronized int getLimit() {
+        return (int) this.limit;
+    }
+
+    public synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    private void release() {
+        this.inFlight--;
+        this.notifyAll();
+    }
+}
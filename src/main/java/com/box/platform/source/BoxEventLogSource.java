@@ -0,0 +1,28 @@
+package com.box.platform.source;
+
+import com.box.sdk.BoxAPIConnection;
+import com.box.sdk.EventLog;
+
+import java.util.Date;
+
+/**
+ * Reads enterprise events from Box with EventLog.getEnterpriseEvents, refreshing the access token first when it is
+ * about to expire.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class BoxEventLogSource implements EnterpriseEventSource {
+    private final BoxAPIConnection api;
+
+    public BoxEventLogSource(BoxAPIConnection api) {
+        this.api = api;
+    }
+
+    public EnterpriseEventChunk getEnterpriseEvents(String streamPosition, Date after, Date before) {
+        if(this.api.needsRefresh()){
+            this.api.refresh();
+        }
+        return EnterpriseEventChunk.fromEventLog(EventLog.getEnterpriseEvents(this.api, streamPosition, after, before));
+    }
+}
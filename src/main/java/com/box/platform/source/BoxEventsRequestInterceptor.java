@@ -0,0 +1,129 @@
+package com.box.platform.source;
+
+import com.box.sdk.BoxAPIConnection;
+import com.box.sdk.BoxAPIRequest;
+import com.box.sdk.BoxAPIResponse;
+import com.box.sdk.BoxJSONResponse;
+import com.box.sdk.RequestInterceptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Sends the requests EventLog makes to the Box events API itself so the Retry-After header of a throttled response
+ * can be read, the Box SDK drops the response headers when it throws a BoxAPIException. Successful responses are
+ * handed back to the SDK to be parsed as usual, 429 and 5xx responses and connection errors are thrown as
+ * RetryableBoxAPIException. Every other request goes through the SDK untouched.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class BoxEventsRequestInterceptor implements RequestInterceptor {
+    private static final String EVENTS_PATH = "/events";
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    private final BoxAPIConnection api;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    public BoxEventsRequestInterceptor(BoxAPIConnection api, int connectTimeoutMillis, int readTimeoutMillis) {
+        this.api = api;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public BoxAPIResponse onRequest(BoxAPIRequest request) {
+        URL url = request.getUrl();
+        if(!url.getPath().endsWith(EVENTS_PATH)){
+            return null;
+        }
+
+        HttpURLConnection connection = this.send(url);
+        // Throws a BoxAPIException for any other error like the SDK does
+        return new BoxJSONResponse(connection);
+    }
+
+    /**
+     * Sends a GET to the events API and waits for the response code, 429 and 5xx responses and connection errors are
+     * thrown as RetryableBoxAPIException. The body of the response is left to the caller.
+     */
+    HttpURLConnection send(URL url) {
+        HttpURLConnection connection;
+        int responseCode;
+        try {
+            connection = (HttpURLConnection) (this.api.getProxy() == null
+                    ? url.openConnection() : url.openConnection(this.api.getProxy()));
+            connection.setRequestMethod("GET");
+            connection.setConnectTimeout(this.connectTimeoutMillis);
+            connection.setReadTimeout(this.readTimeoutMillis);
+            connection.setRequestProperty("Authorization", "Bearer " + this.api.getAccessToken());
+            connection.setRequestProperty("User-Agent", this.api.getUserAgent());
+            // The SDK and StreamingEventLogSource unzip the body of the response
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            responseCode = connection.getResponseCode();
+        } catch (IOException ioe) {
+            throw new RetryableBoxAPIException("Couldn't connect to the Box events API due to a network error.", ioe);
+        }
+
+        if(responseCode == HTTP_TOO_MANY_REQUESTS || responseCode >= HTTP_SERVER_ERROR){
+            long retryAfterMillis = parseRetryAfter(connection.getHeaderField("Retry-After"));
+            String response = readErrorBody(connection);
+            connection.disconnect();
+            throw new RetryableBoxAPIException("The Box events API responded with an error code.", responseCode,
+                    response, retryAfterMillis);
+        }
+        return connection;
+    }
+
+    /**
+     * @return the wait Retry-After asks for in milliseconds, it is either a number of seconds or an HTTP date, or -1
+     * if there is none
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if(retryAfter == null || retryAfter.trim().isEmpty()){
+            return -1;
+        }
+        String value = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException nfe) {
+            // Not a number of seconds
+        }
+        try {
+            return Math.max(0, ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli()
+                    - System.currentTimeMillis());
+        } catch (DateTimeParseException dtpe) {
+            return -1;
+        }
+    }
+
+    static String readErrorBody(HttpURLConnection connection) {
+        InputStream errorStream = connection.getErrorStream();
+        if(errorStream == null){
+            return null;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1024];
+        try {
+            try {
+                int read;
+                while((read = errorStream.read(chunk)) > 0){
+                    body.write(chunk, 0, read);
+                }
+            } finally {
+                errorStream.close();
+            }
+        } catch (IOException ioe) {
+            // The status is enough to retry
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,175 @@
+package com.box.platform.source;
+
+import akka.event.LoggingAdapter;
+import com.box.sdk.IAccessTokenCache;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the Box access tokens in an LRU cache like InMemoryLRUAccessTokenCache and writes it to a file encrypted with
+ * AES-GCM every time a token is put, so a restart within the token lifetime reuses the token instead of going through
+ * the JWT handshake again.
+ *
+ * The file key is derived from a secret with PBKDF2 and a random salt kept in the file. A file that can not be read or
+ * decrypted, for example after the secret changed or when it was cut short or overwritten, is ignored and the first
+ * token is fetched from Box as before.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class EncryptedFileAccessTokenCache implements IAccessTokenCache {
+    private static final int FORMAT_VERSION = 1;
+    private static final int SALT_BYTES = 16;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int KEY_BITS = 256;
+    private static final int KEY_ITERATIONS = 65536;
+    private static final String KEY_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String CIPHER = "AES/GCM/NoPadding";
+
+    private final Path file;
+    private final LoggingAdapter logger;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, String> entries;
+    private byte[] salt;
+    private SecretKey key;
+
+    public EncryptedFileAccessTokenCache(Path file, String secret, final int maxEntries, LoggingAdapter logger)
+            throws GeneralSecurityException {
+        this.file = file;
+        this.logger = logger;
+        this.entries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        if(Files.exists(file)){
+            try{
+                this.load(secret);
+                logger.debug("Loaded {} Box access tokens from {}", this.entries.size(), file);
+                return;
+            } catch (IOException ioe){
+                logger.warning("Ignoring Box access token cache {} that could not be read: {}", file, ioe.toString());
+            } catch (GeneralSecurityException gse){
+                logger.warning("Ignoring Box access token cache {} that could not be decrypted: {}", file, gse.toString());
+            } catch (RuntimeException re){
+                logger.warning("Ignoring Box access token cache {} that could not be read: {}", file, re.toString());
+            }
+            this.entries.clear();
+        }
+        this.salt = new byte[SALT_BYTES];
+        this.random.nextBytes(this.salt);
+        this.key = deriveKey(secret, this.salt);
+    }
+
+    public synchronized String get(String key) {
+        return this.entries.get(key);
+    }
+
+    public synchronized void put(String key, String value) {
+        this.entries.put(key, value);
+        try{
+            this.save();
+        } catch (IOException ioe){
+            // The token is still cached in memory, the next restart fetches a new one
+            logger.warning("Failed to write Box access token cache {}: {}", this.file, ioe.toString());
+        } catch (GeneralSecurityException gse){
+            logger.warning("Failed to encrypt Box access token cache {}: {}", this.file, gse.toString());
+        }
+    }
+
+    private void load(String secret) throws IOException, GeneralSecurityException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(this.file)));
+        int version = in.readInt();
+        if(version != FORMAT_VERSION){
+            throw new IOException("Unknown version " + version);
+        }
+        byte[] fileSalt = new byte[SALT_BYTES];
+        in.readFully(fileSalt);
+        byte[] iv = new byte[IV_BYTES];
+        in.readFully(iv);
+        // A length read from a damaged file must not size the buffer beyond what the file holds
+        int ciphertextLength = in.readInt();
+        if(ciphertextLength < 0 || ciphertextLength > in.available()){
+            throw new IOException("Ciphertext length " + ciphertextLength + " does not match the file");
+        }
+        byte[] ciphertext = new byte[ciphertextLength];
+        in.readFully(ciphertext);
+
+        SecretKey fileKey = deriveKey(secret, fileSalt);
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, fileKey, new GCMParameterSpec(TAG_BITS, iv));
+        DataInputStream plaintext = new DataInputStream(new ByteArrayInputStream(cipher.doFinal(ciphertext)));
+        int count = plaintext.readInt();
+        for(int i = 0; i < count; i++){
+            this.entries.put(plaintext.readUTF(), plaintext.readUTF());
+        }
+        this.salt = fileSalt;
+        this.key = fileKey;
+    }
+
+    private void save() throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream plaintextBytes = new ByteArrayOutputStream();
+        DataOutputStream plaintext = new DataOutputStream(plaintextBytes);
+        plaintext.writeInt(this.entries.size());
+        for(Map.Entry<String, String> entry: this.entries.entrySet()){
+            plaintext.writeUTF(entry.getKey());
+            plaintext.writeUTF(entry.getValue());
+        }
+
+        // A new IV for every write, an IV must never be used twice with the same key
+        byte[] iv = new byte[IV_BYTES];
+        this.random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, this.key, new GCMParameterSpec(TAG_BITS, iv));
+        byte[] ciphertext = cipher.doFinal(plaintextBytes.toByteArray());
+
+        ByteArrayOutputStream fileBytes = new ByteArrayOutputStream(ciphertext.length + 64);
+        DataOutputStream out = new DataOutputStream(fileBytes);
+        out.writeInt(FORMAT_VERSION);
+        out.write(this.salt);
+        out.write(iv);
+        out.writeInt(ciphertext.length);
+        out.write(ciphertext);
+
+        // Write next to the file and move it over, so a crash never leaves half a cache behind
+        Path tempFile = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        Files.write(tempFile, fileBytes.toByteArray());
+        try{
+            Files.setPosixFilePermissions(tempFile, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException uoe){
+            // Not a POSIX file system
+        }
+        Files.move(tempFile, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static SecretKey deriveKey(String secret, byte[] salt) throws GeneralSecurityException {
+        PBEKeySpec keySpec = new PBEKeySpec(secret.toCharArray(), salt, KEY_ITERATIONS, KEY_BITS);
+        try{
+            byte[] keyBytes = SecretKeyFactory.getInstance(KEY_ALGORITHM).generateSecret(keySpec).getEncoded();
+            return new SecretKeySpec(keyBytes, "AES");
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.box.platform.source;
+
+import com.box.platform.parser.EnterpriseEventDocument;
+import com.box.sdk.BoxEvent;
+import com.box.sdk.EventLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * One chunk of enterprise events read from an EnterpriseEventSource, with the stream positions around it. A chunk
+ * holds either BoxEvents or, when it was read by StreamingEventLogSource, the docs already written for its events.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class EnterpriseEventChunk implements Iterable<BoxEvent> {
+    private final List<BoxEvent> events;
+    private final List<EnterpriseEventDocument> documents;
+    private final String streamPosition;
+    private final String nextStreamPosition;
+    private final int chunkSize;
+    private final int limit;
+
+    public EnterpriseEventChunk(List<BoxEvent> events, String streamPosition, String nextStreamPosition, int chunkSize, int limit) {
+        this(events, null, streamPosition, nextStreamPosition, chunkSize, limit);
+    }
+
+    private EnterpriseEventChunk(List<BoxEvent> events, List<EnterpriseEventDocument> documents, String streamPosition,
+                                 String nextStreamPosition, int chunkSize, int limit) {
+        this.events = Collections.unmodifiableList(events);
+        this.documents = documents == null ? null : Collections.unmodifiableList(documents);
+        this.streamPosition = streamPosition;
+        this.nextStreamPosition = nextStreamPosition;
+        this.chunkSize = chunkSize;
+        this.limit = limit;
+    }
+
+    public static EnterpriseEventChunk fromEventLog(EventLog eventLog) {
+        List<BoxEvent> events = new ArrayList<BoxEvent>(eventLog.getSize());
+        for(BoxEvent boxEvent: eventLog){
+            events.add(boxEvent);
+        }
+        return new EnterpriseEventChunk(events, eventLog.getStreamPosition(), eventLog.getNextStreamPosition(),
+                eventLog.getChunkSize(), eventLog.getLimit());
+    }
+
+    public static EnterpriseEventChunk fromDocuments(List<EnterpriseEventDocument> documents, String streamPosition,
+                                                     String nextStreamPosition, int chunkSize, int limit) {
+        return new EnterpriseEventChunk(Collections.<BoxEvent>emptyList(), documents, streamPosition,
+                nextStreamPosition, chunkSize, limit);
+    }
+
+    /**
+     * @return the BoxEvents of the chunk, none when the chunk holds docs
+     */
+    public Iterator<BoxEvent> iterator() {
+        return this.events.iterator();
+    }
+
+    public String getStreamPosition() {
+        return this.streamPosition;
+    }
+
+    public String getNextStreamPosition() {
+        return this.nextStreamPosition;
+    }
+
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public boolean hasDocuments() {
+        return this.documents != null;
+    }
+
+    /**
+     * @return the docs of the chunk, or null when it holds BoxEvents
+     */
+    public List<EnterpriseEventDocument> getDocuments() {
+        return this.documents;
+    }
+
+    public int getSize() {
+        return this.documents == null ? this.events.size() : this.documents.size();
+    }
+}
@@ -0,0 +1,18 @@
+package com.box.platform.source;
+
+import java.util.Date;
+
+/**
+ * Where chunks of enterprise events are read from. BoxEventLogSource reads the Box enterprise event stream through the
+ * Box SDK, StreamingEventLogSource reads it straight into docs and SyntheticEventSource makes events up for load tests.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public interface EnterpriseEventSource {
+
+    /**
+     * Returns the next chunk of events after the stream position, created between the given dates.
+     */
+    EnterpriseEventChunk getEnterpriseEvents(String streamPosition, Date after, Date before);
+}
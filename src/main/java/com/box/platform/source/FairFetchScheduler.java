@@ -0,0 +1,181 @@
+package com.box.platform.source;
+
+import akka.actor.Extension;
+import com.box.platform.metrics.Gauge;
+import com.box.platform.metrics.IngestMetrics;
+import com.box.platform.metrics.LatencyHistogram;
+import com.box.sdk.BoxAPIException;
+
+import java.util.Date;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares a fixed number of Box events API request slots between the tenants of the process, see FetchSchedulerExtension.
+ *
+ * Requests waiting for a slot are served by start-time fair queuing: every request is tagged with the virtual time its
+ * tenant is at, which moves on by 1 / weight with every request of the tenant, and the free slot goes to the waiting
+ * request with the lowest tag. A tenant with a deep backlog, or many backfill slices fetching at once, runs ahead in
+ * virtual time and waits behind the requests of the other tenants, while a tenant that was idle starts at the current
+ * virtual time instead of the time it last fetched, so it can not save up slots either. With weights of 2 and 1 two
+ * busy tenants get two thirds and one third of the slots.
+ *
+ * A slot is only held while the request is on the wire. The rate limit and retry backoff of every tenant stay in its
+ * own RateLimitedEventSource, which takes the slot of its Share right before each request so the time spent waiting
+ * for it is not taken for Box latency.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class FairFetchScheduler implements Extension {
+    private final int slots;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = this.lock.newCondition();
+    private final PriorityQueue<Ticket> waiting = new PriorityQueue<Ticket>();
+    private int slotsInUse;
+    private double virtualTime;
+    private long ticketsIssued;
+
+    private final LatencyHistogram slotWait;
+
+    public FairFetchScheduler(int slots, IngestMetrics metrics) {
+        this.slots = Math.max(1, slots);
+        this.slotWait = metrics.histogram("box_fetch_slot_wait_ms", "Time a Box events API request waited for a shared fetch slot");
+        metrics.gauge("box_fetch_slots_in_use", "Shared Box events API request slots in use by all tenants", new Gauge() {
+            public long getValue() {
+                return getSlotsInUse();
+            }
+        });
+    }
+
+    /**
+     * @param weight share of the slots the source gets while other tenants are waiting too, at least 1
+     * @return the source with every request holding one of the shared slots
+     */
+    public EnterpriseEventSource share(EnterpriseEventSource eventSource, int weight) {
+        return new SharedEventSource(eventSource, this.share(weight));
+    }
+
+    /**
+     * @param weight share of the slots the holder gets while other tenants are waiting too, at least 1
+     * @return the share to take a slot from for every request
+     */
+    public Share share(int weight) {
+        return new Share(Math.max(1, weight));
+    }
+
+    public int getSlotsInUse() {
+        this.lock.lock();
+        try {
+            return this.slotsInUse;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void acquire(Share share) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        this.lock.lock();
+        try {
+            // A tenant coming back from idle starts at the current virtual time
+            double startTag = Math.max(this.virtualTime, share.finishTag);
+            share.finishTag = startTag + 1.0 / share.weight;
+            Ticket ticket = new Ticket(startTag, this.ticketsIssued++);
+            this.waiting.add(ticket);
+            try {
+                while(this.waiting.peek() != ticket || this.slotsInUse >= this.slots){
+                    this.slotFreed.await();
+                }
+            } catch (InterruptedException ie) {
+                this.waiting.remove(ticket);
+                // The next ticket may be at the head now
+                this.slotFreed.signalAll();
+                throw ie;
+            }
+            this.waiting.poll();
+            this.slotsInUse++;
+            this.virtualTime = Math.max(this.virtualTime, startTag);
+            // Another slot may still be free for the next ticket
+            this.slotFreed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        this.slotWait.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    private void release() {
+        this.lock.lock();
+        try {
+            this.slotsInUse--;
+            this.slotFreed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Waiting request, ordered by start tag and then by arrival
+    private static final class Ticket implements Comparable<Ticket> {
+        private final double startTag;
+        private final long sequence;
+
+        private Ticket(double startTag, long sequence) {
+            this.startTag = startTag;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Ticket other) {
+            int byTag = Double.compare(this.startTag, other.startTag);
+            return byTag != 0 ? byTag : Long.compare(this.sequence, other.sequence);
+        }
+    }
+
+    /**
+     * The slots of one tenant, every request holds one from acquire until release.
+     */
+    public final class Share {
+        private final int weight;
+        // Guarded by the scheduler lock
+        private double finishTag;
+
+        private Share(int weight) {
+            this.weight = weight;
+        }
+
+        /**
+         * Blocks until the scheduler gives this share a slot.
+         */
+        public void acquire() throws InterruptedException {
+            FairFetchScheduler.this.acquire(this);
+        }
+
+        public void release() {
+            FairFetchScheduler.this.release();
+        }
+    }
+
+    private static final class SharedEventSource implements EnterpriseEventSource {
+        private final EnterpriseEventSource eventSource;
+        private final Share share;
+
+        private SharedEventSource(EnterpriseEventSource eventSource, Share share) {
+            this.eventSource = eventSource;
+            this.share = share;
+        }
+
+        public EnterpriseEventChunk getEnterpriseEvents(String streamPosition, Date after, Date before) {
+            try {
+                this.share.acquire();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new BoxAPIException("Interrupted while waiting for a fetch slot", ie);
+            }
+            try {
+                return this.eventSource.getEnterpriseEvents(streamPosition, after, before);
+            } finally {
+                this.share.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.box.platform.source;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.ExtensionIdProvider;
+import com.box.platform.metrics.IngestMetricsExtension;
+
+/**
+ * Akka extension that gives every tenant consumer of the system the same FairFetchScheduler through
+ * FetchSchedulerExtension.INSTANCE, so box.platform.fetch.slots bounds the Box events API requests of the whole process
+ * no matter how many enterprises it ingests.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class FetchSchedulerExtension extends AbstractExtensionId<FairFetchScheduler> implements ExtensionIdProvider {
+    public static final FetchSchedulerExtension INSTANCE = new FetchSchedulerExtension();
+
+    private FetchSchedulerExtension() {
+    }
+
+    public FetchSchedulerExtension lookup() {
+        return INSTANCE;
+    }
+
+    public FairFetchScheduler createExtension(ExtendedActorSystem system) {
+        return new FairFetchScheduler(system.settings().config().getInt("box.platform.fetch.slots"),
+                IngestMetricsExtension.INSTANCE.get(system));
+    }
+}
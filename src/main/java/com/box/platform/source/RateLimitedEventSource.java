@@ -0,0 +1,149 @@
+package com.box.platform.source;
+
+import akka.event.LoggingAdapter;
+import com.box.platform.metrics.Counter;
+import com.box.platform.metrics.Gauge;
+import com.box.platform.metrics.IngestMetrics;
+import com.box.platform.tenant.Tenant;
+import com.box.sdk.BoxAPIException;
+import com.typesafe.config.Config;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the fetches of the live poller and the backfill slices of a tenant within the Box API rate limit. Every fetch
+ * takes a permit from a token bucket and a slot from an AIMD concurrency limit, so parallel fetches grow while Box
+ * answers quickly and are halved when Box throttles. Only then does it wait for a slot shared with the other tenants,
+ * and only the request itself is timed for the concurrency limit, so waiting behind other tenants does not look like a
+ * slow Box. Fetches that are throttled, fail on the Box side or cannot reach Box are
+ * retried after the Retry-After Box asked for, or after an exponential backoff with full jitter when it did not.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class RateLimitedEventSource implements EnterpriseEventSource {
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    private final EnterpriseEventSource eventSource;
+    private final FairFetchScheduler.Share fetchShare;
+    private final LoggingAdapter logger;
+    private final TokenBucket tokenBucket;
+    private final AimdConcurrencyLimit concurrencyLimit;
+    private final int maxAttempts;
+    private final long retryBaseMillis;
+    private final long retryMaxMillis;
+
+    private final Counter throttled;
+    private final Counter retries;
+
+    /**
+     * @param fetchShare the slots of the tenant in the scheduler shared by all tenants
+     */
+    public RateLimitedEventSource(EnterpriseEventSource eventSource, FairFetchScheduler.Share fetchShare,
+                                  Config fetchConfig, IngestMetrics metrics, Tenant tenant, LoggingAdapter logger) {
+        this.eventSource = eventSource;
+        this.fetchShare = fetchShare;
+        this.logger = logger;
+        this.tokenBucket = new TokenBucket(fetchConfig.getDouble("requests.per.second"), fetchConfig.getDouble("burst"));
+        this.concurrencyLimit = new AimdConcurrencyLimit(
+                fetchConfig.getInt("min.concurrency"),
+                fetchConfig.getInt("max.concurrency"),
+                fetchConfig.getLong("target.latency"));
+        this.maxAttempts = Math.max(1, fetchConfig.getInt("max.attempts"));
+        this.retryBaseMillis = fetchConfig.getLong("retry.base");
+        this.retryMaxMillis = fetchConfig.getLong("retry.max");
+
+        this.throttled = metrics.counter("box_requests_throttled_total", "Box events API requests answered with 429", tenant.getName());
+        this.retries = metrics.counter("box_request_retries_total", "Box events API requests that were retried", tenant.getName());
+        metrics.gauge("box_fetch_concurrency_limit", "Box events API requests allowed to run at the same time", tenant.getName(), new Gauge() {
+            public long getValue() {
+                return concurrencyLimit.getLimit();
+            }
+        });
+        metrics.gauge("box_fetches_in_flight", "Box events API requests running right now", tenant.getName(), new Gauge() {
+            public long getValue() {
+                return concurrencyLimit.getInFlight();
+            }
+        });
+    }
+
+    public EnterpriseEventChunk getEnterpriseEvents(String streamPosition, Date after, Date before) {
+        for(int attempt = 1; ; attempt++){
+            try {
+                this.tokenBucket.acquire();
+                this.concurrencyLimit.acquire();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new BoxAPIException("Interrupted while waiting to fetch enterprise events", ie);
+            }
+
+            try {
+                this.fetchShare.acquire();
+            } catch (InterruptedException ie) {
+                this.concurrencyLimit.onFailure();
+                Thread.currentThread().interrupt();
+                throw new BoxAPIException("Interrupted while waiting for a fetch slot", ie);
+            }
+
+            long startNanos = System.nanoTime();
+            long retryDelayMillis;
+            try {
+                EnterpriseEventChunk chunk = this.eventSource.getEnterpriseEvents(streamPosition, after, before);
+                this.concurrencyLimit.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                return chunk;
+            } catch (BoxAPIException bae) {
+                if(bae.getResponseCode() == HTTP_TOO_MANY_REQUESTS){
+                    this.throttled.increment();
+                    this.concurrencyLimit.onThrottled();
+                } else{
+                    this.concurrencyLimit.onFailure();
+                }
+                if(!isRetryable(bae) || attempt >= this.maxAttempts){
+                    throw bae;
+                }
+                retryDelayMillis = this.retryDelay(bae, attempt);
+                logger.warning("Box events API request failed with response code {}, attempt {} of {}, retrying in {} ms",
+                        bae.getResponseCode(), attempt, this.maxAttempts, retryDelayMillis);
+            } catch (RuntimeException re) {
+                this.concurrencyLimit.onFailure();
+                throw re;
+            } finally {
+                this.fetchShare.release();
+            }
+
+            this.retries.increment();
+            try {
+                TimeUnit.MILLISECONDS.sleep(retryDelayMillis);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new BoxAPIException("Interrupted while waiting to retry fetching enterprise events", ie);
+            }
+        }
+    }
+
+    private static boolean isRetryable(BoxAPIException bae) {
+        if(bae instanceof RetryableBoxAPIException){
+            return true;
+        }
+        int responseCode = bae.getResponseCode();
+        // Network errors come without a response code
+        return responseCode == HTTP_TOO_MANY_REQUESTS || responseCode >= HTTP_SERVER_ERROR
+                || (responseCode == 0 && bae.getCause() instanceof IOException);
+    }
+
+    private long retryDelay(BoxAPIException bae, int attempt) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long retryAfterMillis = bae instanceof RetryableBoxAPIException
+                ? ((RetryableBoxAPIException) bae).getRetryAfterMillis() : -1;
+        if(retryAfterMillis >= 0){
+            // A little jitter on top keeps the fetchers that were throttled together from coming back together
+            return retryAfterMillis + random.nextLong(this.retryBaseMillis + 1);
+        }
+        long backoffMillis = Math.min(this.retryMaxMillis, this.retryBaseMillis << Math.min(attempt - 1, 30));
+        return random.nextLong(backoffMillis + 1);
+    }
+}
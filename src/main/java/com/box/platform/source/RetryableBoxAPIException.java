@@ -0,0 +1,33 @@
+package com.box.platform.source;
+
+import com.box.sdk.BoxAPIException;
+
+/**
+ * A Box API request that was throttled, failed on the Box side or could not reach Box, with the time Box asked
+ * to wait before trying again when it sent a Retry-After header.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class RetryableBoxAPIException extends BoxAPIException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    public RetryableBoxAPIException(String message, int responseCode, String response, long retryAfterMillis) {
+        super(message, responseCode, response);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public RetryableBoxAPIException(String message, Throwable cause) {
+        super(message, cause);
+        this.retryAfterMillis = -1;
+    }
+
+    /**
+     * @return the Retry-After Box sent in milliseconds, or -1 if it did not send one
+     */
+    public long getRetryAfterMillis() {
+        return this.retryAfterMillis;
+    }
+}
@@ -0,0 +1,108 @@
+package com.box.platform.source;
+
+import akka.event.LoggingAdapter;
+import com.box.platform.parser.EnterpriseEventStreamWriter;
+import com.box.sdk.BoxAPIConnection;
+import com.box.sdk.BoxAPIException;
+import com.box.sdk.BoxDateFormat;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Date;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads enterprise events from the Box events API without the Box SDK. The response body is parsed as it comes off the
+ * connection and every entry is written straight into its Elasticsearch doc by EnterpriseEventStreamWriter, so no
+ * response string, json tree or BoxEvent is built for a chunk. The chunks it returns hold docs instead of BoxEvents.
+ *
+ * Requests go out like the ones EventLog.getEnterpriseEvents sends, with the token of the same connection, and fail
+ * the same way: 429, 5xx and connection errors are thrown as RetryableBoxAPIException and any other error response as
+ * BoxAPIException.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class StreamingEventLogSource implements EnterpriseEventSource {
+    private static final String EVENTS_PATH = "events?stream_type=admin_logs&limit=";
+    // Box returns at most 500 events a request
+    private static final int LIMIT = 500;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final BoxAPIConnection api;
+    private final BoxEventsRequestInterceptor requests;
+    private final LoggingAdapter logger;
+
+    public StreamingEventLogSource(BoxAPIConnection api, int connectTimeoutMillis, int readTimeoutMillis, LoggingAdapter logger) {
+        this.api = api;
+        this.requests = new BoxEventsRequestInterceptor(api, connectTimeoutMillis, readTimeoutMillis);
+        this.logger = logger;
+    }
+
+    public EnterpriseEventChunk getEnterpriseEvents(String streamPosition, Date after, Date before) {
+        if(this.api.needsRefresh()){
+            this.api.refresh();
+        }
+
+        HttpURLConnection connection = this.requests.send(this.eventsURL(streamPosition, after, before));
+        try {
+            int responseCode = connection.getResponseCode();
+            if(responseCode >= HTTP_BAD_REQUEST){
+                throw new BoxAPIException("The Box events API responded with an error code.", responseCode,
+                        BoxEventsRequestInterceptor.readErrorBody(connection));
+            }
+
+            EnterpriseEventStreamWriter.StreamedChunk chunk;
+            InputStream body = new BufferedInputStream(connection.getInputStream(), BUFFER_SIZE);
+            try {
+                if("gzip".equalsIgnoreCase(connection.getContentEncoding())){
+                    body = new GZIPInputStream(body, BUFFER_SIZE);
+                }
+                chunk = EnterpriseEventStreamWriter.read(body);
+            } finally {
+                body.close();
+            }
+
+            for(String failedId: chunk.getFailedIds()){
+                logger.error("Failed to parse json form enterprise event with id: {}", failedId);
+            }
+            return EnterpriseEventChunk.fromDocuments(chunk.getDocuments(), streamPosition,
+                    chunk.getNextStreamPosition(), chunk.getChunkSize(), LIMIT);
+        } catch (JsonProcessingException jpe) {
+            throw new BoxAPIException("Couldn't parse the response of the Box events API.", jpe);
+        } catch (IOException ioe) {
+            // A read that timed out or broke off halfway is retried like a connection error
+            throw new RetryableBoxAPIException("Couldn't read the response of the Box events API due to a network error.", ioe);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private URL eventsURL(String streamPosition, Date after, Date before) {
+        StringBuilder url = new StringBuilder(this.api.getBaseURL()).append(EVENTS_PATH).append(LIMIT);
+        try {
+            if(after != null){
+                url.append("&created_after=").append(URLEncoder.encode(BoxDateFormat.format(after), "UTF-8"));
+            }
+            if(before != null){
+                url.append("&created_before=").append(URLEncoder.encode(BoxDateFormat.format(before), "UTF-8"));
+            }
+            if(streamPosition != null){
+                url.append("&stream_position=").append(URLEncoder.encode(streamPosition, "UTF-8"));
+            }
+            return new URL(url.toString());
+        } catch (UnsupportedEncodingException uee) {
+            throw new BoxAPIException("Couldn't build the URL of the Box events API request.", uee);
+        } catch (MalformedURLException mue) {
+            throw new BoxAPIException("Couldn't build the URL of the Box events API request.", mue);
+        }
+    }
+}
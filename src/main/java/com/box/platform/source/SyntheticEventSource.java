@@ -0,0 +1,283 @@
+package com.box.platform.source;
+
+import com.box.platform.metrics.Counter;
+import com.box.platform.metrics.IngestMetrics;
+import com.box.sdk.BoxAPIConnection;
+import com.box.sdk.BoxEvent;
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.typesafe.config.Config;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Makes up enterprise events in the same json shape as the Box events API at a configured rate, so the pipeline can be
+ * load tested without a Box enterprise. The rate can ramp up in steps to find where the pipeline saturates, and events
+ * that were not read yet pile up like they would on the Box side.
+ *
+ * Stream positions are the sequence number of the next event. The event id carries the time the event was made up
+ * with millisecond precision, see getGeneratedAtMillis, since created_at only has seconds.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class SyntheticEventSource implements EnterpriseEventSource {
+    private static final DateTimeFormatter BOX_DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssxxx").withZone(ZoneOffset.UTC);
+    private static final String[] SERVICE_NAMES = {"Box Web App", "Box Sync for Mac", "Box Drive", "Box for iOS"};
+    private static final String[] ROLES = {"editor", "viewer", "co-owner", "previewer"};
+
+    private final BoxAPIConnection api = new BoxAPIConnection("synthetic-access-token");
+    private final Random random = new Random();
+    private final String[] eventTypes;
+    private final int[] cumulativeWeights;
+    private final double startRate;
+    private final double rampStep;
+    private final long rampIntervalMillis;
+    private final int limit;
+    private final int users;
+    private final int items;
+    private final Counter generatedEvents;
+
+    private final long startMillis;
+    private long generatedUpToMillis;
+    // Events made up so far, the fraction is carried over to the next call
+    private double generated = -1;
+    // Spans of sequence numbers with the time range they were made up in: first, end, start millis, end millis
+    private final Deque<long[]> generatedSpans = new ArrayDeque<long[]>();
+
+    public SyntheticEventSource(Config syntheticConfig, IngestMetrics metrics) {
+        this.startRate = syntheticConfig.getDouble("events.per.second");
+        this.rampStep = syntheticConfig.getDouble("ramp.step");
+        this.rampIntervalMillis = syntheticConfig.getLong("ramp.interval") * 1000;
+        this.limit = syntheticConfig.getInt("chunk.limit");
+        this.users = syntheticConfig.getInt("users");
+        this.items = syntheticConfig.getInt("items");
+
+        // Sorted so the same mix always picks the same way
+        Config mix = syntheticConfig.getConfig("mix");
+        TreeSet<String> mixTypes = new TreeSet<String>(mix.root().keySet());
+        this.eventTypes = mixTypes.toArray(new String[mixTypes.size()]);
+        this.cumulativeWeights = new int[this.eventTypes.length];
+        int totalWeight = 0;
+        for(int i = 0; i < this.eventTypes.length; i++){
+            totalWeight += mix.getInt(this.eventTypes[i]);
+            this.cumulativeWeights[i] = totalWeight;
+        }
+        if(totalWeight <= 0){
+            throw new IllegalArgumentException("Synthetic event mix needs at least one event type with a weight above 0");
+        }
+
+        this.generatedEvents = metrics.counter("synthetic_events_generated_total", "Enterprise events made up by the synthetic source");
+        this.startMillis = System.currentTimeMillis();
+        this.generatedUpToMillis = this.startMillis;
+    }
+
+    /**
+     * @return the rate events are being made up at right now
+     */
+    public double getRatePerSecond() {
+        return this.rateAt(System.currentTimeMillis());
+    }
+
+    public synchronized EnterpriseEventChunk getEnterpriseEvents(String streamPosition, Date after, Date before) {
+        long position = parsePosition(streamPosition);
+        if(this.generated < 0){
+            // The first read decides where the sequence numbers start, so a resumed checkpoint is picked up as is
+            this.generated = position;
+        }
+        this.generateUpTo(System.currentTimeMillis());
+
+        // Spans that were read in full are not needed anymore
+        while(!this.generatedSpans.isEmpty() && this.generatedSpans.peek()[1] <= position){
+            this.generatedSpans.poll();
+        }
+
+        long available = Math.max(0, (long) this.generated - position);
+        int count = (int) Math.min(available, this.limit);
+        List<BoxEvent> events = new ArrayList<BoxEvent>(count);
+        for(long sequence = position; sequence < position + count; sequence++){
+            events.add(new BoxEvent(this.api, this.eventJson(sequence, this.generatedAtMillis(sequence)).toString()));
+        }
+        String nextStreamPosition = Long.toString(position + count);
+        return new EnterpriseEventChunk(events, streamPosition, nextStreamPosition, count, this.limit);
+    }
+
+    /**
+     * @return the time the event with the given id was made up, or -1 if it does not come from this source
+     */
+    public static long getGeneratedAtMillis(String eventId) {
+        if(eventId == null || eventId.length() != 36){
+            return -1;
+        }
+        try{
+            return Long.parseLong(eventId.substring(24), 16);
+        } catch (NumberFormatException nfe){
+            return -1;
+        }
+    }
+
+    private static long parsePosition(String streamPosition) {
+        try{
+            return Math.max(0, Long.parseLong(streamPosition));
+        } catch (NumberFormatException nfe){
+            return 0;
+        }
+    }
+
+    private void generateUpTo(long nowMillis) {
+        if(nowMillis <= this.generatedUpToMillis){
+            return;
+        }
+        long first = (long) this.generated;
+        // Add up the rate across the ramp steps between the last call and now
+        double count = 0;
+        long from = this.generatedUpToMillis;
+        while(from < nowMillis){
+            long to = nowMillis;
+            if(this.rampIntervalMillis > 0){
+                long stepEnd = this.startMillis + ((from - this.startMillis) / this.rampIntervalMillis + 1) * this.rampIntervalMillis;
+                to = Math.min(to, stepEnd);
+            }
+            count += this.rateAt(from) * (to - from) / 1000.0;
+            from = to;
+        }
+        this.generated += count;
+        long end = (long) this.generated;
+        if(end > first){
+            this.generatedSpans.add(new long[]{first, end, this.generatedUpToMillis, nowMillis});
+            this.generatedEvents.add(end - first);
+        }
+        this.generatedUpToMillis = nowMillis;
+    }
+
+    private double rateAt(long millis) {
+        if(this.rampIntervalMillis <= 0){
+            return this.startRate;
+        }
+        return this.startRate + this.rampStep * ((millis - this.startMillis) / this.rampIntervalMillis);
+    }
+
+    private long generatedAtMillis(long sequence) {
+        // Events are spread evenly over the time range of their span
+        for(long[] span: this.generatedSpans){
+            if(sequence >= span[0] && sequence < span[1]){
+                return span[2] + (span[3] - span[2]) * (sequence - span[0]) / (span[1] - span[0]);
+            }
+        }
+        return this.generatedUpToMillis;
+    }
+
+    private JsonObject eventJson(long sequence, long generatedAtMillis) {
+        String eventType = this.pickEventType();
+        int userId = this.random.nextInt(this.users);
+        JsonObject createdBy = user(userId);
+
+        JsonObject source;
+        JsonValue additionalDetails = Json.NULL;
+        if(eventType.contains("LOGIN")){
+            source = user(userId);
+        } else if(eventType.startsWith("COLLABORATION")){
+            source = this.folder(this.random.nextInt(this.items));
+            additionalDetails = Json.object()
+                    .add("role", ROLES[this.random.nextInt(ROLES.length)])
+                    .add("is_performed_by_admin", false);
+        } else if(eventType.startsWith("METADATA_INSTANCE")){
+            source = this.file(this.random.nextInt(this.items));
+            // Box sends the metadata operations as a json array in a String
+            String operationParams = new JsonArray()
+                    .add(Json.object().add("op", "replace").add("path", "/value").add("value", this.random.nextInt(1000000)))
+                    .add(Json.object().add("op", "add").add("path", "/status").add("value", "approved"))
+                    .toString();
+            additionalDetails = Json.object().add("metadata", Json.object()
+                    .add("type", "enterprise_1.contractDetails")
+                    .add("operationParams", operationParams));
+        } else{
+            source = this.file(this.random.nextInt(this.items));
+            JsonObject details = Json.object()
+                    .add("service_id", Integer.toString(5545 + this.random.nextInt(SERVICE_NAMES.length)))
+                    .add("service_name", SERVICE_NAMES[this.random.nextInt(SERVICE_NAMES.length)]);
+            if("UPLOAD".equals(eventType)){
+                details.add("size", this.random.nextInt(50000000))
+                        .add("version_id", Long.toString(100000000000L + sequence));
+            }
+            additionalDetails = details;
+        }
+
+        return Json.object()
+                .add("source", source)
+                .add("created_by", createdBy)
+                .add("created_at", BOX_DATE_FORMAT.format(Instant.ofEpochMilli(generatedAtMillis)))
+                .add("event_id", eventId(sequence, this.random.nextInt(0x10000), generatedAtMillis))
+                .add("event_type", eventType)
+                .add("ip_address", "10." + (userId >> 16 & 0xff) + "." + (userId >> 8 & 0xff) + "." + (userId & 0xff))
+                .add("type", "event")
+                .add("session_id", Json.NULL)
+                .add("additional_details", additionalDetails);
+    }
+
+    private String pickEventType() {
+        int pick = this.random.nextInt(this.cumulativeWeights[this.cumulativeWeights.length - 1]);
+        for(int i = 0; i < this.cumulativeWeights.length; i++){
+            if(pick < this.cumulativeWeights[i]){
+                return this.eventTypes[i];
+            }
+        }
+        return this.eventTypes[this.eventTypes.length - 1];
+    }
+
+    private static JsonObject user(int userId) {
+        return Json.object()
+                .add("type", "user")
+                .add("id", Integer.toString(200000000 + userId))
+                .add("name", "Synthetic User " + userId)
+                .add("login", "user" + userId + "@example.com");
+    }
+
+    private JsonObject file(int itemId) {
+        return Json.object()
+                .add("item_type", "file")
+                .add("item_id", Long.toString(120000000000L + itemId))
+                .add("item_name", "Synthetic File " + itemId + ".docx")
+                .add("parent", this.folder(itemId / 100));
+    }
+
+    private JsonObject folder(int folderId) {
+        return Json.object()
+                .add("type", "folder")
+                .add("name", "Synthetic Folder " + folderId)
+                .add("id", Long.toString(20000000000L + folderId));
+    }
+
+    // Laid out like a UUID: the sequence in the first 16 hex digits, 4 random ones and the generation time in the last 12
+    private static String eventId(long sequence, int salt, long generatedAtMillis) {
+        StringBuilder eventId = new StringBuilder(36);
+        appendHex(eventId, sequence >>> 32, 8);
+        eventId.append('-');
+        appendHex(eventId, sequence >>> 16, 4);
+        eventId.append('-');
+        appendHex(eventId, sequence, 4);
+        eventId.append('-');
+        appendHex(eventId, salt, 4);
+        eventId.append('-');
+        appendHex(eventId, generatedAtMillis, 12);
+        return eventId.toString();
+    }
+
+    private static void appendHex(StringBuilder builder, long value, int digits) {
+        for(int shift = (digits - 1) * 4; shift >= 0; shift -= 4){
+            builder.append(Character.forDigit((int) (value >>> shift) & 0xf, 16));
+        }
+    }
+}
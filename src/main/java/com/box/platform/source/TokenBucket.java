@@ -0,0 +1,52 @@
+package com.box.platform.source;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out permits at a steady rate to every thread that asks, with up to capacity permits saved up for a burst.
+ * A rate of 0 or less does not limit anything.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class TokenBucket {
+    private final double permitsPerSecond;
+    private final double capacity;
+    private double permits;
+    private long refilledAtNanos;
+
+    public TokenBucket(double permitsPerSecond, double capacity) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = Math.max(1, capacity);
+        this.permits = this.capacity;
+        this.refilledAtNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until a permit is available and takes it.
+     */
+    public void acquire() throws InterruptedException {
+        if(this.permitsPerSecond <= 0){
+            return;
+        }
+        while(true){
+            long waitNanos;
+            synchronized(this){
+                this.refill();
+                if(this.permits >= 1){
+                    this.permits--;
+                    return;
+                }
+                waitNanos = (long) ((1 - this.permits) / this.permitsPerSecond * 1e9);
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(1, waitNanos));
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - this.refilledAtNanos) / 1e9;
+        this.permits = Math.min(this.capacity, this.permits + elapsedSeconds * this.permitsPerSecond);
+        this.refilledAtNanos = now;
+    }
+}
@@ -0,0 +1,248 @@
+package com.box.platform.spool;
+
+import com.box.platform.checkpoint.Checkpoint;
+import com.box.platform.checkpoint.CheckpointStore;
+import com.box.platform.parser.EnterpriseEventDocument;
+import com.box.platform.util.ByteArrayBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Write-ahead spool of parsed enterprise events that sits between the Box consumer and Elasticsearch.
+ *
+ * Docs and chunk checkpoints are appended in the order they arrive to a chain of memory-mapped segment files and read
+ * back in the same order for indexing. The position after the last checkpoint that has been indexed is kept in its own
+ * checkpoint file, and segments that lie entirely before it are deleted.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class EventSpool implements Closeable {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String REPLAY_CHECKPOINT_FILE = "replay.ckpt";
+    // Docs spooled before the created_by login and ip address were kept for the rollups
+    private static final byte DOC_RECORD = 1;
+    private static final byte CHECKPOINT_RECORD = 2;
+    private static final byte DOC_RECORD_WITH_FIELDS = 3;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final TreeMap<Long, SpoolSegment> segments = new TreeMap<Long, SpoolSegment>();
+    private final CheckpointStore replayCheckpoint;
+    private final ByteArrayBuilder writeBuffer = new ByteArrayBuilder(8192);
+    private final ByteArrayBuilder readBuffer = new ByteArrayBuilder(8192);
+    private SpoolSegment writeSegment;
+    private long usedBytes;
+    private long readSegmentId;
+    private int readOffset;
+    private SpoolPosition acknowledged;
+
+    public EventSpool(Path directory, int segmentBytes, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+
+        DirectoryStream<Path> segmentFiles = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX);
+        try {
+            for(Path segmentFile: segmentFiles){
+                String fileName = segmentFile.getFileName().toString();
+                long id = Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+                this.addSegment(new SpoolSegment(id, segmentFile, segmentBytes));
+            }
+        } finally {
+            segmentFiles.close();
+        }
+        if(this.segments.isEmpty()){
+            this.addSegment(this.createSegment(1, segmentBytes));
+        }
+        this.writeSegment = this.segments.lastEntry().getValue();
+
+        // Resume reading after the last indexed checkpoint and drop the segments that were fully indexed
+        this.replayCheckpoint = new CheckpointStore(directory.resolve(REPLAY_CHECKPOINT_FILE));
+        Checkpoint replayed = this.replayCheckpoint.read();
+        if(replayed != null){
+            this.acknowledged = SpoolPosition.parse(replayed.getStreamPosition());
+            this.reclaim(this.acknowledged.getSegmentId());
+        }
+        if(this.acknowledged == null || !this.segments.containsKey(this.acknowledged.getSegmentId())){
+            this.acknowledged = new SpoolPosition(this.segments.firstKey(), SpoolSegment.HEADER_BYTES);
+        }
+        this.rewind();
+    }
+
+    public void append(EnterpriseEventDocument document) throws IOException {
+        this.writeBuffer.reset();
+        this.writeBuffer.write(DOC_RECORD_WITH_FIELDS);
+        this.writeBuffer.writeLong(document.getCreatedAtMillis());
+        writeString(this.writeBuffer, document.getId());
+        writeString(this.writeBuffer, document.getType());
+        writeString(this.writeBuffer, document.getLogin());
+        writeString(this.writeBuffer, document.getIpAddress());
+        this.writeBuffer.writeInt(document.getBody().length);
+        this.writeBuffer.write(document.getBody());
+        this.appendRecord();
+    }
+
+    public void append(Checkpoint checkpoint) throws IOException {
+        this.writeBuffer.reset();
+        this.writeBuffer.write(CHECKPOINT_RECORD);
+        this.writeBuffer.writeLong(checkpoint.getCreatedAtMillis());
+        writeString(this.writeBuffer, checkpoint.getStreamPosition());
+        this.appendRecord();
+    }
+
+    /**
+     * Forces everything appended so far to disk.
+     */
+    public void sync() {
+        this.writeSegment.force();
+    }
+
+    /**
+     * @return the next spooled EnterpriseEventDocument or Checkpoint, or null once every appended record has been read
+     */
+    public Object next() {
+        while(true){
+            SpoolSegment segment = this.segments.get(this.readSegmentId);
+            int length = segment == null ? -1 : segment.read(this.readOffset, this.readBuffer);
+            if(length >= 0){
+                this.readOffset += SpoolSegment.RECORD_OVERHEAD + length;
+                return decode(this.readBuffer);
+            }
+            // Appending only moves to the next segment once the current one is full
+            Long nextSegmentId = this.segments.higherKey(this.readSegmentId);
+            if(nextSegmentId == null){
+                return null;
+            }
+            this.readSegmentId = nextSegmentId;
+            this.readOffset = SpoolSegment.HEADER_BYTES;
+        }
+    }
+
+    /**
+     * @return the position right after the last record returned by next
+     */
+    public SpoolPosition getReadPosition() {
+        return new SpoolPosition(this.readSegmentId, this.readOffset);
+    }
+
+    /**
+     * Moves reading back to the last acknowledged position so that everything after it is read again.
+     */
+    public void rewind() {
+        this.readSegmentId = this.acknowledged.getSegmentId();
+        this.readOffset = this.acknowledged.getOffset();
+    }
+
+    /**
+     * Records that everything up to the position has been indexed and deletes the segments before it.
+     */
+    public void acknowledge(SpoolPosition position, Checkpoint checkpoint) throws IOException {
+        this.replayCheckpoint.commit(new Checkpoint(position.toString(), checkpoint.getCreatedAtMillis()));
+        this.acknowledged = position;
+        this.reclaim(position.getSegmentId());
+    }
+
+    /**
+     * @return true once there is less than a segment left before the spool reaches its maximum size
+     */
+    public boolean isFull() {
+        return this.usedBytes + this.segmentBytes > this.maxBytes;
+    }
+
+    public long getUsedBytes() {
+        return this.usedBytes;
+    }
+
+    public int getSegmentCount() {
+        return this.segments.size();
+    }
+
+    public void close() throws IOException {
+        for(SpoolSegment segment: this.segments.values()){
+            segment.force();
+            segment.close();
+        }
+        this.replayCheckpoint.close();
+    }
+
+    private void appendRecord() throws IOException {
+        if(this.writeSegment.append(this.writeBuffer)){
+            return;
+        }
+        // Seal the full segment and move on, a record larger than a segment gets a segment of its own size
+        this.writeSegment.force();
+        int capacity = Math.max(this.segmentBytes,
+                SpoolSegment.HEADER_BYTES + SpoolSegment.RECORD_OVERHEAD + this.writeBuffer.length());
+        this.writeSegment = this.createSegment(this.writeSegment.getId() + 1, capacity);
+        this.addSegment(this.writeSegment);
+        if(!this.writeSegment.append(this.writeBuffer)){
+            throw new IOException("Failed to append record of " + this.writeBuffer.length() + " bytes to " + this.directory);
+        }
+    }
+
+    private SpoolSegment createSegment(long id, int capacity) throws IOException {
+        Path path = this.directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        return new SpoolSegment(id, path, capacity);
+    }
+
+    private void addSegment(SpoolSegment segment) {
+        this.segments.put(segment.getId(), segment);
+        this.usedBytes += segment.getCapacity();
+    }
+
+    private void reclaim(long segmentId) throws IOException {
+        while(this.segments.firstKey() < segmentId && this.segments.firstEntry().getValue() != this.writeSegment){
+            Map.Entry<Long, SpoolSegment> oldest = this.segments.pollFirstEntry();
+            this.usedBytes -= oldest.getValue().getCapacity();
+            oldest.getValue().delete();
+        }
+    }
+
+    private static Object decode(ByteArrayBuilder record) {
+        ByteBuffer buffer = ByteBuffer.wrap(record.buffer(), 0, record.length());
+        byte recordType = buffer.get();
+        long createdAtMillis = buffer.getLong();
+        if(recordType == CHECKPOINT_RECORD){
+            return new Checkpoint(readString(buffer), createdAtMillis);
+        }
+        String id = readString(buffer);
+        String type = readString(buffer);
+        String login = recordType == DOC_RECORD_WITH_FIELDS ? readString(buffer) : null;
+        String ipAddress = recordType == DOC_RECORD_WITH_FIELDS ? readString(buffer) : null;
+        byte[] body = new byte[buffer.getInt()];
+        buffer.get(body);
+        return new EnterpriseEventDocument(id, type, createdAtMillis, login, ipAddress, body);
+    }
+
+    private static void writeString(ByteArrayBuilder out, String value) {
+        if(value == null){
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if(length < 0){
+            return null;
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
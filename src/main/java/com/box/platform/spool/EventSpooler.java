@@ -0,0 +1,339 @@
+package com.box.platform.spool;
+
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.box.platform.checkpoint.Checkpoint;
+import com.box.platform.metrics.Gauge;
+import com.box.platform.metrics.IngestMetricsExtension;
+import com.box.platform.parser.EnterpriseEventDocument;
+import com.box.platform.producer.ElasticsearchProducer;
+import com.box.platform.tenant.Tenant;
+import com.box.platform.util.RollingIndices;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.Duration;
+
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the chunks parsed by the Box consumer to the event spool and replays them to the Elasticsearch producer at a
+ * throttled rate. The producer is shared by the spoolers of every tenant, each spooler routes its docs to the index of
+ * its tenant.
+ *
+ * The spooler is the sink of the consumer's event stream. Every chunk is acknowledged once it is on disk, and the
+ * acknowledgement is held back while the spool is full, so the stream stops pulling chunks from Box until indexed
+ * segments have been reclaimed. A checkpoint is sent back to the consumer as soon as its chunk is on disk in the spool,
+ * so polling Box does not wait on Elasticsearch. When an Elasticsearch request fails the producer is reset and the
+ * spool is replayed from the last indexed checkpoint after a backoff. When a chunk can not be written to the spool, or
+ * the stream fails, the spooler stops, and the consumer that watches it fetches again from its last committed
+ * checkpoint into a new spooler.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class EventSpooler extends UntypedActor {
+    private final LoggingAdapter logger = Logging.getLogger(getContext().system(), this);
+
+    public static final String STREAM_STARTED = "spool-stream-started";
+    public static final String CHUNK_SPOOLED = "spool-chunk-spooled";
+    public static final String STREAM_COMPLETED = "spool-stream-completed";
+    private static final String BOX_CONFIG_PREFIX = "box.platform.";
+    private static final String REPLAY_TICK = "replay-spool";
+    private static final long REPLAY_TICK_MILLIS = 100;
+
+    private final Tenant tenant;
+    private final ActorRef esProducerActor;
+    private final ActorRef rollupActor;
+    private EventSpool spool;
+    private int maxEventsPerSecond;
+    private int maxChunksInFlight;
+    private long minRetryBackoffMillis;
+    private long maxRetryBackoffMillis;
+    private long retryBackoffMillis;
+    private final Deque<ReplayedChunk> chunksInFlight = new ArrayDeque<ReplayedChunk>();
+    private Cancellable replayTick;
+    private boolean retryPending;
+    private boolean full;
+    private Checkpoint lastSpooledCheckpoint;
+    // Stream waiting for room in the spool before it sends the next chunk
+    private ActorRef pendingAck;
+    private double replayPermits;
+    private long permitsRefilledAtNanos;
+    // Read by the metrics reporters
+    private volatile long spoolUsedBytes;
+
+    /**
+     * @param rollupActor counts the events of the tenant the producer created, null when rollups are off
+     */
+    public EventSpooler(Tenant tenant, ActorRef esProducerActor, ActorRef rollupActor) {
+        this.tenant = tenant;
+        this.esProducerActor = esProducerActor;
+        this.rollupActor = rollupActor;
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        logger.debug("{} prestart...", this.getClass().getName());
+        Config boxConfig = this.tenant.getConfig();
+        String configPath = boxConfig.getString(BOX_CONFIG_PREFIX + "config.path");
+        String directory = boxConfig.getString(BOX_CONFIG_PREFIX + "spool.directory");
+        int segmentBytes = boxConfig.getInt(BOX_CONFIG_PREFIX + "spool.segment.bytes");
+        long maxBytes = boxConfig.getLong(BOX_CONFIG_PREFIX + "spool.max.bytes");
+        this.maxEventsPerSecond = boxConfig.getInt(BOX_CONFIG_PREFIX + "spool.replay.max.events.per.second");
+        this.maxChunksInFlight = boxConfig.getInt(BOX_CONFIG_PREFIX + "spool.replay.max.chunks.in.flight");
+        this.minRetryBackoffMillis = boxConfig.getLong(BOX_CONFIG_PREFIX + "spool.replay.retry.backoff");
+        this.maxRetryBackoffMillis = boxConfig.getLong(BOX_CONFIG_PREFIX + "spool.replay.max.retry.backoff");
+        this.retryBackoffMillis = this.minRetryBackoffMillis;
+
+        this.spool = new EventSpool(Paths.get(configPath + directory), segmentBytes, maxBytes);
+        logger.info("Opened event spool at {} with {} segments ({} bytes)",
+                configPath + directory, this.spool.getSegmentCount(), this.spool.getUsedBytes());
+        // The write alias when indices roll over, the index itself otherwise
+        this.esProducerActor.tell(new ElasticsearchProducer.Route(this.tenant.getName(),
+                RollingIndices.fromConfig(boxConfig).getWriteTarget(), this.tenant.getWeight(), this.rollupActor), getSelf());
+        IngestMetricsExtension.INSTANCE.get(getContext().system()).gauge("spool_used_bytes",
+                "Disk space taken by the segments of the event spool", this.tenant.getName(), new Gauge() {
+                    public long getValue() {
+                        return spoolUsedBytes;
+                    }
+                });
+
+        this.permitsRefilledAtNanos = System.nanoTime();
+        this.updateFullState();
+        // Index whatever was left in the spool by the last run
+        this.replay();
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if(this.replayTick != null){
+            this.replayTick.cancel();
+        }
+        this.spool.close();
+    }
+
+    public void onReceive(Object message) throws Throwable {
+        if(message instanceof SpoolChunk){
+            this.spoolChunk((SpoolChunk) message);
+        } else if(STREAM_STARTED.equals(message)){
+            this.acknowledge(getSender());
+        } else if(STREAM_COMPLETED.equals(message)){
+            logger.debug("Event stream completed");
+        } else if(message instanceof StreamFailed){
+            logger.error(((StreamFailed) message).getFailure(), "Event stream failed, stopping the event spooler");
+            getContext().stop(getSelf());
+        } else if(message instanceof Checkpoint){
+            this.onIndexed((Checkpoint) message);
+        } else if(REPLAY_TICK.equals(message)){
+            this.replayTick = null;
+            this.retryPending = false;
+            this.replay();
+        } else if(ElasticsearchProducer.INDEXING_FAILED.equals(message)){
+            this.onIndexingFailed();
+        } else{
+            unhandled(message);
+        }
+    }
+
+    private void spoolChunk(SpoolChunk chunk){
+        Checkpoint checkpoint = chunk.getCheckpoint();
+        try{
+            for(EnterpriseEventDocument document: chunk.getDocuments()){
+                this.spool.append(document);
+            }
+            // Polls that find nothing new repeat the last checkpoint, there is no need to spool it again
+            if(checkpoint != null && !checkpoint.equals(this.lastSpooledCheckpoint)){
+                this.spool.append(checkpoint);
+                this.spool.sync();
+                this.lastSpooledCheckpoint = checkpoint;
+            }
+        } catch (Exception e){
+            // No later checkpoint can be confirmed once a chunk is missing from the spool, stopping ends the stream
+            // and the consumer fetches again from its last committed checkpoint
+            logger.error(e, "Failed to spool {} enterprise events up to {}, stopping the event spooler",
+                    chunk.getDocuments().size(), checkpoint);
+            getContext().stop(getSelf());
+            return;
+        }
+        if(checkpoint != null){
+            // The chunk is durable in the spool, the consumer can commit its stream position
+            getContext().parent().tell(checkpoint, getSelf());
+        }
+        this.updateFullState();
+        this.replay();
+        this.acknowledge(getSender());
+    }
+
+    private void acknowledge(ActorRef stream){
+        // The stream sends the next chunk once it has the acknowledgement, so it waits here while the spool is full
+        if(this.full){
+            this.pendingAck = stream;
+        } else{
+            stream.tell(CHUNK_SPOOLED, getSelf());
+        }
+    }
+
+    private void replay(){
+        if(this.retryPending){
+            return;
+        }
+        this.refillPermits();
+        while(this.chunksInFlight.size() < this.maxChunksInFlight){
+            if(this.maxEventsPerSecond > 0 && this.replayPermits < 1){
+                this.scheduleReplay(REPLAY_TICK_MILLIS);
+                return;
+            }
+            Object record = this.spool.next();
+            if(record == null){
+                // Caught up, the next spooled checkpoint starts the replay again
+                return;
+            }
+            if(record instanceof Checkpoint){
+                this.chunksInFlight.add(new ReplayedChunk((Checkpoint) record, this.spool.getReadPosition()));
+            } else{
+                this.replayPermits--;
+            }
+            this.esProducerActor.tell(record, getSelf());
+        }
+    }
+
+    private void refillPermits(){
+        if(this.maxEventsPerSecond <= 0){
+            return;
+        }
+        // Up to a second worth of events can be sent in a burst
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - this.permitsRefilledAtNanos) / 1e9;
+        this.replayPermits = Math.min(this.maxEventsPerSecond, this.replayPermits + elapsedSeconds * this.maxEventsPerSecond);
+        this.permitsRefilledAtNanos = now;
+    }
+
+    private void onIndexed(Checkpoint checkpoint){
+        // Ignore checkpoints of requests that were sent before the last rewind
+        ReplayedChunk indexed = null;
+        for(ReplayedChunk chunk: this.chunksInFlight){
+            if(chunk.checkpoint.equals(checkpoint)){
+                indexed = chunk;
+            }
+        }
+        if(indexed == null){
+            return;
+        }
+        // The producer only reports the newest indexed checkpoint, so it covers every chunk replayed before it
+        while(this.chunksInFlight.poll() != indexed){
+        }
+        this.retryBackoffMillis = this.minRetryBackoffMillis;
+
+        try{
+            this.spool.acknowledge(indexed.position, checkpoint);
+            logger.debug("Spool indexed up to {}, {} segments ({} bytes) left",
+                    indexed.position, this.spool.getSegmentCount(), this.spool.getUsedBytes());
+        } catch (Exception e){
+            logger.error(e, "Failed to acknowledge spool position {}", indexed.position);
+        }
+        this.updateFullState();
+        this.replay();
+    }
+
+    private void onIndexingFailed(){
+        // Throw away what the producer still holds and replay everything after the last indexed checkpoint
+        logger.warning("Elasticsearch request failed, replaying the event spool from the last indexed checkpoint in {} ms",
+                this.retryBackoffMillis);
+        this.esProducerActor.tell(ElasticsearchProducer.RESET, getSelf());
+        this.spool.rewind();
+        this.chunksInFlight.clear();
+
+        if(this.replayTick != null){
+            this.replayTick.cancel();
+            this.replayTick = null;
+        }
+        this.retryPending = true;
+        this.scheduleReplay(this.retryBackoffMillis);
+        this.retryBackoffMillis = Math.min(this.retryBackoffMillis * 2, this.maxRetryBackoffMillis);
+    }
+
+    private void scheduleReplay(long delayMillis){
+        if(this.replayTick != null){
+            return;
+        }
+        this.replayTick = getContext().system().scheduler().scheduleOnce(
+                Duration.create(delayMillis, TimeUnit.MILLISECONDS),
+                getSelf(),
+                REPLAY_TICK,
+                getContext().dispatcher(),
+                ActorRef.noSender());
+    }
+
+    private void updateFullState(){
+        this.spoolUsedBytes = this.spool.getUsedBytes();
+        boolean isFull = this.spool.isFull();
+        if(isFull == this.full){
+            return;
+        }
+        this.full = isFull;
+        if(isFull){
+            logger.warning("Event spool is full with {} bytes, pausing Box polling until Elasticsearch catches up",
+                    this.spool.getUsedBytes());
+        } else{
+            logger.info("Event spool is down to {} bytes, resuming Box polling", this.spool.getUsedBytes());
+            if(this.pendingAck != null){
+                this.pendingAck.tell(CHUNK_SPOOLED, getSelf());
+                this.pendingAck = null;
+            }
+        }
+    }
+
+    /**
+     * Parsed docs of a chunk of enterprise events and the checkpoint right after them, null when the chunk has no
+     * created_at to resume from.
+     */
+    public static final class SpoolChunk {
+        private final List<EnterpriseEventDocument> documents;
+        private final Checkpoint checkpoint;
+
+        public SpoolChunk(List<EnterpriseEventDocument> documents, Checkpoint checkpoint) {
+            this.documents = documents;
+            this.checkpoint = checkpoint;
+        }
+
+        public List<EnterpriseEventDocument> getDocuments() {
+            return this.documents;
+        }
+
+        public Checkpoint getCheckpoint() {
+            return this.checkpoint;
+        }
+    }
+
+    /**
+     * Sent by the event stream when a stage before the spool failed.
+     */
+    public static final class StreamFailed {
+        private final Throwable failure;
+
+        public StreamFailed(Throwable failure) {
+            this.failure = failure;
+        }
+
+        public Throwable getFailure() {
+            return this.failure;
+        }
+    }
+
+    // Checkpoint read back from the spool and the position right after it
+    private static final class ReplayedChunk {
+        private final Checkpoint checkpoint;
+        private final SpoolPosition position;
+
+        private ReplayedChunk(Checkpoint checkpoint, SpoolPosition position) {
+            this.checkpoint = checkpoint;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.box.platform.spool;
+
+/**
+ * Position of a record in the event spool: the id of its segment and the byte offset of the record in that segment.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class SpoolPosition {
+    private final long segmentId;
+    private final int offset;
+
+    public SpoolPosition(long segmentId, int offset) {
+        this.segmentId = segmentId;
+        this.offset = offset;
+    }
+
+    public static SpoolPosition parse(String position) {
+        int separator = position.indexOf(':');
+        if(separator < 0){
+            throw new IllegalArgumentException("Not a spool position: " + position);
+        }
+        return new SpoolPosition(Long.parseLong(position.substring(0, separator)),
+                Integer.parseInt(position.substring(separator + 1)));
+    }
+
+    public long getSegmentId() {
+        return this.segmentId;
+    }
+
+    public int getOffset() {
+        return this.offset;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o){
+            return true;
+        }
+        if(!(o instanceof SpoolPosition)){
+            return false;
+        }
+        SpoolPosition that = (SpoolPosition) o;
+        return this.segmentId == that.segmentId && this.offset == that.offset;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (int) (this.segmentId ^ (this.segmentId >>> 32)) + this.offset;
+    }
+
+    @Override
+    public String toString() {
+        return this.segmentId + ":" + this.offset;
+    }
+}
@@ -0,0 +1,158 @@
+package com.box.platform.spool;
+
+import com.box.platform.util.ByteArrayBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Fixed-size, append-only, memory-mapped file that holds part of the event spool.
+ *
+ * After an 8 byte header the file holds records of [length int][crc int][payload]. The length is written last so a
+ * record is only visible once its payload and CRC are in place, and a zero length marks the end of the written data.
+ * A record torn by a crash fails its CRC and everything from it onwards is cleared when the segment is opened again.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class SpoolSegment implements Closeable {
+    public static final int HEADER_BYTES = 8;
+    // length + crc
+    public static final int RECORD_OVERHEAD = 4 + 4;
+    // "BXSP"
+    private static final int MAGIC = 0x42585350;
+    private static final int VERSION = 1;
+
+    private final long id;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private int writePosition;
+
+    /**
+     * Opens the segment file, creating it with the given capacity when it does not exist yet.
+     */
+    public SpoolSegment(long id, Path path, int capacity) throws IOException {
+        this.id = id;
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long existingSize = this.channel.size();
+        this.capacity = existingSize > 0 ? (int) existingSize : capacity;
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+
+        if(this.buffer.getInt(0) == 0){
+            this.buffer.putInt(0, MAGIC);
+            this.buffer.putInt(4, VERSION);
+        } else if(this.buffer.getInt(0) != MAGIC){
+            this.channel.close();
+            throw new IOException("Not a spool segment: " + path);
+        }
+        this.recover();
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public int getWritePosition() {
+        return this.writePosition;
+    }
+
+    /**
+     * @return false when the record does not fit in what is left of the segment
+     */
+    public boolean append(ByteArrayBuilder payload) {
+        int length = payload.length();
+        if((long) this.writePosition + RECORD_OVERHEAD + length > this.capacity){
+            return false;
+        }
+        ByteBuffer record = this.buffer.duplicate();
+        record.position(this.writePosition + RECORD_OVERHEAD);
+        record.put(payload.buffer(), 0, length);
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload.buffer(), 0, length);
+        this.buffer.putInt(this.writePosition + 4, (int) crc32.getValue());
+        this.buffer.putInt(this.writePosition, length);
+        this.writePosition += RECORD_OVERHEAD + length;
+        return true;
+    }
+
+    /**
+     * Copies the payload of the record at the offset into the builder.
+     *
+     * @return the payload length or -1 when there is no intact record at the offset
+     */
+    public int read(int offset, ByteArrayBuilder payload) {
+        if(offset + RECORD_OVERHEAD > this.capacity){
+            return -1;
+        }
+        int length = this.buffer.getInt(offset);
+        if(length <= 0 || (long) offset + RECORD_OVERHEAD + length > this.capacity){
+            return -1;
+        }
+        ByteBuffer record = this.buffer.duplicate();
+        record.position(offset + RECORD_OVERHEAD);
+        record.limit(offset + RECORD_OVERHEAD + length);
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(record.duplicate());
+        if(this.buffer.getInt(offset + 4) != (int) crc32.getValue()){
+            return -1;
+        }
+
+        payload.reset();
+        payload.write(record);
+        return length;
+    }
+
+    /**
+     * Forces everything appended so far to disk.
+     */
+    public void force() {
+        this.buffer.force();
+    }
+
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Closes and removes the segment file. The mapping itself is released once the buffer is garbage collected.
+     */
+    public void delete() throws IOException {
+        this.close();
+        Files.deleteIfExists(this.path);
+    }
+
+    private void recover() {
+        // Walk the intact records to find where appending continues
+        ByteArrayBuilder scratch = new ByteArrayBuilder(0);
+        int offset = HEADER_BYTES;
+        int length;
+        while((length = this.read(offset, scratch)) >= 0){
+            offset += RECORD_OVERHEAD + length;
+        }
+        this.writePosition = offset;
+
+        // Clear a torn record left by a crash so it cannot be mistaken for data once appending resumes
+        if(offset + 4 <= this.capacity && this.buffer.getInt(offset) != 0){
+            for(int i = offset; i < this.capacity; i++){
+                this.buffer.put(i, (byte) 0);
+            }
+            this.buffer.force();
+        }
+    }
+}
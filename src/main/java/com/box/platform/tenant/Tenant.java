@@ -0,0 +1,136 @@
+package com.box.platform.tenant;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigObject;
+import com.typesafe.config.ConfigValueFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * An enterprise whose events are ingested, with the config its consumer, spool and Elasticsearch actors read.
+ *
+ * Without box.platform.tenants there is a single tenant that reads the config as it is. Every entry of
+ * box.platform.tenants is a tenant of its own: the keys of the entry are laid over box.platform, the keys under its
+ * elastic object over elastic, and everything the entry does not set falls back to the rest of the config. So that
+ * tenants never share a stream position or an index, their checkpoint, token cache, spool and backfill files go in a
+ * directory named after the tenant, and their index, aliases and rollup index get the tenant name appended, unless the
+ * entry sets them.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class Tenant {
+    private static final String BOX_CONFIG_PREFIX = "box.platform.";
+    private static final String ELASTIC_CONFIG_PREFIX = "elastic.";
+    private static final String TENANTS_PATH = BOX_CONFIG_PREFIX + "tenants";
+    // Tenant names end up in file, actor, index and metric names
+    private static final Pattern NAME_PATTERN = Pattern.compile("[a-z0-9_]+");
+    // Files in config.path that belong to a single enterprise
+    private static final String[] TENANT_FILES = {
+            "checkpoint.file", "token.cache.file", "spool.directory", "backfill.directory"
+    };
+
+    private final String name;
+    private final int weight;
+    private final Config config;
+
+    private Tenant(String name, int weight, Config config) {
+        this.name = name;
+        this.weight = weight;
+        this.config = config;
+    }
+
+    /**
+     * @return the tenants of box.platform.tenants, or the single tenant of the whole config when there are none
+     * @throws ConfigException.BadValue when a tenant has no valid name or weight, or two tenants share a name
+     */
+    public static List<Tenant> fromConfig(Config boxConfig) {
+        List<? extends ConfigObject> entries = boxConfig.hasPath(TENANTS_PATH)
+                ? boxConfig.getObjectList(TENANTS_PATH) : Collections.<ConfigObject>emptyList();
+        if(entries.isEmpty()){
+            return Collections.singletonList(new Tenant("", 1, boxConfig));
+        }
+
+        List<Tenant> tenants = new ArrayList<Tenant>(entries.size());
+        Set<String> names = new HashSet<String>();
+        for(ConfigObject entry: entries){
+            Config tenantConfig = entry.toConfig();
+            String name = tenantConfig.hasPath("name") ? tenantConfig.getString("name") : "";
+            if(!NAME_PATTERN.matcher(name).matches()){
+                throw new ConfigException.BadValue(entry.origin(), TENANTS_PATH,
+                        "Tenant name '" + name + "' has to be lower case letters, digits and underscores");
+            }
+            if(!names.add(name)){
+                throw new ConfigException.BadValue(entry.origin(), TENANTS_PATH, "Tenant " + name + " is configured twice");
+            }
+            int weight = tenantConfig.hasPath("weight") ? tenantConfig.getInt("weight") : 1;
+            if(weight < 1){
+                throw new ConfigException.BadValue(entry.origin(), TENANTS_PATH, "Tenant " + name + " needs a weight of at least 1");
+            }
+            tenants.add(new Tenant(name, weight, tenantConfig(name, tenantConfig, boxConfig)));
+        }
+        return tenants;
+    }
+
+    private static Config tenantConfig(String name, Config entry, Config boxConfig) {
+        Config overrides = entry.withoutPath("name").withoutPath("weight").withoutPath("elastic")
+                .atPath("box.platform");
+        if(entry.hasPath("elastic")){
+            overrides = overrides.withFallback(entry.getConfig("elastic").atPath("elastic"));
+        }
+
+        Config defaults = ConfigFactory.empty();
+        for(String file: TENANT_FILES){
+            defaults = defaults.withValue(BOX_CONFIG_PREFIX + file,
+                    ConfigValueFactory.fromAnyRef(name + "/" + boxConfig.getString(BOX_CONFIG_PREFIX + file)));
+        }
+        // The aliases follow the index name of the tenant unless they are set along with it
+        String indexName = overrides.hasPath(ELASTIC_CONFIG_PREFIX + "index.name")
+                ? overrides.getString(ELASTIC_CONFIG_PREFIX + "index.name")
+                : boxConfig.getString(ELASTIC_CONFIG_PREFIX + "index.name") + "-" + name;
+        defaults = defaults
+                .withValue(ELASTIC_CONFIG_PREFIX + "index.name", ConfigValueFactory.fromAnyRef(indexName))
+                .withValue(ELASTIC_CONFIG_PREFIX + "index.rollover.write.alias", ConfigValueFactory.fromAnyRef(indexName + "-write"))
+                .withValue(ELASTIC_CONFIG_PREFIX + "index.rollover.read.alias", ConfigValueFactory.fromAnyRef(indexName))
+                .withValue(ELASTIC_CONFIG_PREFIX + "rollup.index.name", ConfigValueFactory.fromAnyRef(
+                        boxConfig.getString(ELASTIC_CONFIG_PREFIX + "rollup.index.name") + "-" + name));
+        return overrides.withFallback(defaults).withFallback(boxConfig);
+    }
+
+    /**
+     * @return the tenant name, empty for the single tenant of a config without box.platform.tenants
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the share of the Box fetches and Elasticsearch bulk requests this tenant gets while others are busy too
+     */
+    public int getWeight() {
+        return this.weight;
+    }
+
+    public Config getConfig() {
+        return this.config;
+    }
+
+    /**
+     * @return the name with the tenant name appended, so actors of different tenants do not clash
+     */
+    public String actorName(String name) {
+        return this.name.isEmpty() ? name : name + "-" + this.name;
+    }
+
+    @Override
+    public String toString() {
+        return this.name.isEmpty() ? "Tenant{default}" : "Tenant{" + this.name + ", weight " + this.weight + "}";
+    }
+}
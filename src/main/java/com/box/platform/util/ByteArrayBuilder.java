@@ -0,0 +1,88 @@
+package com.box.platform.util;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable byte array that can be reset and reused. Unlike ByteArrayOutputStream it is not synchronized and gives
+ * direct access to its backing array so the bytes can be handed to the HTTP layer without another copy.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class ByteArrayBuilder extends OutputStream {
+    private byte[] buffer;
+    private int length;
+
+    public ByteArrayBuilder(int initialCapacity) {
+        this.buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    @Override
+    public void write(int b) {
+        this.ensureCapacity(this.length + 1);
+        this.buffer[this.length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int count) {
+        this.ensureCapacity(this.length + count);
+        System.arraycopy(bytes, offset, this.buffer, this.length, count);
+        this.length += count;
+    }
+
+    public void write(byte[] bytes) {
+        this.write(bytes, 0, bytes.length);
+    }
+
+    public void write(ByteBuffer source) {
+        int count = source.remaining();
+        this.ensureCapacity(this.length + count);
+        source.get(this.buffer, this.length, count);
+        this.length += count;
+    }
+
+    // Big-endian like DataOutputStream and ByteBuffer
+    public void writeInt(int value) {
+        this.ensureCapacity(this.length + 4);
+        this.buffer[this.length++] = (byte) (value >>> 24);
+        this.buffer[this.length++] = (byte) (value >>> 16);
+        this.buffer[this.length++] = (byte) (value >>> 8);
+        this.buffer[this.length++] = (byte) value;
+    }
+
+    public void writeLong(long value) {
+        this.writeInt((int) (value >>> 32));
+        this.writeInt((int) value);
+    }
+
+    public int length() {
+        return this.length;
+    }
+
+    public byte[] buffer() {
+        return this.buffer;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.length);
+    }
+
+    public void reset() {
+        this.length = 0;
+    }
+
+    /**
+     * Drops everything written after the first length bytes.
+     */
+    public void truncate(int length) {
+        this.length = Math.max(0, Math.min(length, this.length));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if(capacity > this.buffer.length){
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(capacity, this.buffer.length << 1));
+        }
+    }
+}
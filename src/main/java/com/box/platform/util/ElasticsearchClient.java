@@ -0,0 +1,82 @@
+package com.box.platform.util;
+
+import akka.actor.Extension;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.sniff.Sniffer;
+
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The Elasticsearch REST client and sniffer shared by every actor of the system, see ElasticsearchClientExtension.
+ * Request bodies at or above the configured size are gzip compressed before they are sent.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class ElasticsearchClient implements Extension {
+    private static final String GZIP_ENCODING = "gzip";
+
+    private final RestClient restClient;
+    private final Sniffer sniffer;
+    private final boolean gzipEnabled;
+    private final int gzipMinBytes;
+    private final int gzipLevel;
+
+    public ElasticsearchClient(RestClient restClient, Sniffer sniffer, boolean gzipEnabled, int gzipMinBytes, int gzipLevel) {
+        this.restClient = restClient;
+        this.sniffer = sniffer;
+        this.gzipEnabled = gzipEnabled;
+        this.gzipMinBytes = gzipMinBytes;
+        this.gzipLevel = gzipLevel;
+    }
+
+    public RestClient getRestClient() {
+        return this.restClient;
+    }
+
+    public HttpEntity entity(byte[] body, ContentType contentType) {
+        return this.entity(body, 0, body.length, contentType);
+    }
+
+    /**
+     * Returns the request entity for the given body. The bytes are not copied unless they are compressed, so they must
+     * not change until the request completes.
+     */
+    public HttpEntity entity(byte[] body, int offset, int length, ContentType contentType) {
+        if(!this.gzipEnabled || length < this.gzipMinBytes){
+            return new NByteArrayEntity(body, offset, length, contentType);
+        }
+
+        // NDJSON and event docs repeat the same field names over and over, expect at least 4 to 1
+        ByteArrayBuilder compressed = new ByteArrayBuilder(Math.max(length / 4, 64));
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed, 8192) {
+                {
+                    this.def.setLevel(gzipLevel);
+                }
+            };
+            try {
+                gzip.write(body, offset, length);
+            } finally {
+                gzip.close();
+            }
+        } catch (IOException ioe) {
+            // Writes to a ByteArrayBuilder never fail, send the body as it is if they ever do
+            return new NByteArrayEntity(body, offset, length, contentType);
+        }
+        NByteArrayEntity entity = new NByteArrayEntity(compressed.buffer(), 0, compressed.length(), contentType);
+        entity.setContentEncoding(GZIP_ENCODING);
+        return entity;
+    }
+
+    void close() throws IOException {
+        if(this.sniffer != null){
+            this.sniffer.close();
+        }
+        this.restClient.close();
+    }
+}
@@ -0,0 +1,112 @@
+package com.box.platform.util;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.ExtensionIdProvider;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.typesafe.config.Config;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
+
+/**
+ * Akka extension that gives every actor of the system the same ElasticsearchClient through
+ * ElasticsearchClientExtension.INSTANCE, so there is one connection pool and one sniffer no matter how many producers
+ * run. The client is closed once the system terminates, after every actor has stopped.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class ElasticsearchClientExtension extends AbstractExtensionId<ElasticsearchClient> implements ExtensionIdProvider {
+    public static final ElasticsearchClientExtension INSTANCE = new ElasticsearchClientExtension();
+
+    private static final String REST_CONFIG_PREFIX = "elastic.client.rest.";
+
+    private ElasticsearchClientExtension() {
+    }
+
+    public ElasticsearchClientExtension lookup() {
+        return INSTANCE;
+    }
+
+    public ElasticsearchClient createExtension(ExtendedActorSystem system) {
+        final LoggingAdapter logger = Logging.getLogger(system, this.getClass());
+        Config boxConfig = system.settings().config();
+        String host = boxConfig.getString("elastic.host");
+        int port = boxConfig.getInt(REST_CONFIG_PREFIX + "port");
+        final int connectionTimeout = boxConfig.getInt(REST_CONFIG_PREFIX + "connection.timeout");
+        final int socketTimeout = boxConfig.getInt(REST_CONFIG_PREFIX + "socket.timeout");
+        final int connectionRequestTimeout = boxConfig.getInt(REST_CONFIG_PREFIX + "connection.request.timeout");
+        int maxRetryTimeout = boxConfig.getInt(REST_CONFIG_PREFIX + "max.retry.timeout");
+        final int maxConnectionsPerRoute = boxConfig.getInt(REST_CONFIG_PREFIX + "max.connections.per.route");
+        final int maxConnectionsTotal = boxConfig.getInt(REST_CONFIG_PREFIX + "max.connections.total");
+        int configuredIoThreads = boxConfig.getInt(REST_CONFIG_PREFIX + "io.thread.count");
+        final int ioThreadCount = configuredIoThreads > 0 ? configuredIoThreads : Runtime.getRuntime().availableProcessors();
+        final long keepAliveMillis = boxConfig.getLong(REST_CONFIG_PREFIX + "keep.alive");
+        boolean sniff = boxConfig.getBoolean(REST_CONFIG_PREFIX + "sniff");
+        boolean gzipEnabled = boxConfig.getBoolean(REST_CONFIG_PREFIX + "gzip.enabled");
+        int gzipMinBytes = boxConfig.getInt(REST_CONFIG_PREFIX + "gzip.min.bytes");
+        int gzipLevel = boxConfig.getInt(REST_CONFIG_PREFIX + "gzip.level");
+
+        SniffOnFailureListener sniffOnFailureListener = new SniffOnFailureListener();
+        RestClientBuilder restClientBuilder = RestClient.builder(new HttpHost(host, port))
+                .setRequestConfigCallback(new RestClientBuilder.RequestConfigCallback() {
+                    public RequestConfig.Builder customizeRequestConfig(RequestConfig.Builder requestConfigBuilder) {
+                        return requestConfigBuilder
+                                .setConnectTimeout(connectionTimeout)
+                                .setSocketTimeout(socketTimeout)
+                                .setConnectionRequestTimeout(connectionRequestTimeout);
+                    }
+                })
+                .setHttpClientConfigCallback(new RestClientBuilder.HttpClientConfigCallback() {
+                    public HttpAsyncClientBuilder customizeHttpClient(HttpAsyncClientBuilder httpClientBuilder) {
+                        return httpClientBuilder
+                                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                                .setMaxConnTotal(maxConnectionsTotal)
+                                .setDefaultIOReactorConfig(IOReactorConfig.custom()
+                                        .setIoThreadCount(ioThreadCount)
+                                        .setSoKeepAlive(true)
+                                        .build())
+                                .setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+                                    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                                        return keepAliveMillis;
+                                    }
+                                });
+                    }
+                })
+                .setMaxRetryTimeoutMillis(maxRetryTimeout);
+        if(sniff){
+            restClientBuilder.setFailureListener(sniffOnFailureListener);
+        }
+        RestClient restClient = restClientBuilder.build();
+
+        Sniffer sniffer = null;
+        if(sniff){
+            sniffer = Sniffer.builder(restClient).build();
+            sniffOnFailureListener.setSniffer(sniffer);
+        }
+
+        final ElasticsearchClient client = new ElasticsearchClient(restClient, sniffer, gzipEnabled, gzipMinBytes, gzipLevel);
+        system.registerOnTermination(new Runnable() {
+            public void run() {
+                try{
+                    client.close();
+                } catch (Exception e){
+                    logger.error(e, "Failed to close Elasticsearch REST client");
+                }
+            }
+        });
+        logger.info("Elasticsearch REST client for {} with {} IO threads and at most {} connections ({} per route)",
+                host + ":" + port, ioThreadCount, maxConnectionsTotal, maxConnectionsPerRoute);
+        return client;
+    }
+}
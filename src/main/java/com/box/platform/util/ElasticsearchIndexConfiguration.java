@@ -3,25 +3,28 @@ package com.box.platform.util;
 import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
 import com.typesafe.config.Config;
-import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
-import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsResponse;
-import org.elasticsearch.client.IndicesAdminClient;
-import org.elasticsearch.client.transport.TransportClient;
-import org.elasticsearch.common.settings.Settings;
-import org.elasticsearch.common.transport.InetSocketTransportAddress;
-import org.elasticsearch.transport.client.PreBuiltTransportClient;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
 
 import java.io.IOException;
-import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.concurrent.TimeUnit;
+import java.util.Collections;
 
 /**
  * Validates that the Elasticsearch search index exists and will create it one does not exist. In addition,
  * will create the correct Elasticsearch type mapping for a given index.
  *
+ * With rollover enabled, an index template with the mapping is put for every rolling index instead and the first
+ * rolling index is created behind the write alias if the alias does not exist yet. ElasticsearchIndexRollover takes
+ * it from there.
+ *
  * @author Kyle Adams
  * @email kadams@box.com
  */
@@ -30,89 +33,146 @@ public class ElasticsearchIndexConfiguration extends UntypedActor {
 
     private static final String BOX_CONFIG_PREFIX = "box.platform.";
     private static final String ELASTIC_CONFIG_PREFIX = "elastic.";
+    private static final String HTTP_HEAD = "HEAD";
+    private static final String HTTP_PUT = "PUT";
+    private static final String TEMPLATE_ENDPOINT = "/_template/";
+    private static final String ALIAS_ENDPOINT = "/_alias/";
+    private static final int HTTP_OK = 200;
     private String configPath;
     private String indexName;
     private int indexNumShards;
     private int indexNumReplicas;
     private String enterpriseType;
     private String enterpriseMapping;
+    private RollingIndices rollingIndices;
+
+    private final Config boxConfig;
+    private ElasticsearchClient elasticsearchClient;
+    private RestClient restClient;
 
-    private TransportClient transportClient;
-    private IndicesAdminClient indicesAdminClient;
 
+    /**
+     * @param boxConfig the config of the tenant whose index is checked, see Tenant
+     */
+    public ElasticsearchIndexConfiguration(Config boxConfig) {
+        this.boxConfig = boxConfig;
+    }
 
     @Override
     public void preStart() throws Exception {
         logger.debug("{} prestart...", this.getClass().getName());
-        // Load application configuration
-        Config boxConfig = getContext().system().settings().config();
-        this.configPath = boxConfig.getString(BOX_CONFIG_PREFIX + "config.path");
-        String host = boxConfig.getString(ELASTIC_CONFIG_PREFIX + "host");
-        int port = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "client.transport.port");
-        this.indexName = boxConfig.getString(ELASTIC_CONFIG_PREFIX + "index.name");
-        this.indexNumShards = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "index.num.shards");
-        this.indexNumReplicas = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "index.num.replicas");
-        this.enterpriseType = boxConfig.getString(ELASTIC_CONFIG_PREFIX + "enterprise.type");
-        this.enterpriseMapping = boxConfig.getString(ELASTIC_CONFIG_PREFIX + "enterprise.mapping");
-        boolean doSniff = boxConfig.getBoolean(ELASTIC_CONFIG_PREFIX + "client.transport.sniff");
-        int pingTimeout = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "client.transport.ping.timeout");
-        int nodesSamplerInterval = boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "client.transport.nodes.sampler.interval");
-
-        // Build ES Transport Client
-        Settings settings = Settings.builder()
-                .put("client.transport.ignore_cluster_name", true)
-                .put("client.transport.sniff", doSniff)
-                .put("client.transport.ping_timeout", pingTimeout, TimeUnit.SECONDS)
-                .put("client.transport.nodes_sampler_interval", nodesSamplerInterval, TimeUnit.SECONDS)
-                .build();
-        this.transportClient  = new PreBuiltTransportClient(settings)
-                .addTransportAddress(new InetSocketTransportAddress(InetAddress.getByName(host), port));
-        this.indicesAdminClient = this.transportClient.admin().indices();
+        this.configPath = this.boxConfig.getString(BOX_CONFIG_PREFIX + "config.path");
+        this.indexName = this.boxConfig.getString(ELASTIC_CONFIG_PREFIX + "index.name");
+        this.indexNumShards = this.boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "index.num.shards");
+        this.indexNumReplicas = this.boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "index.num.replicas");
+        this.enterpriseType = this.boxConfig.getString(ELASTIC_CONFIG_PREFIX + "enterprise.type");
+        this.enterpriseMapping = this.boxConfig.getString(ELASTIC_CONFIG_PREFIX + "enterprise.mapping");
+        this.rollingIndices = RollingIndices.fromConfig(this.boxConfig);
+
+        // Index admin goes through the same REST client as indexing
+        this.elasticsearchClient = ElasticsearchClientExtension.INSTANCE.get(getContext().system());
+        this.restClient = this.elasticsearchClient.getRestClient();
     }
 
     public void onReceive(Object message) throws Throwable {
         logger.debug("Received message: {} from sender: {}", message.toString(), getSender().getClass());
 
+        if(this.rollingIndices.isRolloverEnabled()){
+            this.configureRollingIndices();
+            return;
+        }
+
         // Call methods to determine if the ES index already exists
-        if(this.indexExists()){
-            logger.debug("Index found with name: {}", this.indexName);
-            getSender().tell(true, getSelf());
-        } else{
-            this.createIndex();
+        try {
+            if(this.indexExists()){
+                logger.debug("Index found with name: {}", this.indexName);
+                getSender().tell(true, getSelf());
+            } else{
+                this.createIndex();
+            }
+        } catch (IOException ioe) {
+            getSender().tell(false, getSelf());
+            logger.error(ioe, "Failed to check Elasticsearch index with name: {}", this.indexName);
         }
     }
 
-    private boolean indexExists(){
-        // Check if the ES index exists
-        IndicesExistsResponse indicesExistsResponse = this.indicesAdminClient.prepareExists(this.indexName).execute().actionGet();
-        logger.debug("Does index with name {} exist: {}", this.indexName, indicesExistsResponse.isExists());
-        return indicesExistsResponse.isExists();
+    private boolean indexExists() throws IOException {
+        // Check if the ES index exists, the rest client does not treat a 404 on HEAD as an error
+        Response response = this.restClient.performRequest(HTTP_HEAD, "/" + this.indexName);
+        boolean exists = response.getStatusLine().getStatusCode() == HTTP_OK;
+        logger.debug("Does index with name {} exist: {}", this.indexName, exists);
+        return exists;
     }
 
     private void createIndex(){
         logger.debug("Creating new index with name: {}", this.indexName);
         // Create ES index
         try {
-            CreateIndexResponse createIndexResponse = this.indicesAdminClient.prepareCreate(this.indexName)
-                    .setSettings(Settings.builder()
-                            .put("index.number_of_shards", this.indexNumShards)
-                            .put("index.number_of_replicas", this.indexNumReplicas))
-                    .addMapping(
-                            this.enterpriseType,
-                            new String(Files.readAllBytes(
-                                    Paths.get(this.configPath + this.enterpriseMapping))))
-                    .execute()
-                    .actionGet();
+            JsonObject createIndex = Json.object()
+                    .add("settings", this.indexSettings())
+                    .add("mappings", this.loadMapping());
+
+            Response response = this.put("/" + this.indexName, createIndex);
             getSender().tell(true, getSelf());
-            logger.debug("Index created with response: {}", createIndexResponse.toString());
+            logger.debug("Index created with response: {}", EntityUtils.toString(response.getEntity()));
         } catch (IOException ioe) {
             getSender().tell(false, getSelf());
-            logger.error(ioe, "Failed to load index mapping file");
+            logger.error(ioe, "Failed to create index with name: {}", this.indexName);
         }
     }
 
-    @Override
-    public void postStop() throws Exception {
-        this.transportClient.close();
+    private void configureRollingIndices(){
+        String writeAlias = this.rollingIndices.getWriteAlias();
+        try {
+            // Put the template every time so changes to the mapping file apply to the next rolling index
+            JsonObject template = Json.object()
+                    .add("template", this.rollingIndices.getTemplatePattern())
+                    .add("order", 0)
+                    .add("settings", this.indexSettings())
+                    .add("mappings", this.loadMapping())
+                    .add("aliases", Json.object().add(this.rollingIndices.getReadAlias(), Json.object()));
+            this.put(TEMPLATE_ENDPOINT + this.indexName, template);
+            logger.debug("Index template {} put for indices matching {}", this.indexName, this.rollingIndices.getTemplatePattern());
+
+            Response response = this.restClient.performRequest(HTTP_HEAD, ALIAS_ENDPOINT + writeAlias);
+            if(response.getStatusLine().getStatusCode() == HTTP_OK){
+                logger.debug("Write alias found with name: {}", writeAlias);
+            } else{
+                // The template adds the read alias and the mapping, only the write alias is set here
+                String firstIndex = this.rollingIndices.rollingIndex(this.rollingIndices.currentPeriodStart(), 1);
+                logger.info("Creating first rolling index {} behind write alias {}", firstIndex, writeAlias);
+                this.put("/" + firstIndex, Json.object()
+                        .add("aliases", Json.object().add(writeAlias, Json.object())));
+            }
+            getSender().tell(true, getSelf());
+        } catch (IOException ioe) {
+            getSender().tell(false, getSelf());
+            logger.error(ioe, "Failed to configure rolling indices behind write alias: {}", writeAlias);
+        }
+    }
+
+    private JsonObject indexSettings(){
+        return Json.object()
+                .add("index.number_of_shards", this.indexNumShards)
+                .add("index.number_of_replicas", this.indexNumReplicas);
+    }
+
+    private JsonObject loadMapping() throws IOException {
+        JsonObject mapping = Json.parse(new String(Files.readAllBytes(
+                Paths.get(this.configPath + this.enterpriseMapping)), StandardCharsets.UTF_8)).asObject();
+        // The mapping file may or may not be wrapped in the type name
+        if(mapping.size() != 1 || mapping.get(this.enterpriseType) == null){
+            mapping = Json.object().add(this.enterpriseType, mapping);
+        }
+        return mapping;
+    }
+
+    private Response put(String endpoint, JsonObject body) throws IOException {
+        return this.restClient.performRequest(
+                HTTP_PUT,
+                endpoint,
+                Collections.<String, String>emptyMap(),
+                this.elasticsearchClient.entity(body.toString().getBytes(StandardCharsets.UTF_8),
+                        ContentType.APPLICATION_JSON));
     }
 }
@@ -0,0 +1,230 @@
+package com.box.platform.util;
+
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.box.platform.metrics.Counter;
+import com.box.platform.metrics.IngestMetrics;
+import com.box.platform.metrics.IngestMetricsExtension;
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.typesafe.config.Config;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import scala.concurrent.duration.Duration;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolls the write alias over to a new index once the period of the current write index is over, or within the period
+ * once it holds rollover.max.docs docs, so indexing always goes to a small index. Indices that were rolled over are
+ * made read only and force merged down to one segment, and indices whose period ended more than
+ * rollover.retention.days ago are deleted.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class ElasticsearchIndexRollover extends UntypedActor {
+    private final LoggingAdapter logger = Logging.getLogger(getContext().system(), this);
+
+    private static final String ELASTIC_CONFIG_PREFIX = "elastic.";
+    private static final String ROLLOVER_TICK = "rollover-tick";
+    private static final String HTTP_GET = "GET";
+    private static final String HTTP_POST = "POST";
+    private static final String HTTP_PUT = "PUT";
+    private static final String HTTP_DELETE = "DELETE";
+    private static final String ALIAS_ENDPOINT = "/_alias/";
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final Map<String, String> FORCE_MERGE_PARAMS;
+    static {
+        Map<String, String> forceMergeParams = new HashMap<String, String>();
+        forceMergeParams.put("max_num_segments", "1");
+        FORCE_MERGE_PARAMS = Collections.unmodifiableMap(forceMergeParams);
+    }
+
+    private final Config boxConfig;
+    private ElasticsearchClient elasticsearchClient;
+    private RestClient restClient;
+    private RollingIndices rollingIndices;
+    private long maxDocs;
+    private long checkIntervalMinutes;
+    private boolean forceMerge;
+    private int retentionDays;
+    private Cancellable rolloverTick;
+
+    private Counter rollovers;
+    private Counter indicesDeleted;
+
+    public ElasticsearchIndexRollover(Config boxConfig) {
+        this.boxConfig = boxConfig;
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        logger.debug("{} prestart...", this.getClass().getName());
+        this.rollingIndices = RollingIndices.fromConfig(this.boxConfig);
+        this.maxDocs = this.boxConfig.getLong(ELASTIC_CONFIG_PREFIX + "index.rollover.max.docs");
+        this.checkIntervalMinutes = this.boxConfig.getLong(ELASTIC_CONFIG_PREFIX + "index.rollover.check.interval");
+        this.forceMerge = this.boxConfig.getBoolean(ELASTIC_CONFIG_PREFIX + "index.rollover.force.merge");
+        this.retentionDays = this.boxConfig.getInt(ELASTIC_CONFIG_PREFIX + "index.rollover.retention.days");
+
+        IngestMetrics metrics = IngestMetricsExtension.INSTANCE.get(getContext().system());
+        this.rollovers = metrics.counter("es_index_rollovers_total", "Times the write alias was rolled over to a new index");
+        this.indicesDeleted = metrics.counter("es_indices_deleted_total", "Rolling indices deleted by the retention policy");
+
+        this.elasticsearchClient = ElasticsearchClientExtension.INSTANCE.get(getContext().system());
+        this.restClient = this.elasticsearchClient.getRestClient();
+
+        // Check right away, the period may have ended while the application was down
+        this.rolloverTick = getContext().system().scheduler().schedule(
+                Duration.Zero(),
+                Duration.create(this.checkIntervalMinutes, TimeUnit.MINUTES),
+                getSelf(),
+                ROLLOVER_TICK,
+                getContext().dispatcher(),
+                ActorRef.noSender());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if(this.rolloverTick != null){
+            this.rolloverTick.cancel();
+        }
+    }
+
+    public void onReceive(Object message) throws Throwable {
+        if(ROLLOVER_TICK.equals(message)){
+            try {
+                String writeIndex = this.rollover();
+                if(this.retentionDays > 0){
+                    this.deleteExpiredIndices(writeIndex);
+                }
+            } catch (IOException ioe) {
+                logger.error(ioe, "Failed to check the rolling indices behind write alias: {}", this.rollingIndices.getWriteAlias());
+            }
+        } else{
+            unhandled(message);
+        }
+    }
+
+    /**
+     * @return the write index once the rollover check is done
+     */
+    private String rollover() throws IOException {
+        String writeAlias = this.rollingIndices.getWriteAlias();
+        List<String> aliasIndices = this.aliasIndices(writeAlias);
+        if(aliasIndices.isEmpty()){
+            logger.warning("Write alias {} does not point to an index, the rollover check is skipped", writeAlias);
+            return null;
+        }
+        String writeIndex = aliasIndices.get(aliasIndices.size() - 1);
+
+        LocalDate currentPeriodStart = this.rollingIndices.currentPeriodStart();
+        LocalDate writeIndexPeriodStart = this.rollingIndices.periodStartOf(writeIndex);
+        JsonObject conditions = Json.object();
+        String newIndex;
+        if(writeIndexPeriodStart == null || writeIndexPeriodStart.isBefore(currentPeriodStart)){
+            // No conditions rolls over unconditionally
+            newIndex = this.rollingIndices.rollingIndex(currentPeriodStart, 1);
+        } else if(this.maxDocs > 0){
+            conditions.add("max_docs", this.maxDocs);
+            newIndex = this.rollingIndices.rollingIndex(writeIndexPeriodStart, this.rollingIndices.sequenceOf(writeIndex) + 1);
+        } else{
+            logger.debug("Write index {} is still current", writeIndex);
+            return writeIndex;
+        }
+
+        Response response = this.restClient.performRequest(
+                HTTP_POST,
+                "/" + writeAlias + "/_rollover/" + newIndex,
+                Collections.<String, String>emptyMap(),
+                this.elasticsearchClient.entity(Json.object().add("conditions", conditions).toString()
+                        .getBytes(StandardCharsets.UTF_8), ContentType.APPLICATION_JSON));
+        JsonObject rolloverResult = Json.parse(EntityUtils.toString(response.getEntity())).asObject();
+        if(!rolloverResult.getBoolean("rolled_over", false)){
+            logger.debug("Write index {} does not meet the rollover conditions yet", writeIndex);
+            return writeIndex;
+        }
+
+        this.rollovers.increment();
+        logger.info("Rolled write alias {} over from {} to {}", writeAlias, writeIndex, newIndex);
+        if(this.forceMerge){
+            this.forceMerge(writeIndex);
+        }
+        return newIndex;
+    }
+
+    private void forceMerge(final String index) throws IOException {
+        // Nothing is written to the old index anymore, one segment makes it smaller and faster to search
+        this.restClient.performRequest(
+                HTTP_PUT,
+                "/" + index + "/_settings",
+                Collections.<String, String>emptyMap(),
+                this.elasticsearchClient.entity(Json.object().add("index.blocks.write", true).toString()
+                        .getBytes(StandardCharsets.UTF_8), ContentType.APPLICATION_JSON));
+        // The merge can take longer than the socket timeout, its response is only logged
+        this.restClient.performRequestAsync(
+            HTTP_POST,
+            "/" + index + "/_forcemerge",
+            FORCE_MERGE_PARAMS,
+            new ResponseListener() {
+                public void onSuccess(Response response) {
+                    logger.info("Force merged rolled over index {}", index);
+                }
+
+                public void onFailure(Exception e) {
+                    logger.warning("Force merge of rolled over index {} did not complete: {}", index, e.getMessage());
+                }
+            });
+    }
+
+    private void deleteExpiredIndices(String writeIndex) throws IOException {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        for(String index: this.aliasIndices(this.rollingIndices.getReadAlias())){
+            LocalDate periodStart = this.rollingIndices.periodStartOf(index);
+            if(periodStart == null || index.equals(writeIndex)){
+                continue;
+            }
+            LocalDate periodEnd = this.rollingIndices.getPeriod().nextPeriodStart(periodStart);
+            if(!periodEnd.plusDays(this.retentionDays).isAfter(today)){
+                this.restClient.performRequest(HTTP_DELETE, "/" + index);
+                this.indicesDeleted.increment();
+                logger.info("Deleted index {}, its period ended more than {} days ago", index, this.retentionDays);
+            }
+        }
+    }
+
+    private List<String> aliasIndices(String alias) throws IOException {
+        List<String> indices = new ArrayList<String>();
+        Response response;
+        try {
+            response = this.restClient.performRequest(HTTP_GET, ALIAS_ENDPOINT + alias);
+        } catch (ResponseException re) {
+            if(re.getResponse().getStatusLine().getStatusCode() == HTTP_NOT_FOUND){
+                return indices;
+            }
+            throw re;
+        }
+        for(JsonObject.Member member: Json.parse(EntityUtils.toString(response.getEntity())).asObject()){
+            indices.add(member.getName());
+        }
+        // Rolling index names sort by period and sequence
+        Collections.sort(indices);
+        return indices;
+    }
+}
@@ -0,0 +1,114 @@
+package com.box.platform.util;
+
+import com.typesafe.config.Config;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+/**
+ * Names of the indices and aliases events are written to and searched in.
+ *
+ * Without rollover everything goes into the single elastic.index.name index. With rollover, events are written
+ * through the write alias into time-based indices named index.name-period-sequence, for example
+ * box-2017.02.06-000001, and searched through the read alias every one of those indices joins.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public final class RollingIndices {
+    private static final String INDEX_CONFIG_PREFIX = "elastic.index.";
+
+    private final String indexName;
+    private final boolean rolloverEnabled;
+    private final RolloverPeriod period;
+    private final String writeAlias;
+    private final String readAlias;
+
+    public RollingIndices(String indexName, boolean rolloverEnabled, RolloverPeriod period, String writeAlias, String readAlias) {
+        this.indexName = indexName;
+        this.rolloverEnabled = rolloverEnabled;
+        this.period = period;
+        this.writeAlias = writeAlias;
+        this.readAlias = readAlias;
+    }
+
+    public static RollingIndices fromConfig(Config config) {
+        return new RollingIndices(
+                config.getString(INDEX_CONFIG_PREFIX + "name"),
+                config.getBoolean(INDEX_CONFIG_PREFIX + "rollover.enabled"),
+                RolloverPeriod.fromConfig(config.getString(INDEX_CONFIG_PREFIX + "rollover.period")),
+                config.getString(INDEX_CONFIG_PREFIX + "rollover.write.alias"),
+                config.getString(INDEX_CONFIG_PREFIX + "rollover.read.alias"));
+    }
+
+    public String getIndexName() {
+        return this.indexName;
+    }
+
+    public boolean isRolloverEnabled() {
+        return this.rolloverEnabled;
+    }
+
+    public RolloverPeriod getPeriod() {
+        return this.period;
+    }
+
+    public String getWriteAlias() {
+        return this.writeAlias;
+    }
+
+    public String getReadAlias() {
+        return this.readAlias;
+    }
+
+    /**
+     * @return the index or alias docs are written to
+     */
+    public String getWriteTarget() {
+        return this.rolloverEnabled ? this.writeAlias : this.indexName;
+    }
+
+    /**
+     * @return the index or alias searches go to
+     */
+    public String getReadTarget() {
+        return this.rolloverEnabled ? this.readAlias : this.indexName;
+    }
+
+    /**
+     * @return the index pattern of the index template, matching every rolling index
+     */
+    public String getTemplatePattern() {
+        return this.indexName + "-*";
+    }
+
+    public LocalDate currentPeriodStart() {
+        return this.period.periodStart(LocalDate.now(ZoneOffset.UTC));
+    }
+
+    public String rollingIndex(LocalDate periodStart, int sequence) {
+        return this.indexName + "-" + this.period.format(periodStart) + "-" + String.format("%06d", sequence);
+    }
+
+    /**
+     * @return the start of the period a rolling index covers, or null if it is not a rolling index
+     */
+    public LocalDate periodStartOf(String rollingIndex) {
+        int sequenceStart = rollingIndex.lastIndexOf('-');
+        if(!rollingIndex.startsWith(this.indexName + "-") || sequenceStart <= this.indexName.length()){
+            return null;
+        }
+        return this.period.parse(rollingIndex.substring(this.indexName.length() + 1, sequenceStart));
+    }
+
+    /**
+     * @return the sequence number of a rolling index within its period, or 0 if it is not a rolling index
+     */
+    public int sequenceOf(String rollingIndex) {
+        try{
+            return Integer.parseInt(rollingIndex.substring(rollingIndex.lastIndexOf('-') + 1));
+        } catch (NumberFormatException nfe){
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.box.platform.util;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * The time span each rolling index covers. Daily and weekly indices are named after the day the period starts on,
+ * weeks start on Monday, monthly indices after the month. All dates are UTC.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public enum RolloverPeriod {
+    DAILY,
+    WEEKLY,
+    MONTHLY;
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyy.MM.dd");
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyy.MM");
+
+    public LocalDate periodStart(LocalDate date) {
+        switch(this){
+            case WEEKLY:
+                return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTHLY:
+                return date.withDayOfMonth(1);
+            default:
+                return date;
+        }
+    }
+
+    public LocalDate nextPeriodStart(LocalDate periodStart) {
+        switch(this){
+            case WEEKLY:
+                return periodStart.plusWeeks(1);
+            case MONTHLY:
+                return periodStart.plusMonths(1);
+            default:
+                return periodStart.plusDays(1);
+        }
+    }
+
+    public String format(LocalDate periodStart) {
+        return this == MONTHLY ? MONTH_FORMAT.format(periodStart) : DAY_FORMAT.format(periodStart);
+    }
+
+    /**
+     * @return the start of the period in an index name, or null if it is not a date of this period
+     */
+    public LocalDate parse(String value) {
+        try{
+            if(this == MONTHLY){
+                return YearMonth.parse(value, MONTH_FORMAT).atDay(1);
+            }
+            return LocalDate.parse(value, DAY_FORMAT);
+        } catch (DateTimeParseException dtpe){
+            return null;
+        }
+    }
+
+    public static RolloverPeriod fromConfig(String value) {
+        return RolloverPeriod.valueOf(value.trim().toUpperCase());
+    }
+}
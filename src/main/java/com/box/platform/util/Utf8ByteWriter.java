@@ -0,0 +1,151 @@
+package com.box.platform.util;
+
+import java.io.Writer;
+
+/**
+ * Writer that encodes characters as UTF-8 straight into a ByteArrayBuilder, without the intermediate char and byte
+ * buffers of an OutputStreamWriter. Also has a json string writer so values do not have to be wrapped in json objects
+ * to be escaped.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class Utf8ByteWriter extends Writer {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ByteArrayBuilder out;
+    private char highSurrogate;
+
+    public Utf8ByteWriter(ByteArrayBuilder out) {
+        this.out = out;
+    }
+
+    public ByteArrayBuilder getBuilder() {
+        return this.out;
+    }
+
+    @Override
+    public void write(int c) {
+        this.writeChar((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        for(int i = offset; i < offset + length; i++){
+            this.writeChar(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String value, int offset, int length) {
+        for(int i = offset; i < offset + length; i++){
+            this.writeChar(value.charAt(i));
+        }
+    }
+
+    @Override
+    public Writer append(CharSequence value) {
+        for(int i = 0; i < value.length(); i++){
+            this.writeChar(value.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Writes the value as a quoted and escaped json string, or null.
+     */
+    public void writeJsonString(String value) {
+        if(value == null){
+            this.writeAscii("null");
+            return;
+        }
+        this.out.write('"');
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            switch(c){
+                case '"':
+                    this.writeAscii("\\\"");
+                    break;
+                case '\\':
+                    this.writeAscii("\\\\");
+                    break;
+                case '\n':
+                    this.writeAscii("\\n");
+                    break;
+                case '\r':
+                    this.writeAscii("\\r");
+                    break;
+                case '\t':
+                    this.writeAscii("\\t");
+                    break;
+                case '\u2028':
+                case '\u2029':
+                    this.writeUnicodeEscape(c);
+                    break;
+                default:
+                    if(c < 0x20){
+                        this.writeUnicodeEscape(c);
+                    } else{
+                        this.writeChar(c);
+                    }
+            }
+        }
+        this.out.write('"');
+    }
+
+    /**
+     * Writes a string that is known to only contain ascii characters, such as json syntax and field names.
+     */
+    public void writeAscii(String value) {
+        for(int i = 0; i < value.length(); i++){
+            this.out.write(value.charAt(i));
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void writeUnicodeEscape(char c) {
+        this.writeAscii("\\u");
+        this.out.write(HEX[(c >> 12) & 0xf]);
+        this.out.write(HEX[(c >> 8) & 0xf]);
+        this.out.write(HEX[(c >> 4) & 0xf]);
+        this.out.write(HEX[c & 0xf]);
+    }
+
+    private void writeChar(char c) {
+        if(this.highSurrogate != 0){
+            char high = this.highSurrogate;
+            this.highSurrogate = 0;
+            if(Character.isLowSurrogate(c)){
+                int codePoint = Character.toCodePoint(high, c);
+                this.out.write(0xf0 | (codePoint >> 18));
+                this.out.write(0x80 | ((codePoint >> 12) & 0x3f));
+                this.out.write(0x80 | ((codePoint >> 6) & 0x3f));
+                this.out.write(0x80 | (codePoint & 0x3f));
+                return;
+            }
+            // Unpaired surrogate
+            this.out.write('?');
+        }
+        if(c < 0x80){
+            this.out.write(c);
+        } else if(c < 0x800){
+            this.out.write(0xc0 | (c >> 6));
+            this.out.write(0x80 | (c & 0x3f));
+        } else if(Character.isHighSurrogate(c)){
+            this.highSurrogate = c;
+        } else if(Character.isLowSurrogate(c)){
+            this.out.write('?');
+        } else{
+            this.out.write(0xe0 | (c >> 12));
+            this.out.write(0x80 | ((c >> 6) & 0x3f));
+            this.out.write(0x80 | (c & 0x3f));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.box.platform.checkpoint;
+
+import junit.framework.TestCase;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class CheckpointStoreTest extends TestCase {
+    // Offset of the stream position in a slot, after the sequence, created_at and position length
+    private static final int POSITION_OFFSET = 8 + 8 + 4;
+
+    private Path directory;
+    private Path path;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("checkpoint-store");
+        this.path = this.directory.resolve("checkpoint.ckpt");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(this.path);
+        Files.deleteIfExists(this.directory);
+    }
+
+    public void testNothingCommittedReadsNull() throws Exception {
+        CheckpointStore store = new CheckpointStore(this.path);
+        assertNull(store.read());
+        store.close();
+    }
+
+    public void testReopenReadsTheLastCommit() throws Exception {
+        CheckpointStore store = new CheckpointStore(this.path);
+        store.commit(new Checkpoint("1152922976252290886", 1480000000000L));
+        store.commit(new Checkpoint("1152922976252290887", 1480000000001L));
+        store.commit(new Checkpoint("1152922976252290888", 1480000000002L));
+        assertEquals(new Checkpoint("1152922976252290888", 1480000000002L), store.read());
+        store.close();
+
+        store = new CheckpointStore(this.path);
+        assertEquals(new Checkpoint("1152922976252290888", 1480000000002L), store.read());
+        store.close();
+    }
+
+    public void testTornNewestSlotFallsBackToThePreviousCheckpoint() throws Exception {
+        CheckpointStore store = new CheckpointStore(this.path);
+        // The first commit goes to slot 1 and the second to slot 0
+        store.commit(new Checkpoint("1152922976252290886", 1480000000000L));
+        store.commit(new Checkpoint("1152922976252290887", 1480000000001L));
+        store.close();
+
+        // A crash in the middle of the second write leaves a position that does not match the CRC
+        RandomAccessFile file = new RandomAccessFile(this.path.toFile(), "rw");
+        try {
+            file.seek(POSITION_OFFSET);
+            file.write('9');
+        } finally {
+            file.close();
+        }
+
+        store = new CheckpointStore(this.path);
+        assertEquals(new Checkpoint("1152922976252290886", 1480000000000L), store.read());
+
+        // The next commit overwrites the torn slot and not the previous checkpoint
+        store.commit(new Checkpoint("1152922976252290888", 1480000000002L));
+        store.close();
+        store = new CheckpointStore(this.path);
+        assertEquals(new Checkpoint("1152922976252290888", 1480000000002L), store.read());
+        store.close();
+    }
+}
@@ -0,0 +1,107 @@
+package com.box.platform.metrics;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+/**
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class IngestMetricsTest extends TestCase {
+
+    public void testMetricsAreSharedByName() {
+        IngestMetrics metrics = new IngestMetrics(1000);
+        Counter counter = metrics.counter("es_docs_indexed_total", "Docs created in Elasticsearch");
+        assertSame(counter, metrics.counter("es_docs_indexed_total", "Docs created in Elasticsearch"));
+        LatencyHistogram histogram = metrics.histogram("es_bulk_latency_ms", "Time for a bulk request to be indexed");
+        assertSame(histogram, metrics.histogram("es_bulk_latency_ms", "Time for a bulk request to be indexed"));
+    }
+
+    public void testGaugeReplacesTheOneRegisteredBefore() {
+        IngestMetrics metrics = new IngestMetrics(1000);
+        metrics.gauge("spool_used_bytes", "Disk space taken by the segments of the event spool", constant(100));
+        metrics.gauge("spool_used_bytes", "Disk space taken by the segments of the event spool", constant(20));
+        assertEquals(20L, metrics.snapshot().get("spool_used_bytes"));
+    }
+
+    public void testPrometheusTextFormat() {
+        IngestMetrics metrics = new IngestMetrics(1000);
+        metrics.counter("es_docs_indexed_total", "Docs created in Elasticsearch").add(5);
+        metrics.histogram("box_fetch_latency_ms", "Time to fetch a chunk of enterprise events from Box").record(10);
+        metrics.gauge("box_stream_lag_ms", "Time between now and the newest created_at read from the event stream", constant(7));
+        metrics.registerMailbox("/user/elasticsearch-producer", constant(3));
+
+        String rendered = metrics.renderPrometheus();
+        assertTrue(rendered.contains("# HELP es_docs_indexed_total Docs created in Elasticsearch\n"));
+        assertTrue(rendered.contains("# TYPE es_docs_indexed_total counter\nes_docs_indexed_total 5\n"));
+        assertTrue(rendered.contains("# TYPE box_fetch_latency_ms summary\n"));
+        assertTrue(rendered.contains("\nbox_fetch_latency_ms{quantile=\"0.5\"} "));
+        assertTrue(rendered.contains("\nbox_fetch_latency_ms_count 1\n"));
+        assertTrue(rendered.contains("# TYPE box_stream_lag_ms gauge\nbox_stream_lag_ms 7\n"));
+        assertTrue(rendered.contains("\nakka_mailbox_depth{actor=\"/user/elasticsearch-producer\"} 3\n"));
+    }
+
+    public void testSnapshotFlattensEveryMetric() {
+        IngestMetrics metrics = new IngestMetrics(1000);
+        metrics.counter("es_docs_indexed_total", "Docs created in Elasticsearch").add(5);
+        metrics.histogram("box_fetch_latency_ms", "Time to fetch a chunk of enterprise events from Box").record(10);
+        Gauge depth = constant(3);
+        metrics.registerMailbox("/user/elasticsearch-producer", depth);
+
+        Map<String, Object> snapshot = metrics.snapshot();
+        assertEquals(5L, snapshot.get("es_docs_indexed_total"));
+        assertTrue(snapshot.containsKey("es_docs_indexed_total_per_second"));
+        assertEquals(1L, snapshot.get("box_fetch_latency_ms_count"));
+        assertTrue(snapshot.containsKey("box_fetch_latency_ms_p99"));
+        assertEquals(3L, snapshot.get("akka_mailbox_depth_user_elasticsearch-producer"));
+
+        metrics.unregisterMailbox("/user/elasticsearch-producer", depth);
+        assertFalse(metrics.snapshot().containsKey("akka_mailbox_depth_user_elasticsearch-producer"));
+    }
+
+    public void testSeriesOfATenantAreSharedByName() {
+        IngestMetrics metrics = new IngestMetrics(1000);
+        Counter acme = metrics.counter("es_docs_indexed_total", "Docs created in Elasticsearch", "acme");
+        assertSame(acme, metrics.counter("es_docs_indexed_total", "Docs created in Elasticsearch", "acme"));
+        assertNotSame(acme, metrics.counter("es_docs_indexed_total", "Docs created in Elasticsearch", "globex"));
+        assertNotSame(acme, metrics.counter("es_docs_indexed_total", "Docs created in Elasticsearch"));
+    }
+
+    public void testPrometheusReportsOneMetricWithATenantLabel() {
+        IngestMetrics metrics = new IngestMetrics(1000);
+        metrics.counter("es_docs_indexed_total", "Docs created in Elasticsearch", "acme").add(3);
+        metrics.counter("es_docs_indexed_total", "Docs created in Elasticsearch", "globex").add(4);
+        metrics.counter("es_docs_indexed_total", "Docs created in Elasticsearch").add(5);
+        metrics.histogram("box_fetch_latency_ms", "Time to fetch a chunk of enterprise events from Box", "acme").record(10);
+
+        String rendered = metrics.renderPrometheus();
+        assertEquals(rendered.indexOf("# TYPE es_docs_indexed_total counter\n"),
+                rendered.lastIndexOf("# TYPE es_docs_indexed_total counter\n"));
+        assertTrue(rendered.contains("\nes_docs_indexed_total 5\n"));
+        assertTrue(rendered.contains("\nes_docs_indexed_total{tenant=\"acme\"} 3\n"));
+        assertTrue(rendered.contains("\nes_docs_indexed_total{tenant=\"globex\"} 4\n"));
+        assertTrue(rendered.contains("\nbox_fetch_latency_ms{tenant=\"acme\",quantile=\"0.5\"} "));
+        assertTrue(rendered.contains("\nbox_fetch_latency_ms_count{tenant=\"acme\"} 1\n"));
+    }
+
+    public void testSumAndSnapshotCoverEveryTenant() {
+        IngestMetrics metrics = new IngestMetrics(1000);
+        metrics.gauge("spool_used_bytes", "Disk space taken by the segments of the event spool", "acme", constant(100));
+        metrics.gauge("spool_used_bytes", "Disk space taken by the segments of the event spool", "globex", constant(20));
+        assertEquals(120, metrics.sum("spool_used_bytes"));
+        assertEquals(0, metrics.sum("box_events_fetched_total"));
+
+        Map<String, Object> snapshot = metrics.snapshot();
+        assertEquals(100L, snapshot.get("spool_used_bytes_acme"));
+        assertEquals(20L, snapshot.get("spool_used_bytes_globex"));
+    }
+
+    private static Gauge constant(final long value) {
+        return new Gauge() {
+            public long getValue() {
+                return value;
+            }
+        };
+    }
+}
@@ -0,0 +1,93 @@
+package com.box.platform.parser;
+
+import com.box.sdk.BoxAPIConnection;
+import com.box.sdk.BoxEvent;
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that the docs EnterpriseEventStreamWriter writes while it reads a /events response are byte for byte the
+ * docs EnterpriseEventWriter writes from the BoxEvents of the Box SDK, using the recorded response the benchmarks run
+ * on.
+ *
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class EnterpriseEventStreamWriterTest extends TestCase {
+    private static final String FIXTURE = "/fixtures/enterprise-events.json";
+    // The events are only parsed, the connection never makes a request
+    private static final BoxAPIConnection API = new BoxAPIConnection("test-access-token");
+
+    public void testStreamedDocsMatchSdkDocs() throws IOException {
+        JsonObject response = loadResponse();
+        this.assertSameDocs(response, read(response));
+    }
+
+    public void testStreamedDocsMatchSdkDocsWhenStreamPositionFollowsEntries() throws IOException {
+        JsonObject response = loadResponse();
+        // Docs written before next_stream_position is read are finished once the whole response is read
+        JsonObject reordered = Json.object()
+                .add("chunk_size", response.get("chunk_size"))
+                .add("entries", response.get("entries"))
+                .add("next_stream_position", response.get("next_stream_position"));
+        EnterpriseEventStreamWriter.StreamedChunk chunk = read(reordered);
+        assertEquals(response.getString("next_stream_position", null), chunk.getNextStreamPosition());
+        this.assertSameDocs(response, chunk);
+    }
+
+    public void testChunkSizeAndStreamPositionAreRead() throws IOException {
+        JsonObject response = loadResponse();
+        EnterpriseEventStreamWriter.StreamedChunk chunk = read(response);
+        assertEquals(response.getInt("chunk_size", -1), chunk.getChunkSize());
+        assertEquals(response.getString("next_stream_position", null), chunk.getNextStreamPosition());
+        assertTrue(chunk.getFailedIds().isEmpty());
+    }
+
+    private void assertSameDocs(JsonObject response, EnterpriseEventStreamWriter.StreamedChunk chunk) throws IOException {
+        String nextStreamPosition = response.getString("next_stream_position", null);
+        List<JsonValue> entries = response.get("entries").asArray().values();
+        List<EnterpriseEventDocument> documents = chunk.getDocuments();
+        assertEquals(entries.size(), documents.size());
+        for(int i = 0; i < entries.size(); i++){
+            BoxEvent boxEvent = new BoxEvent(API, entries.get(i).toString());
+            EnterpriseEventDocument expected = EnterpriseEventWriter.write(boxEvent, nextStreamPosition);
+            EnterpriseEventDocument streamed = documents.get(i);
+            assertEquals(expected.getId(), streamed.getId());
+            assertEquals(expected.getType(), streamed.getType());
+            assertEquals(expected.getCreatedAtMillis(), streamed.getCreatedAtMillis());
+            assertEquals(expected.getLogin(), streamed.getLogin());
+            assertEquals(expected.getIpAddress(), streamed.getIpAddress());
+            if(!Arrays.equals(expected.getBody(), streamed.getBody())){
+                assertEquals("Doc of " + expected.getType() + " event " + expected.getId(),
+                        new String(expected.getBody(), StandardCharsets.UTF_8),
+                        new String(streamed.getBody(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static EnterpriseEventStreamWriter.StreamedChunk read(JsonObject response) throws IOException {
+        return EnterpriseEventStreamWriter.read(new ByteArrayInputStream(response.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static JsonObject loadResponse() throws IOException {
+        InputStream fixture = EnterpriseEventStreamWriterTest.class.getResourceAsStream(FIXTURE);
+        assertNotNull("Missing fixture " + FIXTURE, fixture);
+        Reader reader = new InputStreamReader(fixture, StandardCharsets.UTF_8);
+        try {
+            return Json.parse(reader).asObject();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.box.platform.producer;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class BulkFlowControllerTest extends TestCase {
+
+    public void testFixedLimitsWhenNotAdaptive() {
+        BulkFlowController flow = new BulkFlowController(false, 1, 8, 100, 1000, 500);
+        assertEquals(8, flow.getInFlightLimit());
+        assertEquals(1000, flow.getBatchActions());
+        flow.onResponse(System.nanoTime(), 10, true);
+        flow.onResponse(System.nanoTime(), 10, false);
+        assertEquals(8, flow.getInFlightLimit());
+        assertEquals(1000, flow.getBatchActions());
+    }
+
+    public void testFastResponsesRaiseRequestsInFlight() {
+        BulkFlowController flow = new BulkFlowController(true, 1, 4, 100, 1000, 500);
+        assertEquals(1, flow.getInFlightLimit());
+        assertEquals(1000, flow.getBatchActions());
+        for(int i = 0; i < 50; i++){
+            flow.onResponse(System.nanoTime(), 10, false);
+        }
+        assertEquals(4, flow.getInFlightLimit());
+        assertEquals(1000, flow.getBatchActions());
+    }
+
+    public void testSlowResponsesLowerRequestsInFlight() {
+        BulkFlowController flow = new BulkFlowController(true, 1, 16, 100, 1000, 500);
+        for(int i = 0; i < 200; i++){
+            flow.onResponse(System.nanoTime(), 10, false);
+        }
+        int inFlightLimit = flow.getInFlightLimit();
+        assertTrue(inFlightLimit >= 8);
+
+        // Requests on the wire before the cut only lower the limit once, the batch size stays
+        long sentAtNanos = System.nanoTime();
+        flow.onResponse(sentAtNanos, 501, false);
+        int lowered = flow.getInFlightLimit();
+        assertTrue(lowered < inFlightLimit);
+        assertTrue(lowered >= inFlightLimit / 2);
+        assertEquals(1000, flow.getBatchActions());
+        flow.onResponse(sentAtNanos, 501, false);
+        assertEquals(lowered, flow.getInFlightLimit());
+
+        // A slow request sent after the cut lowers it again, down to the minimum
+        for(int i = 0; i < 50; i++){
+            flow.onResponse(System.nanoTime(), 501, false);
+        }
+        assertEquals(1, flow.getInFlightLimit());
+        assertEquals(1000, flow.getBatchActions());
+    }
+
+    public void testRejectionHalvesOncePerRoundTrip() {
+        BulkFlowController flow = new BulkFlowController(true, 1, 16, 100, 1000, 500);
+        for(int i = 0; i < 200; i++){
+            flow.onResponse(System.nanoTime(), 10, false);
+        }
+        int inFlightLimit = flow.getInFlightLimit();
+        assertTrue(inFlightLimit >= 8);
+
+        // Both requests were on the wire before the cut, only the first response halves the limits
+        long sentAtNanos = System.nanoTime();
+        flow.onResponse(sentAtNanos, 10, true);
+        assertEquals(inFlightLimit / 2, flow.getInFlightLimit());
+        assertEquals(500, flow.getBatchActions());
+        flow.onResponse(sentAtNanos, 10, true);
+        assertEquals(inFlightLimit / 2, flow.getInFlightLimit());
+        assertEquals(500, flow.getBatchActions());
+
+        // A request sent after the cut that is rejected halves them again
+        flow.onResponse(System.nanoTime(), 10, true);
+        assertEquals(250, flow.getBatchActions());
+    }
+
+    public void testRejectionsStopAtTheMinimum() {
+        BulkFlowController flow = new BulkFlowController(true, 2, 16, 100, 1000, 500);
+        for(int i = 0; i < 20; i++){
+            flow.onResponse(System.nanoTime(), 10, true);
+        }
+        assertEquals(2, flow.getInFlightLimit());
+        assertEquals(100, flow.getBatchActions());
+
+        // Each fast response adds min.actions back to the batch size
+        flow.onResponse(System.nanoTime(), 10, false);
+        assertEquals(200, flow.getBatchActions());
+    }
+}
@@ -0,0 +1,29 @@
+package com.box.platform.rollup;
+
+import junit.framework.TestCase;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+/**
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class EventRollupAggregatorTest extends TestCase {
+
+    public void testFlushesElasticsearchNeverSawAreSentAgain() {
+        assertTrue(EventRollupAggregator.wasNotApplied(new ConnectException("Connection refused"), 0));
+        assertTrue(EventRollupAggregator.wasNotApplied(new ConnectTimeoutException("connect timed out"), 0));
+        assertTrue(EventRollupAggregator.wasNotApplied(new IOException("es_rejected_execution_exception"), 429));
+    }
+
+    public void testFlushesElasticsearchMayHaveAppliedAreDropped() {
+        // The upserts may have run before the response was lost, sending them again could count them twice
+        assertFalse(EventRollupAggregator.wasNotApplied(new SocketTimeoutException("Read timed out"), 0));
+        assertFalse(EventRollupAggregator.wasNotApplied(new IOException("Connection reset"), 0));
+        assertFalse(EventRollupAggregator.wasNotApplied(new IOException("Internal Server Error"), 500));
+        assertFalse(EventRollupAggregator.wasNotApplied(new IOException("Bad Request"), 400));
+    }
+}
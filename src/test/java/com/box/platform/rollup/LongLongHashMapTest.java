@@ -0,0 +1,64 @@
+package com.box.platform.rollup;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class LongLongHashMapTest extends TestCase {
+
+    public void testAddToSumsCountsPerKey() {
+        LongLongHashMap map = new LongLongHashMap(4);
+        map.addTo(7L, 1);
+        map.addTo(7L, 2);
+        map.addTo(-3L, 5);
+        assertEquals(3L, map.get(7L));
+        assertEquals(5L, map.get(-3L));
+        assertEquals(0L, map.get(8L));
+        assertEquals(2, map.size());
+    }
+
+    public void testKeyZeroIsKeptApartFromFreeSlots() {
+        LongLongHashMap map = new LongLongHashMap(4);
+        assertTrue(map.isEmpty());
+        map.addTo(0L, 4);
+        map.addTo(0L, 1);
+        assertEquals(5L, map.get(0L));
+        assertEquals(1, map.size());
+        assertFalse(map.isEmpty());
+
+        Map<Long, Long> visited = visit(map);
+        assertEquals(1, visited.size());
+        assertEquals(Long.valueOf(5L), visited.get(0L));
+    }
+
+    public void testGrowsPastExpectedSize() {
+        LongLongHashMap map = new LongLongHashMap(2);
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        for(long i = 0; i < 10000; i++){
+            // Keys like the packed rollup keys, which differ in a few middle bits
+            long key = i << 32;
+            map.addTo(key, i + 1);
+            expected.put(key, i + 1);
+        }
+        assertEquals(expected.size(), map.size());
+        for(Map.Entry<Long, Long> entry: expected.entrySet()){
+            assertEquals(entry.getValue().longValue(), map.get(entry.getKey()));
+        }
+        assertEquals(expected, visit(map));
+    }
+
+    private static Map<Long, Long> visit(LongLongHashMap map) {
+        final Map<Long, Long> visited = new HashMap<Long, Long>();
+        map.forEach(new LongLongHashMap.Visitor() {
+            public void visit(long key, long value) {
+                assertNull("Key visited twice: " + key, visited.put(key, value));
+            }
+        });
+        return visited;
+    }
+}
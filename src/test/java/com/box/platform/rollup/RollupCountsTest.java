@@ -0,0 +1,70 @@
+package com.box.platform.rollup;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class RollupCountsTest extends TestCase {
+    // 2017-02-14T18:21:17.250Z
+    private static final long TIME_MILLIS = 1487096477250L;
+    private static final long MINUTE_START = 1487096460000L;
+    private static final long HOUR_START = 1487095200000L;
+
+    public void testCountsAreBucketedByIntervalDimensionAndValue() {
+        RollupCounts counts = new RollupCounts(16);
+        counts.add(RollupInterval.MINUTE, RollupDimension.TYPE, TIME_MILLIS, "LOGIN", 1);
+        counts.add(RollupInterval.MINUTE, RollupDimension.TYPE, TIME_MILLIS + 1000, "LOGIN", 1);
+        counts.add(RollupInterval.HOUR, RollupDimension.TYPE, TIME_MILLIS, "LOGIN", 1);
+        counts.add(RollupInterval.MINUTE, RollupDimension.USER, TIME_MILLIS, "nlee@example.com", 3);
+        counts.add(RollupInterval.MINUTE, RollupDimension.TYPE, TIME_MILLIS + TimeUnit.MINUTES.toMillis(1), "LOGIN", 1);
+
+        Map<String, Long> visited = visit(counts);
+        assertEquals(4, counts.size());
+        assertEquals(4, visited.size());
+        assertEquals(Long.valueOf(2L), visited.get(key(RollupInterval.MINUTE, RollupDimension.TYPE, MINUTE_START, "LOGIN")));
+        assertEquals(Long.valueOf(1L), visited.get(key(RollupInterval.HOUR, RollupDimension.TYPE, HOUR_START, "LOGIN")));
+        assertEquals(Long.valueOf(3L), visited.get(key(RollupInterval.MINUTE, RollupDimension.USER, MINUTE_START, "nlee@example.com")));
+        assertEquals(Long.valueOf(1L), visited.get(key(RollupInterval.MINUTE, RollupDimension.TYPE,
+                MINUTE_START + TimeUnit.MINUTES.toMillis(1), "LOGIN")));
+    }
+
+    public void testTimesBeforeTheEpochAreNotCounted() {
+        RollupCounts counts = new RollupCounts(16);
+        counts.add(RollupInterval.MINUTE, RollupDimension.IP, -1L, "67.188.102.178", 1);
+        assertTrue(counts.isEmpty());
+    }
+
+    public void testAddAllMergesCounts() {
+        RollupCounts counts = new RollupCounts(16);
+        counts.add(RollupInterval.MINUTE, RollupDimension.IP, TIME_MILLIS, "67.188.102.178", 2);
+        RollupCounts failed = new RollupCounts(16);
+        failed.add(RollupInterval.MINUTE, RollupDimension.IP, TIME_MILLIS, "67.188.102.178", 5);
+        failed.add(RollupInterval.HOUR, RollupDimension.IP, TIME_MILLIS, "10.0.0.1", 1);
+
+        counts.addAll(failed);
+        Map<String, Long> visited = visit(counts);
+        assertEquals(2, visited.size());
+        assertEquals(Long.valueOf(7L), visited.get(key(RollupInterval.MINUTE, RollupDimension.IP, MINUTE_START, "67.188.102.178")));
+        assertEquals(Long.valueOf(1L), visited.get(key(RollupInterval.HOUR, RollupDimension.IP, HOUR_START, "10.0.0.1")));
+    }
+
+    private static Map<String, Long> visit(RollupCounts counts) {
+        final Map<String, Long> visited = new HashMap<String, Long>();
+        counts.forEach(new RollupCounts.Visitor() {
+            public void visit(RollupInterval interval, RollupDimension dimension, long bucketStartMillis, String value, long count) {
+                assertNull(visited.put(key(interval, dimension, bucketStartMillis, value), count));
+            }
+        });
+        return visited;
+    }
+
+    private static String key(RollupInterval interval, RollupDimension dimension, long bucketStartMillis, String value) {
+        return interval.getName() + "/" + dimension.getName() + "/" + bucketStartMillis + "/" + value;
+    }
+}
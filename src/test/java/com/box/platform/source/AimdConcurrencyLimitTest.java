@@ -0,0 +1,79 @@
+package com.box.platform.source;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class AimdConcurrencyLimitTest extends TestCase {
+
+    public void testFastResponsesRaiseTheLimitByAboutOnePerRoundTrip() throws InterruptedException {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(1, 4, 100);
+        assertEquals(1, limit.getLimit());
+        limit.acquire();
+        limit.onSuccess(10);
+        assertEquals(2, limit.getLimit());
+
+        // 2 + 1/2 + 1/2.5 stays below 3
+        limit.acquire();
+        limit.acquire();
+        limit.onSuccess(10);
+        limit.onSuccess(10);
+        assertEquals(2, limit.getLimit());
+        assertEquals(0, limit.getInFlight());
+    }
+
+    public void testLimitStaysWithinBounds() throws InterruptedException {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(2, 3, 100);
+        for(int i = 0; i < 50; i++){
+            limit.acquire();
+            limit.onSuccess(1);
+        }
+        assertEquals(3, limit.getLimit());
+
+        for(int i = 0; i < 5; i++){
+            limit.acquire();
+            limit.onThrottled();
+        }
+        assertEquals(2, limit.getLimit());
+    }
+
+    public void testSlowAndFailedRequestsLeaveTheLimit() throws InterruptedException {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(1, 4, 100);
+        limit.acquire();
+        limit.onSuccess(10);
+        limit.acquire();
+        limit.onSuccess(500);
+        limit.acquire();
+        limit.onFailure();
+        assertEquals(2, limit.getLimit());
+        assertEquals(0, limit.getInFlight());
+    }
+
+    public void testAcquireWaitsForARunningRequest() throws InterruptedException {
+        final AimdConcurrencyLimit limit = new AimdConcurrencyLimit(1, 1, 100);
+        limit.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    limit.acquire();
+                    acquired.countDown();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiter.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+
+        limit.onFailure();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(1, limit.getInFlight());
+        waiter.join();
+    }
+}
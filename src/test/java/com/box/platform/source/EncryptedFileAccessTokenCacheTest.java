@@ -0,0 +1,68 @@
+package com.box.platform.source;
+
+import akka.event.NoLogging;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class EncryptedFileAccessTokenCacheTest extends TestCase {
+    private Path directory;
+    private Path file;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("token-cache");
+        this.file = this.directory.resolve("token.cache");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(this.file);
+        Files.deleteIfExists(this.directory);
+    }
+
+    public void testTokensSurviveARestart() throws Exception {
+        EncryptedFileAccessTokenCache cache = new EncryptedFileAccessTokenCache(this.file, "secret", 100, NoLogging.getInstance());
+        cache.put("enterprise-1", "{\"accessToken\":\"token-1\"}");
+
+        cache = new EncryptedFileAccessTokenCache(this.file, "secret", 100, NoLogging.getInstance());
+        assertEquals("{\"accessToken\":\"token-1\"}", cache.get("enterprise-1"));
+    }
+
+    public void testCacheOfAnotherSecretIsIgnored() throws Exception {
+        new EncryptedFileAccessTokenCache(this.file, "secret", 100, NoLogging.getInstance()).put("enterprise-1", "token-1");
+
+        EncryptedFileAccessTokenCache cache = new EncryptedFileAccessTokenCache(this.file, "other", 100, NoLogging.getInstance());
+        assertNull(cache.get("enterprise-1"));
+    }
+
+    public void testDamagedCacheIsIgnored() throws Exception {
+        new EncryptedFileAccessTokenCache(this.file, "secret", 100, NoLogging.getInstance()).put("enterprise-1", "token-1");
+        byte[] cacheBytes = Files.readAllBytes(this.file);
+
+        // Cut short
+        Files.write(this.file, Arrays.copyOf(cacheBytes, cacheBytes.length - 10));
+        assertNull(new EncryptedFileAccessTokenCache(this.file, "secret", 100, NoLogging.getInstance()).get("enterprise-1"));
+
+        // A ciphertext length far beyond the file, which must not be allocated
+        ByteArrayOutputStream damaged = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(damaged);
+        out.write(cacheBytes, 0, 4 + 16 + 12);
+        out.writeInt(Integer.MAX_VALUE);
+        Files.write(this.file, damaged.toByteArray());
+        EncryptedFileAccessTokenCache cache = new EncryptedFileAccessTokenCache(this.file, "secret", 100, NoLogging.getInstance());
+        assertNull(cache.get("enterprise-1"));
+
+        // The damaged file is replaced with the next token
+        cache.put("enterprise-1", "token-2");
+        assertEquals("token-2", new EncryptedFileAccessTokenCache(this.file, "secret", 100, NoLogging.getInstance()).get("enterprise-1"));
+    }
+}
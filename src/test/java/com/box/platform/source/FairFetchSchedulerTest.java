@@ -0,0 +1,103 @@
+package com.box.platform.source;
+
+import com.box.platform.metrics.IngestMetrics;
+import com.box.sdk.BoxEvent;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class FairFetchSchedulerTest extends TestCase {
+    private static final int THREADS_PER_TENANT = 4;
+    private static final int REQUESTS_PER_THREAD = 30;
+
+    public void testRequestsNeverHoldMoreThanTheSlots() throws InterruptedException {
+        FairFetchScheduler scheduler = new FairFetchScheduler(2, new IngestMetrics(TimeUnit.SECONDS.toMillis(10)));
+        RecordingSource source = new RecordingSource();
+        List<Thread> threads = new ArrayList<Thread>();
+        for(int i = 0; i < 3; i++){
+            threads.add(fetch(scheduler.share(source.forTenant("a" + i), 1), REQUESTS_PER_THREAD));
+        }
+        join(threads);
+
+        assertEquals(3 * REQUESTS_PER_THREAD, source.served.size());
+        assertTrue(source.maxConcurrent.get() <= 2);
+        assertEquals(0, scheduler.getSlotsInUse());
+    }
+
+    public void testBusyTenantsShareSlotsByWeight() throws InterruptedException {
+        FairFetchScheduler scheduler = new FairFetchScheduler(1, new IngestMetrics(TimeUnit.SECONDS.toMillis(10)));
+        RecordingSource source = new RecordingSource();
+        EnterpriseEventSource heavy = scheduler.share(source.forTenant("heavy"), 2);
+        EnterpriseEventSource light = scheduler.share(source.forTenant("light"), 1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for(int i = 0; i < THREADS_PER_TENANT; i++){
+            threads.add(fetch(heavy, REQUESTS_PER_THREAD));
+            threads.add(fetch(light, REQUESTS_PER_THREAD));
+        }
+        join(threads);
+
+        // Both tenants have a backlog for the first half of the requests, the heavy one should get two thirds of them
+        List<String> served = source.served;
+        int window = served.size() / 2;
+        int heavyServed = Collections.frequency(served.subList(0, window), "heavy");
+        assertTrue("heavy tenant got " + heavyServed + " of " + window + " slots",
+                heavyServed > window * 0.55 && heavyServed < window * 0.8);
+    }
+
+    private static Thread fetch(final EnterpriseEventSource source, final int requests) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                for(int i = 0; i < requests; i++){
+                    source.getEnterpriseEvents("0", null, null);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void join(List<Thread> threads) throws InterruptedException {
+        for(Thread thread: threads){
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+            assertFalse(thread.isAlive());
+        }
+    }
+
+    // Records which tenant held a slot in the order the requests got one
+    private static final class RecordingSource {
+        private final List<String> served = Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        private EnterpriseEventSource forTenant(final String tenant) {
+            return new EnterpriseEventSource() {
+                public EnterpriseEventChunk getEnterpriseEvents(String streamPosition, Date after, Date before) {
+                    int running = concurrent.incrementAndGet();
+                    while(true){
+                        int max = maxConcurrent.get();
+                        if(running <= max || maxConcurrent.compareAndSet(max, running)){
+                            break;
+                        }
+                    }
+                    served.add(tenant);
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                    concurrent.decrementAndGet();
+                    return new EnterpriseEventChunk(Collections.<BoxEvent>emptyList(), streamPosition, streamPosition, 0, 0);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.box.platform.source;
+
+import akka.event.NoLogging;
+import com.box.platform.metrics.IngestMetrics;
+import com.box.platform.tenant.Tenant;
+import com.box.sdk.BoxEvent;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class RateLimitedEventSourceTest extends TestCase {
+
+    public void testWaitingForASharedSlotIsNotBoxLatency() throws Exception {
+        Config fetchConfig = ConfigFactory.load().getConfig("box.platform.fetch")
+                .withValue("requests.per.second", ConfigValueFactory.fromAnyRef(1000))
+                .withValue("burst", ConfigValueFactory.fromAnyRef(1000))
+                .withValue("target.latency", ConfigValueFactory.fromAnyRef(100));
+        IngestMetrics metrics = new IngestMetrics(TimeUnit.SECONDS.toMillis(10));
+        FairFetchScheduler scheduler = new FairFetchScheduler(1, metrics);
+        final RateLimitedEventSource eventSource = new RateLimitedEventSource(new EnterpriseEventSource() {
+            public EnterpriseEventChunk getEnterpriseEvents(String streamPosition, Date after, Date before) {
+                return new EnterpriseEventChunk(Collections.<BoxEvent>emptyList(), streamPosition, streamPosition, 0, 0);
+            }
+        }, scheduler.share(1), fetchConfig, metrics, Tenant.fromConfig(ConfigFactory.load()).get(0), NoLogging.getInstance());
+
+        // Another tenant holds the only slot for longer than the target latency
+        FairFetchScheduler.Share otherTenant = scheduler.share(1);
+        otherTenant.acquire();
+        Thread fetch = new Thread(new Runnable() {
+            public void run() {
+                eventSource.getEnterpriseEvents("0", null, null);
+            }
+        });
+        fetch.start();
+        Thread.sleep(300);
+        otherTenant.release();
+        fetch.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(fetch.isAlive());
+
+        // The request itself was fast, so the concurrency limit of the tenant went up
+        assertEquals(2L, metrics.snapshot().get("box_fetch_concurrency_limit"));
+        assertEquals(0L, metrics.snapshot().get("box_fetches_in_flight"));
+        assertEquals(0L, metrics.snapshot().get("box_fetch_slots_in_use"));
+    }
+}
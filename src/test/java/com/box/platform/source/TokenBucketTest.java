@@ -0,0 +1,44 @@
+package com.box.platform.source;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class TokenBucketTest extends TestCase {
+
+    public void testBurstUpToCapacityDoesNotWait() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1, 5);
+        long startNanos = System.nanoTime();
+        for(int i = 0; i < 5; i++){
+            bucket.acquire();
+        }
+        assertTrue(elapsedMillis(startNanos) < 500);
+    }
+
+    public void testPermitsPastCapacityComeAtTheRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(50, 1);
+        long startNanos = System.nanoTime();
+        // The first permit is saved up, the next 10 take 20 ms each
+        for(int i = 0; i < 11; i++){
+            bucket.acquire();
+        }
+        assertTrue(elapsedMillis(startNanos) >= 180);
+    }
+
+    public void testRateOfZeroDoesNotLimit() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(0, 1);
+        long startNanos = System.nanoTime();
+        for(int i = 0; i < 100000; i++){
+            bucket.acquire();
+        }
+        assertTrue(elapsedMillis(startNanos) < 500);
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,168 @@
+package com.box.platform.spool;
+
+import com.box.platform.checkpoint.Checkpoint;
+import com.box.platform.parser.EnterpriseEventDocument;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class EventSpoolTest extends TestCase {
+    private static final int SEGMENT_BYTES = 1024;
+
+    private Path directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("event-spool");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(this.directory.toFile());
+    }
+
+    public void testAppendNextAcknowledgeReclaim() throws IOException {
+        EventSpool spool = new EventSpool(this.directory, SEGMENT_BYTES, 1024 * 1024);
+        // 300 byte docs, a few to a segment
+        for(int i = 0; i < 10; i++){
+            spool.append(document(i, 300));
+        }
+        Checkpoint checkpoint = new Checkpoint("1152922976252290886", 1480000000000L);
+        spool.append(checkpoint);
+        assertTrue(spool.getSegmentCount() > 1);
+
+        for(int i = 0; i < 10; i++){
+            assertDocument(i, 300, spool.next());
+        }
+        assertEquals(checkpoint, spool.next());
+        assertNull(spool.next());
+
+        // Everything before the segment the position is in is deleted, the segment that is written to stays
+        spool.acknowledge(spool.getReadPosition(), checkpoint);
+        assertEquals(1, spool.getSegmentCount());
+        assertEquals(SEGMENT_BYTES, spool.getUsedBytes());
+        assertEquals(1, this.segmentFiles());
+
+        // Rewinding after the acknowledgement reads nothing again
+        spool.rewind();
+        assertNull(spool.next());
+        spool.close();
+    }
+
+    public void testRewindReadsTheUnacknowledgedRecordsAgain() throws IOException {
+        EventSpool spool = new EventSpool(this.directory, SEGMENT_BYTES, 1024 * 1024);
+        spool.append(document(0, 100));
+        spool.append(new Checkpoint("1", 1L));
+        spool.append(document(1, 100));
+        spool.append(new Checkpoint("2", 2L));
+
+        assertDocument(0, 100, spool.next());
+        assertEquals(new Checkpoint("1", 1L), spool.next());
+        spool.acknowledge(spool.getReadPosition(), new Checkpoint("1", 1L));
+        assertDocument(1, 100, spool.next());
+        assertEquals(new Checkpoint("2", 2L), spool.next());
+
+        spool.rewind();
+        assertDocument(1, 100, spool.next());
+        assertEquals(new Checkpoint("2", 2L), spool.next());
+        assertNull(spool.next());
+        spool.close();
+    }
+
+    public void testReopenReplaysTheUnacknowledgedRecords() throws IOException {
+        EventSpool spool = new EventSpool(this.directory, SEGMENT_BYTES, 1024 * 1024);
+        for(int i = 0; i < 4; i++){
+            spool.append(document(i, 300));
+        }
+        spool.append(new Checkpoint("1", 1L));
+        for(int i = 4; i < 8; i++){
+            spool.append(document(i, 300));
+        }
+        spool.append(new Checkpoint("2", 2L));
+        spool.sync();
+
+        for(int i = 0; i < 4; i++){
+            spool.next();
+        }
+        assertEquals(new Checkpoint("1", 1L), spool.next());
+        spool.acknowledge(spool.getReadPosition(), new Checkpoint("1", 1L));
+        // Read but never acknowledged
+        spool.next();
+        spool.close();
+
+        // A new run starts right after the acknowledged checkpoint
+        spool = new EventSpool(this.directory, SEGMENT_BYTES, 1024 * 1024);
+        for(int i = 4; i < 8; i++){
+            assertDocument(i, 300, spool.next());
+        }
+        assertEquals(new Checkpoint("2", 2L), spool.next());
+        assertNull(spool.next());
+
+        // and appends after what the last run left
+        spool.append(document(8, 300));
+        assertDocument(8, 300, spool.next());
+        spool.close();
+    }
+
+    public void testFullUntilIndexedSegmentsAreReclaimed() throws IOException {
+        EventSpool spool = new EventSpool(this.directory, SEGMENT_BYTES, 3 * SEGMENT_BYTES);
+        assertFalse(spool.isFull());
+        for(int i = 0; i < 6; i++){
+            spool.append(document(i, 300));
+        }
+        Checkpoint checkpoint = new Checkpoint("1", 1L);
+        spool.append(checkpoint);
+        assertEquals(3, spool.getSegmentCount());
+        assertTrue(spool.isFull());
+
+        Object record;
+        while((record = spool.next()) != null){
+            assertNotNull(record);
+        }
+        spool.acknowledge(spool.getReadPosition(), checkpoint);
+        assertFalse(spool.isFull());
+        spool.close();
+    }
+
+    private static EnterpriseEventDocument document(int i, int bodyBytes) {
+        byte[] body = new byte[bodyBytes];
+        Arrays.fill(body, (byte) ('a' + i));
+        return new EnterpriseEventDocument("event-" + i, "LOGIN", 1480000000000L + i, "user" + i + "@example.com",
+                "10.0.0." + i, body);
+    }
+
+    private static void assertDocument(int i, int bodyBytes, Object record) {
+        assertTrue(record instanceof EnterpriseEventDocument);
+        EnterpriseEventDocument document = (EnterpriseEventDocument) record;
+        EnterpriseEventDocument expected = document(i, bodyBytes);
+        assertEquals(expected.getId(), document.getId());
+        assertEquals(expected.getType(), document.getType());
+        assertEquals(expected.getCreatedAtMillis(), document.getCreatedAtMillis());
+        assertEquals(expected.getLogin(), document.getLogin());
+        assertEquals(expected.getIpAddress(), document.getIpAddress());
+        assertEquals(new String(expected.getBody(), StandardCharsets.UTF_8), new String(document.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private int segmentFiles() {
+        return this.directory.toFile().list().length - 1;
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if(children != null){
+            for(File child: children){
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,98 @@
+package com.box.platform.spool;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import com.box.platform.checkpoint.Checkpoint;
+import com.box.platform.parser.EnterpriseEventDocument;
+import com.box.platform.tenant.Tenant;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import junit.framework.TestCase;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Kyle Adams
+ * @email kadams@box.com
+ */
+public class EventSpoolerTest extends TestCase {
+    private static final int SEGMENT_BYTES = 1024;
+
+    private Path directory;
+    private ActorSystem actorSystem;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("event-spooler");
+        this.actorSystem = ActorSystem.create("event-spooler-test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.actorSystem.terminate();
+        Await.result(this.actorSystem.whenTerminated(), Duration.create(10, TimeUnit.SECONDS));
+        EventSpoolTest.deleteRecursively(this.directory.toFile());
+    }
+
+    public void testFullSpoolHoldsBackTheAcknowledgementUntilIndexed() throws Exception {
+        // Room for two segments, a chunk that spills into the second one fills the spool
+        Config config = ConfigFactory.load()
+                .withValue("box.platform.config.path", ConfigValueFactory.fromAnyRef(this.directory.toString() + "/"))
+                .withValue("box.platform.spool.segment.bytes", ConfigValueFactory.fromAnyRef(SEGMENT_BYTES))
+                .withValue("box.platform.spool.max.bytes", ConfigValueFactory.fromAnyRef(2 * SEGMENT_BYTES))
+                .withValue("box.platform.spool.replay.max.events.per.second", ConfigValueFactory.fromAnyRef(0));
+        Tenant tenant = Tenant.fromConfig(config).get(0);
+
+        BlockingQueue<Object> producerMessages = new LinkedBlockingQueue<Object>();
+        BlockingQueue<Object> streamMessages = new LinkedBlockingQueue<Object>();
+        ActorRef producer = this.actorSystem.actorOf(Props.create(Probe.class, producerMessages));
+        ActorRef stream = this.actorSystem.actorOf(Props.create(Probe.class, streamMessages));
+        ActorRef spooler = this.actorSystem.actorOf(Props.create(EventSpooler.class, tenant, producer, null));
+
+        spooler.tell(EventSpooler.STREAM_STARTED, stream);
+        assertEquals(EventSpooler.CHUNK_SPOOLED, streamMessages.poll(5, TimeUnit.SECONDS));
+
+        List<EnterpriseEventDocument> documents = new ArrayList<EnterpriseEventDocument>();
+        for(int i = 0; i < 4; i++){
+            documents.add(new EnterpriseEventDocument("event-" + i, "LOGIN", 1480000000000L + i, new byte[300]));
+        }
+        Checkpoint checkpoint = new Checkpoint("1152922976252290886", 1480000000003L);
+        spooler.tell(new EventSpooler.SpoolChunk(documents, checkpoint), stream);
+
+        // The chunk is replayed to the producer, but the stream gets no acknowledgement while the spool is full
+        Object message;
+        do {
+            message = producerMessages.poll(5, TimeUnit.SECONDS);
+            assertNotNull(message);
+        } while(!(message instanceof Checkpoint));
+        assertEquals(checkpoint, message);
+        assertNull(streamMessages.poll(500, TimeUnit.MILLISECONDS));
+
+        // Once the producer has indexed the chunk its segment is reclaimed and the stream can send the next one
+        spooler.tell(checkpoint, producer);
+        assertEquals(EventSpooler.CHUNK_SPOOLED, streamMessages.poll(5, TimeUnit.SECONDS));
+    }
+
+    public static class Probe extends UntypedActor {
+        private final BlockingQueue<Object> messages;
+
+        public Probe(BlockingQueue<Object> messages) {
+            this.messages = messages;
+        }
+
+        public void onReceive(Object message) throws Throwable {
+            this.messages.add(message);
+        }
+    }
+}